@@ -0,0 +1,75 @@
+package midi.router.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.ShortMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import midi.router.engine.InputFanOut;
+
+/**
+ * Many inputs, each on its own driver thread, all feeding one output.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class ContentionBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SharedOutput {
+		FakeMidiDevice output;
+
+		@Setup
+		public void setup() {
+			output = FakeMidiDevice.output("out", new SharedSink());
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PerThreadInput {
+		FakeMidiDevice input;
+		InputFanOut fanOut;
+		ShortMessage controlChange;
+
+		@Setup
+		public void setup(SharedOutput shared) throws Exception {
+			input = FakeMidiDevice.input("in");
+			fanOut = new InputFanOut(input);
+			fanOut.connect(shared.output.getReceiver());
+			controlChange = new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, 64);
+		}
+
+		@TearDown
+		public void tearDown() {
+			fanOut.close();
+		}
+	}
+
+	@Benchmark
+	public void manyToOne(PerThreadInput in) {
+		in.input.push(in.controlChange, -1);
+	}
+
+	// Drivers serialise sends to a port, model that with a lock
+	private static class SharedSink extends CountingReceiver {
+		@Override
+		public synchronized void send(javax.sound.midi.MidiMessage message, long timeStamp) {
+			super.send(message, timeStamp);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package midi.router.benchmarks;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Output sink that touches every message the way a real driver would read it,
+ * so the JIT cannot throw the routing work away.
+ */
+public class CountingReceiver implements Receiver {
+	public volatile long checksum;
+	public long count;
+
+	@Override
+	public void send(MidiMessage message, long timeStamp) {
+		count++;
+		if (message instanceof ShortMessage) {
+			checksum += ((ShortMessage) message).getData1();
+		} else {
+			checksum += message.getLength();
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,145 @@
+package midi.router.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+
+/**
+ * In-memory stand-in for a hardware port so the benchmarks run on a headless box
+ * with no MIDI drivers. {@link #push} plays the role of the driver callback.
+ */
+public class FakeMidiDevice implements MidiDevice {
+	private final Info info;
+	private final List<FakeTransmitter> transmitters = new ArrayList<>();
+	private final Receiver sink;
+	private volatile boolean open;
+
+	public FakeMidiDevice(String name, Receiver sink) {
+		this.info = new FakeInfo(name);
+		this.sink = sink;
+	}
+
+	public static FakeMidiDevice input(String name) {
+		return new FakeMidiDevice(name, null);
+	}
+
+	public static FakeMidiDevice output(String name, Receiver sink) {
+		return new FakeMidiDevice(name, sink);
+	}
+
+	/**
+	 * Delivers a message to every transmitter, like a driver thread would.
+	 */
+	public void push(MidiMessage message, long timeStamp) {
+		for (int i = 0; i < transmitters.size(); i++) {
+			Receiver receiver = transmitters.get(i).receiver;
+			if (receiver != null) {
+				receiver.send(message, timeStamp);
+			}
+		}
+	}
+
+	@Override
+	public Info getDeviceInfo() {
+		return info;
+	}
+
+	@Override
+	public void open() throws MidiUnavailableException {
+		open = true;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		transmitters.clear();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public long getMicrosecondPosition() {
+		return -1;
+	}
+
+	@Override
+	public int getMaxReceivers() {
+		return sink == null ? 0 : -1;
+	}
+
+	@Override
+	public int getMaxTransmitters() {
+		return sink == null ? -1 : 0;
+	}
+
+	@Override
+	public Receiver getReceiver() throws MidiUnavailableException {
+		if (sink == null) {
+			throw new MidiUnavailableException("Input only");
+		}
+		final Receiver target = sink;
+		return new Receiver() {
+			@Override
+			public void send(MidiMessage message, long timeStamp) {
+				target.send(message, timeStamp);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public List<Receiver> getReceivers() {
+		return new ArrayList<>();
+	}
+
+	@Override
+	public Transmitter getTransmitter() throws MidiUnavailableException {
+		if (sink != null) {
+			throw new MidiUnavailableException("Output only");
+		}
+		FakeTransmitter transmitter = new FakeTransmitter();
+		transmitters.add(transmitter);
+		return transmitter;
+	}
+
+	@Override
+	public List<Transmitter> getTransmitters() {
+		return new ArrayList<Transmitter>(transmitters);
+	}
+
+	private class FakeTransmitter implements Transmitter {
+		private volatile Receiver receiver;
+
+		@Override
+		public void setReceiver(Receiver receiver) {
+			this.receiver = receiver;
+		}
+
+		@Override
+		public Receiver getReceiver() {
+			return receiver;
+		}
+
+		@Override
+		public void close() {
+			transmitters.remove(this);
+		}
+	}
+
+	private static class FakeInfo extends Info {
+		FakeInfo(String name) {
+			super(name, "midi-router", "Benchmark stand-in", "1.0");
+		}
+	}
+}
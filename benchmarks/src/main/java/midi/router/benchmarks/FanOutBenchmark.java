@@ -0,0 +1,61 @@
+package midi.router.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.ShortMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import midi.router.engine.InputFanOut;
+
+/**
+ * Cost of delivering one message from an input to N outputs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+	@Param({ "1", "4", "16", "64" })
+	public int outputs;
+
+	private FakeMidiDevice input;
+	private InputFanOut fanOut;
+	private CountingReceiver sink;
+	private ShortMessage noteOn;
+
+	@Setup
+	public void setup() throws Exception {
+		input = FakeMidiDevice.input("in");
+		fanOut = new InputFanOut(input);
+		sink = new CountingReceiver();
+		for (int i = 0; i < outputs; i++) {
+			fanOut.connect(FakeMidiDevice.output("out" + i, sink).getReceiver());
+		}
+		noteOn = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+	}
+
+	@TearDown
+	public void tearDown() {
+		fanOut.close();
+	}
+
+	@Benchmark
+	public long route() {
+		input.push(noteOn, -1);
+		return sink.count;
+	}
+}
@@ -0,0 +1,107 @@
+package midi.router.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import midi.router.engine.DevicePool;
+import midi.router.engine.OutputPort;
+import midi.router.stats.LatencyHistogram;
+
+/**
+ * Sixteen inputs sending to one output port, straight to the driver or through
+ * the port's merge stage. Throughput is what JMH reports; the time events
+ * spent in the merge queue, and how often the driver saw an event older than
+ * the one before it, are printed after each iteration.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class MergeBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SharedOutput {
+		@Param({ "false", "true" })
+		boolean merging;
+
+		DevicePool pool;
+		FakeMidiDevice output;
+		OrderCheckingSink sink;
+		OutputPort port;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			pool = new DevicePool();
+			sink = new OrderCheckingSink();
+			output = FakeMidiDevice.output("out", sink);
+			port = pool.acquireOutput(output);
+			port.setMerging(merging);
+		}
+
+		@TearDown(Level.Iteration)
+		public void report() {
+			LatencyHistogram queued = port.getStats().getQueueLatency();
+			System.out.printf("%n  queued p50 %.1f us  p99 %.1f us  out of order %d of %d%n",
+					queued.getValueAtPercentile(50) / 1e3, queued.getValueAtPercentile(99) / 1e3,
+					sink.reordered, sink.count);
+			queued.reset();
+			sink.reordered = 0;
+			sink.count = 0;
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			pool.releaseOutput(output);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PerThreadInput {
+		ShortMessage controlChange;
+
+		@Setup
+		public void setup() throws Exception {
+			controlChange = new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, 64);
+		}
+	}
+
+	// The time stamp carries when the input sent, so the sink can tell what order the driver saw
+	@Benchmark
+	public void sixteenToOne(SharedOutput out, PerThreadInput in) {
+		out.port.send(in.controlChange, System.nanoTime());
+	}
+
+	// The port already lets only one send into the driver at a time
+	private static class OrderCheckingSink extends CountingReceiver {
+		long reordered;
+		private long last = Long.MIN_VALUE;
+
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			super.send(message, timeStamp);
+			if (timeStamp - last < 0) {
+				reordered++;
+			}
+			last = timeStamp;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package midi.router.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.ShortMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import midi.router.engine.InputFanOut;
+import midi.router.engine.Route;
+import midi.router.transform.ChannelRemap;
+import midi.router.transform.MessageFilter;
+import midi.router.transform.ShortMessages;
+import midi.router.transform.TransformChain;
+import midi.router.transform.Transpose;
+import midi.router.transform.VelocityCurve;
+
+/**
+ * Transform chain cost, on its own and inside a routed delivery. Run with
+ * -prof gc to check the hot path stays at zero bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformChainBenchmark {
+	@Param({ "0", "1", "4" })
+	public int stages;
+
+	private TransformChain chain;
+	private FakeMidiDevice input;
+	private InputFanOut fanOut;
+	private CountingReceiver sink;
+	private ShortMessage noteOn;
+	private int packedNoteOn;
+
+	@Setup
+	public void setup() throws Exception {
+		chain = TransformChain.EMPTY;
+		if (stages >= 1) {
+			chain = chain.with(new Transpose(7));
+		}
+		if (stages >= 4) {
+			chain = chain.with(ChannelRemap.single(0, 2)).with(VelocityCurve.gamma(0.7))
+					.with(MessageFilter.blockingStatuses(ShortMessage.ACTIVE_SENSING));
+		}
+
+		input = FakeMidiDevice.input("in");
+		fanOut = new InputFanOut(input);
+		sink = new CountingReceiver();
+		Route route = fanOut.connect(FakeMidiDevice.output("out", sink).getReceiver());
+		route.setTransforms(chain);
+
+		noteOn = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+		packedNoteOn = ShortMessages.pack(noteOn);
+	}
+
+	@TearDown
+	public void tearDown() {
+		fanOut.close();
+	}
+
+	@Benchmark
+	public int chainOnly() {
+		return chain.apply(packedNoteOn);
+	}
+
+	@Benchmark
+	public long routed() {
+		input.push(noteOn, -1);
+		return sink.checksum;
+	}
+}
@@ -0,0 +1,77 @@
+package midi.router.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import midi.router.engine.InputFanOut;
+import midi.router.engine.Route;
+import midi.router.engine.RoutingEngine;
+
+/**
+ * Cost of making and breaking a cable with N routes already live, both on the
+ * bare fan-out and through the RoutingEngine round trip the GUI pays.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WiringBenchmark {
+	@Param({ "0", "16", "64" })
+	public int existingRoutes;
+
+	private InputFanOut fanOut;
+	private FakeMidiDevice output;
+	private RoutingEngine engine;
+	private FakeMidiDevice engineInput;
+	private FakeMidiDevice engineOutput;
+
+	@Setup
+	public void setup() throws Exception {
+		CountingReceiver sink = new CountingReceiver();
+		fanOut = new InputFanOut(FakeMidiDevice.input("in"));
+		output = FakeMidiDevice.output("out", sink);
+		for (int i = 0; i < existingRoutes; i++) {
+			fanOut.connect(output.getReceiver());
+		}
+
+		engine = new RoutingEngine();
+		engineInput = FakeMidiDevice.input("engine in");
+		engineOutput = FakeMidiDevice.output("engine out", sink);
+		for (int i = 0; i < existingRoutes; i++) {
+			engine.connect(engineInput, FakeMidiDevice.output("engine out " + i, sink)).get();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		engine.close();
+	}
+
+	@Benchmark
+	public Route connectAndDisconnect() throws Exception {
+		Route route = fanOut.connect(output.getReceiver());
+		route.close();
+		return route;
+	}
+
+	@Benchmark
+	public Route engineConnectAndDisconnect() throws Exception {
+		Route route = engine.connect(engineInput, engineOutput).get();
+		engine.disconnect(route).get();
+		return route;
+	}
+}
@@ -4,24 +4,97 @@ import javax.sound.midi.*;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
-import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import midi.router.capture.CaptureLog;
+import midi.router.capture.CaptureReader;
+import midi.router.engine.BufferSettings;
+import midi.router.engine.ClockGenerator;
+import midi.router.engine.CoalesceSettings;
+import midi.router.engine.DeviceEntry;
+import midi.router.engine.OutputPort;
+import midi.router.engine.OverflowPolicy;
+import midi.router.engine.Route;
+import midi.router.engine.RoutingEngine;
+import midi.router.engine.RoutingListener;
+import midi.router.engine.Scene;
+import midi.router.engine.ShardPool;
+import midi.router.engine.SceneTrigger;
+import midi.router.engine.Session;
+import midi.router.graph.Activity;
+import midi.router.graph.Edge;
+import midi.router.graph.GraphModel;
+import midi.router.graph.Node;
+import midi.router.graph.Port;
+import midi.router.headless.PeerSpec;
+import midi.router.headless.RoutingConfig;
+import midi.router.net.NetworkPeer;
+import midi.router.player.LoadGenerator;
+import midi.router.player.Player;
+import midi.router.player.SmfReader;
+import midi.router.session.SessionStore;
+import midi.router.stats.LatencyHistogram;
+import midi.router.stats.RouteStatsSnapshot;
+import midi.router.transform.RuleTable;
+import midi.router.transform.TransformChain;
+import midi.router.transform.TransformStage;
 
 @SuppressWarnings("serial")
 public class MidiRouter extends JFrame {
+	// Shared by every frame, painting allocates none of these
+	private static final Color BACKGROUND = new Color(40, 42, 47);
+	private static final Color TEXT = new Color(255, 255, 255);
+	private static final Color CONNECTION = new Color(0, 204, 255, 150);
+	private static final Color CENTER_FILL = new Color(255, 255, 255);
+	private static final Color CENTER_BORDER = new Color(0, 150, 255);
+	private static final Color OVERLAY = new Color(160, 200, 220);
+	private static final Color NODE_FILL = new Color(45, 48, 56);
+	private static final Color NODE_BORDER = new Color(70, 73, 82);
+	private static final Color NODE_TEXT = new Color(200, 200, 200);
+	private static final Color IN_PORT = new Color(0, 150, 255);
+	private static final Color OUT_PORT = new Color(255, 100, 100);
+	private static final Color HOVER = new Color(0, 204, 255);
+	private static final Color LED_ON = new Color(90, 230, 110);
+	private static final Color LED_OFF = new Color(62, 66, 75);
+	private static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 30);
+	private static final Font HEADER_FONT = new Font("Arial", Font.BOLD, 18);
+	private static final Font NODE_FONT = new Font("Arial", Font.PLAIN, 12);
+	private static final Font OVERLAY_FONT = new Font("Arial", Font.PLAIN, 11);
+	private static final Stroke CABLE = new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+	private static final Stroke OUTLINE = new BasicStroke();
+	private static final int METER_FPS = 30;
+
 	private DrawingPanel drawingPanel;
+	private RoutingEngine engine = new RoutingEngine();
+	private ClockGenerator clock = new ClockGenerator(120);
+	private Player player = new Player();
 
 	public MidiRouter() {
 		setTitle("MIDI Router");
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		setSize(1024, 768);
 		setLocationRelativeTo(null);
-		getContentPane().setBackground(new Color(40, 42, 47)); // Updated background color
+		getContentPane().setBackground(BACKGROUND);
 		setResizable(false); // Allow resizing the window
 
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				// Next start picks up the rig where it was left
+				drawingPanel.saveSession(SessionStore.defaultPath());
+				player.stop();
+				engine.close();
+				drawingPanel.closePeers();
+				drawingPanel.closeCapture();
+			}
+		});
+
 		drawingPanel = new DrawingPanel();
 		JScrollPane scrollPane = new JScrollPane(drawingPanel);
 		scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
@@ -40,159 +113,239 @@ public class MidiRouter extends JFrame {
 	}
 
 	private class DrawingPanel extends JPanel {
-		private List<Node> inNodes = new ArrayList<>();
-		private List<Node> outNodes = new ArrayList<>();
+		// The frame is 1024 wide and not resizable
+		private GraphModel graph = new GraphModel(1000);
 		private Point startPoint;
 		private Point currentPoint;
-		private Point endPoint;
 		private boolean isDrawing;
-		private List<Point> connectionCenters = new ArrayList<>();
-		private List<Line2D> connections = new ArrayList<>();
-		private Map<Node, List<Node>> nodeConnections = new HashMap<>();
 		private Node currentInNode;
-		private List<MidiDevice> inputDevices = new ArrayList<>();
-		private List<MidiDevice> outputDevices = new ArrayList<>();
+		private Node hovered;
+		private Map<NetworkPeer, PeerSpec> peers = new LinkedHashMap<>();
+		private CaptureLog capture;
 
-		private Map<Node, Map<Node, ConnectionInfo>> activeConnections = new HashMap<>();
+		// Headers, nodes and connections in view, drawn again only when the graph changes or scrolls
+		private BufferedImage staticLayer;
+		private Rectangle staticView;
+		private boolean staticValid;
+		private final LatencyHistogram frameTimes = new LatencyHistogram();
+		private long lastFrameNanos;
 
-		private class ConnectionInfo {
-			Transmitter transmitter;
-			Receiver receiver;
+		public DrawingPanel() {
+			setBackground(BACKGROUND);
+			setupMidiDevices();
+			setupMouseListeners();
+			setupRoutingListener();
+			engine.getStatsRegistry().registerMBean();
 
-			public ConnectionInfo(Transmitter transmitter, Receiver receiver) {
-				this.transmitter = transmitter;
-				this.receiver = receiver;
-			}
+			// Refresh the latency overlay and the frame time, nothing else changes between frames
+			new javax.swing.Timer(500, e -> {
+				for (Route route : engine.listRoutes()) {
+					Rectangle bounds = overlayBounds(route);
+					if (bounds != null) {
+						repaint(bounds);
+					}
+				}
+				repaint(frameTimeBounds());
+			}).start();
+			new javax.swing.Timer(1000 / METER_FPS, e -> sampleActivity()).start();
+		}
 
-			public void close() {
-				if (transmitter != null) {
-					transmitter.close();
+		// Only reads the counters the MIDI threads bump, and repaints only the meters that changed
+		private void sampleActivity() {
+			long now = System.nanoTime();
+			Rectangle view = getVisibleRect();
+			for (Node node : graph.nodesIn(view)) {
+				MidiDevice device = node.getDevice();
+				if (device == null) {
+					continue;
+				}
+				long total = node.getKind() == Node.Kind.INPUT ? engine.getReceivedCount(device)
+						: engine.getSentCount(device);
+				if (node.getActivity().sample(total, now)) {
+					repaint(node.getBounds());
 				}
-				if (receiver != null) {
-					receiver.close();
+			}
+			for (Route route : engine.listRoutes()) {
+				Edge edge = edgeFor(route);
+				if (edge != null && view.intersects(edge.getMeterBounds())
+						&& edge.getActivity().sample(route.getStats().getMessages(), now)) {
+					repaint(edge.getMeterBounds());
 				}
 			}
 		}
 
-		public DrawingPanel() {
-			setBackground(new Color(40, 42, 47)); // Lighter background for better visibility
-			setupMidiDevices();
-			setupMouseListeners();
+		// The engine owns the routing table, the panel only mirrors it
+		private void setupRoutingListener() {
+			engine.addListener(new RoutingListener() {
+				@Override
+				public void routeAdded(Route route) {
+					SwingUtilities.invokeLater(() -> addConnection(route));
+				}
+
+				@Override
+				public void routeRemoved(Route route) {
+					SwingUtilities.invokeLater(() -> removeConnection(route));
+				}
+
+				@Override
+				public void deviceAdded(DeviceEntry entry) {
+					SwingUtilities.invokeLater(() -> addDeviceNodes(entry));
+				}
+
+				@Override
+				public void deviceRemoved(DeviceEntry entry) {
+					SwingUtilities.invokeLater(() -> removeDeviceNodes(entry));
+				}
+
+				@Override
+				public void sceneSwitched(Scene scene) {
+					SwingUtilities.invokeLater(() -> MidiRouter.this.setTitle("MIDI Router - " + scene.getName()));
+				}
+
+				@Override
+				public void routeFailed(MidiDevice input, MidiDevice output, Exception cause) {
+					cause.printStackTrace();
+					// Show error dialog when MIDI device is unavailable or busy
+					SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(DrawingPanel.this,
+							"Failed to route MIDI device. The device may be busy or unavailable.",
+							"MIDI Routing Error", JOptionPane.ERROR_MESSAGE));
+				}
+			});
 		}
 
 		@Override
 		public Dimension getPreferredSize() {
-			int maxY = Math.max(inNodes.size(), outNodes.size()) * 120 + 100; // Calculate the required height
-			return new Dimension(getWidth(), maxY); // The width is already fixed, so we adjust height only
+			return new Dimension(getWidth(), graph.getHeight()); // The width is already fixed, so we adjust height only
 		}
 
 		private void setupMidiDevices() {
-			try {
-				MidiDevice.Info[] infos = MidiSystem.getMidiDeviceInfo();
-				int inY = 150;
-				int outY = 150;
+			// The internal clock is always there to route, it only ticks while routed
+			engine.addVirtualDevice(clock).thenAccept(entry -> SwingUtilities.invokeLater(() -> addDeviceNodes(entry)));
+			engine.addVirtualDevice(player).thenAccept(entry -> SwingUtilities.invokeLater(() -> addDeviceNodes(entry)));
+			engine.getStatsRegistry().registerPlayer(Player.NAME, player.getStats());
+			loadPeers();
 
-				for (MidiDevice.Info info : infos) {
-					try {
-						MidiDevice device = MidiSystem.getMidiDevice(info);
-						String deviceName = info.getName();
-
-						// Skip some common internal devices
-						if (deviceName.contains("Real Time Sequencer") || deviceName.contains("Gervill")
-								|| deviceName.contains("Java Sound Synthesizer")) {
-							continue;
+			// Discovery runs on the engine's pool, nodes show up as each port is probed
+			engine.scanDevices(entry -> SwingUtilities.invokeLater(() -> addDeviceNodes(entry)))
+					.whenComplete((entries, error) -> SwingUtilities.invokeLater(() -> {
+						if (error != null) {
+							error.printStackTrace();
+							// Create dummy devices if MIDI system is unavailable
+							graph.addNode(Node.Kind.INPUT, "IN: Error Loading MIDI", null);
+							graph.addNode(Node.Kind.OUTPUT, "OUT: Error Loading MIDI", null);
+						} else {
+							if (Files.exists(SessionStore.defaultPath())) {
+								loadSession(SessionStore.defaultPath());
+							}
+							if (Files.exists(SessionStore.defaultScenesPath())) {
+								loadScenes();
+							}
+							// If no devices were found, create some dummy devices for testing
+							if (graph.getNodes(Node.Kind.INPUT).isEmpty()) {
+								graph.addNode(Node.Kind.INPUT, "IN: No MIDI Inputs", null);
+							}
+							if (graph.getNodes(Node.Kind.OUTPUT).isEmpty()) {
+								graph.addNode(Node.Kind.OUTPUT, "OUT: No MIDI Outputs", null);
+							}
 						}
+						revalidate();
+						invalidateStatic();
+					}));
 
-						// For input devices (Transmitters)
-						if (device.getMaxTransmitters() != 0) {
-							inputDevices.add(device);
-							createNode("IN: " + truncateName(deviceName), 200, inY);
-							inY += 120;
-						}
+			// Pick up controllers plugged in mid-show
+			engine.startWatching(2000);
+		}
 
-						// For output devices (Receivers)
-						if (device.getMaxReceivers() != 0) {
-							outputDevices.add(device);
-							createNode("OUT: " + truncateName(deviceName), 800, outY);
-							outY += 120;
-						}
+		private void addDeviceNodes(DeviceEntry entry) {
+			String deviceName = entry.getInfo().getName();
+			MidiDevice device = entry.getDevice();
 
-						device.close();
-					} catch (MidiUnavailableException e) {
-						System.err.println("Error with device: " + info.getName());
-					}
-				}
+			// For input devices (Transmitters)
+			if (entry.isInput() && graph.getNode(Node.Kind.INPUT, device) == null) {
+				graph.removePlaceholders(Node.Kind.INPUT);
+				graph.addNode(Node.Kind.INPUT, "IN: " + truncateName(deviceName), device);
+			}
 
-				// If no devices were found, create some dummy devices for testing
-				if (inNodes.isEmpty()) {
-					createNode("IN: No MIDI Inputs", 200, 150);
-				}
-				if (outNodes.isEmpty()) {
-					createNode("OUT: No MIDI Outputs", 800, 150);
-				}
+			// For output devices (Receivers)
+			if (entry.isOutput() && graph.getNode(Node.Kind.OUTPUT, device) == null) {
+				graph.removePlaceholders(Node.Kind.OUTPUT);
+				graph.addNode(Node.Kind.OUTPUT, "OUT: " + truncateName(deviceName), device);
+			}
+			revalidate();
+			invalidateStatic();
+		}
 
-			} catch (Exception e) {
-				e.printStackTrace();
-				// Create dummy devices if MIDI system is unavailable
-				createNode("IN: Error Loading MIDI", 200, 150);
-				createNode("OUT: Error Loading MIDI", 800, 150);
+		private void removeDeviceNodes(DeviceEntry entry) {
+			// Its routes were already removed by the engine, only the nodes are left
+			for (Node.Kind kind : Node.Kind.values()) {
+				Node node = graph.getNode(kind, entry.getDevice());
+				if (node != null) {
+					graph.removeNode(node);
+					if (node == hovered) {
+						hovered = null;
+					}
+				}
 			}
+			revalidate();
+			invalidateStatic();
 		}
 
 		private void setupMouseListeners() {
 			addMouseListener(new MouseAdapter() {
 				@Override
 				public void mousePressed(MouseEvent e) {
-					// Check for connection removal first
-					for (int i = 0; i < connectionCenters.size(); i++) {
-						if (isClickedOnConnectionCenter(e.getPoint(), connectionCenters.get(i))) {
-							Line2D connection = connections.get(i);
-							Node inNode = findNodeByPoint(connection.getP1());
-							Node outNode = findNodeByPoint(connection.getP2());
-
-							if (inNode != null && outNode != null) {
-								nodeConnections.get(inNode).remove(outNode);
-								stopMidiRouting(inNode, outNode); // Close devices when disconnected
-							}
+					Node node = graph.nodeAt(e.getPoint());
+					Edge edge = node == null ? graph.handleAt(e.getPoint()) : null;
 
-							connectionCenters.remove(i);
-							connections.remove(i);
-							repaint();
-							return;
+					// Right click on a node opens its menu...
+					if (SwingUtilities.isRightMouseButton(e)) {
+						if (node != null && node.getDevice() != null) {
+							if (node.getKind() == Node.Kind.OUTPUT) {
+								showOutputMenu(node, e.getPoint());
+							} else if (node.getDevice() == clock) {
+								showClockMenu(e.getPoint());
+							} else if (node.getDevice() == player) {
+								showPlayerMenu(e.getPoint());
+							} else {
+								showInputMenu(node, e.getPoint());
+							}
+						} else if (edge != null) {
+							// ...and on a connection centre edits the route
+							Route route = engine.findRoute(edge.getInput().getDevice(), edge.getOutput().getDevice());
+							if (route != null) {
+								showRouteMenu(route, e.getPoint());
+							}
+						} else if (node == null) {
+							// Anywhere else: session file menu
+							showSessionMenu(e.getPoint());
 						}
+						return;
 					}
 
-					// Check for starting new connection from input node
-					for (Node node : inNodes) {
-						if (node.contains(e.getPoint())) {
-							currentInNode = node;
-							startPoint = new Point(node.getX() + 100, node.getY());
-							currentPoint = e.getPoint();
-							isDrawing = true;
-							break;
-						}
+					if (edge != null) {
+						// The line goes away once the engine reports the route removed
+						engine.disconnect(edge.getInput().getDevice(), edge.getOutput().getDevice());
+					} else if (node != null && node.getKind() == Node.Kind.INPUT) {
+						// Start a new connection from the input's port
+						currentInNode = node;
+						startPoint = new Point(node.getPort().getX(), node.getPort().getY());
+						currentPoint = e.getPoint();
+						isDrawing = true;
+						repaint(cableBounds());
 					}
 				}
 
 				@Override
 				public void mouseReleased(MouseEvent e) {
 					if (isDrawing && currentInNode != null) {
-						for (Node node : outNodes) {
-							if (node.contains(e.getPoint())) {
-								endPoint = new Point(node.getX() - 100, node.getY());
-								if (!isConnectionExists(currentInNode, node)) {
-									connections.add(new Line2D.Double(startPoint, endPoint));
-									connectionCenters.add(new Point((startPoint.x + endPoint.x) / 2,
-											(startPoint.y + endPoint.y) / 2));
-									nodeConnections.computeIfAbsent(currentInNode, k -> new ArrayList<>()).add(node);
-									startMidiRouting(currentInNode, node); // Start routing when a connection is
-																			// made
-								}
-								break;
-							}
+						Node node = graph.nodeAt(e.getPoint());
+						if (node != null && node.getKind() == Node.Kind.OUTPUT && !graph.isConnected(currentInNode, node)
+								&& currentInNode.getDevice() != null && node.getDevice() != null) {
+							// Routing happens on the engine thread, the line appears when it is live
+							engine.connect(currentInNode.getDevice(), node.getDevice());
 						}
 						isDrawing = false;
-						repaint();
+						repaint(cableBounds());
 					}
 				}
 			});
@@ -200,211 +353,750 @@ public class MidiRouter extends JFrame {
 			addMouseMotionListener(new MouseMotionAdapter() {
 				@Override
 				public void mouseDragged(MouseEvent e) {
+					// Only the strip under the old and the new cable is painted again
 					if (isDrawing) {
+						Rectangle dirty = cableBounds();
 						currentPoint = e.getPoint();
-						repaint();
+						dirty.add(cableBounds());
+						repaint(dirty);
+					}
+				}
+
+				@Override
+				public void mouseMoved(MouseEvent e) {
+					Node node = graph.nodeAt(e.getPoint());
+					if (node != hovered) {
+						if (hovered != null) {
+							repaint(hoverBounds(hovered));
+						}
+						hovered = node;
+						if (node != null) {
+							repaint(hoverBounds(node));
+						}
 					}
 				}
 			});
 		}
 
-		private boolean isClickedOnConnectionCenter(Point clickPoint, Point connectionCenter) {
-			return Math.abs(clickPoint.x - connectionCenter.x) < 10 && Math.abs(clickPoint.y - connectionCenter.y) < 10;
+		private void showOutputMenu(Node node, Point point) {
+			BufferSettings current = engine.getOutputBuffering(node.getDevice());
+			OverflowPolicy currentPolicy = current == null ? null : current.getPolicy();
+
+			JPopupMenu menu = new JPopupMenu();
+			ButtonGroup group = new ButtonGroup();
+			addOutputMenuItem(menu, group, node, "Direct", null, currentPolicy);
+			menu.addSeparator();
+			addOutputMenuItem(menu, group, node, "Buffered, drop oldest", OverflowPolicy.DROP_OLDEST, currentPolicy);
+			addOutputMenuItem(menu, group, node, "Buffered, drop newest", OverflowPolicy.DROP_NEWEST, currentPolicy);
+			addOutputMenuItem(menu, group, node, "Buffered, coalesce controllers", OverflowPolicy.COALESCE,
+					currentPolicy);
+			menu.addSeparator();
+			// Unpaced by default; ticked for a device on a DIN cable, which would overrun at full speed
+			JCheckBoxMenuItem din = new JCheckBoxMenuItem("Pace SysEx to DIN speed",
+					engine.getSysexRate(node.getDevice()) > 0);
+			din.addActionListener(e -> engine.setSysexRate(node.getDevice(),
+					din.isSelected() ? OutputPort.DIN_BYTES_PER_SECOND : 0));
+			menu.add(din);
+			menu.show(this, point.x, point.y);
 		}
 
-		private boolean isConnectionExists(Node inNode, Node outNode) {
-			List<Node> connectedOutNodes = nodeConnections.get(inNode);
-			return connectedOutNodes != null && connectedOutNodes.contains(outNode);
+		private void addOutputMenuItem(JPopupMenu menu, ButtonGroup group, Node node, String label,
+				OverflowPolicy policy, OverflowPolicy currentPolicy) {
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem(label, policy == currentPolicy);
+			item.addActionListener(e -> engine.setOutputBuffering(node.getDevice(),
+					policy == null ? null : new BufferSettings(policy)));
+			group.add(item);
+			menu.add(item);
 		}
 
-		private Node findNodeByPoint(Point2D point) {
-			for (Node node : inNodes) {
-				if (Math.abs(node.getX() + 100 - point.getX()) < 5 && Math.abs(node.getY() - point.getY()) < 5) {
-					return node;
+		private void showSessionMenu(Point point) {
+			JPopupMenu menu = new JPopupMenu();
+			JMenuItem save = new JMenuItem("Save session as...");
+			save.addActionListener(e -> {
+				JFileChooser chooser = new JFileChooser();
+				if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+					saveSession(chooser.getSelectedFile().toPath());
+				}
+			});
+			menu.add(save);
+
+			JMenuItem load = new JMenuItem("Load session...");
+			load.addActionListener(e -> {
+				JFileChooser chooser = new JFileChooser();
+				if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+					loadSession(chooser.getSelectedFile().toPath());
 				}
+			});
+			menu.add(load);
+			menu.addSeparator();
+
+			// Scenes swap the whole graph at once, from here or from a PC/CC on any input
+			JMenu sceneMenu = new JMenu("Scenes");
+			ButtonGroup group = new ButtonGroup();
+			for (Scene scene : engine.getScenes()) {
+				JRadioButtonMenuItem item = new JRadioButtonMenuItem(scene.toString(),
+						scene.getName().equals(engine.getActiveScene()));
+				item.addActionListener(e -> engine.switchScene(scene.getName()));
+				group.add(item);
+				sceneMenu.add(item);
+			}
+			sceneMenu.setEnabled(sceneMenu.getItemCount() > 0);
+			menu.add(sceneMenu);
+
+			JMenuItem saveScene = new JMenuItem("Save routing as scene...");
+			saveScene.addActionListener(e -> saveScene());
+			menu.add(saveScene);
+
+			JMenu deleteMenu = new JMenu("Delete scene");
+			for (Scene scene : engine.getScenes()) {
+				JMenuItem item = new JMenuItem(scene.getName());
+				item.addActionListener(e -> engine.removeScene(scene.getName()).thenRun(this::saveScenes));
+				deleteMenu.add(item);
+			}
+			deleteMenu.setEnabled(deleteMenu.getItemCount() > 0);
+			menu.add(deleteMenu);
+			menu.addSeparator();
+
+			JMenuItem addPeer = new JMenuItem("Add network peer...");
+			addPeer.addActionListener(e -> addPeer());
+			menu.add(addPeer);
+			JMenu removePeer = new JMenu("Remove network peer");
+			for (NetworkPeer peer : new ArrayList<>(peers.keySet())) {
+				JMenuItem item = new JMenuItem(peer.toString());
+				item.addActionListener(e -> {
+					removePeer(peer);
+					savePeers();
+				});
+				removePeer.add(item);
 			}
-			for (Node node : outNodes) {
-				if (Math.abs(node.getX() - 100 - point.getX()) < 5 && Math.abs(node.getY() - point.getY()) < 5) {
-					return node;
+			removePeer.setEnabled(removePeer.getItemCount() > 0);
+			menu.add(removePeer);
+			menu.addSeparator();
+
+			int cores = ShardPool.defaultSize();
+			JCheckBoxMenuItem shard = new JCheckBoxMenuItem("Send to outputs from " + cores + " worker threads",
+					engine.getSharding() > 0);
+			shard.addActionListener(e -> engine.setSharding(shard.isSelected() ? cores : 0));
+			menu.add(shard);
+
+			JMenuItem export = new JMenuItem("Export recording...");
+			export.addActionListener(e -> exportRecording());
+			export.setEnabled(capture != null || Files.exists(CaptureLog.defaultPath()));
+			menu.add(export);
+			menu.show(this, point.x, point.y);
+		}
+
+		private void showInputMenu(Node node, Point point) {
+			MidiDevice device = node.getDevice();
+			JPopupMenu menu = new JPopupMenu();
+			JCheckBoxMenuItem record = new JCheckBoxMenuItem("Record", engine.isTapped(device));
+			record.addActionListener(e -> {
+				if (!record.isSelected()) {
+					engine.setInputTap(device, null);
+					return;
 				}
+				try {
+					engine.setInputTap(device, openCapture().tap(device.getDeviceInfo().getName()));
+				} catch (IOException | IllegalStateException ex) {
+					JOptionPane.showMessageDialog(this, "Could not record: " + ex.getMessage(), "Record",
+							JOptionPane.ERROR_MESSAGE);
+				}
+			});
+			menu.add(record);
+			menu.show(this, point.x, point.y);
+		}
+
+		// Opened on the first input recorded and kept until exit
+		private CaptureLog openCapture() throws IOException {
+			if (capture == null) {
+				capture = CaptureLog.open(CaptureLog.defaultPath(), CaptureLog.DEFAULT_CAPACITY);
 			}
-			return null;
+			return capture;
 		}
 
-		private String truncateName(String name) {
-			return name.length() > 24 ? name.substring(0, 17) + "..." : name;
+		void closeCapture() {
+			if (capture != null) {
+				capture.close();
+			}
+		}
+
+		private void exportRecording() {
+			String minutes = JOptionPane.showInputDialog(this, "Export the last how many minutes?", "10");
+			if (minutes == null) {
+				return;
+			}
+			long since;
+			try {
+				since = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(Long.parseLong(minutes.trim()));
+			} catch (NumberFormatException ex) {
+				JOptionPane.showMessageDialog(this, "Not a number: " + minutes, "Export", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			JFileChooser chooser = new JFileChooser();
+			if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+				return;
+			}
+			try {
+				if (capture != null) {
+					capture.flush();
+				}
+				int count = CaptureLog.exportSmf(CaptureLog.defaultPath(), chooser.getSelectedFile().toPath(), since);
+				JOptionPane.showMessageDialog(this, count + " messages exported", "Export",
+						JOptionPane.INFORMATION_MESSAGE);
+			} catch (IOException ex) {
+				JOptionPane.showMessageDialog(this, "Could not export: " + ex.getMessage(), "Export",
+						JOptionPane.ERROR_MESSAGE);
+			}
+		}
+
+		private void addPeer() {
+			JTextField name = new JTextField("Network " + (peers.size() + 1));
+			JTextField listen = new JTextField(String.valueOf(NetworkPeer.DEFAULT_PORT + peers.size()));
+			JTextField remote = new JTextField();
+			JPanel panel = new JPanel(new GridLayout(0, 1, 0, 2));
+			panel.add(new JLabel("Name"));
+			panel.add(name);
+			panel.add(new JLabel("Listen on UDP port"));
+			panel.add(listen);
+			panel.add(new JLabel("Send to host:port (empty to answer whoever sends first)"));
+			panel.add(remote);
+			if (JOptionPane.showConfirmDialog(this, panel, "Network peer", JOptionPane.OK_CANCEL_OPTION,
+					JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION || name.getText().trim().isEmpty()) {
+				return;
+			}
+			PeerSpec spec;
+			try {
+				String target = remote.getText().trim();
+				if (!target.isEmpty()) {
+					NetworkPeer.parseAddress(target);
+				}
+				spec = new PeerSpec(name.getText().trim(), Integer.parseInt(listen.getText().trim()),
+						target.isEmpty() ? null : target);
+			} catch (IllegalArgumentException ex) {
+				JOptionPane.showMessageDialog(this, "Bad port or address: " + ex.getMessage(), "Network peer",
+						JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			if (startPeer(spec)) {
+				savePeers();
+			}
+		}
+
+		// The IN and OUT nodes appear through the engine's deviceAdded
+		private boolean startPeer(PeerSpec spec) {
+			NetworkPeer peer = spec.create();
+			try {
+				peer.start();
+			} catch (IOException e) {
+				JOptionPane.showMessageDialog(this, "Could not listen on port " + spec.getListenPort() + ": "
+						+ e.getMessage(), "Network peer", JOptionPane.ERROR_MESSAGE);
+				return false;
+			}
+			peers.put(peer, spec);
+			engine.addVirtualDevice(peer.getInput());
+			engine.addVirtualDevice(peer.getOutput());
+			engine.getStatsRegistry().registerPeer(peer.getName(), peer.getStats());
+			return true;
+		}
+
+		private void removePeer(NetworkPeer peer) {
+			peers.remove(peer);
+			engine.removeVirtualDevice(peer.getInput());
+			engine.removeVirtualDevice(peer.getOutput()).thenRun(peer::close);
+			engine.getStatsRegistry().unregisterPeer(peer.getName());
 		}
 
-		private void createNode(String type, int x, int y) {
-			Node node = new Node(x, y, type);
-			if (type.startsWith("IN:")) {
-				inNodes.add(node);
-				nodeConnections.put(node, new ArrayList<>());
-			} else {
-				outNodes.add(node);
+		void closePeers() {
+			for (NetworkPeer peer : peers.keySet()) {
+				peer.close();
 			}
 		}
 
-		private void startMidiRouting(Node inNode, Node outNode) {
-			int inIndex = inNodes.indexOf(inNode);
-			int outIndex = outNodes.indexOf(outNode);
+		// Kept in the headless config syntax, one peer line each
+		private Path peersPath() {
+			return SessionStore.defaultPath().resolveSibling("peers.txt");
+		}
 
-			if (inIndex < 0 || outIndex < 0 || inIndex >= inputDevices.size() || outIndex >= outputDevices.size()) {
+		private void loadPeers() {
+			if (!Files.exists(peersPath())) {
 				return;
 			}
+			try {
+				for (PeerSpec spec : RoutingConfig.load(peersPath()).getPeers()) {
+					startPeer(spec);
+				}
+			} catch (IOException e) {
+				System.err.println("Could not load network peers: " + e);
+			}
+		}
+
+		private void savePeers() {
+			List<String> lines = new ArrayList<>();
+			for (PeerSpec spec : peers.values()) {
+				lines.add(spec.toString());
+			}
+			try {
+				Files.createDirectories(peersPath().getParent());
+				Files.write(peersPath(), lines);
+			} catch (IOException e) {
+				System.err.println("Could not save network peers: " + e);
+			}
+		}
+
+		private void saveScene() {
+			String name = JOptionPane.showInputDialog(this, "Scene name");
+			if (name == null || name.trim().isEmpty()) {
+				return;
+			}
+			String triggerText = JOptionPane.showInputDialog(this,
+					"Switch on (e.g. PC 5, CC 80 ch 16), leave empty for menu only", "");
+			SceneTrigger trigger = null;
+			if (triggerText != null && !triggerText.trim().isEmpty()) {
+				try {
+					trigger = SceneTrigger.parse(triggerText);
+				} catch (IllegalArgumentException ex) {
+					JOptionPane.showMessageDialog(this, ex.getMessage(), "Scene", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+			}
+			SceneTrigger chosen = trigger;
+			engine.captureSession()
+					.thenCompose(session -> engine.putScene(new Scene(name.trim(), chosen, session)))
+					.thenRun(this::saveScenes);
+		}
 
-			MidiDevice inputDevice = inputDevices.get(inIndex);
-			MidiDevice outputDevice = outputDevices.get(outIndex);
+		private void saveScenes() {
+			try {
+				SessionStore.saveScenes(engine.getScenes(), SessionStore.defaultScenesPath());
+			} catch (IOException e) {
+				System.err.println("Could not save scenes: " + e);
+			}
+		}
 
+		private void loadScenes() {
 			try {
-				// Close existing connections if any
-				Map<Node, ConnectionInfo> connections = activeConnections.get(inNode);
-				if (connections != null && connections.containsKey(outNode)) {
-					ConnectionInfo oldConnection = connections.get(outNode);
-					oldConnection.close();
-					connections.remove(outNode);
+				for (Scene scene : SessionStore.loadScenes(SessionStore.defaultScenesPath())) {
+					engine.putScene(scene);
+				}
+			} catch (IOException e) {
+				System.err.println("Could not load scenes: " + e);
+			}
+		}
+
+		void saveSession(Path path) {
+			try {
+				SessionStore.save(engine.captureSession().get(2, TimeUnit.SECONDS), path);
+			} catch (Exception e) {
+				System.err.println("Could not save session to " + path + ": " + e);
+			}
+		}
+
+		// Routes shared with the current rig keep playing, the rest are swapped
+		void loadSession(Path path) {
+			Session session;
+			try {
+				session = SessionStore.load(path);
+			} catch (IOException e) {
+				JOptionPane.showMessageDialog(this, "Could not load session: " + e.getMessage(), "Session",
+						JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			engine.applySession(session);
+		}
+
+		private void showClockMenu(Point point) {
+			JPopupMenu menu = new JPopupMenu();
+			JMenuItem transport = new JMenuItem(clock.isPlaying() ? "Stop" : "Start");
+			transport.addActionListener(e -> {
+				if (clock.isPlaying()) {
+					clock.stop();
+				} else {
+					clock.start();
+				}
+			});
+			menu.add(transport);
+
+			JMenuItem tempo = new JMenuItem(String.format("Tempo (%.1f BPM)...", clock.getBpm()));
+			tempo.addActionListener(e -> {
+				String value = JOptionPane.showInputDialog(this, "Tempo in BPM", String.format("%.1f", clock.getBpm()));
+				if (value != null) {
+					try {
+						clock.setBpm(Double.parseDouble(value.trim()));
+					} catch (NumberFormatException ex) {
+						JOptionPane.showMessageDialog(this, "Not a tempo: " + value, "Clock",
+								JOptionPane.ERROR_MESSAGE);
+					}
+				}
+			});
+			menu.add(tempo);
+			menu.show(this, point.x, point.y);
+		}
+
+		private void showPlayerMenu(Point point) {
+			JPopupMenu menu = new JPopupMenu();
+			JMenuItem file = new JMenuItem("Play MIDI file...");
+			file.addActionListener(e -> {
+				JFileChooser chooser = new JFileChooser();
+				if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+					try {
+						player.play(SmfReader.open(chooser.getSelectedFile().toPath()));
+					} catch (IOException ex) {
+						JOptionPane.showMessageDialog(this, "Could not play: " + ex.getMessage(), "Player",
+								JOptionPane.ERROR_MESSAGE);
+					}
 				}
+			});
+			menu.add(file);
 
-				// Reopen devices if they were closed
-				if (!inputDevice.isOpen()) {
-					inputDevice.open();
+			JMenuItem replay = new JMenuItem("Replay recording...");
+			replay.setEnabled(capture != null || Files.exists(CaptureLog.defaultPath()));
+			replay.addActionListener(e -> {
+				String minutes = JOptionPane.showInputDialog(this, "Replay the last how many minutes?", "10");
+				if (minutes == null) {
+					return;
 				}
-				if (!outputDevice.isOpen()) {
-					outputDevice.open();
+				try {
+					long since = System.currentTimeMillis()
+							- TimeUnit.MINUTES.toMillis(Long.parseLong(minutes.trim()));
+					if (capture != null) {
+						capture.flush();
+					}
+					player.play(CaptureReader.open(CaptureLog.defaultPath(), since, true));
+				} catch (NumberFormatException ex) {
+					JOptionPane.showMessageDialog(this, "Not a number: " + minutes, "Player",
+							JOptionPane.ERROR_MESSAGE);
+				} catch (IOException ex) {
+					JOptionPane.showMessageDialog(this, "Could not replay: " + ex.getMessage(), "Player",
+							JOptionPane.ERROR_MESSAGE);
 				}
+			});
+			menu.add(replay);
 
-				// Create new connection
-				Transmitter transmitter = inputDevice.getTransmitter();
-				Receiver receiver = outputDevice.getReceiver();
-				transmitter.setReceiver(receiver);
+			JMenuItem load = new JMenuItem("Load test...");
+			load.addActionListener(e -> startLoadTest());
+			menu.add(load);
+			menu.addSeparator();
 
-				// Store the new connection info
-				activeConnections.computeIfAbsent(inNode, k -> new HashMap<>()).put(outNode,
-						new ConnectionInfo(transmitter, receiver));
+			JMenuItem stop = new JMenuItem(player.isPlaying() ? "Stop " + player.getSource() : "Stop");
+			stop.setEnabled(player.isPlaying());
+			stop.addActionListener(e -> player.stop());
+			menu.add(stop);
+			menu.show(this, point.x, point.y);
+		}
 
-			} catch (MidiUnavailableException e) {
-				// Show error dialog when MIDI device is unavailable or busy
-				JOptionPane.showMessageDialog(this, // Parent component (the JFrame)
-						"Failed to route MIDI device. The device may be busy or unavailable.", "MIDI Routing Error",
-						JOptionPane.ERROR_MESSAGE);
-				e.printStackTrace();
+		private void startLoadTest() {
+			JTextField rate = new JTextField("1000");
+			JTextField channels = new JTextField("16");
+			JTextField seconds = new JTextField("60");
+			JPanel panel = new JPanel(new GridLayout(0, 1, 0, 2));
+			panel.add(new JLabel("Messages per second"));
+			panel.add(rate);
+			panel.add(new JLabel("Channels"));
+			panel.add(channels);
+			panel.add(new JLabel("Seconds (0 until stopped)"));
+			panel.add(seconds);
+			if (JOptionPane.showConfirmDialog(this, panel, "Load test", JOptionPane.OK_CANCEL_OPTION,
+					JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+				return;
+			}
+			try {
+				player.play(new LoadGenerator(Integer.parseInt(rate.getText().trim()),
+						Integer.parseInt(channels.getText().trim()), Integer.parseInt(seconds.getText().trim())));
+			} catch (IllegalArgumentException ex) {
+				JOptionPane.showMessageDialog(this, ex.getMessage(), "Load test", JOptionPane.ERROR_MESSAGE);
 			}
 		}
 
-		private void stopMidiRouting(Node inNode, Node outNode) {
-			Map<Node, ConnectionInfo> connections = activeConnections.get(inNode);
-			if (connections != null) {
-				ConnectionInfo connection = connections.remove(outNode);
-				if (connection != null) {
-					connection.close();
+		private void showRouteMenu(Route route, Point point) {
+			CoalesceSettings current = route.getCoalescing();
+			int currentWindow = current == null ? 0 : current.getWindowMillis();
+
+			JPopupMenu menu = new JPopupMenu();
+			JMenu coalesce = new JMenu("Coalesce controllers");
+			ButtonGroup group = new ButtonGroup();
+			for (int window : new int[] { 0, 2, 5, 10, 20 }) {
+				JRadioButtonMenuItem item = new JRadioButtonMenuItem(window == 0 ? "Off" : window + " ms",
+						window == currentWindow);
+				item.addActionListener(e -> engine.setCoalescing(route,
+						window == 0 ? null : new CoalesceSettings(window)));
+				group.add(item);
+				coalesce.add(item);
+			}
+			menu.add(coalesce);
+
+			JMenuItem rules = new JMenuItem("Split / rules...");
+			rules.addActionListener(e -> editRules(route));
+			menu.add(rules);
+			menu.show(this, point.x, point.y);
+		}
+
+		private void editRules(Route route) {
+			TransformChain chain = route.getTransforms();
+			String current = "";
+			for (TransformStage stage : chain.getStages()) {
+				if (stage instanceof RuleTable) {
+					current = stage.toString();
 				}
+			}
+			JTextArea text = new JTextArea(current, 10, 36);
+			text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+			JPanel panel = new JPanel(new BorderLayout(0, 6));
+			panel.add(new JLabel("<html>One rule per line, first match wins, e.g.<br>"
+					+ "notes ch1 0-59 pass<br>notes drop<br>active-sensing drop<br>any ch10 channel=3</html>"),
+					BorderLayout.NORTH);
+			panel.add(new JScrollPane(text), BorderLayout.CENTER);
+			if (JOptionPane.showConfirmDialog(this, panel, route.getName(), JOptionPane.OK_CANCEL_OPTION,
+					JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+				return;
+			}
 
-				// If no more connections for this input node, remove it from the map
-				if (connections.isEmpty()) {
-					activeConnections.remove(inNode);
+			RuleTable table;
+			try {
+				table = RuleTable.parse(text.getText());
+			} catch (IllegalArgumentException ex) {
+				JOptionPane.showMessageDialog(this, ex.getMessage(), "Rules", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			// Rules replace any earlier rule set in place, other stages stay
+			TransformChain next = TransformChain.EMPTY;
+			boolean placed = false;
+			for (TransformStage stage : chain.getStages()) {
+				if (!(stage instanceof RuleTable)) {
+					next = next.with(stage);
+				} else if (!placed && !table.getRules().isEmpty()) {
+					next = next.with(table);
+					placed = true;
 				}
 			}
+			if (!placed && !table.getRules().isEmpty()) {
+				next = next.with(table);
+			}
+			engine.connect(route.getInput(), route.getOutput(), next);
+		}
+
+		private String truncateName(String name) {
+			return name.length() > 24 ? name.substring(0, 17) + "..." : name;
+		}
+
+		private void addConnection(Route route) {
+			Node inNode = graph.getNode(Node.Kind.INPUT, route.getInput());
+			Node outNode = graph.getNode(Node.Kind.OUTPUT, route.getOutput());
+			if (inNode != null && outNode != null && graph.connect(inNode, outNode) != null) {
+				invalidateStatic();
+			}
+		}
+
+		private void removeConnection(Route route) {
+			Node inNode = graph.getNode(Node.Kind.INPUT, route.getInput());
+			Node outNode = graph.getNode(Node.Kind.OUTPUT, route.getOutput());
+			if (inNode != null && outNode != null && graph.disconnect(inNode, outNode) != null) {
+				invalidateStatic();
+			}
+		}
+
+		private void invalidateStatic() {
+			staticValid = false;
+			repaint();
+		}
+
+		private Rectangle cableBounds() {
+			Rectangle bounds = new Rectangle(startPoint);
+			bounds.add(currentPoint);
+			bounds.grow(4, 4);
+			return bounds;
+		}
+
+		private Rectangle hoverBounds(Node node) {
+			Rectangle bounds = node.getBounds();
+			bounds.grow(3, 3);
+			return bounds;
+		}
 
+		// The strip above a connection centre where its stats are written
+		private Rectangle overlayBounds(Route route) {
+			Edge edge = edgeFor(route);
+			if (edge == null) {
+				return null;
+			}
+			return new Rectangle(0, edge.getCenter().y - 26, getWidth(), 18);
+		}
+
+		private Edge edgeFor(Route route) {
+			Node in = graph.getNode(Node.Kind.INPUT, route.getInput());
+			Node out = graph.getNode(Node.Kind.OUTPUT, route.getOutput());
+			return in == null || out == null ? null : graph.getEdge(in, out);
+		}
+
+		private Rectangle frameTimeBounds() {
+			return new Rectangle(0, 46, 320, 16);
 		}
 
 		@Override
 		protected void paintComponent(Graphics g) {
-			super.paintComponent(g);
+			long start = System.nanoTime();
 			Graphics2D g2d = (Graphics2D) g;
+			Rectangle view = getVisibleRect();
+			if (view.isEmpty()) {
+				return;
+			}
+			double scale = g2d.getTransform().getScaleX();
+			if (!staticValid || !view.equals(staticView) || staticLayer == null
+					|| staticLayer.getWidth() != (int) Math.ceil(view.width * scale)) {
+				renderStaticLayer(view, scale);
+			}
+			// Drawn at device resolution, so it stays sharp on scaled displays
+			g2d.drawImage(staticLayer, view.x, view.y, view.width, view.height, null);
+
 			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 			g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
-			// Draw title and headers
-			g2d.setColor(new Color(255, 255, 255)); // Lighter text for visibility
-			g2d.setFont(new Font("Arial", Font.BOLD, 30));
-			g2d.drawString("MIDI Router", 20, 40);
-
-			g2d.setFont(new Font("Arial", Font.BOLD, 18));
-			g2d.drawString("Input Devices", 20, 80);
-			g2d.drawString("Output Devices", getWidth() - 180, 80);
+			// Draw per-route stats next to each connection centre
+			g2d.setFont(OVERLAY_FONT);
+			g2d.setColor(OVERLAY);
+			FontMetrics overlayMetrics = g2d.getFontMetrics();
+			Rectangle clip = g2d.getClipBounds();
+			for (Route route : engine.listRoutes()) {
+				Rectangle bounds = overlayBounds(route);
+				if (bounds == null || (clip != null && !clip.intersects(bounds))) {
+					continue;
+				}
+				Point center = edgeFor(route).getCenter();
+				String text = route.getStats().snapshot(route.getName()).toOverlayString();
+				g2d.drawString(text, center.x - overlayMetrics.stringWidth(text) / 2, center.y - 12);
+			}
+			g2d.drawString(String.format("frame %.2f ms  p99 %.2f ms", lastFrameNanos / 1e6,
+					frameTimes.getValueAtPercentile(99) / 1e6), 20, 58);
 
-			// Draw connections
-			for (int i = 0; i < connections.size(); i++) {
-				Line2D connection = connections.get(i);
-				g2d.setColor(new Color(0, 204, 255, 150)); // Lighter blue for connections
-				g2d.setStroke(new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-				g2d.draw(connection);
+			Rectangle area = clip != null ? clip.intersection(view) : view;
+			for (Edge edge : graph.edgesIn(area)) {
+				if (area.intersects(edge.getMeterBounds())) {
+					drawActivity(g2d, edge);
+				}
+			}
+			for (Node node : graph.nodesIn(area)) {
+				if (node.getDevice() != null) {
+					drawActivity(g2d, node);
+				}
+			}
 
-				Point center = connectionCenters.get(i);
-				g2d.setColor(new Color(255, 255, 255));
-				g2d.fillOval(center.x - 5, center.y - 5, 10, 10);
-				g2d.setColor(new Color(0, 150, 255));
-				g2d.drawOval(center.x - 5, center.y - 5, 10, 10);
+			if (hovered != null) {
+				g2d.setColor(HOVER);
+				g2d.setStroke(OUTLINE);
+				g2d.draw(hovered.getShape());
 			}
 
 			// Draw active connection
 			if (isDrawing && startPoint != null && currentPoint != null) {
-				g2d.setColor(new Color(0, 204, 255, 150)); // Lighter blue for active connections
-				g2d.setStroke(new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+				g2d.setColor(CONNECTION);
+				g2d.setStroke(CABLE);
 				g2d.drawLine(startPoint.x, startPoint.y, currentPoint.x, currentPoint.y);
 			}
 
-			// Draw nodes
-			for (Node node : inNodes) {
-				node.draw(g2d);
-			}
-			for (Node node : outNodes) {
-				node.draw(g2d);
-			}
+			lastFrameNanos = System.nanoTime() - start;
+			frameTimes.record(lastFrameNanos);
 		}
-	}
 
-	private class Node {
-		private int x, y;
-		private String type;
-		private static final int WIDTH = 200;
-		private static final int HEIGHT = 40;
+		// Only what is in view is drawn, a rig with hundreds of ports costs no more than a small one
+		private void renderStaticLayer(Rectangle view, double scale) {
+			int width = Math.max(1, (int) Math.ceil(view.width * scale));
+			int height = Math.max(1, (int) Math.ceil(view.height * scale));
+			if (staticLayer == null || staticLayer.getWidth() != width || staticLayer.getHeight() != height) {
+				staticLayer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			}
+			Graphics2D g2d = staticLayer.createGraphics();
+			try {
+				g2d.scale(scale, scale);
+				g2d.translate(-view.x, -view.y);
+				g2d.setColor(BACKGROUND);
+				g2d.fill(view);
+				g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+				g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
-		public Node(int x, int y, String type) {
-			this.x = x;
-			this.y = y;
-			this.type = type;
-		}
+				// Draw title and headers
+				g2d.setColor(TEXT);
+				g2d.setFont(TITLE_FONT);
+				g2d.drawString("MIDI Router", 20, 40);
 
-		public void draw(Graphics2D g2d) {
-			// Draw node background
-			g2d.setColor(new Color(45, 48, 56)); // Dark background for nodes
-			RoundRectangle2D.Float rect = new RoundRectangle2D.Float(x - WIDTH / 2, y - HEIGHT / 2, WIDTH, HEIGHT, 10,
-					10);
-			g2d.fill(rect);
+				g2d.setFont(HEADER_FONT);
+				g2d.drawString("Input Devices", 20, 80);
+				g2d.drawString("Output Devices", getWidth() - 180, 80);
 
-			// Draw border
-			g2d.setColor(new Color(70, 73, 82));
-			g2d.draw(rect);
+				// Draw connections
+				g2d.setStroke(CABLE);
+				for (Edge edge : graph.edgesIn(view)) {
+					g2d.setColor(CONNECTION);
+					g2d.draw(edge.getLine());
 
-			// Draw text
-			g2d.setFont(new Font("Arial", Font.PLAIN, 12));
-			FontMetrics fm = g2d.getFontMetrics();
-			g2d.setColor(new Color(200, 200, 200));
-			int textX = x - fm.stringWidth(type) / 2;
-			int textY = y + fm.getHeight() / 3;
-			g2d.drawString(type, textX, textY);
+					Point center = edge.getCenter();
+					int radius = Edge.HANDLE_RADIUS;
+					g2d.setColor(CENTER_FILL);
+					g2d.fillOval(center.x - radius, center.y - radius, radius * 2, radius * 2);
+					g2d.setColor(CENTER_BORDER);
+					g2d.drawOval(center.x - radius, center.y - radius, radius * 2, radius * 2);
+				}
 
-			// Draw connection point
-			if (type.startsWith("IN:")) {
-				g2d.setColor(new Color(0, 150, 255)); // Blue for input nodes
-				g2d.fillOval(x + WIDTH / 2 - 5, y - 5, 10, 10);
-			} else {
-				g2d.setColor(new Color(255, 100, 100)); // Red for output nodes
-				g2d.fillOval(x - WIDTH / 2 - 5, y - 5, 10, 10);
+				// Draw nodes
+				g2d.setStroke(OUTLINE);
+				g2d.setFont(NODE_FONT);
+				FontMetrics fm = g2d.getFontMetrics();
+				for (Node node : graph.nodesIn(view)) {
+					drawNode(g2d, fm, node);
+				}
+			} finally {
+				g2d.dispose();
 			}
+			staticView = view;
+			staticValid = true;
 		}
 
-		public boolean contains(Point p) {
-			return p.x >= x - WIDTH / 2 && p.x <= x + WIDTH / 2 && p.y >= y - HEIGHT / 2 && p.y <= y + HEIGHT / 2;
+		// LED opposite the port, meter along the bottom
+		private void drawActivity(Graphics2D g2d, Node node) {
+			Activity activity = node.getActivity();
+			Rectangle bounds = node.getBounds();
+			int ledX = node.getKind() == Node.Kind.INPUT ? bounds.x + 12 : bounds.x + bounds.width - 12;
+			g2d.setColor(activity.isLit() ? LED_ON : LED_OFF);
+			g2d.fillOval(ledX - 3, node.getY() - 3, 6, 6);
+			drawMeter(g2d, activity, bounds.x + 24, bounds.y + bounds.height - 8, bounds.width - 48, 3);
+		}
+
+		// The handle lights up, the meter sits to its right
+		private void drawActivity(Graphics2D g2d, Edge edge) {
+			Activity activity = edge.getActivity();
+			Point center = edge.getCenter();
+			if (activity.isLit()) {
+				int radius = Edge.HANDLE_RADIUS - 1;
+				g2d.setColor(LED_ON);
+				g2d.fillOval(center.x - radius, center.y - radius, radius * 2, radius * 2);
+			}
+			drawMeter(g2d, activity, center.x + Edge.HANDLE_RADIUS + 6, center.y - 2, Edge.METER_WIDTH, 4);
 		}
 
-		public int getX() {
-			return x;
+		private void drawMeter(Graphics2D g2d, Activity activity, int x, int y, int width, int height) {
+			int step = width / Activity.SEGMENTS;
+			for (int i = 0; i < Activity.SEGMENTS; i++) {
+				g2d.setColor(i < activity.getLevel() ? LED_ON : LED_OFF);
+				g2d.fillRect(x + i * step, y, step - 1, height);
+			}
 		}
 
-		public int getY() {
-			return y;
+		private void drawNode(Graphics2D g2d, FontMetrics fm, Node node) {
+			// Draw node background
+			g2d.setColor(NODE_FILL);
+			g2d.fill(node.getShape());
+
+			// Draw border
+			g2d.setColor(NODE_BORDER);
+			g2d.draw(node.getShape());
+
+			// Draw text
+			g2d.setColor(NODE_TEXT);
+			String label = node.getLabel();
+			g2d.drawString(label, node.getX() - fm.stringWidth(label) / 2, node.getY() + fm.getHeight() / 3);
+
+			// Draw connection point, blue for inputs and red for outputs
+			Port port = node.getPort();
+			g2d.setColor(node.getKind() == Node.Kind.INPUT ? IN_PORT : OUT_PORT);
+			g2d.fillOval(port.getX() - Port.RADIUS, port.getY() - Port.RADIUS, Port.RADIUS * 2, Port.RADIUS * 2);
 		}
 	}
 }
@@ -1,13 +1,23 @@
 package midi.router;
 
+import java.util.Arrays;
+
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
+import midi.router.headless.HeadlessRouter;
+
 public class MidiRouterMain {
 	public static void main(String[] args) {
+		// Hand over before any Swing class is touched
+		if (args.length > 0 && args[0].equals("--headless")) {
+			HeadlessRouter.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
 		SwingUtilities.invokeLater(() -> {
 			try {
-				UIManager.setLookAndFeel(new com.formdev.flatlaf.FlatDarkLaf());
+				UIManager.setLookAndFeel("com.formdev.flatlaf.FlatDarkLaf");
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
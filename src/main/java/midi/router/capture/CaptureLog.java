@@ -0,0 +1,349 @@
+package midi.router.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import midi.router.engine.InputTap;
+
+/**
+ * Flight recorder for everything that reaches the tapped inputs: a memory
+ * mapped ring file of fixed size records, oldest overwritten first.
+ *
+ * Writers claim a record with one atomic increment and fill it in place, so a
+ * tap never takes a lock or makes a system call on the MIDI thread. The file
+ * is written out in full when created, so filling a record never waits on the
+ * file system either. A background thread forces the mapping to disk every
+ * few milliseconds; a crash of the JVM loses nothing, and one of the machine
+ * at most that much.
+ *
+ * Each record holds the wall clock time in nanoseconds, a commit word written
+ * last, the input it came from and up to 18 message bytes. SysEx spans as many
+ * records as it needs. A reader only trusts a record whose commit word matches
+ * its position, which skips torn and stale ones.
+ */
+public final class CaptureLog {
+	public static final int DEFAULT_CAPACITY = 1 << 20; // 32 MB
+
+	private static final int MAGIC = 0x4D524350; // "MRCP"
+	private static final int VERSION = 1;
+	private static final int HEADER = 4096;
+	private static final int RECORD = 32;
+	static final int PAYLOAD = 18;
+	private static final int NAMES_AT = 64;
+	private static final int NAME_SIZE = 32;
+	private static final int MAX_SOURCES = 64;
+	private static final long FORCE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	// Header offsets
+	static final int CAPACITY_AT = 8;
+	static final int SOURCES_AT = 12;
+	private static final int NEXT_AT = 16;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final int capacity;
+	private final AtomicLong next;
+	private final List<String> sources = new ArrayList<>();
+	private final long epochNanos;
+	private final long baseNanos;
+	private final Thread flusher;
+	private volatile boolean open = true;
+
+	private CaptureLog(Path path, FileChannel channel, MappedByteBuffer map, int capacity, long next) {
+		this.path = path;
+		this.channel = channel;
+		this.map = map;
+		this.capacity = capacity;
+		this.next = new AtomicLong(next);
+		this.epochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+		this.baseNanos = System.nanoTime();
+		int count = map.getInt(SOURCES_AT);
+		for (int i = 0; i < count; i++) {
+			sources.add(readName(map, i));
+		}
+		flusher = new Thread(this::flushLoop, "midi-capture-flush");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * @return where the GUI keeps its recording
+	 */
+	public static Path defaultPath() {
+		return Paths.get(System.getProperty("user.home"), ".midi-router", "capture.mrc");
+	}
+
+	/**
+	 * Opens a capture file to append to, creating it with room for
+	 * {@code capacity} records if it does not exist. An existing file keeps its
+	 * own capacity and picks up after its last complete record.
+	 */
+	public static CaptureLog open(Path path, int capacity) throws IOException {
+		boolean exists = Files.exists(path);
+		if (!exists) {
+			Path parent = path.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+		}
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (exists) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				channel.read(header, 0);
+				checkHeader(header);
+				capacity = header.getInt(CAPACITY_AT);
+			} else {
+				preallocate(channel, HEADER + (long) capacity * RECORD);
+			}
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * RECORD);
+			if (!exists) {
+				map.putInt(0, MAGIC);
+				map.putShort(4, (short) VERSION);
+				map.putShort(6, (short) RECORD);
+				map.putInt(CAPACITY_AT, capacity);
+				map.putInt(SOURCES_AT, 0);
+				map.putLong(NEXT_AT, 0);
+			}
+			map.load();
+			return new CaptureLog(path, channel, map, capacity, findEnd(map, capacity));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// Real blocks under every page, a sparse file could stall a writer on allocation
+	private static void preallocate(FileChannel channel, long size) throws IOException {
+		ByteBuffer zeros = ByteBuffer.allocate(1 << 16);
+		for (long position = 0; position < size; position += zeros.capacity()) {
+			zeros.clear();
+			zeros.limit((int) Math.min(zeros.capacity(), size - position));
+			channel.write(zeros, position);
+		}
+	}
+
+	static void checkHeader(ByteBuffer header) throws IOException {
+		if (header.getInt(0) != MAGIC) {
+			throw new IOException("Not a capture file");
+		}
+		int version = header.getShort(4) & 0xFFFF;
+		if (version != VERSION || header.getShort(6) != RECORD) {
+			throw new IOException("Unsupported capture file version " + version);
+		}
+	}
+
+	// The header count lags by up to one flush, complete records past it still count
+	static long findEnd(ByteBuffer map, int capacity) {
+		long end = map.getLong(NEXT_AT);
+		while (map.getInt(offset(end, capacity) + 8) == (int) (end + 1)) {
+			end++;
+		}
+		return end;
+	}
+
+	static int offset(long number, int capacity) {
+		return HEADER + (int) (number % capacity) * RECORD;
+	}
+
+	static String readName(ByteBuffer map, int index) {
+		int at = NAMES_AT + index * NAME_SIZE;
+		byte[] bytes = new byte[map.get(at) & 0xFF];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = map.get(at + 1 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return records written since the file was created, including overwritten ones
+	 */
+	public long getRecordCount() {
+		return next.get();
+	}
+
+	/**
+	 * @return a tap recording into this log under the name of the input
+	 */
+	public InputTap tap(String inputName) {
+		int source = source(inputName);
+		return (message, receivedNanos) -> append(source, message, receivedNanos);
+	}
+
+	private synchronized int source(String name) {
+		int index = sources.indexOf(name);
+		if (index >= 0) {
+			return index;
+		}
+		if (sources.size() == MAX_SOURCES) {
+			throw new IllegalStateException("A capture file holds at most " + MAX_SOURCES + " inputs");
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int length = Math.min(bytes.length, NAME_SIZE - 1);
+		int at = NAMES_AT + sources.size() * NAME_SIZE;
+		map.put(at, (byte) length);
+		for (int i = 0; i < length; i++) {
+			map.put(at + 1 + i, bytes[i]);
+		}
+		sources.add(name);
+		map.putInt(SOURCES_AT, sources.size());
+		return sources.size() - 1;
+	}
+
+	/**
+	 * Records a message. Safe from any number of threads at once; never blocks.
+	 */
+	public void append(int source, MidiMessage message, long receivedNanos) {
+		if (!open) {
+			return;
+		}
+		long time = epochNanos + (receivedNanos - baseNanos);
+		if (message instanceof ShortMessage) {
+			ShortMessage shortMessage = (ShortMessage) message;
+			long number = next.getAndIncrement();
+			int at = start(number, time, source, message.getLength());
+			map.put(at + 14, (byte) shortMessage.getStatus());
+			map.put(at + 15, (byte) shortMessage.getData1());
+			map.put(at + 16, (byte) shortMessage.getData2());
+			map.putInt(at + 8, (int) (number + 1));
+			return;
+		}
+		byte[] bytes = message.getMessage();
+		int length = message.getLength();
+		for (int start = 0; start < length; start += PAYLOAD) {
+			int count = Math.min(PAYLOAD, length - start);
+			long number = next.getAndIncrement();
+			int at = start(number, time, source, count);
+			for (int i = 0; i < count; i++) {
+				map.put(at + 14 + i, bytes[start + i]);
+			}
+			map.putInt(at + 8, (int) (number + 1));
+		}
+	}
+
+	// Everything but the payload and the commit word, which goes in last
+	private int start(long number, long time, int source, int length) {
+		int at = offset(number, capacity);
+		map.putInt(at + 8, 0);
+		map.putLong(at, time);
+		map.put(at + 12, (byte) source);
+		map.put(at + 13, (byte) length);
+		return at;
+	}
+
+	private void flushLoop() {
+		long written = -1;
+		while (open) {
+			long current = next.get();
+			if (current != written) {
+				flush();
+				written = current;
+			}
+			try {
+				TimeUnit.NANOSECONDS.sleep(FORCE_NANOS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Pushes every record written so far to disk.
+	 */
+	public void flush() {
+		map.putLong(NEXT_AT, next.get());
+		map.force();
+	}
+
+	public void close() {
+		if (!open) {
+			return;
+		}
+		open = false;
+		flusher.interrupt();
+		try {
+			flusher.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("Closing capture file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the recorded messages since {@code sinceMillis} (wall clock) as a
+	 * type 1 Standard MIDI File, one track per input, at 120 BPM and 480 ticks a
+	 * beat so a tick is about a millisecond. Clock and other realtime messages
+	 * are left out.
+	 *
+	 * @return how many messages were written
+	 */
+	public static int exportSmf(Path capture, Path smf, long sinceMillis) throws IOException {
+		CaptureReader reader = CaptureReader.open(capture, sinceMillis, false);
+		Sequence sequence;
+		try {
+			sequence = new Sequence(Sequence.PPQ, 480);
+		} catch (InvalidMidiDataException e) {
+			throw new IllegalStateException(e);
+		}
+		String[] names = reader.getSources();
+		Track[] tracks = new Track[names.length];
+		for (int i = 0; i < names.length; i++) {
+			tracks[i] = sequence.createTrack();
+			byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+			tracks[i].add(new MidiEvent(meta(0x03, name), 0));
+		}
+		if (names.length == 0) {
+			sequence.createTrack();
+		}
+		// 500000 microseconds a beat, 120 BPM
+		sequence.getTracks()[0].add(new MidiEvent(meta(0x51, new byte[] { 0x07, (byte) 0xA1, 0x20 }), 0));
+
+		int written = 0;
+		while (reader.advance()) {
+			long tick = reader.getDueNanos() / 1000 * 480 / 500_000;
+			tracks[reader.getSource()].add(new MidiEvent(reader.getMessage(), tick));
+			written++;
+		}
+
+		Files.createDirectories(smf.toAbsolutePath().getParent());
+		MidiSystem.write(sequence, 1, smf.toFile());
+		return written;
+	}
+
+	private static MetaMessage meta(int type, byte[] data) {
+		try {
+			return new MetaMessage(type, data, data.length);
+		} catch (InvalidMidiDataException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
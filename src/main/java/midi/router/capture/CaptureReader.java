@@ -0,0 +1,166 @@
+package midi.router.capture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import midi.router.player.PlaybackSource;
+
+/**
+ * Reads a capture file oldest record first, straight from a read-only mapping
+ * so nothing but the SysEx being put back together is held on the heap. Torn
+ * and overwritten records are skipped. Every message is a new object and may
+ * be kept.
+ */
+public final class CaptureReader implements PlaybackSource {
+	private final ByteBuffer map;
+	private final int capacity;
+	private final long end;
+	private final long since;
+	private final boolean realtime;
+	private final String[] sources;
+	private final ByteArrayOutputStream[] sysex;
+	private long number;
+	private long first = -1;
+	private long time;
+	private int source;
+	private MidiMessage message;
+
+	private CaptureReader(ByteBuffer map, long sinceMillis, boolean realtime) {
+		this.map = map;
+		this.capacity = map.getInt(CaptureLog.CAPACITY_AT);
+		this.end = CaptureLog.findEnd(map, capacity);
+		this.number = Math.max(0, end - capacity);
+		this.since = TimeUnit.MILLISECONDS.toNanos(sinceMillis);
+		this.realtime = realtime;
+		sources = new String[map.getInt(CaptureLog.SOURCES_AT)];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = CaptureLog.readName(map, i);
+		}
+		sysex = new ByteArrayOutputStream[sources.length];
+	}
+
+	/**
+	 * @param sinceMillis wall clock time of the oldest message wanted
+	 * @param realtime whether to include clock and other realtime messages
+	 */
+	public static CaptureReader open(Path capture, long sinceMillis, boolean realtime) throws IOException {
+		ByteBuffer map;
+		try (FileChannel channel = FileChannel.open(capture, StandardOpenOption.READ)) {
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		CaptureLog.checkHeader(map);
+		return new CaptureReader(map, sinceMillis, realtime);
+	}
+
+	/**
+	 * @return names of the recorded inputs, indexed by {@link #getSource}
+	 */
+	public String[] getSources() {
+		return sources.clone();
+	}
+
+	@Override
+	public boolean advance() {
+		for (; number < end; number++) {
+			int at = CaptureLog.offset(number, capacity);
+			if (map.getInt(at + 8) != (int) (number + 1)) {
+				continue;
+			}
+			long recorded = map.getLong(at);
+			int from = map.get(at + 12) & 0xFF;
+			int length = map.get(at + 13) & 0xFF;
+			if (recorded < since || from >= sources.length || length == 0 || length > CaptureLog.PAYLOAD) {
+				continue;
+			}
+			MidiMessage next = decode(at, from, length);
+			if (next != null) {
+				number++;
+				if (first < 0) {
+					first = recorded;
+				}
+				time = recorded;
+				source = from;
+				message = next;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Null until a SysEx message is complete, and for anything left out
+	private MidiMessage decode(int at, int from, int length) {
+		int status = map.get(at + 14) & 0xFF;
+		if (status == SysexMessage.SYSTEM_EXCLUSIVE) {
+			sysex[from] = new ByteArrayOutputStream();
+		}
+		// While a SysEx message is open, 0xF7 is its end byte alone in a record, or
+		// the marker of a continuation message, which carries on with its data
+		boolean continued = status == SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE && sysex[from] != null;
+		if (status == SysexMessage.SYSTEM_EXCLUSIVE || status < 0x80 || continued) {
+			// A continuation whose start was overwritten is dropped
+			if (sysex[from] == null) {
+				return null;
+			}
+			int skip = continued && length > 1 ? 1 : 0;
+			for (int i = skip; i < length; i++) {
+				sysex[from].write(map.get(at + 14 + i));
+			}
+			if (map.get(at + 14 + length - 1) != (byte) ShortMessage.END_OF_EXCLUSIVE) {
+				return null;
+			}
+			byte[] bytes = sysex[from].toByteArray();
+			sysex[from] = null;
+			try {
+				return new SysexMessage(bytes, bytes.length);
+			} catch (InvalidMidiDataException e) {
+				return null;
+			}
+		}
+		if (status == ShortMessage.END_OF_EXCLUSIVE || (status >= 0xF8 && !realtime)) {
+			return null;
+		}
+		try {
+			return new ShortMessage(status, length > 1 ? map.get(at + 15) : 0, length > 2 ? map.get(at + 16) : 0);
+		} catch (InvalidMidiDataException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return wall clock time the current message arrived, in nanoseconds
+	 */
+	public long getTimeNanos() {
+		return time;
+	}
+
+	/**
+	 * @return index of the input the current message came from
+	 */
+	public int getSource() {
+		return source;
+	}
+
+	@Override
+	public long getDueNanos() {
+		return time - first;
+	}
+
+	@Override
+	public MidiMessage getMessage() {
+		return message;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,83 @@
+package midi.router.engine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * The notes a route has left sounding: 16 channels of 128 notes as bits in 32
+ * longs, two words per channel. Tracking is a couple of shifts and never
+ * allocates; it runs on the route's MIDI thread. When the route goes away, is
+ * re-routed through another transform chain or loses its input,
+ * {@link #release} sends a NOTE_OFF for exactly the notes still set instead of
+ * an All Notes Off on every channel.
+ *
+ * The engine thread releases while the MIDI thread tracks, so every word is
+ * changed with a compare-and-set and release takes a word in one swap: a
+ * note is switched off once, by whichever thread took its bit.
+ */
+public final class ActiveNotes {
+	private final AtomicLongArray bits = new AtomicLongArray(32);
+
+	/**
+	 * Records a note on or note off, anything else is ignored.
+	 */
+	public void track(int status, int note, int velocity) {
+		int command = status & 0xF0;
+		if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF) {
+			return;
+		}
+		int word = ((status & 0x0F) << 1) | ((note >> 6) & 1);
+		long bit = 1L << (note & 63);
+		boolean on = command == ShortMessage.NOTE_ON && velocity > 0;
+		long current;
+		long next;
+		do {
+			current = bits.get(word);
+			next = on ? current | bit : current & ~bit;
+		} while (current != next && !bits.compareAndSet(word, current, next));
+	}
+
+	public boolean isOn(int channel, int note) {
+		return (bits.get(((channel & 0x0F) << 1) | ((note >> 6) & 1)) & (1L << (note & 63))) != 0;
+	}
+
+	public int count() {
+		int count = 0;
+		for (int word = 0; word < bits.length(); word++) {
+			count += Long.bitCount(bits.get(word));
+		}
+		return count;
+	}
+
+	/**
+	 * Sends a NOTE_OFF for every sounding note and forgets them.
+	 *
+	 * @return how many note offs were sent
+	 */
+	public int release(Receiver target) {
+		int sent = 0;
+		for (int word = 0; word < bits.length(); word++) {
+			long pending = bits.getAndSet(word, 0);
+			while (pending != 0) {
+				int note = ((word & 1) << 6) | Long.numberOfTrailingZeros(pending);
+				pending &= pending - 1;
+				try {
+					target.send(new ShortMessage(ShortMessage.NOTE_OFF, word >> 1, note, 0), -1);
+					sent++;
+				} catch (InvalidMidiDataException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return sent;
+	}
+
+	public void clear() {
+		for (int i = 0; i < bits.length(); i++) {
+			bits.set(i, 0);
+		}
+	}
+}
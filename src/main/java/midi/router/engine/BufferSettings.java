@@ -0,0 +1,35 @@
+package midi.router.engine;
+
+/**
+ * Queue size and overflow policy for a buffered {@link OutputPort}.
+ */
+public final class BufferSettings {
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final OverflowPolicy policy;
+	private final int capacity;
+
+	public BufferSettings(OverflowPolicy policy, int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Queue capacity must be at least 2");
+		}
+		this.policy = policy;
+		this.capacity = capacity;
+	}
+
+	public BufferSettings(OverflowPolicy policy) {
+		this(policy, DEFAULT_CAPACITY);
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	void applyTo(OutputPort port) {
+		port.enableBuffering(capacity, policy);
+	}
+}
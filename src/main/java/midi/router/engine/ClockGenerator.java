@@ -0,0 +1,147 @@
+package midi.router.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Internal clock master: a virtual input that plays 24 ppqn timing clock from
+ * its own thread while it is open, plus Start/Stop/Continue on demand.
+ *
+ * Each tick deadline is the previous deadline plus one period, never "now plus
+ * a period", so a late wake-up delays one tick without pushing back the ones
+ * after it and the clock does not drift. The thread parks until shortly
+ * before each deadline and spins the rest of the way.
+ */
+public class ClockGenerator extends VirtualMidiDevice {
+	public static final String NAME = "Router Clock";
+	public static final double MIN_BPM = 20;
+	public static final double MAX_BPM = 300;
+
+	private static final int PPQN = 24;
+	// Park accuracy on desktop kernels is well under this
+	private static final long SPIN_NANOS = 500_000;
+
+	private final ShortMessage tick = realtime(ShortMessage.TIMING_CLOCK);
+	private final ShortMessage start = realtime(ShortMessage.START);
+	private final ShortMessage stop = realtime(ShortMessage.STOP);
+	private final ShortMessage resume = realtime(ShortMessage.CONTINUE);
+	private final AtomicLong ticks = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private volatile double bpm;
+	private volatile boolean playing;
+	private volatile Thread thread;
+
+	public ClockGenerator(double bpm) {
+		super(NAME, "Internal MIDI clock");
+		setBpm(bpm);
+	}
+
+	public double getBpm() {
+		return bpm;
+	}
+
+	/**
+	 * Takes effect from the next tick, without a jump in phase.
+	 */
+	public void setBpm(double bpm) {
+		this.bpm = Math.max(MIN_BPM, Math.min(MAX_BPM, bpm));
+	}
+
+	public boolean isPlaying() {
+		return playing;
+	}
+
+	public void start() {
+		playing = true;
+		transmit(start, -1);
+	}
+
+	public void stop() {
+		playing = false;
+		transmit(stop, -1);
+	}
+
+	public void resume() {
+		playing = true;
+		transmit(resume, -1);
+	}
+
+	public long getTicks() {
+		return ticks.get();
+	}
+
+	/**
+	 * @return ticks given up because the thread woke more than a full period late
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	@Override
+	protected void onOpen() {
+		Thread next = new Thread(this::run, "midi-router-clock");
+		next.setDaemon(true);
+		next.setPriority(Thread.MAX_PRIORITY);
+		thread = next;
+		next.start();
+	}
+
+	@Override
+	protected void onClose() {
+		Thread current = thread;
+		thread = null;
+		if (current != null) {
+			LockSupport.unpark(current);
+		}
+	}
+
+	private void run() {
+		Thread self = Thread.currentThread();
+		long deadline = System.nanoTime();
+		while (thread == self) {
+			long period = periodNanos();
+			deadline += period;
+			waitUntil(deadline, self);
+			if (thread != self) {
+				return;
+			}
+			transmit(tick, -1);
+			ticks.incrementAndGet();
+
+			// Stalled for a whole tick or more (GC, laptop sleep): drop the missed ones
+			// rather than firing a burst, and keep the phase of the grid
+			long behind = System.nanoTime() - deadline;
+			if (behind > period) {
+				long missed = behind / period;
+				skipped.addAndGet(missed);
+				deadline += missed * period;
+			}
+		}
+	}
+
+	private void waitUntil(long deadline, Thread self) {
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0 && thread == self) {
+			if (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	private long periodNanos() {
+		return (long) (60_000_000_000L / (bpm * PPQN));
+	}
+
+	private static ShortMessage realtime(int status) {
+		try {
+			return new ShortMessage(status);
+		} catch (InvalidMidiDataException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
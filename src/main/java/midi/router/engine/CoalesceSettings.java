@@ -0,0 +1,46 @@
+package midi.router.engine;
+
+/**
+ * How often a route's {@link Coalescer} flushes, and how many controller
+ * values it may send per flush.
+ */
+public final class CoalesceSettings {
+	public static final int DEFAULT_MAX_PER_FLUSH = 64;
+
+	private final int windowMillis;
+	private final int maxPerFlush;
+
+	public CoalesceSettings(int windowMillis, int maxPerFlush) {
+		if (windowMillis < 1 || maxPerFlush < 1) {
+			throw new IllegalArgumentException("Window and flush size must be positive");
+		}
+		this.windowMillis = windowMillis;
+		this.maxPerFlush = maxPerFlush;
+	}
+
+	public CoalesceSettings(int windowMillis) {
+		this(windowMillis, DEFAULT_MAX_PER_FLUSH);
+	}
+
+	public int getWindowMillis() {
+		return windowMillis;
+	}
+
+	public int getMaxPerFlush() {
+		return maxPerFlush;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CoalesceSettings)) {
+			return false;
+		}
+		CoalesceSettings other = (CoalesceSettings) o;
+		return windowMillis == other.windowMillis && maxPerFlush == other.maxPerFlush;
+	}
+
+	@Override
+	public int hashCode() {
+		return windowMillis * 31 + maxPerFlush;
+	}
+}
@@ -0,0 +1,87 @@
+package midi.router.engine;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import midi.router.transform.PackedShortMessage;
+import midi.router.transform.ShortMessages;
+
+/**
+ * Thins out dense controller streams on one route. CC, poly and channel
+ * pressure and pitch bend land in a {@link ControllerSlots} table and only the
+ * latest value per stream is sent each window, at most
+ * {@link CoalesceSettings#getMaxPerFlush()} at a time. Everything else goes
+ * straight through after pending values are flushed, so a note never overtakes
+ * the controller that came before it.
+ */
+final class Coalescer implements ControllerSlots.Sink, Runnable {
+	private final Route route;
+	private final CoalesceSettings settings;
+	private final ControllerSlots slots = new ControllerSlots();
+	private final ScheduledFuture<?> task;
+
+	// Guarded by this, flushes come from both the timer and the input thread
+	private final PackedShortMessage scratch = new PackedShortMessage();
+
+	Coalescer(Route route, CoalesceSettings settings, ScheduledExecutorService timer) {
+		this.route = route;
+		this.settings = settings;
+		task = timer.scheduleAtFixedRate(this, settings.getWindowMillis(), settings.getWindowMillis(),
+				TimeUnit.MILLISECONDS);
+	}
+
+	CoalesceSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return true if the message was taken into the table
+	 */
+	boolean offer(int packed, long receivedNanos) {
+		int stored = slots.store(packed, receivedNanos);
+		if (stored == ControllerSlots.NOT_STORED) {
+			// Realtime must not wait for a flush, channel messages keep their order
+			if (ShortMessages.isChannelMessage(packed)) {
+				flushAll();
+			}
+			return false;
+		}
+		if (stored == ControllerSlots.REPLACED) {
+			route.getStats().recordCoalesced();
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		if (slots.hasPending()) {
+			synchronized (this) {
+				slots.drain(this, settings.getMaxPerFlush());
+			}
+		}
+	}
+
+	// Always takes the lock: a timer flush clears pending before it has sent
+	// anything, and a note must wait for the values it is still sending
+	void flushAll() {
+		synchronized (this) {
+			slots.drain(this);
+		}
+	}
+
+	@Override
+	public void accept(int packed, long receivedNanos) {
+		scratch.set(packed);
+		// The time the value came in, so a queued output still sends it ahead of the note behind it
+		route.emit(scratch, -1, receivedNanos);
+	}
+
+	/**
+	 * Stops the timer after sending whatever is still pending.
+	 */
+	void close() {
+		task.cancel(false);
+		flushAll();
+	}
+}
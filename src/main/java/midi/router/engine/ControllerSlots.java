@@ -0,0 +1,144 @@
+package midi.router.engine;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sound.midi.ShortMessage;
+
+import midi.router.transform.ShortMessages;
+
+/**
+ * Latest value per controller stream, kept in flat primitive arrays indexed by
+ * channel and controller (or note for poly pressure), with a dirty bitset so a
+ * flush only visits the slots that changed. Each value keeps the time it
+ * reached the router, so a drained value still sorts ahead of anything that
+ * came in after it. Any thread may store; one thread at
+ * a time may drain.
+ */
+public final class ControllerSlots {
+	private static final int CONTROL_CHANGE_BASE = 0;
+	private static final int POLY_PRESSURE_BASE = 16 * 128;
+	private static final int PITCH_BEND_BASE = POLY_PRESSURE_BASE + 16 * 128;
+	private static final int CHANNEL_PRESSURE_BASE = PITCH_BEND_BASE + 16;
+	private static final int SIZE = CHANNEL_PRESSURE_BASE + 16;
+
+	/**
+	 * Receives drained values, implemented by the sender so draining allocates
+	 * nothing.
+	 */
+	public interface Sink {
+		void accept(int packed, long receivedNanos);
+	}
+
+	private final AtomicIntegerArray values = new AtomicIntegerArray(SIZE);
+	private final AtomicLongArray times = new AtomicLongArray(SIZE);
+	private final AtomicLongArray dirty = new AtomicLongArray((SIZE + 63) / 64);
+	private volatile boolean pending;
+
+	/**
+	 * @return the slot for a coalescable message, or -1
+	 */
+	public static int slotOf(int packed) {
+		int channel = packed & 0x0F;
+		switch (packed & 0xF0) {
+		case ShortMessage.CONTROL_CHANGE:
+			return CONTROL_CHANGE_BASE + channel * 128 + ShortMessages.data1(packed);
+		case ShortMessage.POLY_PRESSURE:
+			return POLY_PRESSURE_BASE + channel * 128 + ShortMessages.data1(packed);
+		case ShortMessage.PITCH_BEND:
+			return PITCH_BEND_BASE + channel;
+		case ShortMessage.CHANNEL_PRESSURE:
+			return CHANNEL_PRESSURE_BASE + channel;
+		default:
+			return -1;
+		}
+	}
+
+	public static final int NOT_STORED = -1;
+	public static final int STORED = 0;
+	public static final int REPLACED = 1;
+
+	/**
+	 * Overwrites the stream's pending value.
+	 *
+	 * @return {@link #NOT_STORED} if the message is not a controller stream,
+	 *         {@link #REPLACED} if it superseded a value not yet drained
+	 */
+	public int store(int packed, long receivedNanos) {
+		int slot = slotOf(packed);
+		if (slot < 0) {
+			return NOT_STORED;
+		}
+		times.set(slot, receivedNanos);
+		values.set(slot, packed);
+		int word = slot >>> 6;
+		long bit = 1L << slot;
+		long current = dirty.get(word);
+		while ((current & bit) == 0) {
+			if (dirty.compareAndSet(word, current, current | bit)) {
+				pending = true;
+				return STORED;
+			}
+			current = dirty.get(word);
+		}
+		pending = true;
+		return REPLACED;
+	}
+
+	/**
+	 * False as soon as a drain starts, not once it has finished; a caller that
+	 * must not overtake a drain in progress has to share the drainer's lock.
+	 */
+	public boolean hasPending() {
+		return pending;
+	}
+
+	/**
+	 * Hands every pending value to the sink and clears it.
+	 *
+	 * @return number of values drained
+	 */
+	public int drain(Sink sink) {
+		return drain(sink, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Hands at most {@code limit} pending values to the sink; the rest stay
+	 * pending for the next drain.
+	 *
+	 * @return number of values drained
+	 */
+	public int drain(Sink sink, int limit) {
+		if (!pending) {
+			return 0;
+		}
+		pending = false;
+		int drained = 0;
+		for (int word = 0; word < dirty.length(); word++) {
+			long bits = dirty.getAndSet(word, 0);
+			while (bits != 0) {
+				if (drained == limit) {
+					// Put the unsent streams back, a newer store may have set some already
+					long current = dirty.get(word);
+					while (!dirty.compareAndSet(word, current, current | bits)) {
+						current = dirty.get(word);
+					}
+					pending = true;
+					return drained;
+				}
+				int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				sink.accept(values.get(slot), times.get(slot));
+				drained++;
+			}
+		}
+		return drained;
+	}
+
+	public void clear() {
+		pending = false;
+		for (int word = 0; word < dirty.length(); word++) {
+			dirty.set(word, 0);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package midi.router.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * Cache of every known port and its capabilities. Scans enumerate the
+ * {@link MidiDevice.Info} list and only probe entries that were not there last
+ * time, on a small pool so rigs with dozens of virtual ports come up in
+ * parallel rather than one driver call after another.
+ */
+public class DeviceCatalogue implements AutoCloseable {
+	private final ExecutorService executor;
+	private final Map<DeviceId, DeviceEntry> entries = new ConcurrentHashMap<>();
+
+	public DeviceCatalogue() {
+		int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "midi-router-discovery-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Rescans the system. {@code discovered} is called from discovery threads as
+	 * soon as each new port has been probed; ports already in the catalogue are
+	 * not probed or reported again.
+	 *
+	 * @return every current entry, in system enumeration order
+	 */
+	public CompletableFuture<List<DeviceEntry>> scan(Consumer<DeviceEntry> discovered) {
+		return CompletableFuture.supplyAsync(MidiSystem::getMidiDeviceInfo, executor).thenCompose(infos -> {
+			Map<String, Integer> ordinals = new HashMap<>();
+			Set<DeviceId> seen = new HashSet<>();
+			List<CompletableFuture<DeviceEntry>> pending = new ArrayList<>();
+
+			for (MidiDevice.Info info : infos) {
+				if (MidiDevices.isInternal(info)) {
+					continue;
+				}
+				DeviceId base = DeviceId.of(info, 0);
+				int ordinal = ordinals.merge(base.baseKey(), 1, Integer::sum) - 1;
+				DeviceId id = ordinal == 0 ? base : DeviceId.of(info, ordinal);
+				seen.add(id);
+
+				// Providers hand out new Info objects when a port is replugged, so re-probe those
+				DeviceEntry cached = entries.get(id);
+				if (cached != null && cached.getInfo() == info) {
+					pending.add(CompletableFuture.completedFuture(cached));
+					continue;
+				}
+				pending.add(CompletableFuture.supplyAsync(() -> probe(id, info), executor).thenApply(entry -> {
+					if (entry != null) {
+						entries.put(id, entry);
+						discovered.accept(entry);
+					}
+					return entry;
+				}));
+			}
+			entries.keySet().retainAll(seen);
+
+			return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+				List<DeviceEntry> result = new ArrayList<>(pending.size());
+				for (CompletableFuture<DeviceEntry> future : pending) {
+					DeviceEntry entry = future.join();
+					if (entry != null) {
+						result.add(entry);
+					}
+				}
+				return result;
+			});
+		});
+	}
+
+	private DeviceEntry probe(DeviceId id, MidiDevice.Info info) {
+		try {
+			return new DeviceEntry(id, info, MidiSystem.getMidiDevice(info));
+		} catch (MidiUnavailableException | IllegalArgumentException e) {
+			System.err.println("Error with device: " + info.getName());
+			return null;
+		}
+	}
+
+	// Driver calls elsewhere in the engine borrow the discovery threads
+	Executor getExecutor() {
+		return executor;
+	}
+
+	public DeviceEntry get(DeviceId id) {
+		return entries.get(id);
+	}
+
+	public List<DeviceEntry> getEntries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,56 @@
+package midi.router.engine;
+
+import javax.sound.midi.MidiDevice;
+
+/**
+ * Catalogue record for one port: its identity, device handle and the
+ * capabilities probed when it was first seen.
+ */
+public class DeviceEntry {
+	private final DeviceId id;
+	private final MidiDevice.Info info;
+	private final MidiDevice device;
+	private final int maxTransmitters;
+	private final int maxReceivers;
+
+	DeviceEntry(DeviceId id, MidiDevice.Info info, MidiDevice device) {
+		this.id = id;
+		this.info = info;
+		this.device = device;
+		this.maxTransmitters = device.getMaxTransmitters();
+		this.maxReceivers = device.getMaxReceivers();
+	}
+
+	public DeviceId getId() {
+		return id;
+	}
+
+	public MidiDevice.Info getInfo() {
+		return info;
+	}
+
+	public MidiDevice getDevice() {
+		return device;
+	}
+
+	public int getMaxTransmitters() {
+		return maxTransmitters;
+	}
+
+	public int getMaxReceivers() {
+		return maxReceivers;
+	}
+
+	public boolean isInput() {
+		return maxTransmitters != 0;
+	}
+
+	public boolean isOutput() {
+		return maxReceivers != 0;
+	}
+
+	@Override
+	public String toString() {
+		return id.toString();
+	}
+}
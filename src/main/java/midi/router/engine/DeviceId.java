@@ -0,0 +1,80 @@
+package midi.router.engine;
+
+import java.util.Objects;
+
+import javax.sound.midi.MidiDevice;
+
+/**
+ * Stable identity of a port across rescans and restarts, built from its
+ * {@link MidiDevice.Info} strings rather than its position in the device list.
+ * The ordinal tells apart identical units plugged in side by side.
+ */
+public final class DeviceId {
+	private final String name;
+	private final String vendor;
+	private final String description;
+	private final String version;
+	private final int ordinal;
+
+	public DeviceId(String name, String vendor, String description, String version, int ordinal) {
+		this.name = Objects.requireNonNull(name);
+		this.vendor = vendor == null ? "" : vendor;
+		this.description = description == null ? "" : description;
+		this.version = version == null ? "" : version;
+		this.ordinal = ordinal;
+	}
+
+	public static DeviceId of(MidiDevice.Info info, int ordinal) {
+		return new DeviceId(info.getName(), info.getVendor(), info.getDescription(), info.getVersion(), ordinal);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getVendor() {
+		return vendor;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	/**
+	 * Same device ignoring the ordinal, used to number duplicates.
+	 */
+	String baseKey() {
+		return name + '\u0000' + vendor + '\u0000' + description + '\u0000' + version;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof DeviceId)) {
+			return false;
+		}
+		DeviceId other = (DeviceId) o;
+		return ordinal == other.ordinal && name.equals(other.name) && vendor.equals(other.vendor)
+				&& description.equals(other.description) && version.equals(other.version);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, vendor, description, version, ordinal);
+	}
+
+	@Override
+	public String toString() {
+		return ordinal == 0 ? name : name + " #" + (ordinal + 1);
+	}
+}
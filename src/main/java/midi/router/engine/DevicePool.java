@@ -0,0 +1,184 @@
+package midi.router.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+
+/**
+ * Reference counted device handles. A device is opened on its first lease and
+ * closed when its last one is released; in between every route shares the
+ * same {@link InputFanOut} on the input side and the same {@link OutputPort}
+ * on the output side.
+ */
+public class DevicePool {
+	private final Map<MidiDevice, Lease<InputFanOut>> inputs = new HashMap<>();
+	private final Map<MidiDevice, Lease<OutputPort>> outputs = new HashMap<>();
+	private final RoutingGraph graph;
+
+	public DevicePool() {
+		this(new RoutingGraph());
+	}
+
+	/**
+	 * @param graph where the input fan-outs handed out by this pool read their routes
+	 */
+	public DevicePool(RoutingGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * The first lease opens the device and its transmitter, so a leased input
+	 * is ready to route before any route exists.
+	 */
+	public synchronized InputFanOut acquireInput(MidiDevice device) throws MidiUnavailableException {
+		Lease<InputFanOut> lease = inputs.get(device);
+		if (lease == null) {
+			boolean wasOpen = device.isOpen();
+			InputFanOut fanOut = new InputFanOut(device, graph);
+			try {
+				fanOut.open();
+			} catch (MidiUnavailableException | RuntimeException e) {
+				fanOut.close();
+				if (!wasOpen) {
+					closeQuietly(device);
+				}
+				throw e;
+			}
+			lease = new Lease<>(fanOut);
+			inputs.put(device, lease);
+		}
+		lease.count++;
+		return lease.handle;
+	}
+
+	public synchronized OutputPort acquireOutput(MidiDevice device) throws MidiUnavailableException {
+		Lease<OutputPort> lease = outputs.get(device);
+		if (lease == null) {
+			boolean opened = false;
+			if (!device.isOpen()) {
+				device.open();
+				opened = !inputs.containsKey(device);
+			}
+			Receiver receiver;
+			try {
+				receiver = device.getReceiver();
+			} catch (MidiUnavailableException e) {
+				if (opened) {
+					device.close();
+				}
+				throw e;
+			}
+			lease = new Lease<>(new OutputPort(device, receiver));
+			outputs.put(device, lease);
+		}
+		lease.count++;
+		return lease.handle;
+	}
+
+	public synchronized void releaseInput(MidiDevice device) {
+		Lease<InputFanOut> lease = inputs.get(device);
+		if (lease != null && --lease.count == 0) {
+			inputs.remove(device);
+			lease.handle.close();
+			closeIfUnused(device);
+		}
+	}
+
+	public synchronized void releaseOutput(MidiDevice device) {
+		Lease<OutputPort> lease = outputs.get(device);
+		if (lease != null && --lease.count == 0) {
+			outputs.remove(device);
+			lease.handle.release();
+			closeIfUnused(device);
+		}
+	}
+
+	/**
+	 * Drops every lease on a device that has gone away.
+	 */
+	public synchronized void evict(MidiDevice device) {
+		Lease<InputFanOut> input = inputs.remove(device);
+		if (input != null) {
+			input.handle.close();
+		}
+		Lease<OutputPort> output = outputs.remove(device);
+		if (output != null) {
+			try {
+				output.handle.release();
+			} catch (RuntimeException e) {
+				// Already gone at the driver level
+			}
+		}
+		if (input != null || output != null) {
+			closeQuietly(device);
+		}
+	}
+
+	/**
+	 * @return the port currently leased on the device, or null
+	 */
+	public synchronized InputFanOut getInputFanOut(MidiDevice device) {
+		Lease<InputFanOut> lease = inputs.get(device);
+		return lease == null ? null : lease.handle;
+	}
+
+	public synchronized OutputPort getOutputPort(MidiDevice device) {
+		Lease<OutputPort> lease = outputs.get(device);
+		return lease == null ? null : lease.handle;
+	}
+
+	/**
+	 * @return every output port currently leased
+	 */
+	public synchronized List<OutputPort> getOutputPorts() {
+		List<OutputPort> ports = new ArrayList<>(outputs.size());
+		for (Lease<OutputPort> lease : outputs.values()) {
+			ports.add(lease.handle);
+		}
+		return ports;
+	}
+
+	public synchronized int getLeaseCount(MidiDevice device) {
+		Lease<InputFanOut> input = inputs.get(device);
+		Lease<OutputPort> output = outputs.get(device);
+		return (input == null ? 0 : input.count) + (output == null ? 0 : output.count);
+	}
+
+	public synchronized void closeAll() {
+		for (MidiDevice device : new HashMap<>(inputs).keySet()) {
+			evict(device);
+		}
+		for (MidiDevice device : new HashMap<>(outputs).keySet()) {
+			evict(device);
+		}
+	}
+
+	// A device can be both an input and an output, only close it once neither side is leased
+	private void closeIfUnused(MidiDevice device) {
+		if (!inputs.containsKey(device) && !outputs.containsKey(device)) {
+			closeQuietly(device);
+		}
+	}
+
+	private static void closeQuietly(MidiDevice device) {
+		try {
+			device.close();
+		} catch (RuntimeException e) {
+			System.err.println("Error closing device: " + device.getDeviceInfo().getName());
+		}
+	}
+
+	private static class Lease<T> {
+		final T handle;
+		int count;
+
+		Lease(T handle) {
+			this.handle = handle;
+		}
+	}
+}
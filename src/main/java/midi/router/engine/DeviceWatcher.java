@@ -0,0 +1,40 @@
+package midi.router.engine;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls for ports coming and going by rescanning through the engine at a fixed
+ * interval. The catalogue only probes new ports, so an idle poll costs one
+ * device enumeration.
+ */
+public class DeviceWatcher implements AutoCloseable {
+	private final RoutingEngine engine;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "midi-router-hotplug");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private CompletableFuture<?> running;
+
+	DeviceWatcher(RoutingEngine engine, long intervalMillis) {
+		this.engine = engine;
+		scheduler.scheduleWithFixedDelay(this::poll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void poll() {
+		// Never stack scans if a driver is slow to enumerate
+		if (running != null && !running.isDone()) {
+			return;
+		}
+		running = engine.scanDevices(entry -> {
+		});
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,112 @@
+package midi.router.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Bounded lock-free queue of MIDI events (Vyukov's array queue). Any number of
+ * input threads can offer; polling is safe from several threads too, which
+ * lets a producer evict the oldest event under {@link OverflowPolicy#DROP_OLDEST}
+ * while the sender thread drains.
+ */
+final class EventRing {
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final int[] packed;
+	private final long[] timeStamps;
+	private final long[] received;
+	private final MidiMessage[] messages;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	EventRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = size - 1;
+		sequences = new AtomicLongArray(size);
+		packed = new int[size];
+		timeStamps = new long[size];
+		received = new long[size];
+		messages = new MidiMessage[size];
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+
+	int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+	boolean isEmpty() {
+		return tail.get() == head.get();
+	}
+
+	/**
+	 * @return false if the ring is full
+	 */
+	boolean offer(int packedMessage, MidiMessage message, long timeStamp, long receivedNanos) {
+		long position = tail.get();
+		for (;;) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					packed[index] = packedMessage;
+					messages[index] = message;
+					timeStamps[index] = timeStamp;
+					received[index] = receivedNanos;
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Discards the head event without reading it.
+	 *
+	 * @return false if the ring is empty
+	 */
+	boolean dropOldest() {
+		return poll(null);
+	}
+
+	/**
+	 * @return false if the ring is empty
+	 */
+	boolean poll(QueuedEvent into) {
+		long position = head.get();
+		for (;;) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					if (into != null) {
+						into.packed = packed[index];
+						into.message = messages[index];
+						into.timeStamp = timeStamps[index];
+						into.receivedNanos = received[index];
+					}
+					messages[index] = null;
+					sequences.set(index, position + mask + 1);
+					return true;
+				}
+				position = head.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				position = head.get();
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package midi.router.engine;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+
+import midi.router.transform.ShortMessages;
+
+/**
+ * Opens a single Transmitter on an input device and fans every message out to
+ * the routes attached to it. The routes live in the shared
+ * {@link RoutingGraph} under this input's slot: the MIDI thread reads one
+ * volatile table per message, so adding or removing a route, or swapping the
+ * whole graph, never drops or duplicates a message on the other routes.
+ *
+ * System realtime messages (clock, start, stop, active sensing) are picked out
+ * first and sent on a fast lane with no transforms or queues in the way. An
+ * {@link InputTap}, if set, sees every message before any route does.
+ */
+public class InputFanOut implements Receiver {
+	private final MidiDevice device;
+	private final RoutingGraph graph;
+	private final int slot;
+	private final Object lock = new Object();
+	private final LongAdder received = new LongAdder();
+	private volatile InputTap tap;
+	private Transmitter transmitter;
+	private boolean closed;
+
+	/**
+	 * A fan-out with a graph of its own, for use outside an engine.
+	 */
+	public InputFanOut(MidiDevice device) {
+		this(device, new RoutingGraph());
+	}
+
+	public InputFanOut(MidiDevice device, RoutingGraph graph) {
+		this.device = device;
+		this.graph = graph;
+		this.slot = graph.allocateSlot();
+	}
+
+	public MidiDevice getDevice() {
+		return device;
+	}
+
+	int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * Opens the device and the transmitter, if not already open. Messages that
+	 * arrive before any route is attached are dropped.
+	 */
+	public void open() throws MidiUnavailableException {
+		synchronized (lock) {
+			if (transmitter == null) {
+				if (!device.isOpen()) {
+					device.open();
+				}
+				transmitter = device.getTransmitter();
+				transmitter.setReceiver(this);
+			}
+		}
+	}
+
+	/**
+	 * @param tap what to show every incoming message to, or null for none
+	 */
+	public void setTap(InputTap tap) {
+		this.tap = tap;
+	}
+
+	public Route connect(Receiver target) throws MidiUnavailableException {
+		return connect(null, target);
+	}
+
+	/**
+	 * @param output device the target receiver belongs to, kept for lookups only
+	 */
+	public Route connect(MidiDevice output, Receiver target) throws MidiUnavailableException {
+		Route route = prepare(output, target);
+		graph.add(route);
+		return route;
+	}
+
+	/**
+	 * Opens the input and builds a route that is not live yet; it starts
+	 * receiving once it is part of a table passed to {@link RoutingGraph#swap}.
+	 */
+	Route prepare(MidiDevice output, Receiver target) throws MidiUnavailableException {
+		open();
+		return new Route(this, output, target);
+	}
+
+	public boolean disconnect(Route route) {
+		return graph.remove(route);
+	}
+
+	/**
+	 * @return messages the input has sent since it was opened
+	 */
+	public long getReceived() {
+		return received.sum();
+	}
+
+	public Route[] getRoutes() {
+		return graph.getTable().routesFor(slot).clone();
+	}
+
+	public boolean isIdle() {
+		return graph.getTable().routesFor(slot).length == 0;
+	}
+
+	@Override
+	public void send(MidiMessage message, long timeStamp) {
+		// Latency is measured from here, before any route gets a look at the message
+		long receivedNanos = System.nanoTime();
+		received.increment();
+		InputTap recorder = tap;
+		if (recorder != null) {
+			recorder.tap(message, receivedNanos);
+		}
+		Route[] current = graph.getTable().routesFor(slot);
+		int status = message.getStatus();
+		if (status >= 0xF8 && message instanceof ShortMessage) {
+			for (int i = 0; i < current.length; i++) {
+				current[i].deliverRealtime(message, status, timeStamp, receivedNanos);
+			}
+			return;
+		}
+		for (int i = 0; i < current.length; i++) {
+			current[i].deliver(message, timeStamp, receivedNanos);
+		}
+		// Scene changes go after routing, the trigger itself still reaches the old scene
+		int command = status & 0xF0;
+		if ((command == ShortMessage.PROGRAM_CHANGE || command == ShortMessage.CONTROL_CHANGE)
+				&& message instanceof ShortMessage) {
+			graph.checkTrigger(ShortMessages.pack((ShortMessage) message));
+		}
+	}
+
+	/**
+	 * Closes the transmitter and drops this input's routes from the graph.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (transmitter != null) {
+				transmitter.close();
+				transmitter = null;
+			}
+		}
+		graph.freeSlot(slot);
+	}
+}
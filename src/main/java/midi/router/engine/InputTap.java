@@ -0,0 +1,12 @@
+package midi.router.engine;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Sees every message an input receives, ahead of its routes, on the input's
+ * MIDI thread. It must not block or hold on to the message.
+ */
+@FunctionalInterface
+public interface InputTap {
+	void tap(MidiMessage message, long receivedNanos);
+}
@@ -0,0 +1,49 @@
+package midi.router.engine;
+
+import java.util.List;
+
+import javax.sound.midi.MidiDevice;
+
+/**
+ * Device helpers shared by the GUI and the headless router. Nothing in here
+ * touches AWT.
+ */
+public final class MidiDevices {
+	private MidiDevices() {
+	}
+
+	// Skip some common internal devices
+	public static boolean isInternal(MidiDevice.Info info) {
+		String name = info.getName();
+		return name.contains("Real Time Sequencer") || name.contains("Gervill")
+				|| name.contains("Java Sound Synthesizer");
+	}
+
+	public static boolean isInput(MidiDevice device) {
+		return device.getMaxTransmitters() != 0;
+	}
+
+	public static boolean isOutput(MidiDevice device) {
+		return device.getMaxReceivers() != 0;
+	}
+
+	/**
+	 * Finds a port by name among already discovered devices, preferring an exact
+	 * match over a case-insensitive substring one.
+	 *
+	 * @return the device, or null if nothing matches
+	 */
+	public static MidiDevice find(List<MidiDevice> devices, String name) {
+		MidiDevice partial = null;
+		for (MidiDevice device : devices) {
+			String deviceName = device.getDeviceInfo().getName();
+			if (deviceName.equals(name)) {
+				return device;
+			}
+			if (partial == null && deviceName.toLowerCase().contains(name.toLowerCase())) {
+				partial = device;
+			}
+		}
+		return partial;
+	}
+}
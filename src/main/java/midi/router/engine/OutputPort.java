@@ -0,0 +1,281 @@
+package midi.router.engine;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import midi.router.stats.OutputStats;
+import midi.router.transform.ShortMessages;
+
+/**
+ * The one Receiver opened on an output device, shared by every route feeding
+ * it. Routes never close it; the {@link DevicePool} does when the last lease
+ * on the device is released.
+ *
+ * By default sends go straight to the driver on the input's thread. In
+ * buffered mode they are queued and an {@link OutputSender} thread owns the
+ * driver call, so a stalled output only backs up its own queue. An output fed
+ * by more than one input merges them, see {@link #setMerging}. System
+ * realtime messages skip the queue, see {@link #sendRealtime}. SysEx is
+ * chunked, and paced if the output has a byte rate, by a
+ * {@link SysexStreamer}, started the first time the port sees any; on a
+ * queued output it takes its place in the queue on the way there.
+ *
+ * Changing any of that swaps the sender: the old one is emptied before the
+ * new one, or the driver, takes another event, so a route playing through
+ * the change neither loses nor reorders anything.
+ *
+ * However many threads send, the driver gets one call at a time.
+ */
+public class OutputPort implements Receiver {
+	/** What a 5-pin DIN cable carries: 31250 baud at 10 bits a byte. */
+	public static final int DIN_BYTES_PER_SECOND = 3125;
+
+	private final MidiDevice device;
+	private final Receiver receiver;
+	private final OutputStats stats = new OutputStats();
+	// Null while sends go straight to the driver
+	private volatile OutputSender sender;
+	private volatile boolean buffered;
+	private volatile OverflowPolicy policy;
+	private int capacity;
+	private boolean merging;
+	private ShardPool shards;
+	private volatile SysexStreamer streamer;
+	// Unpaced unless the output is known to sit on a DIN cable
+	private volatile int sysexBytesPerSecond;
+
+	// Every driver call goes through here, so drivers never see two sends interleave
+	private final Receiver driver = new Receiver() {
+		@Override
+		public synchronized void send(MidiMessage message, long timeStamp) {
+			receiver.send(message, timeStamp);
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	// What the sender thread sends through, so its messages also wait out SysEx
+	private final Receiver gated = new Receiver() {
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			sendNow(message, timeStamp);
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	OutputPort(MidiDevice device, Receiver receiver) {
+		this.device = device;
+		this.receiver = receiver;
+	}
+
+	public MidiDevice getDevice() {
+		return device;
+	}
+
+	public OutputStats getStats() {
+		return stats;
+	}
+
+	public boolean isBuffered() {
+		return buffered;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return buffered ? policy : null;
+	}
+
+	/**
+	 * Switches to a queue of {@code capacity} events drained by a dedicated
+	 * sender thread. Calling it again with other settings replaces the sender.
+	 */
+	public synchronized void enableBuffering(int capacity, OverflowPolicy policy) {
+		if (buffered && this.policy == policy && this.capacity >= capacity) {
+			return;
+		}
+		buffered = true;
+		this.capacity = capacity;
+		this.policy = policy;
+		updateSender(true);
+	}
+
+	public synchronized void disableBuffering() {
+		if (!buffered) {
+			return;
+		}
+		buffered = false;
+		updateSender(true);
+	}
+
+	public boolean isMerging() {
+		return merging;
+	}
+
+	/**
+	 * Puts a merge stage in front of the driver: inputs hand events to a
+	 * lock-free queue and one thread sends them in the order they reached the
+	 * router, so sends from several inputs neither race each other at the
+	 * driver nor swap places. Unlike buffering nothing is ever dropped, a full
+	 * queue makes the inputs wait. The engine turns this on for outputs fed by
+	 * more than one input. A buffered output merges already.
+	 */
+	public synchronized void setMerging(boolean merging) {
+		this.merging = merging;
+		updateSender(false);
+	}
+
+	/**
+	 * Hands the port's sending to a shard of {@code pool} rather than the
+	 * inputs' threads or a thread of its own, or takes it back with null. A
+	 * sharded port always queues, merging or not.
+	 */
+	public synchronized void setShards(ShardPool pool) {
+		if (pool == shards) {
+			return;
+		}
+		shards = pool;
+		updateSender(true);
+	}
+
+	// Called with the lock held; a queue that is still wanted is kept unless its settings changed
+	private void updateSender(boolean changed) {
+		OutputSender current = sender;
+		boolean queued = buffered || merging || shards != null;
+		if (current == null ? !queued : queued && !changed) {
+			return;
+		}
+		OutputSender next = null;
+		if (queued) {
+			String name = device.getDeviceInfo().getName();
+			next = buffered ? new OutputSender(name, gated, driver, stats, capacity, policy, shards)
+					: new OutputSender(name, gated, driver, stats, BufferSettings.DEFAULT_CAPACITY, null, shards);
+		}
+		// Producers spin on the closed sender until the next one is published
+		if (current != null) {
+			current.shutdown();
+		}
+		sender = next;
+		stats.setQueueDepth(next == null ? () -> 0 : next::getQueueDepth);
+	}
+
+	public int getSysexBytesPerSecond() {
+		return sysexBytesPerSecond;
+	}
+
+	/**
+	 * Caps the rate SysEx is fed to the driver at, {@link #DIN_BYTES_PER_SECOND}
+	 * for a device on a DIN cable; 0, the default, lifts the cap, for virtual
+	 * ports and USB devices that take data as fast as it comes.
+	 */
+	public void setSysexBytesPerSecond(int bytesPerSecond) {
+		sysexBytesPerSecond = Math.max(0, bytesPerSecond);
+		SysexStreamer current = streamer;
+		if (current != null) {
+			current.setBytesPerSecond(sysexBytesPerSecond);
+		}
+	}
+
+	@Override
+	public void send(MidiMessage message, long timeStamp) {
+		send(message, timeStamp, System.nanoTime());
+	}
+
+	public void send(MidiMessage message, long timeStamp, long receivedNanos) {
+		OutputSender current;
+		while ((current = sender) != null) {
+			boolean taken = message instanceof ShortMessage
+					? current.offer(ShortMessages.pack((ShortMessage) message), null, timeStamp, receivedNanos)
+					: current.offer(0, message, timeStamp, receivedNanos);
+			if (taken) {
+				return;
+			}
+			// Being swapped out, the next one is published once this one is empty
+			Thread.yield();
+		}
+		if (message instanceof SysexMessage) {
+			streamer().offer((SysexMessage) message, receivedNanos);
+		} else if (sendNow(message, timeStamp)) {
+			stats.recordSent();
+		}
+	}
+
+	/**
+	 * On a queued output realtime messages go in the sender's own lane, ahead
+	 * of queued notes, so clock ticks never wait behind them and a stalled
+	 * output never holds up the input; otherwise straight to the driver like
+	 * every other send. The MIDI spec lets realtime bytes cut in anywhere, and
+	 * they still take their turn at the driver.
+	 */
+	public void sendRealtime(MidiMessage message, long timeStamp) {
+		OutputSender current;
+		while ((current = sender) != null) {
+			if (current.offerRealtime(message.getStatus(), timeStamp)) {
+				return;
+			}
+			Thread.yield();
+		}
+		driver.send(message, timeStamp);
+		stats.recordSent();
+	}
+
+	/**
+	 * @return false if the message was dropped behind a long SysEx message
+	 */
+	private boolean sendNow(MidiMessage message, long timeStamp) {
+		if (message instanceof SysexMessage) {
+			// Off the sender's queue; the streamer counts it once the last chunk is out
+			streamer().offer((SysexMessage) message, System.nanoTime());
+			return true;
+		}
+		SysexStreamer current = streamer;
+		if (current != null && message instanceof ShortMessage) {
+			return current.send(message, ShortMessages.pack((ShortMessage) message), timeStamp);
+		}
+		driver.send(message, timeStamp);
+		return true;
+	}
+
+	private SysexStreamer streamer() {
+		SysexStreamer current = streamer;
+		if (current == null) {
+			synchronized (this) {
+				current = streamer;
+				if (current == null) {
+					current = new SysexStreamer(device.getDeviceInfo().getName(), driver, stats,
+							sysexBytesPerSecond);
+					streamer = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Ignored, the pool owns the port's lifetime.
+	 */
+	@Override
+	public void close() {
+	}
+
+	void release() {
+		synchronized (this) {
+			buffered = false;
+			merging = false;
+			shards = null;
+			updateSender(true);
+		}
+		SysexStreamer current = streamer;
+		streamer = null;
+		if (current != null) {
+			current.shutdown();
+		}
+		receiver.close();
+	}
+}
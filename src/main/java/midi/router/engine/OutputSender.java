@@ -0,0 +1,382 @@
+package midi.router.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.SysexMessage;
+
+import midi.router.stats.OutputStats;
+import midi.router.transform.PackedShortMessage;
+
+/**
+ * Drains a buffered or merging {@link OutputPort}, from a dedicated thread or,
+ * when outputs are sharded, from whichever {@link ShardPool} worker it is
+ * pinned to. Input threads only ever touch the lock-free {@link EventRing};
+ * the driver call, and any time it blocks, happens on the draining thread.
+ * Only one thread drains at a time, so moving a sender to another shard keeps
+ * its order.
+ *
+ * Whatever has queued up when the thread looks is sent in the order it
+ * reached the router, not the order producers won their slots in the ring, so
+ * events from several inputs go out by ingress time. An event that turns up
+ * after a newer one has gone is sent at once, the sender never waits to see
+ * whether something older is coming.
+ *
+ * System realtime messages have a small lane of their own, drained ahead of
+ * every batch and sent around the SysEx gate, so a clock tick waits for one
+ * driver call at most; when the lane is full the tick is dropped and counted.
+ *
+ * A sender is replaced rather than reconfigured. {@link #shutdown} closes it
+ * to producers, waits for those already offering and sends everything they
+ * left; a producer that finds it closed goes back to the port for the next
+ * one, which the port only publishes once the old one is empty. So nothing
+ * is lost in the swap, and nothing sent after it overtakes what was queued
+ * before it. The exception is a driver that has stopped taking events: the
+ * swap gives up on it rather than hang, and counts what it never took as
+ * dropped.
+ */
+final class OutputSender implements Runnable, ControllerSlots.Sink {
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int BATCH = 64;
+	private static final int REALTIME_CAPACITY = 256;
+	// How long shutdown waits on a driver that takes nothing before giving up on it
+	private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final Receiver receiver;
+	private final Receiver realtime;
+	private final OutputStats stats;
+	private final EventRing ring;
+	private final EventRing priority = new EventRing(REALTIME_CAPACITY);
+	private final OverflowPolicy policy;
+	private final ControllerSlots overflow = new ControllerSlots();
+	private final String name;
+	private final ShardPool shards;
+	private final Thread thread;
+	private final AtomicBoolean draining = new AtomicBoolean();
+	// Producers between checking closed and finishing their offer
+	private final AtomicInteger writers = new AtomicInteger();
+	private volatile boolean closed;
+	private volatile Shard shard;
+	private volatile boolean running = true;
+	private volatile boolean parked;
+	// Sent as of the last rebalance, ShardPool only
+	long lastSent;
+
+	// Draining thread only
+	private final QueuedEvent[] batch = new QueuedEvent[BATCH];
+	private final QueuedEvent tick = new QueuedEvent();
+	private final PackedShortMessage scratch = new PackedShortMessage();
+
+	/**
+	 * @param realtime where system realtime messages go, past the SysEx gate
+	 * @param policy null to never drop: a producer that finds the queue full
+	 * waits for room, as it would have waited on the driver
+	 * @param shards null for a thread of its own
+	 */
+	OutputSender(String name, Receiver receiver, Receiver realtime, OutputStats stats, int capacity,
+			OverflowPolicy policy, ShardPool shards) {
+		this.name = name;
+		this.receiver = receiver;
+		this.realtime = realtime;
+		this.stats = stats;
+		this.ring = new EventRing(capacity);
+		this.policy = policy;
+		for (int i = 0; i < BATCH; i++) {
+			batch[i] = new QueuedEvent();
+		}
+		this.shards = shards;
+		if (shards != null) {
+			thread = null;
+			shards.add(this);
+			return;
+		}
+		thread = new Thread(this, "midi-out-" + name);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	String getName() {
+		return name;
+	}
+
+	OutputStats getStats() {
+		return stats;
+	}
+
+	Shard getShard() {
+		return shard;
+	}
+
+	void setShard(Shard shard) {
+		this.shard = shard;
+	}
+
+	OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	int getCapacity() {
+		return ring.capacity();
+	}
+
+	int getQueueDepth() {
+		return ring.size();
+	}
+
+	/**
+	 * @return false if the sender is closed, the port has another one for it
+	 */
+	boolean offer(int packed, MidiMessage message, long timeStamp, long receivedNanos) {
+		writers.incrementAndGet();
+		try {
+			if (closed) {
+				return false;
+			}
+			if (!ring.offer(packed, message, timeStamp, receivedNanos)) {
+				overflow(packed, message, timeStamp, receivedNanos);
+			}
+		} finally {
+			writers.decrementAndGet();
+		}
+		wake();
+		return true;
+	}
+
+	/**
+	 * Queues a system realtime message in the lane drained ahead of the rest,
+	 * or drops it if the lane is full.
+	 *
+	 * @return false if the sender is closed, the port has another one for it
+	 */
+	boolean offerRealtime(int status, long timeStamp) {
+		writers.incrementAndGet();
+		try {
+			if (closed) {
+				return false;
+			}
+			if (!priority.offer(status, null, timeStamp, 0)) {
+				stats.recordDropped();
+			}
+		} finally {
+			writers.decrementAndGet();
+		}
+		wake();
+		return true;
+	}
+
+	private void wake() {
+		if (thread == null) {
+			Shard current = shard;
+			if (current != null) {
+				current.wake();
+			}
+		} else if (parked) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	boolean hasPending() {
+		return !ring.isEmpty() || !priority.isEmpty() || overflow.hasPending();
+	}
+
+	private void overflow(int packed, MidiMessage message, long timeStamp, long receivedNanos) {
+		if (policy == null) {
+			while (!ring.offer(packed, message, timeStamp, receivedNanos)) {
+				if (!running) {
+					stats.recordDropped();
+					return;
+				}
+				wake();
+				Thread.yield();
+			}
+			return;
+		}
+		switch (policy) {
+		case DROP_OLDEST: {
+			// Producers can evict too, the ring is safe for more than one consumer
+			while (!ring.offer(packed, message, timeStamp, receivedNanos)) {
+				if (ring.dropOldest()) {
+					stats.recordDropped();
+				}
+			}
+			break;
+		}
+		case COALESCE:
+			if (message == null && overflow.store(packed, receivedNanos) != ControllerSlots.NOT_STORED) {
+				stats.recordCoalesced();
+				break;
+			}
+			stats.recordDropped();
+			break;
+		case DROP_NEWEST:
+		default:
+			stats.recordDropped();
+			break;
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			if (drainOnce(Integer.MAX_VALUE) == 0 && running) {
+				parked = true;
+				if (!hasPending()) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				parked = false;
+			}
+		}
+	}
+
+	/**
+	 * Sends up to {@code batches} batches of what is queued, realtime messages
+	 * ahead of each, then any folded controller values once the backlog has
+	 * cleared. Does nothing if another thread is draining.
+	 *
+	 * @return events sent
+	 */
+	int drainOnce(int batches) {
+		if (!draining.compareAndSet(false, true)) {
+			return 0;
+		}
+		try {
+			int sent = drainRealtime();
+			int count;
+			for (int i = 0; i < batches && (count = drain()) > 0; i++) {
+				for (int j = 0; j < count; j++) {
+					deliver(batch[j]);
+				}
+				sent += count + drainRealtime();
+			}
+			if (ring.isEmpty()) {
+				sent += overflow.drain(this);
+			}
+			return sent;
+		} finally {
+			draining.set(false);
+		}
+	}
+
+	// Takes what is queued, up to a batch, oldest arrival first
+	private int drain() {
+		int count = 0;
+		while (count < BATCH && ring.poll(batch[count])) {
+			count++;
+		}
+		// Insertion sort, producers race for slots by microseconds at most so it is nearly sorted already
+		for (int i = 1; i < count; i++) {
+			QueuedEvent next = batch[i];
+			int j = i;
+			for (; j > 0 && batch[j - 1].receivedNanos - next.receivedNanos > 0; j--) {
+				batch[j] = batch[j - 1];
+			}
+			batch[j] = next;
+		}
+		return count;
+	}
+
+	private int drainRealtime() {
+		int sent = 0;
+		while (priority.poll(tick)) {
+			try {
+				scratch.set(tick.packed);
+				realtime.send(scratch, tick.timeStamp);
+				stats.recordSent();
+			} catch (IllegalStateException e) {
+				stats.recordDropped();
+			}
+			sent++;
+		}
+		return sent;
+	}
+
+	private void deliver(QueuedEvent queued) {
+		try {
+			if (queued.message instanceof SysexMessage) {
+				// Only handed to the port's streamer, which counts it once it is out
+				receiver.send(queued.message, queued.timeStamp);
+				queued.message = null;
+				return;
+			}
+			if (queued.message != null) {
+				receiver.send(queued.message, queued.timeStamp);
+				queued.message = null;
+			} else {
+				scratch.set(queued.packed);
+				receiver.send(scratch, queued.timeStamp);
+			}
+			stats.recordSent(queued.receivedNanos);
+		} catch (IllegalStateException e) {
+			stats.recordDropped();
+		}
+	}
+
+	@Override
+	public void accept(int packed, long receivedNanos) {
+		try {
+			scratch.set(packed);
+			receiver.send(scratch, -1);
+			stats.recordSent();
+		} catch (IllegalStateException e) {
+			stats.recordDropped();
+		}
+	}
+
+	/**
+	 * Closes the sender to producers and returns once everything queued has
+	 * gone to the driver, sending what the draining thread has not got to from
+	 * the caller's thread. An event the driver refuses is counted as dropped,
+	 * and so is everything left once the driver has taken nothing for a second.
+	 */
+	void shutdown() {
+		closed = true;
+		// A producer waiting for room gets it from the draining thread, still running
+		while (writers.get() != 0) {
+			Thread.yield();
+		}
+		running = false;
+		if (thread == null) {
+			shards.remove(this);
+		} else {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// Whatever is left goes out from here, once the draining thread has sent the batch it holds
+		long progress = stats.getSent() + stats.getDropped();
+		long lastProgressNanos = System.nanoTime();
+		while (hasPending() || draining.get()) {
+			if (drainOnce(Integer.MAX_VALUE) > 0) {
+				continue;
+			}
+			long current = stats.getSent() + stats.getDropped();
+			if (current != progress) {
+				progress = current;
+				lastProgressNanos = System.nanoTime();
+			} else if (System.nanoTime() - lastProgressNanos > STALL_NANOS) {
+				// A batch still stuck in the driver goes out if the driver ever returns
+				dropPending();
+				return;
+			}
+			Thread.yield();
+		}
+	}
+
+	private void dropPending() {
+		while (ring.dropOldest()) {
+			stats.recordDropped();
+		}
+		while (priority.dropOldest()) {
+			stats.recordDropped();
+		}
+		overflow.drain((packed, receivedNanos) -> stats.recordDropped());
+	}
+}
@@ -0,0 +1,16 @@
+package midi.router.engine;
+
+/**
+ * What a buffered {@link OutputPort} does when its queue is full.
+ */
+public enum OverflowPolicy {
+	/** Throw away the oldest queued event to make room. */
+	DROP_OLDEST,
+	/** Throw away the event being sent. */
+	DROP_NEWEST,
+	/**
+	 * Keep only the latest value per controller, pitch bend and pressure until
+	 * the queue drains; anything else is dropped like {@link #DROP_NEWEST}.
+	 */
+	COALESCE
+}
@@ -0,0 +1,15 @@
+package midi.router.engine;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Mutable holder the consumer side of an {@link EventRing} reads into, so
+ * draining never allocates. {@code message} is only set for messages that
+ * are not short messages, which travel packed.
+ */
+final class QueuedEvent {
+	int packed;
+	MidiMessage message;
+	long timeStamp;
+	long receivedNanos;
+}
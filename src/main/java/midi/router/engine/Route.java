@@ -0,0 +1,206 @@
+package midi.router.engine;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import midi.router.stats.RouteStats;
+import midi.router.transform.PackedShortMessage;
+import midi.router.transform.ShortMessages;
+import midi.router.transform.TransformChain;
+import midi.router.transform.TransformStage;
+
+/**
+ * One IN to OUT edge hanging off an {@link InputFanOut}. Short messages run
+ * through the route's {@link TransformChain} in packed form; everything else,
+ * SysEx included, is forwarded untouched. System realtime messages take
+ * {@link #deliverRealtime}, which skips the chain, coalescer and output queue.
+ */
+public class Route {
+	private final InputFanOut source;
+	private final MidiDevice output;
+	private final Receiver target;
+	private final OutputPort port;
+	private final RouteStats stats = new RouteStats();
+	private final ActiveNotes notes = new ActiveNotes();
+	private volatile TransformChain transforms = TransformChain.EMPTY;
+	private volatile Coalescer coalescer;
+	private volatile boolean retired;
+
+	// Only ever touched by the input's transmitter thread
+	private final PackedShortMessage scratch = new PackedShortMessage();
+
+	Route(InputFanOut source, MidiDevice output, Receiver target) {
+		this.source = source;
+		this.output = output;
+		this.target = target;
+		this.port = target instanceof OutputPort ? (OutputPort) target : null;
+	}
+
+	public InputFanOut getSource() {
+		return source;
+	}
+
+	public MidiDevice getInput() {
+		return source.getDevice();
+	}
+
+	public MidiDevice getOutput() {
+		return output;
+	}
+
+	public String getName() {
+		String outputName = output == null ? "?" : output.getDeviceInfo().getName();
+		return source.getDevice().getDeviceInfo().getName() + " -> " + outputName;
+	}
+
+	public Receiver getTarget() {
+		return target;
+	}
+
+	public RouteStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Notes this route has switched on at its output and not yet off.
+	 */
+	public ActiveNotes getActiveNotes() {
+		return notes;
+	}
+
+	public TransformChain getTransforms() {
+		return transforms;
+	}
+
+	/**
+	 * Swaps the chain. If it really changes, notes sounding under the old one
+	 * are switched off, since their note offs would come out of the new chain
+	 * on another note or channel.
+	 */
+	public void setTransforms(TransformChain transforms) {
+		TransformChain next = transforms == null ? TransformChain.EMPTY : transforms;
+		TransformChain previous = this.transforms;
+		this.transforms = next;
+		if (!previous.equals(next) && notes.count() > 0) {
+			releaseNotes();
+		}
+	}
+
+	public CoalesceSettings getCoalescing() {
+		Coalescer current = coalescer;
+		return current == null ? null : current.getSettings();
+	}
+
+	/**
+	 * Swaps the coalescer; the old one flushes what it still holds first.
+	 */
+	void setCoalescer(Coalescer next) {
+		Coalescer previous = coalescer;
+		coalescer = next;
+		if (previous != null) {
+			previous.close();
+		}
+	}
+
+	void deliver(MidiMessage message, long timeStamp, long receivedNanos) {
+		TransformChain chain = transforms;
+		Coalescer thinning = coalescer;
+		if ((!chain.isEmpty() || thinning != null) && message instanceof ShortMessage) {
+			int packed = ShortMessages.pack((ShortMessage) message);
+			int result = chain.apply(packed);
+			if (result == TransformStage.DROP) {
+				stats.recordFiltered();
+				return;
+			}
+			if (thinning != null && thinning.offer(result, receivedNanos)) {
+				return;
+			}
+			if (result != packed) {
+				scratch.set(result);
+				message = scratch;
+			}
+		}
+		emit(message, timeStamp, receivedNanos);
+	}
+
+	void deliverRealtime(MidiMessage message, int status, long timeStamp, long receivedNanos) {
+		if (!transforms.passesRealtime(status)) {
+			stats.recordFiltered();
+			return;
+		}
+		try {
+			if (port != null) {
+				port.sendRealtime(message, timeStamp);
+			} else {
+				target.send(message, timeStamp);
+			}
+			long sent = System.nanoTime();
+			stats.recordDelivered(1, receivedNanos, sent);
+			if (status == ShortMessage.TIMING_CLOCK) {
+				stats.recordClockTick(sent);
+			}
+		} catch (IllegalStateException e) {
+			stats.recordDropped();
+		}
+	}
+
+	void emit(MidiMessage message, long timeStamp, long receivedNanos) {
+		try {
+			if (port != null) {
+				// Lets a buffered port measure queueing from the original receive time
+				port.send(message, timeStamp, receivedNanos);
+			} else {
+				target.send(message, timeStamp);
+			}
+			stats.recordDelivered(message.getLength(), receivedNanos);
+			// Tracked as sent, after transforms, so the note offs match what the synth got
+			if (message instanceof ShortMessage && (message.getStatus() & 0xE0) == 0x80) {
+				ShortMessage note = (ShortMessage) message;
+				notes.track(note.getStatus(), note.getData1(), note.getData2());
+				if (retired) {
+					// Read the old table just before the route was pulled, switch it off again
+					releaseNotes();
+				}
+			}
+		} catch (IllegalStateException e) {
+			// Receiver was closed under us, keep feeding the other routes
+			stats.recordDropped();
+		}
+	}
+
+	/**
+	 * Sends NOTE_OFF for every note the route left on. Call it once the route is
+	 * out of the routing table, or new notes can come through behind it.
+	 *
+	 * @return how many note offs were sent
+	 */
+	int releaseNotes() {
+		try {
+			return notes.release(port != null ? port : target);
+		} catch (RuntimeException e) {
+			// Output already closed, the notes died with it
+			notes.clear();
+			return 0;
+		}
+	}
+
+	/**
+	 * Marks the route as gone and switches off its notes. Call it after the route
+	 * has left the routing table; a note that still slips through on a MIDI
+	 * thread holding the old table is switched off as soon as it is sent.
+	 */
+	void retire() {
+		retired = true;
+		releaseNotes();
+	}
+
+	/**
+	 * Detaches the route from its input. The target receiver is left open, it
+	 * belongs to whoever handed it in (the {@link DevicePool} for engine routes).
+	 */
+	public void close() {
+		source.disconnect(this);
+	}
+}
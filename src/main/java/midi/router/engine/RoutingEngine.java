@@ -0,0 +1,940 @@
+package midi.router.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiUnavailableException;
+
+import midi.router.stats.StatsRegistry;
+import midi.router.transform.TransformChain;
+
+/**
+ * Owns the devices and the routing table. Every open, close and rewire runs on
+ * one engine thread, so a slow driver never stalls the caller (the EDT in the
+ * GUI); callers get a future and front ends observe through
+ * {@link RoutingListener}.
+ */
+public class RoutingEngine implements AutoCloseable {
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "midi-router-engine");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Flushes every route's coalescer, one thread is plenty at millisecond windows
+	private final ScheduledExecutorService coalesceTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "midi-router-coalesce");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		return thread;
+	});
+	private final List<RoutingListener> listeners = new CopyOnWriteArrayList<>();
+	private final StatsRegistry statsRegistry = new StatsRegistry();
+	private final DeviceCatalogue catalogue = new DeviceCatalogue();
+
+	private final RoutingGraph graph = new RoutingGraph();
+
+	// Engine thread only
+	private final DevicePool pool = new DevicePool(graph);
+	private final Map<DeviceId, DeviceEntry> known = new ConcurrentHashMap<>();
+	private final List<DetachedRoute> detached = new ArrayList<>();
+	private final List<DeviceEntry> virtualDevices = new ArrayList<>();
+	private DeviceWatcher watcher;
+	private final Set<MidiDevice> standbyInputs = new HashSet<>();
+	private final Set<MidiDevice> standbyOutputs = new HashSet<>();
+	private final Set<MidiDevice> tappedInputs = new HashSet<>();
+	private Set<MidiDevice> merged = new HashSet<>();
+	private volatile ShardPool shards;
+
+	// Written on the engine thread, read by the UI to show the current choice
+	private final Map<DeviceId, BufferSettings> buffering = new ConcurrentHashMap<>();
+	private final Map<DeviceId, Integer> sysexRates = new ConcurrentHashMap<>();
+	private final Map<DeviceId, InputTap> taps = new ConcurrentHashMap<>();
+
+	// Read from anywhere, replaced wholesale on the engine thread
+	private volatile List<Route> routes = Collections.emptyList();
+	private volatile List<MidiDevice> inputs = Collections.emptyList();
+	private volatile List<MidiDevice> outputs = Collections.emptyList();
+	private volatile Map<String, Scene> scenes = Collections.emptyMap();
+	private volatile String activeScene;
+
+	public void addListener(RoutingListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(RoutingListener listener) {
+		listeners.remove(listener);
+	}
+
+	public RoutingGraph getGraph() {
+		return graph;
+	}
+
+	public DevicePool getPool() {
+		return pool;
+	}
+
+	public StatsRegistry getStatsRegistry() {
+		return statsRegistry;
+	}
+
+	public DeviceCatalogue getCatalogue() {
+		return catalogue;
+	}
+
+	/**
+	 * Rescans the ports through the {@link DeviceCatalogue}; {@code discovered}
+	 * fires per new port as soon as it has been probed, so callers can show
+	 * devices progressively.
+	 */
+	public CompletableFuture<List<DeviceEntry>> scanDevices(Consumer<DeviceEntry> discovered) {
+		return catalogue.scan(discovered).thenApplyAsync(scanned -> {
+			// Virtual ports never show up in a scan but must not look unplugged either
+			List<DeviceEntry> entries = new ArrayList<>(scanned);
+			entries.addAll(virtualDevices);
+			updateDeviceLists(entries);
+			applyScan(entries);
+			return entries;
+		}, executor);
+	}
+
+	private void updateDeviceLists(List<DeviceEntry> entries) {
+		List<MidiDevice> foundInputs = new ArrayList<>();
+		List<MidiDevice> foundOutputs = new ArrayList<>();
+		for (DeviceEntry entry : entries) {
+			if (entry.isInput()) {
+				foundInputs.add(entry.getDevice());
+			}
+			if (entry.isOutput()) {
+				foundOutputs.add(entry.getDevice());
+			}
+		}
+		inputs = Collections.unmodifiableList(foundInputs);
+		outputs = Collections.unmodifiableList(foundOutputs);
+	}
+
+	/**
+	 * Registers a port implemented inside the router. It is listed, routed and
+	 * reported to listeners like hardware, and routes parked on its id come back.
+	 */
+	public CompletableFuture<DeviceEntry> addVirtualDevice(VirtualMidiDevice device) {
+		return CompletableFuture.supplyAsync(() -> {
+			MidiDevice.Info info = device.getDeviceInfo();
+			DeviceEntry entry = new DeviceEntry(DeviceId.of(info, 0), info, device);
+			virtualDevices.add(entry);
+			List<DeviceEntry> entries = new ArrayList<>(known.values());
+			entries.add(entry);
+			updateDeviceLists(entries);
+			known.put(entry.getId(), entry);
+			for (RoutingListener listener : listeners) {
+				listener.deviceAdded(entry);
+			}
+			reattach();
+			refreshStandby();
+			return entry;
+		}, executor);
+	}
+
+	/**
+	 * Unregisters a virtual port; its routes are parked as if it was unplugged.
+	 */
+	public CompletableFuture<Void> removeVirtualDevice(VirtualMidiDevice device) {
+		return CompletableFuture.runAsync(() -> {
+			for (DeviceEntry entry : new ArrayList<>(virtualDevices)) {
+				if (entry.getDevice() == device) {
+					virtualDevices.remove(entry);
+					deviceLost(entry);
+				}
+			}
+			updateDeviceLists(new ArrayList<>(known.values()));
+		}, executor);
+	}
+
+	/**
+	 * Starts polling for hot-plugged ports. Routes on a port that disappears are
+	 * parked and come back by themselves when the same {@link DeviceId} returns;
+	 * routes between other ports are never touched.
+	 */
+	public synchronized void startWatching(long intervalMillis) {
+		if (watcher == null) {
+			watcher = new DeviceWatcher(this, intervalMillis);
+		}
+	}
+
+	private void applyScan(List<DeviceEntry> entries) {
+		Map<DeviceId, DeviceEntry> current = new HashMap<>();
+		for (DeviceEntry entry : entries) {
+			current.put(entry.getId(), entry);
+		}
+
+		for (DeviceEntry gone : new ArrayList<>(known.values())) {
+			DeviceEntry now = current.get(gone.getId());
+			if (now == null || now.getDevice() != gone.getDevice()) {
+				deviceLost(gone);
+			}
+		}
+		for (DeviceEntry entry : entries) {
+			if (!known.containsKey(entry.getId())) {
+				known.put(entry.getId(), entry);
+				for (RoutingListener listener : listeners) {
+					listener.deviceAdded(entry);
+				}
+			}
+		}
+		reattach();
+		refreshStandby();
+	}
+
+	private void deviceLost(DeviceEntry entry) {
+		MidiDevice device = entry.getDevice();
+		for (Route route : routes) {
+			if (route.getOutput() == device) {
+				// Nothing to send the note offs to
+				route.getActiveNotes().clear();
+			}
+			if (route.getInput() == device || route.getOutput() == device) {
+				DeviceId inputId = idOf(route.getInput());
+				DeviceId outputId = idOf(route.getOutput());
+				if (inputId != null && outputId != null) {
+					detached.add(new DetachedRoute(inputId, outputId, route.getTransforms(), route.getCoalescing()));
+				}
+				doDisconnect(route);
+			}
+		}
+		known.remove(entry.getId());
+
+		standbyInputs.remove(device);
+		standbyOutputs.remove(device);
+		tappedInputs.remove(device);
+		pool.evict(device);
+		for (RoutingListener listener : listeners) {
+			listener.deviceRemoved(entry);
+		}
+	}
+
+	private void reattach() {
+		for (DetachedRoute parked : new ArrayList<>(detached)) {
+			DeviceEntry input = known.get(parked.input);
+			DeviceEntry output = known.get(parked.output);
+			if (input == null || output == null) {
+				continue;
+			}
+			detached.remove(parked);
+			try {
+				Route route = doConnect(input.getDevice(), output.getDevice(), parked.transforms);
+				applyCoalescing(route, parked.coalescing);
+			} catch (MidiUnavailableException | RuntimeException e) {
+				for (RoutingListener listener : listeners) {
+					listener.routeFailed(input.getDevice(), output.getDevice(), e);
+				}
+			}
+		}
+		refreshTaps();
+	}
+
+	/**
+	 * @return the stable id sessions and scenes use for {@code device}
+	 */
+	public DeviceId getDeviceId(MidiDevice device) {
+		return idOf(device);
+	}
+
+	// Devices found by something other than a scan fall back to their first-instance id
+	private DeviceId idOf(MidiDevice device) {
+		for (DeviceEntry entry : known.values()) {
+			if (entry.getDevice() == device) {
+				return entry.getId();
+			}
+		}
+		return device == null ? null : DeviceId.of(device.getDeviceInfo(), 0);
+	}
+
+	/**
+	 * Puts an output behind a queue with its own sender thread, or back to direct
+	 * sends with {@code null}. The choice sticks to the device across reconnects
+	 * and hot-plug.
+	 */
+	public CompletableFuture<Void> setOutputBuffering(MidiDevice output, BufferSettings settings) {
+		return CompletableFuture.runAsync(() -> {
+			DeviceId id = idOf(output);
+			if (settings == null) {
+				buffering.remove(id);
+			} else {
+				buffering.put(id, settings);
+			}
+			OutputPort port = pool.getOutputPort(output);
+			if (port != null) {
+				applyOutputSettings(output, port);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Shows every message of an input to {@code tap} ahead of its routes, or
+	 * stops with {@code null}. The input is held open while tapped, and the tap
+	 * comes back with the device after an unplug.
+	 */
+	public CompletableFuture<Void> setInputTap(MidiDevice input, InputTap tap) {
+		return CompletableFuture.runAsync(() -> {
+			DeviceId id = idOf(input);
+			if (tap == null) {
+				taps.remove(id);
+				if (tappedInputs.remove(input)) {
+					InputFanOut fanOut = pool.getInputFanOut(input);
+					if (fanOut != null) {
+						fanOut.setTap(null);
+					}
+					pool.releaseInput(input);
+				}
+			} else {
+				taps.put(id, tap);
+				refreshTaps();
+			}
+		}, executor);
+	}
+
+	public boolean isTapped(MidiDevice input) {
+		DeviceId id = idOf(input);
+		return id != null && taps.containsKey(id);
+	}
+
+	private void refreshTaps() {
+		for (Map.Entry<DeviceId, InputTap> tap : taps.entrySet()) {
+			DeviceEntry entry = known.get(tap.getKey());
+			if (entry == null) {
+				continue;
+			}
+			MidiDevice device = entry.getDevice();
+			try {
+				InputFanOut fanOut = tappedInputs.contains(device) ? pool.getInputFanOut(device)
+						: pool.acquireInput(device);
+				fanOut.setTap(tap.getValue());
+				tappedInputs.add(device);
+			} catch (MidiUnavailableException | RuntimeException e) {
+				System.err.println("Could not tap input " + device.getDeviceInfo().getName() + ": " + e);
+			}
+		}
+	}
+
+	public BufferSettings getOutputBuffering(MidiDevice output) {
+		DeviceId id = idOf(output);
+		return id == null ? null : buffering.get(id);
+	}
+
+	/**
+	 * Caps how fast SysEx is fed to an output, 0 for no cap. Outputs start
+	 * uncapped, only one known to be on a DIN cable wants
+	 * {@link OutputPort#DIN_BYTES_PER_SECOND}; like buffering, the choice sticks
+	 * to the device.
+	 */
+	public CompletableFuture<Void> setSysexRate(MidiDevice output, int bytesPerSecond) {
+		return CompletableFuture.runAsync(() -> {
+			sysexRates.put(idOf(output), bytesPerSecond);
+			OutputPort port = pool.getOutputPort(output);
+			if (port != null) {
+				applyOutputSettings(output, port);
+			}
+		}, executor);
+	}
+
+	public int getSysexRate(MidiDevice output) {
+		DeviceId id = idOf(output);
+		Integer rate = id == null ? null : sysexRates.get(id);
+		return rate == null ? 0 : rate;
+	}
+
+	// After any change to the routes: outputs fed by more than one input get a merge
+	// stage, and lose it again when down to one, and sharded outputs are spread again
+	private void refreshOutputs() {
+		Map<MidiDevice, Integer> fanIn = new HashMap<>();
+		for (Route route : routes) {
+			fanIn.merge(route.getOutput(), 1, Integer::sum);
+		}
+		Set<MidiDevice> next = new HashSet<>();
+		for (Map.Entry<MidiDevice, Integer> entry : fanIn.entrySet()) {
+			if (entry.getValue() > 1) {
+				next.add(entry.getKey());
+			}
+		}
+		for (MidiDevice output : merged) {
+			OutputPort port = next.contains(output) ? null : pool.getOutputPort(output);
+			if (port != null) {
+				port.setMerging(false);
+			}
+		}
+		for (MidiDevice output : next) {
+			OutputPort port = pool.getOutputPort(output);
+			if (port != null) {
+				port.setMerging(true);
+			}
+		}
+		merged = next;
+		ShardPool current = shards;
+		if (current != null) {
+			current.rebalance();
+		}
+	}
+
+	/**
+	 * Sends to every output from a pool of {@code threads} workers, each output
+	 * pinned to one of them, instead of from the inputs' driver threads; 0 goes
+	 * back to sending on the inputs' threads. For rigs with many ports under
+	 * heavy load, where one busy input would otherwise hold up others. See
+	 * {@link ShardPool}.
+	 */
+	public CompletableFuture<Void> setSharding(int threads) {
+		return CompletableFuture.runAsync(() -> {
+			ShardPool previous = shards;
+			if (previous == null ? threads <= 0 : previous.size() == threads) {
+				return;
+			}
+			ShardPool next = threads <= 0 ? null : new ShardPool(threads, statsRegistry);
+			shards = next;
+			for (OutputPort port : pool.getOutputPorts()) {
+				port.setShards(next);
+			}
+			if (next != null) {
+				next.rebalance();
+			}
+			if (previous != null) {
+				previous.close();
+			}
+		}, executor);
+	}
+
+	/**
+	 * @return worker threads outputs are sharded over, 0 when not sharded
+	 */
+	public int getSharding() {
+		ShardPool current = shards;
+		return current == null ? 0 : current.size();
+	}
+
+	private void applyOutputSettings(MidiDevice output, OutputPort port) {
+		BufferSettings settings = buffering.get(idOf(output));
+		if (settings == null) {
+			port.disableBuffering();
+		} else {
+			settings.applyTo(port);
+		}
+		port.setSysexBytesPerSecond(getSysexRate(output));
+		port.setShards(shards);
+	}
+
+	public MidiDevice findInput(String name) {
+		return MidiDevices.find(inputs, name);
+	}
+
+	public MidiDevice findOutput(String name) {
+		return MidiDevices.find(outputs, name);
+	}
+
+	public List<MidiDevice> getInputs() {
+		return inputs;
+	}
+
+	public List<MidiDevice> getOutputs() {
+		return outputs;
+	}
+
+	public CompletableFuture<Route> connect(MidiDevice input, MidiDevice output) {
+		return connect(input, output, TransformChain.EMPTY);
+	}
+
+	public CompletableFuture<Route> connect(MidiDevice input, MidiDevice output, TransformChain transforms) {
+		CompletableFuture<Route> result = new CompletableFuture<>();
+		executor.execute(() -> {
+			try {
+				activeScene = null;
+				Route route = doConnect(input, output, transforms);
+				result.complete(route);
+			} catch (MidiUnavailableException | RuntimeException e) {
+				for (RoutingListener listener : listeners) {
+					listener.routeFailed(input, output, e);
+				}
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	private Route doConnect(MidiDevice input, MidiDevice output, TransformChain transforms)
+			throws MidiUnavailableException {
+		Route existing = findRoute(input, output);
+		if (existing != null) {
+			existing.setTransforms(transforms);
+			return existing;
+		}
+
+		Route route = prepareRoute(input, output, transforms);
+		graph.add(route);
+		List<Route> next = new ArrayList<>(routes);
+		next.add(route);
+		routes = Collections.unmodifiableList(next);
+		refreshOutputs();
+		announce(route);
+		return route;
+	}
+
+	// Leases both ends and builds a route that is not in the table yet
+	private Route prepareRoute(MidiDevice input, MidiDevice output, TransformChain transforms)
+			throws MidiUnavailableException {
+		// One open and one receiver per device, however many routes share it
+		OutputPort port = pool.acquireOutput(output);
+		applyOutputSettings(output, port);
+		DeviceId outputId = idOf(output);
+		statsRegistry.registerOutput(outputId, outputId.toString(), port.getStats());
+		Route route;
+		try {
+			route = pool.acquireInput(input).prepare(output, port);
+		} catch (MidiUnavailableException | RuntimeException e) {
+			pool.releaseInput(input);
+			pool.releaseOutput(output);
+			if (pool.getOutputPort(output) == null) {
+				statsRegistry.unregisterOutput(outputId);
+			}
+			throw e;
+		}
+		route.setTransforms(transforms);
+		return route;
+	}
+
+	private void announce(Route route) {
+		List<DeviceId> key = statsKey(route);
+		statsRegistry.register(key, key.get(0) + " -> " + key.get(1), route.getStats());
+		for (RoutingListener listener : listeners) {
+			listener.routeAdded(route);
+		}
+	}
+
+	public CompletableFuture<Boolean> disconnect(MidiDevice input, MidiDevice output) {
+		return CompletableFuture.supplyAsync(() -> {
+			activeScene = null;
+			return doDisconnect(findRoute(input, output));
+		}, executor);
+	}
+
+	public CompletableFuture<Boolean> disconnect(Route route) {
+		return CompletableFuture.supplyAsync(() -> {
+			activeScene = null;
+			return doDisconnect(route);
+		}, executor);
+	}
+
+	/**
+	 * Thins controller streams on a route, or stops thinning with {@code null}.
+	 */
+	public CompletableFuture<Void> setCoalescing(Route route, CoalesceSettings settings) {
+		return CompletableFuture.runAsync(() -> applyCoalescing(route, settings), executor);
+	}
+
+	private void applyCoalescing(Route route, CoalesceSettings settings) {
+		if (settings == null ? route.getCoalescing() == null : settings.equals(route.getCoalescing())) {
+			return;
+		}
+		route.setCoalescer(settings == null ? null : new Coalescer(route, settings, coalesceTimer));
+	}
+
+	private boolean doDisconnect(Route route) {
+		if (route == null || !routes.contains(route)) {
+			return false;
+		}
+		List<Route> next = new ArrayList<>(routes);
+		next.remove(route);
+		routes = Collections.unmodifiableList(next);
+		refreshOutputs();
+		route.close();
+		retire(route);
+		return true;
+	}
+
+	// Releases what a route held once it is out of the table
+	private void retire(Route route) {
+		// Last controller values still go out before the cable is pulled, then the note offs
+		route.setCoalescer(null);
+		route.retire();
+		statsRegistry.unregister(statsKey(route));
+		pool.releaseInput(route.getInput());
+		pool.releaseOutput(route.getOutput());
+		if (pool.getOutputPort(route.getOutput()) == null) {
+			statsRegistry.unregisterOutput(idOf(route.getOutput()));
+		}
+		for (RoutingListener listener : listeners) {
+			listener.routeRemoved(route);
+		}
+	}
+
+	// By device id, so routes between same-named devices do not share stats
+	private List<DeviceId> statsKey(Route route) {
+		return Arrays.asList(idOf(route.getInput()), idOf(route.getOutput()));
+	}
+
+	public List<Route> listRoutes() {
+		return routes;
+	}
+
+	public Route findRoute(MidiDevice input, MidiDevice output) {
+		for (Route route : routes) {
+			if (route.getInput() == input && route.getOutput() == output) {
+				return route;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * For activity meters: messages the input has received while open. Starts
+	 * again from 0 when the input is closed and reopened.
+	 */
+	public long getReceivedCount(MidiDevice input) {
+		InputFanOut fanOut = pool.getInputFanOut(input);
+		return fanOut == null ? 0 : fanOut.getReceived();
+	}
+
+	/**
+	 * For activity meters: messages sent to the output while open. Starts again
+	 * from 0 when the output is closed and reopened.
+	 */
+	public long getSentCount(MidiDevice output) {
+		OutputPort port = pool.getOutputPort(output);
+		return port == null ? 0 : port.getStats().getSent();
+	}
+
+	public RoutingSnapshot snapshot() {
+		return new RoutingSnapshot(routes);
+	}
+
+	/**
+	 * Describes the current rig, including routes parked on unplugged ports.
+	 */
+	public CompletableFuture<Session> captureSession() {
+		return CompletableFuture.supplyAsync(() -> {
+			List<Session.RouteEntry> entries = new ArrayList<>();
+			for (Route route : routes) {
+				entries.add(new Session.RouteEntry(idOf(route.getInput()), idOf(route.getOutput()),
+						route.getTransforms(), route.getCoalescing()));
+			}
+			for (DetachedRoute parked : detached) {
+				entries.add(new Session.RouteEntry(parked.input, parked.output, parked.transforms, parked.coalescing));
+			}
+			return new Session(entries, buffering, sysexRates);
+		}, executor);
+	}
+
+	/**
+	 * Makes the rig match {@code session}, see {@link #switchScene} for how the
+	 * table is replaced. All devices are opened side by side first, so a restore
+	 * takes about as long as the slowest driver rather than the sum of them.
+	 * Routes on ports that are not plugged in are parked until they are.
+	 *
+	 * @return number of routes live once the session is applied
+	 */
+	public CompletableFuture<Integer> applySession(Session session) {
+		return CompletableFuture.supplyAsync(() -> {
+			activeScene = null;
+			return doSwitch(session);
+		}, executor);
+	}
+
+	/**
+	 * Adds a scene, or replaces the one with the same name. The devices of every
+	 * scene are kept open on standby so switching never waits on a driver, and
+	 * the scene's trigger is listened for on every open input.
+	 */
+	public CompletableFuture<Void> putScene(Scene scene) {
+		return CompletableFuture.runAsync(() -> {
+			Map<String, Scene> next = new LinkedHashMap<>(scenes);
+			next.put(scene.getName(), scene);
+			setScenes(next);
+		}, executor);
+	}
+
+	public CompletableFuture<Void> removeScene(String name) {
+		return CompletableFuture.runAsync(() -> {
+			Map<String, Scene> next = new LinkedHashMap<>(scenes);
+			if (next.remove(name) != null) {
+				setScenes(next);
+			}
+		}, executor);
+	}
+
+	public List<Scene> getScenes() {
+		return new ArrayList<>(scenes.values());
+	}
+
+	/**
+	 * @return the scene last switched to, or null once routes were edited by hand
+	 */
+	public String getActiveScene() {
+		return activeScene;
+	}
+
+	/**
+	 * Replaces the whole routing table with the scene's in a single swap: no
+	 * message is routed through a mix of old and new routes. Routes the scene
+	 * shares with the current table (same ports, equal transforms) are kept as
+	 * they are, so held notes on them carry on; routes it drops are sent a
+	 * NOTE_OFF for each note they left sounding.
+	 *
+	 * @return number of routes live in the scene, or -1 if there is no such scene
+	 */
+	public CompletableFuture<Integer> switchScene(String name) {
+		return CompletableFuture.supplyAsync(() -> {
+			Scene scene = scenes.get(name);
+			if (scene == null) {
+				return -1;
+			}
+			int live = doSwitch(scene.getSession());
+			activeScene = name;
+			for (RoutingListener listener : listeners) {
+				listener.sceneSwitched(scene);
+			}
+			return live;
+		}, executor);
+	}
+
+	// Called on the MIDI thread that saw the trigger
+	private void requestScene(String name) {
+		if (!name.equals(activeScene)) {
+			switchScene(name);
+		}
+	}
+
+	private void setScenes(Map<String, Scene> next) {
+		scenes = Collections.unmodifiableMap(next);
+		Map<String, SceneTrigger> triggers = new LinkedHashMap<>();
+		for (Scene scene : next.values()) {
+			if (scene.getTrigger() != null) {
+				triggers.put(scene.getName(), scene.getTrigger());
+			}
+		}
+		graph.setTriggers(triggers.isEmpty() ? SceneTriggers.NONE : new SceneTriggers(triggers), this::requestScene);
+		refreshStandby();
+	}
+
+	private int doSwitch(Session session) {
+		buffering.clear();
+		buffering.putAll(session.getBuffers());
+		// The rate belongs to the cable rather than the rig, a session only sets the ones it knows
+		sysexRates.putAll(session.getSysexRates());
+
+		detached.clear();
+		List<Session.RouteEntry> ready = new ArrayList<>();
+		Set<MidiDevice> devices = new LinkedHashSet<>();
+		for (Session.RouteEntry entry : session.getRoutes()) {
+			DeviceEntry input = known.get(entry.getInput());
+			DeviceEntry output = known.get(entry.getOutput());
+			if (input == null || output == null) {
+				detached.add(new DetachedRoute(entry.getInput(), entry.getOutput(), entry.getTransforms(),
+						entry.getCoalescing()));
+			} else {
+				ready.add(entry);
+				devices.add(input.getDevice());
+				devices.add(output.getDevice());
+			}
+		}
+		List<MidiDevice> opened = openInParallel(devices);
+
+		// Build the next table beside the live one
+		List<Route> kept = new ArrayList<>();
+		List<Route> added = new ArrayList<>();
+		for (Session.RouteEntry entry : ready) {
+			MidiDevice input = known.get(entry.getInput()).getDevice();
+			MidiDevice output = known.get(entry.getOutput()).getDevice();
+			Route existing = findRoute(input, output);
+			if (existing != null && existing.getTransforms().equals(entry.getTransforms())) {
+				if (!kept.contains(existing)) {
+					kept.add(existing);
+				}
+				continue;
+			}
+			try {
+				Route route = prepareRoute(input, output, entry.getTransforms());
+				applyCoalescing(route, entry.getCoalescing());
+				added.add(route);
+			} catch (MidiUnavailableException | RuntimeException e) {
+				for (RoutingListener listener : listeners) {
+					listener.routeFailed(input, output, e);
+				}
+			}
+		}
+		List<Route> removed = new ArrayList<>(routes);
+		removed.removeAll(kept);
+		List<Route> next = new ArrayList<>(kept);
+		next.addAll(added);
+
+		graph.swap(RoutingTable.of(next));
+		routes = Collections.unmodifiableList(next);
+		refreshOutputs();
+
+		// The new graph is live, tidy up behind it
+		for (Route route : removed) {
+			retire(route);
+		}
+		for (Route route : added) {
+			announce(route);
+		}
+		for (Session.RouteEntry entry : ready) {
+			Route route = findRoute(known.get(entry.getInput()).getDevice(), known.get(entry.getOutput()).getDevice());
+			if (route != null && kept.contains(route)) {
+				applyCoalescing(route, entry.getCoalescing());
+			}
+		}
+		for (MidiDevice output : outputs) {
+			OutputPort port = pool.getOutputPort(output);
+			if (port != null) {
+				applyOutputSettings(output, port);
+			}
+		}
+
+		// Opened for a route that then failed to wire
+		for (MidiDevice device : opened) {
+			if (pool.getLeaseCount(device) == 0) {
+				device.close();
+			}
+		}
+		return next.size();
+	}
+
+	// Holds one lease on every present device a scene uses, so a switch only builds routes
+	private void refreshStandby() {
+		Set<MidiDevice> wantInputs = new LinkedHashSet<>();
+		Set<MidiDevice> wantOutputs = new LinkedHashSet<>();
+		for (Scene scene : scenes.values()) {
+			for (Session.RouteEntry entry : scene.getSession().getRoutes()) {
+				DeviceEntry input = known.get(entry.getInput());
+				DeviceEntry output = known.get(entry.getOutput());
+				if (input != null) {
+					wantInputs.add(input.getDevice());
+				}
+				if (output != null) {
+					wantOutputs.add(output.getDevice());
+				}
+			}
+		}
+
+		for (MidiDevice device : new ArrayList<>(standbyInputs)) {
+			if (!wantInputs.contains(device)) {
+				standbyInputs.remove(device);
+				pool.releaseInput(device);
+			}
+		}
+		for (MidiDevice device : new ArrayList<>(standbyOutputs)) {
+			if (!wantOutputs.contains(device)) {
+				standbyOutputs.remove(device);
+				pool.releaseOutput(device);
+			}
+		}
+
+		Set<MidiDevice> missing = new LinkedHashSet<>(wantInputs);
+		missing.removeAll(standbyInputs);
+		Set<MidiDevice> missingOutputs = new LinkedHashSet<>(wantOutputs);
+		missingOutputs.removeAll(standbyOutputs);
+		missing.addAll(missingOutputs);
+		openInParallel(missing);
+		for (MidiDevice device : wantInputs) {
+			if (!standbyInputs.contains(device)) {
+				try {
+					pool.acquireInput(device);
+					standbyInputs.add(device);
+				} catch (MidiUnavailableException | RuntimeException e) {
+					System.err.println("Could not hold scene input open: " + device.getDeviceInfo().getName());
+				}
+			}
+		}
+		for (MidiDevice device : wantOutputs) {
+			if (!standbyOutputs.contains(device)) {
+				try {
+					applyOutputSettings(device, pool.acquireOutput(device));
+					standbyOutputs.add(device);
+				} catch (MidiUnavailableException | RuntimeException e) {
+					System.err.println("Could not hold scene output open: " + device.getDeviceInfo().getName());
+				}
+			}
+		}
+	}
+
+	// Failures are left for the connect that follows to report
+	private List<MidiDevice> openInParallel(Set<MidiDevice> devices) {
+		List<MidiDevice> opened = Collections.synchronizedList(new ArrayList<MidiDevice>());
+		List<CompletableFuture<Void>> pending = new ArrayList<>();
+		for (MidiDevice device : devices) {
+			if (device.isOpen()) {
+				continue;
+			}
+			pending.add(CompletableFuture.runAsync(() -> {
+				try {
+					device.open();
+					opened.add(device);
+				} catch (MidiUnavailableException | RuntimeException e) {
+					System.err.println("Error opening device: " + device.getDeviceInfo().getName());
+				}
+			}, catalogue.getExecutor()));
+		}
+		CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+		return opened;
+	}
+
+	/**
+	 * Tears down every route and closes every device the engine opened.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (watcher != null) {
+				watcher.close();
+				watcher = null;
+			}
+		}
+		CompletableFuture<Void> done = CompletableFuture.runAsync(() -> {
+			for (Route route : new ArrayList<>(routes)) {
+				doDisconnect(route);
+			}
+			pool.closeAll();
+			ShardPool current = shards;
+			shards = null;
+			if (current != null) {
+				current.close();
+			}
+		}, executor);
+		try {
+			done.get(5, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			System.err.println("Routing engine did not shut down cleanly: " + e);
+		}
+		executor.shutdown();
+		coalesceTimer.shutdownNow();
+		catalogue.close();
+	}
+
+	// A route whose device went away, waiting for it to come back
+	private static class DetachedRoute {
+		final DeviceId input;
+		final DeviceId output;
+		final TransformChain transforms;
+		final CoalesceSettings coalescing;
+
+		DetachedRoute(DeviceId input, DeviceId output, TransformChain transforms, CoalesceSettings coalescing) {
+			this.input = input;
+			this.output = output;
+			this.transforms = transforms;
+			this.coalescing = coalescing;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package midi.router.engine;
+
+import java.util.BitSet;
+import java.util.function.Consumer;
+
+/**
+ * The routing table every {@link InputFanOut} reads. Inputs only hold a slot
+ * number; the routes of all of them sit in one immutable {@link RoutingTable}
+ * behind a single volatile field, so {@link #swap} rewires the whole graph in
+ * one write and no message is ever routed through half of an old graph.
+ *
+ * Edits are serialised here; the MIDI threads never lock.
+ */
+public class RoutingGraph {
+	private volatile RoutingTable table = RoutingTable.EMPTY;
+	private volatile SceneTriggers triggers = SceneTriggers.NONE;
+	private volatile Consumer<String> sceneRequests;
+	private final BitSet slots = new BitSet();
+
+	public RoutingTable getTable() {
+		return table;
+	}
+
+	synchronized int allocateSlot() {
+		int slot = slots.nextClearBit(0);
+		slots.set(slot);
+		return slot;
+	}
+
+	synchronized void freeSlot(int slot) {
+		table = table.withoutSlot(slot);
+		slots.clear(slot);
+	}
+
+	synchronized void add(Route route) {
+		table = table.with(route);
+	}
+
+	synchronized boolean remove(Route route) {
+		RoutingTable current = table;
+		RoutingTable next = current.without(route);
+		table = next;
+		return next != current;
+	}
+
+	/**
+	 * Publishes a whole new table at once.
+	 *
+	 * @return the table it replaced
+	 */
+	synchronized RoutingTable swap(RoutingTable next) {
+		RoutingTable previous = table;
+		table = next;
+		return previous;
+	}
+
+	/**
+	 * @param requests called on the MIDI thread with the name of a triggered scene
+	 */
+	void setTriggers(SceneTriggers triggers, Consumer<String> requests) {
+		this.sceneRequests = requests;
+		this.triggers = triggers;
+	}
+
+	void checkTrigger(int packed) {
+		SceneTriggers current = triggers;
+		if (current.isEmpty()) {
+			return;
+		}
+		String scene = current.match(packed);
+		if (scene != null) {
+			sceneRequests.accept(scene);
+		}
+	}
+}
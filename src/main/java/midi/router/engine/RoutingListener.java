@@ -0,0 +1,38 @@
+package midi.router.engine;
+
+import javax.sound.midi.MidiDevice;
+
+/**
+ * Observer for {@link RoutingEngine} changes. Callbacks arrive on the engine
+ * thread, so UI code has to hop to its own thread before touching components.
+ */
+public interface RoutingListener {
+	default void routeAdded(Route route) {
+	}
+
+	default void routeRemoved(Route route) {
+	}
+
+	default void routeFailed(MidiDevice input, MidiDevice output, Exception cause) {
+	}
+
+	/**
+	 * A port appeared, either on the first scan or because it was plugged in.
+	 */
+	default void deviceAdded(DeviceEntry entry) {
+	}
+
+	/**
+	 * A port vanished. Its routes have already been reported removed and will be
+	 * re-attached if the same device comes back.
+	 */
+	default void deviceRemoved(DeviceEntry entry) {
+	}
+
+	/**
+	 * The whole routing table was replaced by a scene; per route changes have
+	 * already been reported.
+	 */
+	default void sceneSwitched(Scene scene) {
+	}
+}
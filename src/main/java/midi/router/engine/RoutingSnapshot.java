@@ -0,0 +1,66 @@
+package midi.router.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import midi.router.stats.RouteStatsSnapshot;
+import midi.router.transform.TransformChain;
+
+/**
+ * Immutable view of the routing table at one point in time.
+ */
+public class RoutingSnapshot {
+	private final List<Entry> entries;
+
+	RoutingSnapshot(List<Route> routes) {
+		List<Entry> entries = new ArrayList<>(routes.size());
+		for (Route route : routes) {
+			entries.add(new Entry(route.getInput().getDeviceInfo().getName(),
+					route.getOutput() == null ? null : route.getOutput().getDeviceInfo().getName(),
+					route.getTransforms(), route.getCoalescing(), route.getStats().snapshot(route.getName())));
+		}
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	public static class Entry {
+		private final String input;
+		private final String output;
+		private final TransformChain transforms;
+		private final CoalesceSettings coalescing;
+		private final RouteStatsSnapshot stats;
+
+		Entry(String input, String output, TransformChain transforms, CoalesceSettings coalescing,
+				RouteStatsSnapshot stats) {
+			this.input = input;
+			this.output = output;
+			this.transforms = transforms;
+			this.coalescing = coalescing;
+			this.stats = stats;
+		}
+
+		public String getInput() {
+			return input;
+		}
+
+		public String getOutput() {
+			return output;
+		}
+
+		public TransformChain getTransforms() {
+			return transforms;
+		}
+
+		public CoalesceSettings getCoalescing() {
+			return coalescing;
+		}
+
+		public RouteStatsSnapshot getStats() {
+			return stats;
+		}
+	}
+}
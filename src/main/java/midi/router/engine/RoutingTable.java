@@ -0,0 +1,100 @@
+package midi.router.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable routes of every input, indexed by the input's slot in its
+ * {@link RoutingGraph}. Edits return a new table and leave this one alone, so
+ * a MIDI thread holding it keeps a consistent view until its next message.
+ */
+public final class RoutingTable {
+	static final Route[] NO_ROUTES = new Route[0];
+	public static final RoutingTable EMPTY = new RoutingTable(new Route[0][]);
+
+	private final Route[][] bySlot;
+
+	private RoutingTable(Route[][] bySlot) {
+		this.bySlot = bySlot;
+	}
+
+	/**
+	 * Builds a table holding exactly {@code routes}.
+	 */
+	public static RoutingTable of(Collection<Route> routes) {
+		RoutingTable table = EMPTY;
+		for (Route route : routes) {
+			table = table.with(route);
+		}
+		return table;
+	}
+
+	Route[] routesFor(int slot) {
+		Route[] routes = slot < bySlot.length ? bySlot[slot] : null;
+		return routes == null ? NO_ROUTES : routes;
+	}
+
+	public boolean contains(Route route) {
+		for (Route candidate : routesFor(route.getSource().getSlot())) {
+			if (candidate == route) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public List<Route> getRoutes() {
+		List<Route> routes = new ArrayList<>();
+		for (Route[] slot : bySlot) {
+			if (slot != null) {
+				routes.addAll(Arrays.asList(slot));
+			}
+		}
+		return routes;
+	}
+
+	RoutingTable with(Route route) {
+		int slot = route.getSource().getSlot();
+		Route[][] next = Arrays.copyOf(bySlot, Math.max(bySlot.length, slot + 1));
+		Route[] current = routesFor(slot);
+		Route[] routes = Arrays.copyOf(current, current.length + 1);
+		routes[current.length] = route;
+		next[slot] = routes;
+		return new RoutingTable(next);
+	}
+
+	RoutingTable without(Route route) {
+		int slot = route.getSource().getSlot();
+		Route[] current = routesFor(slot);
+		int index = -1;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == route) {
+				index = i;
+				break;
+			}
+		}
+		if (index < 0) {
+			return this;
+		}
+		Route[] routes = NO_ROUTES;
+		if (current.length > 1) {
+			routes = new Route[current.length - 1];
+			System.arraycopy(current, 0, routes, 0, index);
+			System.arraycopy(current, index + 1, routes, index, current.length - index - 1);
+		}
+		Route[][] next = bySlot.clone();
+		next[slot] = routes;
+		return new RoutingTable(next);
+	}
+
+	RoutingTable withoutSlot(int slot) {
+		if (routesFor(slot).length == 0) {
+			return this;
+		}
+		Route[][] next = bySlot.clone();
+		next[slot] = null;
+		return new RoutingTable(next);
+	}
+}
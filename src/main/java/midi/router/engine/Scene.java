@@ -0,0 +1,40 @@
+package midi.router.engine;
+
+/**
+ * A named routing graph the engine can switch to in one step, optionally on a
+ * Program Change or CC from any input.
+ */
+public final class Scene {
+	private final String name;
+	private final SceneTrigger trigger;
+	private final Session session;
+
+	public Scene(String name, SceneTrigger trigger, Session session) {
+		if (name == null || name.trim().isEmpty()) {
+			throw new IllegalArgumentException("Scene needs a name");
+		}
+		this.name = name;
+		this.trigger = trigger;
+		this.session = session;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the message that switches to this scene, or null for menu only
+	 */
+	public SceneTrigger getTrigger() {
+		return trigger;
+	}
+
+	public Session getSession() {
+		return session;
+	}
+
+	@Override
+	public String toString() {
+		return trigger == null ? name : name + " (" + trigger + ")";
+	}
+}
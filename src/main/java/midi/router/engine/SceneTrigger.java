@@ -0,0 +1,103 @@
+package midi.router.engine;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * MIDI message that switches to a scene: a Program Change, or a Control Change
+ * going to 64 or above (a footswitch press), on one channel or on any.
+ */
+public final class SceneTrigger {
+	public static final int ANY_CHANNEL = -1;
+
+	private final int command;
+	private final int channel;
+	private final int number;
+
+	private SceneTrigger(int command, int channel, int number) {
+		if (channel < ANY_CHANNEL || channel > 15 || number < 0 || number > 127) {
+			throw new IllegalArgumentException("Channel or number out of range");
+		}
+		this.command = command;
+		this.channel = channel;
+		this.number = number;
+	}
+
+	/**
+	 * @param channel 0-15, or {@link #ANY_CHANNEL}
+	 */
+	public static SceneTrigger programChange(int channel, int program) {
+		return new SceneTrigger(ShortMessage.PROGRAM_CHANGE, channel, program);
+	}
+
+	/**
+	 * @param channel 0-15, or {@link #ANY_CHANNEL}
+	 */
+	public static SceneTrigger controlChange(int channel, int controller) {
+		return new SceneTrigger(ShortMessage.CONTROL_CHANGE, channel, controller);
+	}
+
+	/**
+	 * Reads the {@link #toString} form back, e.g. {@code PC 5} or
+	 * {@code CC 80 ch 16}; channels are written 1-16.
+	 */
+	public static SceneTrigger parse(String text) {
+		String[] parts = text.trim().split("\\s+");
+		try {
+			int channel = ANY_CHANNEL;
+			if (parts.length == 4 && parts[2].equalsIgnoreCase("ch")) {
+				channel = Integer.parseInt(parts[3]) - 1;
+			} else if (parts.length != 2) {
+				throw new IllegalArgumentException("Expected 'PC n' or 'CC n', optionally followed by 'ch n'");
+			}
+			int number = Integer.parseInt(parts[1]);
+			if (parts[0].equalsIgnoreCase("PC")) {
+				return programChange(channel, number);
+			}
+			if (parts[0].equalsIgnoreCase("CC")) {
+				return controlChange(channel, number);
+			}
+			throw new IllegalArgumentException("Expected PC or CC, got '" + parts[0] + "'");
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad number in '" + text + "'");
+		}
+	}
+
+	public boolean isProgramChange() {
+		return command == ShortMessage.PROGRAM_CHANGE;
+	}
+
+	public int getCommand() {
+		return command;
+	}
+
+	public int getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return program number for a Program Change, controller number for a CC
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof SceneTrigger)) {
+			return false;
+		}
+		SceneTrigger other = (SceneTrigger) o;
+		return command == other.command && channel == other.channel && number == other.number;
+	}
+
+	@Override
+	public int hashCode() {
+		return (command * 31 + channel) * 131 + number;
+	}
+
+	@Override
+	public String toString() {
+		String text = (isProgramChange() ? "PC " : "CC ") + number;
+		return channel == ANY_CHANNEL ? text : text + " ch " + (channel + 1);
+	}
+}
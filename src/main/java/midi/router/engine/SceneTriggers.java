@@ -0,0 +1,57 @@
+package midi.router.engine;
+
+import java.util.Map;
+
+import javax.sound.midi.ShortMessage;
+
+import midi.router.transform.ShortMessages;
+
+/**
+ * Lookup from incoming Program Change and CC messages to scene names, one
+ * array index per message. Immutable; the graph swaps in a new one when the
+ * scene list changes.
+ */
+final class SceneTriggers {
+	static final SceneTriggers NONE = new SceneTriggers();
+
+	// [program change or CC][channel][number]
+	private final String[] scenes = new String[2 * 16 * 128];
+	private final boolean empty;
+
+	private SceneTriggers() {
+		empty = true;
+	}
+
+	SceneTriggers(Map<String, SceneTrigger> triggers) {
+		for (Map.Entry<String, SceneTrigger> entry : triggers.entrySet()) {
+			SceneTrigger trigger = entry.getValue();
+			int kind = trigger.isProgramChange() ? 0 : 1;
+			for (int channel = 0; channel < 16; channel++) {
+				if (trigger.getChannel() == SceneTrigger.ANY_CHANNEL || trigger.getChannel() == channel) {
+					scenes[(kind * 16 + channel) * 128 + trigger.getNumber()] = entry.getKey();
+				}
+			}
+		}
+		empty = triggers.isEmpty();
+	}
+
+	boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * @return the scene {@code packed} switches to, or null
+	 */
+	String match(int packed) {
+		int command = ShortMessages.command(packed);
+		int kind;
+		if (command == ShortMessage.PROGRAM_CHANGE) {
+			kind = 0;
+		} else if (command == ShortMessage.CONTROL_CHANGE && ShortMessages.data2(packed) >= 64) {
+			kind = 1;
+		} else {
+			return null;
+		}
+		return scenes[(kind * 16 + (packed & 0x0F)) * 128 + ShortMessages.data1(packed)];
+	}
+}
@@ -0,0 +1,85 @@
+package midi.router.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import midi.router.transform.TransformChain;
+
+/**
+ * A whole rig as data: every route with its transforms and coalescing, every
+ * buffered output and every output given a SysEx rate, all keyed by
+ * {@link DeviceId} so it can be saved, loaded on another day and applied
+ * whatever order the ports enumerate in.
+ */
+public final class Session {
+	private final List<RouteEntry> routes;
+	private final Map<DeviceId, BufferSettings> buffers;
+	private final Map<DeviceId, Integer> sysexRates;
+
+	public Session(List<RouteEntry> routes, Map<DeviceId, BufferSettings> buffers) {
+		this(routes, buffers, Collections.<DeviceId, Integer>emptyMap());
+	}
+
+	public Session(List<RouteEntry> routes, Map<DeviceId, BufferSettings> buffers,
+			Map<DeviceId, Integer> sysexRates) {
+		this.routes = Collections.unmodifiableList(new ArrayList<>(routes));
+		this.buffers = Collections.unmodifiableMap(new LinkedHashMap<>(buffers));
+		this.sysexRates = Collections.unmodifiableMap(new LinkedHashMap<>(sysexRates));
+	}
+
+	public List<RouteEntry> getRoutes() {
+		return routes;
+	}
+
+	public Map<DeviceId, BufferSettings> getBuffers() {
+		return buffers;
+	}
+
+	/**
+	 * @return SysEx byte rate by output, 0 for no cap; outputs left out keep theirs
+	 */
+	public Map<DeviceId, Integer> getSysexRates() {
+		return sysexRates;
+	}
+
+	public static final class RouteEntry {
+		private final DeviceId input;
+		private final DeviceId output;
+		private final TransformChain transforms;
+		private final CoalesceSettings coalescing;
+
+		public RouteEntry(DeviceId input, DeviceId output, TransformChain transforms, CoalesceSettings coalescing) {
+			this.input = input;
+			this.output = output;
+			this.transforms = transforms == null ? TransformChain.EMPTY : transforms;
+			this.coalescing = coalescing;
+		}
+
+		public DeviceId getInput() {
+			return input;
+		}
+
+		public DeviceId getOutput() {
+			return output;
+		}
+
+		public TransformChain getTransforms() {
+			return transforms;
+		}
+
+		/**
+		 * @return coalescing for the route, or null if it forwards every value
+		 */
+		public CoalesceSettings getCoalescing() {
+			return coalescing;
+		}
+
+		@Override
+		public String toString() {
+			return input + " -> " + output;
+		}
+	}
+}
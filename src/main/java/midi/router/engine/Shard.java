@@ -0,0 +1,127 @@
+package midi.router.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import midi.router.stats.ShardStats;
+
+/**
+ * One worker of a {@link ShardPool}: a thread that drains the outputs pinned
+ * to it in turn, a few batches each per pass, so a busy output cannot starve
+ * the others on the shard for long.
+ */
+final class Shard implements Runnable {
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	// Per output per pass, 256 events
+	private static final int BATCHES_PER_PASS = 4;
+
+	private final String name;
+	private final ShardStats stats = new ShardStats();
+	private final Thread thread;
+	// Replaced wholesale by the pool, read on every pass
+	private volatile OutputSender[] senders = new OutputSender[0];
+	private volatile boolean running = true;
+	private volatile boolean parked;
+
+	Shard(String name) {
+		this.name = name;
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	String getName() {
+		return name;
+	}
+
+	ShardStats getStats() {
+		return stats;
+	}
+
+	OutputSender[] getSenders() {
+		return senders;
+	}
+
+	// Pool lock held
+	void add(OutputSender sender) {
+		OutputSender[] next = Arrays.copyOf(senders, senders.length + 1);
+		next[next.length - 1] = sender;
+		setSenders(next);
+		sender.setShard(this);
+		wake();
+	}
+
+	// Pool lock held
+	void remove(OutputSender sender) {
+		OutputSender[] current = senders;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == sender) {
+				OutputSender[] next = new OutputSender[current.length - 1];
+				System.arraycopy(current, 0, next, 0, i);
+				System.arraycopy(current, i + 1, next, i, next.length - i);
+				setSenders(next);
+				return;
+			}
+		}
+	}
+
+	private void setSenders(OutputSender[] next) {
+		senders = next;
+		String[] names = new String[next.length];
+		for (int i = 0; i < next.length; i++) {
+			names[i] = next[i].getName();
+		}
+		stats.setOutputs(names);
+	}
+
+	void wake() {
+		if (parked) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			long start = System.nanoTime();
+			int sent = 0;
+			OutputSender[] current = senders;
+			for (int i = 0; i < current.length; i++) {
+				sent += current[i].drainOnce(BATCHES_PER_PASS);
+			}
+			long end = System.nanoTime();
+			if (sent > 0) {
+				stats.recordBusy(end - start, sent);
+			}
+			stats.tick(end);
+			if (sent == 0 && running) {
+				parked = true;
+				if (!hasPending(current)) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				parked = false;
+			}
+		}
+	}
+
+	private static boolean hasPending(OutputSender[] current) {
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].hasPending()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void shutdown() {
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
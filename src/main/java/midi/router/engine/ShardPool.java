@@ -0,0 +1,126 @@
+package midi.router.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import midi.router.stats.StatsRegistry;
+
+/**
+ * A fixed set of worker threads, one per core by default, that drains every
+ * output's queue in place of sending on the inputs' driver threads or giving
+ * each output a thread of its own. Each output is pinned to one shard, so its
+ * events keep their order, and many outputs share a shard.
+ *
+ * {@link #rebalance} spreads the outputs by the traffic each has sent since
+ * the last rebalance, busiest first onto the least loaded shard, and leaves an
+ * output where it is when that is as good as anywhere. How busy each shard is
+ * shows in the {@link StatsRegistry}; a shard near 100% means the pool, not
+ * the drivers, is what limits its outputs.
+ */
+public final class ShardPool {
+	private final Shard[] shards;
+	private final StatsRegistry registry;
+
+	public ShardPool(int size, StatsRegistry registry) {
+		if (size < 1) {
+			throw new IllegalArgumentException("A shard pool needs at least one thread, got " + size);
+		}
+		this.registry = registry;
+		shards = new Shard[size];
+		for (int i = 0; i < size; i++) {
+			shards[i] = new Shard("midi-shard-" + i);
+			registry.registerShard(shards[i].getName(), shards[i].getStats());
+		}
+	}
+
+	public static int defaultSize() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	public int size() {
+		return shards.length;
+	}
+
+	// New outputs have no traffic yet, they go to the shard with the fewest
+	synchronized void add(OutputSender sender) {
+		Shard target = shards[0];
+		for (Shard shard : shards) {
+			if (shard.getSenders().length < target.getSenders().length) {
+				target = shard;
+			}
+		}
+		sender.lastSent = sender.getStats().getSent();
+		target.add(sender);
+	}
+
+	synchronized void remove(OutputSender sender) {
+		Shard shard = sender.getShard();
+		if (shard != null) {
+			shard.remove(sender);
+			sender.setShard(null);
+		}
+	}
+
+	/**
+	 * Re-pins outputs so the traffic since the last call is spread as evenly as
+	 * it can be. Safe while events flow: an output moves between two passes of
+	 * its old shard and is never drained by both.
+	 */
+	public synchronized void rebalance() {
+		List<OutputSender> senders = new ArrayList<>();
+		for (Shard shard : shards) {
+			Collections.addAll(senders, shard.getSenders());
+		}
+		final long[] weights = new long[senders.size()];
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < weights.length; i++) {
+			OutputSender sender = senders.get(i);
+			long sent = sender.getStats().getSent();
+			// Idle outputs still count for something, or they would all pile onto one shard
+			weights[i] = Math.max(0, sent - sender.lastSent) + 1;
+			sender.lastSent = sent;
+			order.add(i);
+		}
+		order.sort((a, b) -> Long.compare(weights[b], weights[a]));
+
+		long[] load = new long[shards.length];
+		Shard[] targets = new Shard[weights.length];
+		for (int i : order) {
+			Shard current = senders.get(i).getShard();
+			int best = 0;
+			for (int s = 1; s < shards.length; s++) {
+				if (load[s] < load[best]) {
+					best = s;
+				}
+			}
+			for (int s = 0; s < shards.length; s++) {
+				if (shards[s] == current && load[s] == load[best]) {
+					best = s;
+				}
+			}
+			load[best] += weights[i];
+			targets[i] = shards[best];
+		}
+		for (int i = 0; i < targets.length; i++) {
+			OutputSender sender = senders.get(i);
+			Shard current = sender.getShard();
+			if (current != targets[i]) {
+				if (current != null) {
+					current.remove(sender);
+				}
+				targets[i].add(sender);
+			}
+		}
+	}
+
+	/**
+	 * Stops the workers. Outputs must have been moved off the pool first.
+	 */
+	public void close() {
+		for (Shard shard : shards) {
+			registry.unregisterShard(shard.getName());
+			shard.shutdown();
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package midi.router.engine;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import midi.router.stats.OutputStats;
+import midi.router.transform.PackedShortMessage;
+
+/**
+ * Feeds SysEx to one output in small chunks from its own thread, at no more
+ * than the output's byte rate, so a patch dump never hands the driver more
+ * than it can put on the wire in a few milliseconds. Realtime messages go
+ * straight to the driver and land between chunks; other messages wait for
+ * every SysEx message queued before them to end, as the MIDI spec requires,
+ * and then go ahead of the next one.
+ *
+ * Chunks are copied into a pool of fixed size buffers that grows to what the
+ * backlog needs and is then reused, and are sent through one reused
+ * {@link SysexMessage}, so a long dump leaves no garbage behind apart from
+ * the copy Java Sound makes of each incoming message.
+ */
+final class SysexStreamer implements Runnable {
+	static final int CHUNK_SIZE = 64;
+	// 4 MB of backlog before whole messages are refused
+	private static final int MAX_CHUNKS = 65536;
+	private static final int HELD_CAPACITY = 1024;
+
+	private final Receiver receiver;
+	private final OutputStats stats;
+	private final Object lock = new Object();
+	private final ArrayDeque<Chunk> free = new ArrayDeque<>();
+	private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+	private final int[] held = new int[HELD_CAPACITY];
+	// How many SysEx messages had been queued when each held message came in
+	private final long[] heldBehind = new long[HELD_CAPACITY];
+	private int heldHead;
+	private int heldCount;
+	private int allocated;
+	// Messages queued and messages fully sent; the gate is shut while they differ
+	private long queued;
+	private long finished;
+	private volatile int bytesPerSecond;
+	private volatile boolean running = true;
+	private final Thread thread;
+
+	// Streamer thread only
+	private final SysexMessage outgoing = new SysexMessage();
+	private final PackedShortMessage scratch = new PackedShortMessage();
+	private long nextSendNanos;
+
+	private static final class Chunk {
+		final byte[] data = new byte[CHUNK_SIZE];
+		int length;
+		boolean first;
+		boolean last;
+		long receivedNanos;
+	}
+
+	SysexStreamer(String name, Receiver receiver, OutputStats stats, int bytesPerSecond) {
+		this.receiver = receiver;
+		this.stats = stats;
+		this.bytesPerSecond = bytesPerSecond;
+		thread = new Thread(this, "midi-sysex-" + name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @param bytesPerSecond 0 for no limit
+	 */
+	void setBytesPerSecond(int bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Queues a whole SysEx message, or drops it if the backlog is full. A message
+	 * is never cut short, the output would read whatever followed as part of it.
+	 */
+	void offer(SysexMessage message, long receivedNanos) {
+		// The only way Java Sound hands out the bytes is as a fresh copy
+		byte[] bytes = message.getMessage();
+		int length = message.getLength();
+		int needed = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		synchronized (lock) {
+			if (free.size() + (MAX_CHUNKS - allocated) < needed) {
+				stats.recordDropped();
+				return;
+			}
+			for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+				Chunk chunk = free.poll();
+				if (chunk == null) {
+					chunk = new Chunk();
+					allocated++;
+				}
+				chunk.length = Math.min(CHUNK_SIZE, length - offset);
+				System.arraycopy(bytes, offset, chunk.data, 0, chunk.length);
+				chunk.first = offset == 0;
+				chunk.last = offset + chunk.length >= length;
+				chunk.receivedNanos = receivedNanos;
+				queue.add(chunk);
+			}
+			// Shut the gate now, not when the thread gets to it, or a note sent next would go first
+			queued++;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Sends a non-realtime short message now, or holds it until the SysEx
+	 * messages queued before it have ended. Once too many are held, note offs wait for
+	 * room, a dropped one would leave the note stuck; anything else is dropped.
+	 *
+	 * @return false if the message was dropped
+	 */
+	boolean send(MidiMessage message, int packed, long timeStamp) {
+		synchronized (lock) {
+			if (heldCount == HELD_CAPACITY && isNoteOff(packed)) {
+				while (finished != queued && heldCount == HELD_CAPACITY && running) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+			if (finished == queued) {
+				receiver.send(message, timeStamp);
+				return true;
+			}
+			if (heldCount < HELD_CAPACITY) {
+				int slot = (heldHead + heldCount++) % HELD_CAPACITY;
+				held[slot] = packed;
+				heldBehind[slot] = queued;
+				return true;
+			}
+			stats.recordDropped();
+			return false;
+		}
+	}
+
+	private static boolean isNoteOff(int packed) {
+		int command = packed & 0xF0;
+		return command == ShortMessage.NOTE_OFF || command == ShortMessage.NOTE_ON && (packed >> 16 & 0x7F) == 0;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Chunk chunk;
+			synchronized (lock) {
+				while ((chunk = queue.poll()) == null && running) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+				if (chunk == null) {
+					return;
+				}
+			}
+
+			pace(chunk.length);
+			try {
+				// Java Sound marks every chunk after the first with 0xF7, drivers strip it
+				if (chunk.first) {
+					outgoing.setMessage(chunk.data, chunk.length);
+				} else {
+					outgoing.setMessage(SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE, chunk.data, chunk.length);
+				}
+				receiver.send(outgoing, -1);
+				if (chunk.last) {
+					stats.recordSent(chunk.receivedNanos);
+				}
+			} catch (InvalidMidiDataException | IllegalStateException e) {
+				stats.recordDropped();
+			}
+
+			synchronized (lock) {
+				if (chunk.last) {
+					finished++;
+					releaseHeld();
+					// Wakes note offs waiting for room
+					lock.notifyAll();
+				}
+				free.push(chunk);
+			}
+		}
+	}
+
+	// Absolute deadlines, so time lost to one late wake-up is made up on the next chunk
+	private void pace(int length) {
+		int rate = bytesPerSecond;
+		long now = System.nanoTime();
+		if (rate <= 0) {
+			nextSendNanos = now;
+			return;
+		}
+		if (nextSendNanos - now < 0) {
+			// Idle since the last chunk, the wire has drained
+			nextSendNanos = now;
+		}
+		long remaining;
+		while ((remaining = nextSendNanos - System.nanoTime()) > 0 && running) {
+			LockSupport.parkNanos(this, remaining);
+		}
+		nextSendNanos += length * TimeUnit.SECONDS.toNanos(1) / rate;
+	}
+
+	// Called with the lock held; sends what was waiting for no more than the messages sent so far
+	private void releaseHeld() {
+		for (; heldCount > 0 && heldBehind[heldHead] - finished <= 0; heldCount--) {
+			scratch.set(held[heldHead]);
+			heldHead = (heldHead + 1) % HELD_CAPACITY;
+			try {
+				receiver.send(scratch, -1);
+			} catch (IllegalStateException e) {
+				stats.recordDropped();
+			}
+		}
+	}
+
+	/**
+	 * Sends what is queued, without waiting on the rate, and stops the thread.
+	 */
+	void shutdown() {
+		synchronized (lock) {
+			bytesPerSecond = 0;
+			running = false;
+			lock.notifyAll();
+		}
+		LockSupport.unpark(thread);
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package midi.router.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+
+/**
+ * A port that lives inside the router rather than behind a driver. It is
+ * registered with {@link RoutingEngine#addVirtualDevice} and from then on is
+ * routed, pooled and shown like any hardware port. Subclasses call
+ * {@link #transmit} to play into their routes and get {@link #onOpen} /
+ * {@link #onClose} when the pool opens or closes them. A port that takes
+ * messages as well overrides {@link #getMaxReceivers} and {@link #receive};
+ * one that only takes them returns 0 from {@link #getMaxTransmitters}.
+ */
+public abstract class VirtualMidiDevice implements MidiDevice {
+	private final Info info;
+	private final List<VirtualTransmitter> transmitters = new CopyOnWriteArrayList<>();
+	private final List<VirtualReceiver> receivers = new CopyOnWriteArrayList<>();
+	private volatile boolean open;
+
+	protected VirtualMidiDevice(String name, String description) {
+		this.info = new VirtualInfo(name, description);
+	}
+
+	/**
+	 * Hands a message to every open transmitter on the calling thread.
+	 */
+	protected void transmit(MidiMessage message, long timeStamp) {
+		for (VirtualTransmitter transmitter : transmitters) {
+			Receiver receiver = transmitter.receiver;
+			if (receiver != null) {
+				receiver.send(message, timeStamp);
+			}
+		}
+	}
+
+	/**
+	 * Called on the sender's thread for every message routed to this port.
+	 */
+	protected void receive(MidiMessage message, long timeStamp) {
+	}
+
+	protected void onOpen() {
+	}
+
+	protected void onClose() {
+	}
+
+	@Override
+	public Info getDeviceInfo() {
+		return info;
+	}
+
+	@Override
+	public synchronized void open() throws MidiUnavailableException {
+		if (!open) {
+			open = true;
+			onOpen();
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (open) {
+			open = false;
+			transmitters.clear();
+			receivers.clear();
+			onClose();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public long getMicrosecondPosition() {
+		return -1;
+	}
+
+	@Override
+	public int getMaxReceivers() {
+		return 0;
+	}
+
+	@Override
+	public int getMaxTransmitters() {
+		return -1;
+	}
+
+	@Override
+	public Receiver getReceiver() throws MidiUnavailableException {
+		if (getMaxReceivers() == 0) {
+			throw new MidiUnavailableException(info.getName() + " has no receivers");
+		}
+		VirtualReceiver receiver = new VirtualReceiver();
+		receivers.add(receiver);
+		return receiver;
+	}
+
+	@Override
+	public List<Receiver> getReceivers() {
+		return new ArrayList<Receiver>(receivers);
+	}
+
+	@Override
+	public Transmitter getTransmitter() throws MidiUnavailableException {
+		VirtualTransmitter transmitter = new VirtualTransmitter();
+		transmitters.add(transmitter);
+		return transmitter;
+	}
+
+	@Override
+	public List<Transmitter> getTransmitters() {
+		return new ArrayList<Transmitter>(transmitters);
+	}
+
+	private class VirtualTransmitter implements Transmitter {
+		private volatile Receiver receiver;
+
+		@Override
+		public void setReceiver(Receiver receiver) {
+			this.receiver = receiver;
+		}
+
+		@Override
+		public Receiver getReceiver() {
+			return receiver;
+		}
+
+		@Override
+		public void close() {
+			transmitters.remove(this);
+		}
+	}
+
+	private class VirtualReceiver implements Receiver {
+		private volatile boolean closed;
+
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			if (closed || !open) {
+				throw new IllegalStateException(info.getName() + " is closed");
+			}
+			receive(message, timeStamp);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			receivers.remove(this);
+		}
+	}
+
+	private static class VirtualInfo extends Info {
+		VirtualInfo(String name, String description) {
+			super(name, "midi-router", description, "1.0");
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package midi.router.graph;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a node's or edge's activity LED and rate meter show, worked out from
+ * samples of a message counter that the MIDI threads keep. The meter steps up
+ * two segments for every tenfold rise in rate, from 1 message/s, so a few
+ * notes and a flood of clock both show. An LED stays lit a little while after
+ * the last message, or single notes would never be seen.
+ *
+ * Not thread safe, it belongs to the Swing thread.
+ */
+public final class Activity {
+	public static final int SEGMENTS = 10;
+	private static final long HOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	// How much of each new sample goes into the shown rate
+	private static final double SMOOTHING = 0.3;
+
+	private long count = -1;
+	private long sampledNanos;
+	private long litUntil;
+	private double rate;
+	private boolean lit;
+	private int level;
+
+	/**
+	 * @param total the counter's current value
+	 * @return whether the LED or the meter changed, so the area needs painting
+	 */
+	public boolean sample(long total, long nanos) {
+		// The first sample, or the counter started over with a reopened device
+		if (count < 0 || total < count) {
+			count = total;
+			sampledNanos = nanos;
+		}
+		long delta = total - count;
+		long elapsed = nanos - sampledNanos;
+		if (elapsed > 0) {
+			rate += SMOOTHING * (delta * 1e9 / elapsed - rate);
+		}
+		count = total;
+		sampledNanos = nanos;
+		if (delta > 0) {
+			litUntil = nanos + HOLD_NANOS;
+		}
+
+		boolean nowLit = litUntil - nanos > 0;
+		int nowLevel = level(rate);
+		boolean changed = nowLit != lit || nowLevel != level;
+		lit = nowLit;
+		level = nowLevel;
+		return changed;
+	}
+
+	public boolean isLit() {
+		return lit;
+	}
+
+	/**
+	 * @return lit segments, 0 to {@value #SEGMENTS}
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return messages per second, smoothed
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	private static int level(double rate) {
+		if (rate < 0.5) {
+			return 0;
+		}
+		return Math.min(SEGMENTS, 1 + (int) (Math.log10(Math.max(1, rate)) * 2));
+	}
+}
@@ -0,0 +1,82 @@
+package midi.router.graph;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+
+/**
+ * A cable from an input's port to an output's port, with the handle at its
+ * centre that is clicked to edit or remove it.
+ */
+public final class Edge {
+	public static final int HANDLE_RADIUS = 5;
+	// Clicks this close to the handle count as on it
+	static final int HANDLE_REACH = 10;
+	public static final int METER_WIDTH = 30;
+
+	private final int id;
+	private final Port from;
+	private final Port to;
+	private final Line2D line;
+	private final Point center;
+	private final Activity activity = new Activity();
+
+	Edge(int id, Port from, Port to) {
+		this.id = id;
+		this.from = from;
+		this.to = to;
+		this.line = new Line2D.Float(from.getX(), from.getY(), to.getX(), to.getY());
+		this.center = new Point((from.getX() + to.getX()) / 2, (from.getY() + to.getY()) / 2);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Port getFrom() {
+		return from;
+	}
+
+	public Port getTo() {
+		return to;
+	}
+
+	public Node getInput() {
+		return from.getNode();
+	}
+
+	public Node getOutput() {
+		return to.getNode();
+	}
+
+	public Line2D getLine() {
+		return line;
+	}
+
+	public Point getCenter() {
+		return new Point(center);
+	}
+
+	public Activity getActivity() {
+		return activity;
+	}
+
+	/**
+	 * @return the area of the handle, which doubles as the LED, and the rate
+	 * meter beside it
+	 */
+	public Rectangle getMeterBounds() {
+		return new Rectangle(center.x - HANDLE_REACH, center.y - HANDLE_REACH, HANDLE_REACH * 2 + METER_WIDTH + 4,
+				HANDLE_REACH * 2);
+	}
+
+	Rectangle getBounds() {
+		Rectangle bounds = line.getBounds();
+		bounds.grow(HANDLE_REACH, HANDLE_REACH);
+		return bounds;
+	}
+
+	Rectangle getHandleBounds() {
+		return new Rectangle(center.x - HANDLE_REACH, center.y - HANDLE_REACH, HANDLE_REACH * 2, HANDLE_REACH * 2);
+	}
+}
@@ -0,0 +1,202 @@
+package midi.router.graph;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.midi.MidiDevice;
+
+/**
+ * What the routing panel shows: input and output nodes, each with one port,
+ * and the edges between them. Nodes and edges get ids that never change or
+ * get reused, and are found by device, by node pair or by position through a
+ * {@link SpatialIndex}, never by scanning.
+ *
+ * Nodes are laid out in columns, inputs from the left edge and outputs from
+ * the right, {@value #ROWS_PER_COLUMN} to a column and as many columns as fit
+ * with room for the cables between the two sides; after that the innermost
+ * column grows downwards. A node takes the first free slot and keeps it, so
+ * nodes and cables stay put when other devices come and go.
+ *
+ * Not thread safe, it belongs to the Swing thread.
+ */
+public final class GraphModel {
+	public static final int TOP = 150;
+	public static final int ROW_PITCH = 60;
+	public static final int ROWS_PER_COLUMN = 10;
+	private static final int MARGIN = 20;
+	private static final int COLUMN_PITCH = Node.WIDTH + 20;
+	private static final int CABLE_ROOM = 300;
+	private static final int CELL_SIZE = 100;
+
+	private final int width;
+	private final int columnsPerSide;
+	private int nextId = 1;
+	private final Map<Node.Kind, Map<MidiDevice, Node>> byDevice = new HashMap<>();
+	private final Map<Node.Kind, List<Node>> nodes = new HashMap<>();
+	private final Map<Node.Kind, BitSet> slots = new HashMap<>();
+	private final Map<Long, Edge> edges = new LinkedHashMap<>();
+	private final SpatialIndex<Node> nodeIndex = new SpatialIndex<>(CELL_SIZE);
+	private final SpatialIndex<Edge> edgeIndex = new SpatialIndex<>(CELL_SIZE);
+	private final SpatialIndex<Edge> handleIndex = new SpatialIndex<>(CELL_SIZE);
+
+	/**
+	 * @param width of the panel the graph is drawn on
+	 */
+	public GraphModel(int width) {
+		this.width = width;
+		this.columnsPerSide = Math.max(1, (width - CABLE_ROOM - 2 * MARGIN + 20) / 2 / COLUMN_PITCH);
+		for (Node.Kind kind : Node.Kind.values()) {
+			byDevice.put(kind, new HashMap<MidiDevice, Node>());
+			nodes.put(kind, new ArrayList<Node>());
+			slots.put(kind, new BitSet());
+		}
+	}
+
+	/**
+	 * @param device null for a placeholder
+	 */
+	public Node addNode(Node.Kind kind, String label, MidiDevice device) {
+		BitSet used = slots.get(kind);
+		int slot = used.nextClearBit(0);
+		used.set(slot);
+
+		int column = Math.min(slot / ROWS_PER_COLUMN, columnsPerSide - 1);
+		int row = slot - column * ROWS_PER_COLUMN;
+		int offset = MARGIN + Node.WIDTH / 2 + column * COLUMN_PITCH;
+		int x = kind == Node.Kind.INPUT ? offset : width - offset;
+		int y = TOP + row * ROW_PITCH;
+
+		int id = nextId++;
+		Node node = new Node(id, nextId++, kind, label, device, slot, x, y);
+		nodes.get(kind).add(node);
+		if (device != null) {
+			byDevice.get(kind).put(device, node);
+		}
+		nodeIndex.add(node, node.getBounds());
+		return node;
+	}
+
+	/**
+	 * Removes a node and any edges still attached to it.
+	 */
+	public void removeNode(Node node) {
+		if (!nodes.get(node.getKind()).remove(node)) {
+			return;
+		}
+		if (node.getDevice() != null) {
+			byDevice.get(node.getKind()).remove(node.getDevice());
+		}
+		slots.get(node.getKind()).clear(node.getSlot());
+		nodeIndex.remove(node);
+		for (Edge edge : new ArrayList<>(edges.values())) {
+			if (edge.getInput() == node || edge.getOutput() == node) {
+				disconnect(edge.getInput(), edge.getOutput());
+			}
+		}
+	}
+
+	public void removePlaceholders(Node.Kind kind) {
+		for (Node node : new ArrayList<>(nodes.get(kind))) {
+			if (node.getDevice() == null) {
+				removeNode(node);
+			}
+		}
+	}
+
+	public Node getNode(Node.Kind kind, MidiDevice device) {
+		return byDevice.get(kind).get(device);
+	}
+
+	public List<Node> getNodes(Node.Kind kind) {
+		return Collections.unmodifiableList(nodes.get(kind));
+	}
+
+	/**
+	 * @return the new edge, or null if the two were connected already
+	 */
+	public Edge connect(Node input, Node output) {
+		long key = key(input, output);
+		if (edges.containsKey(key)) {
+			return null;
+		}
+		Edge edge = new Edge(nextId++, input.getPort(), output.getPort());
+		edges.put(key, edge);
+		edgeIndex.add(edge, edge.getBounds());
+		handleIndex.add(edge, edge.getHandleBounds());
+		return edge;
+	}
+
+	/**
+	 * @return the removed edge, or null if there was none
+	 */
+	public Edge disconnect(Node input, Node output) {
+		Edge edge = edges.remove(key(input, output));
+		if (edge != null) {
+			edgeIndex.remove(edge);
+			handleIndex.remove(edge);
+		}
+		return edge;
+	}
+
+	public Edge getEdge(Node input, Node output) {
+		return edges.get(key(input, output));
+	}
+
+	public boolean isConnected(Node input, Node output) {
+		return edges.containsKey(key(input, output));
+	}
+
+	public Collection<Edge> getEdges() {
+		return Collections.unmodifiableCollection(edges.values());
+	}
+
+	public Node nodeAt(Point point) {
+		return nodeIndex.find(point);
+	}
+
+	/**
+	 * @return the edge whose centre handle is under the point, or null
+	 */
+	public Edge handleAt(Point point) {
+		return handleIndex.find(point);
+	}
+
+	/**
+	 * @return the nodes that can be seen in the area
+	 */
+	public Collection<Node> nodesIn(Rectangle area) {
+		return nodeIndex.query(area);
+	}
+
+	/**
+	 * @return the edges whose cable may cross the area
+	 */
+	public Collection<Edge> edgesIn(Rectangle area) {
+		return edgeIndex.query(area);
+	}
+
+	/**
+	 * @return how tall the panel must be to show every node
+	 */
+	public int getHeight() {
+		int bottom = 100;
+		for (List<Node> column : nodes.values()) {
+			for (Node node : column) {
+				bottom = Math.max(bottom, node.getY() + 70);
+			}
+		}
+		return bottom;
+	}
+
+	private static long key(Node input, Node output) {
+		return (long) input.getId() << 32 | output.getId();
+	}
+}
@@ -0,0 +1,104 @@
+package midi.router.graph;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.RoundRectangle2D;
+
+import javax.sound.midi.MidiDevice;
+
+/**
+ * One box on the routing panel: a device's input or output side, or a
+ * placeholder with no device. Its place is fixed for as long as it exists.
+ */
+public final class Node {
+	public static final int WIDTH = 200;
+	public static final int HEIGHT = 40;
+
+	public enum Kind {
+		INPUT, OUTPUT
+	}
+
+	private final int id;
+	private final Kind kind;
+	private final String label;
+	private final MidiDevice device;
+	private final int slot;
+	private final Rectangle bounds;
+	private final RoundRectangle2D shape;
+	private final Port port;
+	private final Activity activity = new Activity();
+
+	Node(int id, int portId, Kind kind, String label, MidiDevice device, int slot, int x, int y) {
+		this.id = id;
+		this.kind = kind;
+		this.label = label;
+		this.device = device;
+		this.slot = slot;
+		this.bounds = new Rectangle(x - WIDTH / 2, y - HEIGHT / 2, WIDTH, HEIGHT);
+		this.shape = new RoundRectangle2D.Float(bounds.x, bounds.y, WIDTH, HEIGHT, 10, 10);
+		// Inputs send from their right edge, outputs take cables on their left
+		this.port = new Port(portId, this, kind == Kind.INPUT ? x + WIDTH / 2 : x - WIDTH / 2, y);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return the device, or null for a placeholder
+	 */
+	public MidiDevice getDevice() {
+		return device;
+	}
+
+	int getSlot() {
+		return slot;
+	}
+
+	public Port getPort() {
+		return port;
+	}
+
+	public int getX() {
+		return bounds.x + WIDTH / 2;
+	}
+
+	public int getY() {
+		return bounds.y + HEIGHT / 2;
+	}
+
+	public Rectangle getBounds() {
+		return new Rectangle(bounds);
+	}
+
+	/**
+	 * @return the outline to draw, shared; do not change it
+	 */
+	public RoundRectangle2D getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return messages through the device's side this node stands for
+	 */
+	public Activity getActivity() {
+		return activity;
+	}
+
+	public boolean contains(Point p) {
+		return bounds.contains(p);
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
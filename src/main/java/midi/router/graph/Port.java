@@ -0,0 +1,36 @@
+package midi.router.graph;
+
+/**
+ * The jack on a node that cables attach to.
+ */
+public final class Port {
+	public static final int RADIUS = 5;
+
+	private final int id;
+	private final Node node;
+	private final int x;
+	private final int y;
+
+	Port(int id, Node node, int x, int y) {
+		this.id = id;
+		this.node = node;
+		this.x = x;
+		this.y = y;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Node getNode() {
+		return node;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+}
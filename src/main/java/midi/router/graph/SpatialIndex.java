@@ -0,0 +1,102 @@
+package midi.router.graph;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Uniform grid over the panel. Each item is filed under every cell its bounds
+ * touch, so a click looks at one cell and a viewport at the cells it covers,
+ * however many items there are in all.
+ */
+final class SpatialIndex<T> {
+	private final int cellSize;
+	private final Map<Long, List<T>> cells = new HashMap<>();
+	private final Map<T, Rectangle> bounds = new HashMap<>();
+
+	SpatialIndex(int cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	void add(T item, Rectangle area) {
+		remove(item);
+		bounds.put(item, new Rectangle(area));
+		for (long key : keys(area)) {
+			cells.computeIfAbsent(key, k -> new ArrayList<>()).add(item);
+		}
+	}
+
+	void remove(T item) {
+		Rectangle area = bounds.remove(item);
+		if (area == null) {
+			return;
+		}
+		for (long key : keys(area)) {
+			List<T> cell = cells.get(key);
+			if (cell != null) {
+				cell.remove(item);
+				if (cell.isEmpty()) {
+					cells.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return an item whose bounds hold the point, or null
+	 */
+	T find(Point point) {
+		List<T> cell = cells.get(key(Math.floorDiv(point.x, cellSize), Math.floorDiv(point.y, cellSize)));
+		if (cell != null) {
+			for (T item : cell) {
+				if (bounds.get(item).contains(point)) {
+					return item;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the items whose bounds meet the area, each once
+	 */
+	Set<T> query(Rectangle area) {
+		Set<T> found = new LinkedHashSet<>();
+		for (long key : keys(area)) {
+			List<T> cell = cells.get(key);
+			if (cell == null) {
+				continue;
+			}
+			for (T item : cell) {
+				if (bounds.get(item).intersects(area)) {
+					found.add(item);
+				}
+			}
+		}
+		return found.isEmpty() ? Collections.<T>emptySet() : found;
+	}
+
+	private List<Long> keys(Rectangle area) {
+		int left = Math.floorDiv(area.x, cellSize);
+		int top = Math.floorDiv(area.y, cellSize);
+		int right = Math.floorDiv(area.x + Math.max(area.width - 1, 0), cellSize);
+		int bottom = Math.floorDiv(area.y + Math.max(area.height - 1, 0), cellSize);
+		List<Long> keys = new ArrayList<>((right - left + 1) * (bottom - top + 1));
+		for (int column = left; column <= right; column++) {
+			for (int row = top; row <= bottom; row++) {
+				keys.add(key(column, row));
+			}
+		}
+		return keys;
+	}
+
+	private static long key(int column, int row) {
+		return (long) column << 32 | (row & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,327 @@
+package midi.router.headless;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiUnavailableException;
+
+import midi.router.capture.CaptureLog;
+import midi.router.engine.BufferSettings;
+import midi.router.engine.ClockGenerator;
+import midi.router.engine.DeviceId;
+import midi.router.engine.Route;
+import midi.router.engine.RoutingEngine;
+import midi.router.engine.Scene;
+import midi.router.engine.Session;
+import midi.router.engine.ShardPool;
+import midi.router.net.NetworkPeer;
+import midi.router.player.Player;
+import midi.router.session.SessionStore;
+import midi.router.stats.OutputStatsSnapshot;
+import midi.router.stats.PeerStatsSnapshot;
+import midi.router.stats.PlayerStatsSnapshot;
+import midi.router.stats.RouteStatsSnapshot;
+import midi.router.stats.ShardStatsSnapshot;
+
+/**
+ * Display-less router for rack machines. Loads a {@link RoutingConfig} and
+ * builds the same routes as the GUI through a {@link RoutingEngine}, without
+ * loading any AWT or Swing class.
+ *
+ * <pre>
+ * java -cp midi-router.jar midi.router.headless.HeadlessRouter --config rig.txt [--stats 10]
+ * java -cp midi-router.jar midi.router.headless.HeadlessRouter --session song1.mrs
+ * java -cp midi-router.jar midi.router.headless.HeadlessRouter --export last.mid [--minutes 10]
+ * </pre>
+ *
+ * {@code --shards <n>} sends to outputs from n worker threads instead of the
+ * inputs' driver threads, {@code --shards auto} from one per core.
+ *
+ * A {@code --session} file saved from the GUI is applied after the config.
+ * Inputs named on {@code record} lines go to the capture file, the GUI's
+ * unless {@code --capture} names another; {@code --export} writes what it
+ * holds to a MIDI file and exits.
+ */
+public class HeadlessRouter {
+	private final RoutingEngine engine = new RoutingEngine();
+	private ClockGenerator clock;
+	private Player player;
+	private final List<NetworkPeer> peers = new ArrayList<>();
+	private Path capturePath = CaptureLog.defaultPath();
+	private CaptureLog capture;
+
+	public static void main(String[] args) {
+		String config = null;
+		String session = null;
+		int statsSeconds = 0;
+		String capture = null;
+		String export = null;
+		int minutes = 10;
+		int shards = 0;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--config") && i + 1 < args.length) {
+				config = args[++i];
+			} else if (args[i].equals("--session") && i + 1 < args.length) {
+				session = args[++i];
+			} else if (args[i].equals("--stats") && i + 1 < args.length) {
+				statsSeconds = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--capture") && i + 1 < args.length) {
+				capture = args[++i];
+			} else if (args[i].equals("--export") && i + 1 < args.length) {
+				export = args[++i];
+			} else if (args[i].equals("--minutes") && i + 1 < args.length) {
+				minutes = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--shards") && i + 1 < args.length) {
+				String value = args[++i];
+				shards = value.equals("auto") ? ShardPool.defaultSize() : Integer.parseInt(value);
+			}
+		}
+		Path capturePath = capture == null ? CaptureLog.defaultPath() : Paths.get(capture);
+		if (export != null) {
+			try {
+				long since = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutes);
+				int count = CaptureLog.exportSmf(capturePath, Paths.get(export), since);
+				System.out.println(count + " messages exported to " + export);
+				System.exit(0);
+			} catch (IOException e) {
+				System.err.println("Could not export " + capturePath + ": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		if (config == null && session == null) {
+			System.err.println("Usage: HeadlessRouter --config <file> | --session <file> [--stats <seconds>]"
+					+ " [--capture <file>] [--shards <n>|auto]");
+			System.err.println("       HeadlessRouter --export <file.mid> [--capture <file>] [--minutes <n>]");
+			System.exit(2);
+		}
+
+		System.setProperty("java.awt.headless", "true");
+		long start = System.nanoTime();
+		HeadlessRouter router = new HeadlessRouter();
+		router.capturePath = capturePath;
+		// Queued on the engine thread ahead of the routes, so they start out sharded
+		router.engine.setSharding(shards);
+		try {
+			int started = router.start(config == null ? RoutingConfig.empty() : RoutingConfig.load(Paths.get(config)));
+			if (session != null) {
+				started = router.restore(SessionStore.load(Paths.get(session)));
+			}
+			System.out.printf("MIDI Router headless: %d route(s) live in %.1f ms%n", started,
+					(System.nanoTime() - start) / 1e6);
+		} catch (IOException e) {
+			System.err.println("Could not read " + e.getMessage());
+			System.exit(1);
+		}
+
+		CountDownLatch stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			router.stop();
+			stopped.countDown();
+		}, "midi-router-shutdown"));
+
+		try {
+			while (!stopped.await(Math.max(statsSeconds, 1), TimeUnit.SECONDS)) {
+				if (statsSeconds > 0) {
+					router.printStats();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return number of routes that went live; the rest are logged and skipped
+	 */
+	public int start(RoutingConfig config) {
+		engine.getStatsRegistry().registerMBean();
+		if (config.getClockBpm() > 0) {
+			clock = new ClockGenerator(config.getClockBpm());
+			engine.addVirtualDevice(clock);
+		}
+		if (config.getPlayer() != null) {
+			player = new Player();
+			engine.addVirtualDevice(player);
+			engine.getStatsRegistry().registerPlayer(Player.NAME, player.getStats());
+		}
+		for (PeerSpec spec : config.getPeers()) {
+			NetworkPeer peer = spec.create();
+			try {
+				peer.start();
+			} catch (IOException e) {
+				System.err.println("Could not start network peer " + spec.getName() + ": " + e.getMessage());
+				continue;
+			}
+			peers.add(peer);
+			engine.addVirtualDevice(peer.getInput());
+			engine.addVirtualDevice(peer.getOutput());
+			engine.getStatsRegistry().registerPeer(peer.getName(), peer.getStats());
+		}
+		try {
+			engine.scanDevices(entry -> {
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		} catch (ExecutionException e) {
+			System.err.println("Device scan failed: " + e.getCause());
+		}
+		engine.startWatching(2000);
+
+		Map<DeviceId, BufferSettings> buffers = new LinkedHashMap<>();
+		for (Map.Entry<String, BufferSettings> buffer : config.getBuffers().entrySet()) {
+			MidiDevice output = engine.findOutput(buffer.getKey());
+			if (output == null) {
+				System.err.println("No output matching '" + buffer.getKey() + "' to buffer");
+			} else {
+				engine.setOutputBuffering(output, buffer.getValue());
+				buffers.put(engine.getDeviceId(output), buffer.getValue());
+			}
+		}
+		for (Map.Entry<String, Integer> rate : config.getSysexRates().entrySet()) {
+			MidiDevice output = engine.findOutput(rate.getKey());
+			if (output == null) {
+				System.err.println("No output matching '" + rate.getKey() + "' for sysex rate");
+			} else {
+				engine.setSysexRate(output, rate.getValue());
+			}
+		}
+
+		for (String name : config.getRecorded()) {
+			record(name);
+		}
+
+		int started = 0;
+		for (RouteSpec spec : config.getRoutes()) {
+			try {
+				MidiDevice input = engine.findInput(spec.getInput());
+				if (input == null) {
+					throw new MidiUnavailableException("No input matching '" + spec.getInput() + "'");
+				}
+				MidiDevice output = engine.findOutput(spec.getOutput());
+				if (output == null) {
+					throw new MidiUnavailableException("No output matching '" + spec.getOutput() + "'");
+				}
+				Route route = engine.connect(input, output, spec.getTransforms()).get();
+				if (spec.getCoalescing() != null) {
+					engine.setCoalescing(route, spec.getCoalescing());
+				}
+				started++;
+			} catch (MidiUnavailableException e) {
+				System.err.println("Line " + spec.getLine() + ": route " + spec + " failed: " + e.getMessage());
+			} catch (ExecutionException e) {
+				System.err.println("Line " + spec.getLine() + ": route " + spec + " failed: " + e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for (SceneSpec scene : config.getScenes()) {
+			addScene(scene, buffers);
+		}
+		if (clock != null) {
+			clock.start();
+		}
+		if (player != null) {
+			try {
+				player.play(config.getPlayer().open());
+			} catch (IOException e) {
+				System.err.println("Could not " + config.getPlayer() + ": " + e.getMessage());
+			}
+		}
+		return started;
+	}
+
+	private void record(String name) {
+		MidiDevice input = engine.findInput(name);
+		if (input == null) {
+			System.err.println("No input matching '" + name + "' to record");
+			return;
+		}
+		try {
+			if (capture == null) {
+				capture = CaptureLog.open(capturePath, CaptureLog.DEFAULT_CAPACITY);
+			}
+			engine.setInputTap(input, capture.tap(input.getDeviceInfo().getName()));
+		} catch (IOException | IllegalStateException e) {
+			System.err.println("Could not record " + name + ": " + e.getMessage());
+		}
+	}
+
+	private void addScene(SceneSpec scene, Map<DeviceId, BufferSettings> buffers) {
+		List<Session.RouteEntry> routes = new ArrayList<>();
+		for (RouteSpec spec : scene.getRoutes()) {
+			MidiDevice input = engine.findInput(spec.getInput());
+			MidiDevice output = engine.findOutput(spec.getOutput());
+			if (input == null || output == null) {
+				System.err.println("Line " + spec.getLine() + ": scene " + scene.getName() + ": no device for " + spec);
+				continue;
+			}
+			routes.add(new Session.RouteEntry(engine.getDeviceId(input), engine.getDeviceId(output),
+					spec.getTransforms(), spec.getCoalescing()));
+		}
+		engine.putScene(new Scene(scene.getName(), scene.getTrigger(), new Session(routes, buffers)));
+	}
+
+	/**
+	 * Switches the whole rig to a saved session; routes it shares with the
+	 * current one keep running.
+	 *
+	 * @return number of routes live afterwards
+	 */
+	public int restore(Session session) {
+		try {
+			return engine.applySession(session).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println("Session restore failed: " + e.getCause());
+		}
+		return engine.listRoutes().size();
+	}
+
+	public void stop() {
+		// Before the routes close, so held notes get their note offs
+		if (player != null) {
+			player.stop();
+		}
+		engine.close();
+		for (NetworkPeer peer : peers) {
+			peer.close();
+		}
+		if (capture != null) {
+			capture.close();
+		}
+	}
+
+	public RoutingEngine getEngine() {
+		return engine;
+	}
+
+	private void printStats() {
+		for (RouteStatsSnapshot snapshot : engine.getStatsRegistry().snapshot()) {
+			System.out.println(snapshot);
+		}
+		for (OutputStatsSnapshot snapshot : engine.getStatsRegistry().outputSnapshot()) {
+			System.out.println(snapshot);
+		}
+		for (PeerStatsSnapshot snapshot : engine.getStatsRegistry().peerSnapshot()) {
+			System.out.println(snapshot);
+		}
+		for (PlayerStatsSnapshot snapshot : engine.getStatsRegistry().playerSnapshot()) {
+			System.out.println(snapshot);
+		}
+		for (ShardStatsSnapshot snapshot : engine.getStatsRegistry().shardSnapshot()) {
+			System.out.println(snapshot);
+		}
+	}
+}
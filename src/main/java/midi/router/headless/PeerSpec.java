@@ -0,0 +1,49 @@
+package midi.router.headless;
+
+import midi.router.net.NetworkPeer;
+
+/**
+ * A {@code peer} line of a routing config: a network MIDI link with the port
+ * it listens on and, optionally, where it sends.
+ */
+public class PeerSpec {
+	private final String name;
+	private final int listenPort;
+	private final String remote;
+
+	/**
+	 * @param remote {@code host:port}, or null to answer whoever sends first
+	 */
+	public PeerSpec(String name, int listenPort, String remote) {
+		this.name = name;
+		this.listenPort = listenPort;
+		this.remote = remote;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getListenPort() {
+		return listenPort;
+	}
+
+	public String getRemote() {
+		return remote;
+	}
+
+	/**
+	 * @return a peer that is not started yet
+	 */
+	public NetworkPeer create() {
+		return new NetworkPeer(name, listenPort, remote == null ? null : NetworkPeer.parseAddress(remote));
+	}
+
+	/**
+	 * @return the config line this was read from
+	 */
+	@Override
+	public String toString() {
+		return "peer " + name + " | listen=" + listenPort + (remote == null ? "" : " remote=" + remote);
+	}
+}
@@ -0,0 +1,64 @@
+package midi.router.headless;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import midi.router.capture.CaptureReader;
+import midi.router.player.LoadGenerator;
+import midi.router.player.PlaybackSource;
+import midi.router.player.SmfReader;
+
+/**
+ * A {@code play} or {@code load} line of a routing config: what the
+ * {@code Player} input plays once the routes are up.
+ */
+public class PlayerSpec {
+	private final String file;
+	private final int rate;
+	private final int channels;
+	private final int seconds;
+
+	private PlayerSpec(String file, int rate, int channels, int seconds) {
+		this.file = file;
+		this.rate = rate;
+		this.channels = channels;
+		this.seconds = seconds;
+	}
+
+	/**
+	 * A MIDI file, or a capture file when the name ends in {@code .mrc}.
+	 */
+	public static PlayerSpec file(String file) {
+		return new PlayerSpec(file, 0, 0, 0);
+	}
+
+	/**
+	 * @param seconds 0 to run until the router stops
+	 */
+	public static PlayerSpec load(int rate, int channels, int seconds) {
+		// Fail on the config line rather than at start
+		new LoadGenerator(rate, channels, seconds);
+		return new PlayerSpec(null, rate, channels, seconds);
+	}
+
+	public PlaybackSource open() throws IOException {
+		if (file == null) {
+			return new LoadGenerator(rate, channels, seconds);
+		}
+		if (file.endsWith(".mrc")) {
+			return CaptureReader.open(Paths.get(file), 0, true);
+		}
+		return SmfReader.open(Paths.get(file));
+	}
+
+	/**
+	 * @return the config line this was read from
+	 */
+	@Override
+	public String toString() {
+		if (file != null) {
+			return "play " + file;
+		}
+		return "load " + rate + " | channels=" + channels + (seconds > 0 ? " seconds=" + seconds : "");
+	}
+}
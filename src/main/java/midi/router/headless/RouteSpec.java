@@ -0,0 +1,54 @@
+package midi.router.headless;
+
+import midi.router.engine.CoalesceSettings;
+import midi.router.transform.TransformChain;
+
+/**
+ * One line of a routing config: which input feeds which output, and how.
+ */
+public class RouteSpec {
+	private final String input;
+	private final String output;
+	private final TransformChain transforms;
+	private final CoalesceSettings coalescing;
+	private final int line;
+
+	public RouteSpec(String input, String output, TransformChain transforms, CoalesceSettings coalescing, int line) {
+		this.input = input;
+		this.output = output;
+		this.transforms = transforms;
+		this.coalescing = coalescing;
+		this.line = line;
+	}
+
+	public String getInput() {
+		return input;
+	}
+
+	public String getOutput() {
+		return output;
+	}
+
+	public TransformChain getTransforms() {
+		return transforms;
+	}
+
+	/**
+	 * @return controller thinning for the route, or null to forward every value
+	 */
+	public CoalesceSettings getCoalescing() {
+		return coalescing;
+	}
+
+	/**
+	 * @return the line of the config the route is on, for error messages
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	@Override
+	public String toString() {
+		return input + " -> " + output;
+	}
+}
@@ -0,0 +1,548 @@
+package midi.router.headless;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.midi.ShortMessage;
+
+import midi.router.engine.BufferSettings;
+import midi.router.engine.ClockGenerator;
+import midi.router.engine.CoalesceSettings;
+import midi.router.engine.OutputPort;
+import midi.router.engine.OverflowPolicy;
+import midi.router.engine.SceneTrigger;
+import midi.router.net.NetworkPeer;
+import midi.router.transform.ChannelRemap;
+import midi.router.transform.MessageFilter;
+import midi.router.transform.Rule;
+import midi.router.transform.RuleTable;
+import midi.router.transform.TransformChain;
+import midi.router.transform.TransformStage;
+import midi.router.transform.Transpose;
+import midi.router.transform.VelocityCurve;
+
+/**
+ * Plain text routing graph, one route per line:
+ *
+ * <pre>
+ * # comment
+ * KeyStep -&gt; loopMIDI Port 1
+ * KeyStep -&gt; Synth | transpose=-12 channel=1:3 velocity=gamma:0.7 block=active-sensing,clock
+ * Seaboard -&gt; DIN Out | coalesce=5:32
+ * Keys -&gt; Bass | rule=notes,ch1,0-59,pass rule=notes,drop rule=active-sensing,drop
+ * Keys -&gt; Lead | rule=notes,ch1,60-127,pass rule=notes,drop rule=any,ch10,channel=3
+ * buffer Synth | overflow=coalesce capacity=512
+ * sysex DIN Out | rate=din
+ * clock 122.5
+ * Router Clock -&gt; Drum Machine
+ * peer Studio | listen=5004 remote=192.168.1.20:5004
+ * KeyStep -&gt; Studio
+ * record KeyStep
+ * play /home/pi/backing.mid
+ * Player -&gt; Synth
+ *
+ * scene Verse | pc=1
+ * KeyStep -&gt; Synth
+ * scene Chorus | cc=80 channel=16
+ * KeyStep -&gt; Synth | transpose=12
+ * KeyStep -&gt; Pad
+ * </pre>
+ *
+ * Device names match exactly or as a case-insensitive substring. Channels are
+ * written 1-16 like on the hardware. A {@code buffer} line puts an output
+ * behind its own queue and sender thread. SysEx goes out in chunks as fast as
+ * the driver takes them unless a {@code sysex} line sets a byte rate, such as
+ * {@code rate=din} for a device on a DIN cable.
+ * {@code coalesce=window[:max]} keeps only the latest controller values per
+ * window of milliseconds. Consecutive {@code rule=} options form one rule set,
+ * checked in order with the first match deciding (see {@link Rule}); the commas
+ * stand for spaces. A {@code clock} line runs the internal clock master at the
+ * given tempo, routed from the input named {@code Router Clock}. A {@code peer}
+ * line adds an IN and an OUT node of that name carrying MIDI over UDP to
+ * another router. A {@code record} line keeps every message from an input in
+ * the capture file. A {@code play} line plays a MIDI or capture file from the
+ * input named {@code Player} once the routes are up; a {@code load} line such
+ * as {@code load 2000 | channels=16 seconds=60} plays generated notes at that
+ * many messages a second instead, to stress test the routes. Route lines after
+ * a {@code scene} line belong to that scene instead of the startup rig; a
+ * scene is switched to as a whole when its Program Change ({@code pc=}) or CC
+ * ({@code cc=}, on a value of 64 or more) arrives on any input.
+ *
+ * The same route twice in the startup rig or in one scene is an error; errors
+ * and routes naming a device that is not there are reported with their line.
+ */
+public class RoutingConfig {
+	private final List<RouteSpec> routes;
+	private final Map<String, BufferSettings> buffers;
+	private final Map<String, Integer> sysexRates;
+	private final double clockBpm;
+	private final List<PeerSpec> peers;
+	private final List<String> recorded;
+	private final PlayerSpec player;
+	private final List<SceneSpec> scenes;
+
+	private RoutingConfig(List<RouteSpec> routes, Map<String, BufferSettings> buffers,
+			Map<String, Integer> sysexRates, double clockBpm, List<PeerSpec> peers, List<String> recorded,
+			PlayerSpec player, List<SceneSpec> scenes) {
+		this.routes = Collections.unmodifiableList(routes);
+		this.buffers = Collections.unmodifiableMap(buffers);
+		this.sysexRates = Collections.unmodifiableMap(sysexRates);
+		this.clockBpm = clockBpm;
+		this.peers = Collections.unmodifiableList(peers);
+		this.recorded = Collections.unmodifiableList(recorded);
+		this.player = player;
+		this.scenes = Collections.unmodifiableList(scenes);
+	}
+
+	public static RoutingConfig empty() {
+		return new RoutingConfig(new ArrayList<RouteSpec>(), new LinkedHashMap<String, BufferSettings>(),
+				new LinkedHashMap<String, Integer>(), 0, new ArrayList<PeerSpec>(), new ArrayList<String>(),
+				null, new ArrayList<SceneSpec>());
+	}
+
+	public List<RouteSpec> getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * @return queue settings by output name
+	 */
+	public Map<String, BufferSettings> getBuffers() {
+		return buffers;
+	}
+
+	/**
+	 * @return SysEx byte rate by output name, 0 for no cap
+	 */
+	public Map<String, Integer> getSysexRates() {
+		return sysexRates;
+	}
+
+	/**
+	 * @return tempo for the internal clock, or 0 when the config has no clock line
+	 */
+	public double getClockBpm() {
+		return clockBpm;
+	}
+
+	public List<PeerSpec> getPeers() {
+		return peers;
+	}
+
+	/**
+	 * @return names of the inputs to record
+	 */
+	public List<String> getRecorded() {
+		return recorded;
+	}
+
+	/**
+	 * @return what to play from the {@code Player} input, or null for no player
+	 */
+	public PlayerSpec getPlayer() {
+		return player;
+	}
+
+	public List<SceneSpec> getScenes() {
+		return scenes;
+	}
+
+	public static RoutingConfig load(Path path) throws IOException {
+		try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			return parse(reader);
+		}
+	}
+
+	public static RoutingConfig parse(Reader source) throws IOException {
+		List<RouteSpec> routes = new ArrayList<>();
+		Map<String, BufferSettings> buffers = new LinkedHashMap<>();
+		Map<String, Integer> sysexRates = new LinkedHashMap<>();
+		double clockBpm = 0;
+		List<PeerSpec> peers = new ArrayList<>();
+		List<String> recorded = new ArrayList<>();
+		PlayerSpec player = null;
+		List<SceneSpec> scenes = new ArrayList<>();
+		SceneSpec scene = null;
+		// Line each route of the current section is on, to catch one written twice
+		Map<String, Integer> routeLines = new LinkedHashMap<>();
+		BufferedReader reader = new BufferedReader(source);
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			try {
+				if (line.startsWith("buffer ")) {
+					parseBuffer(line.substring("buffer ".length()), buffers);
+				} else if (line.startsWith("sysex ")) {
+					parseSysex(line.substring("sysex ".length()), sysexRates);
+				} else if (line.startsWith("clock ")) {
+					clockBpm = parseBpm(line.substring("clock ".length()).trim());
+				} else if (line.startsWith("peer ")) {
+					peers.add(parsePeer(line.substring("peer ".length())));
+				} else if (line.startsWith("record ")) {
+					recorded.add(line.substring("record ".length()).trim());
+				} else if (line.startsWith("play ")) {
+					player = PlayerSpec.file(line.substring("play ".length()).trim());
+				} else if (line.startsWith("load ")) {
+					player = parseLoad(line.substring("load ".length()));
+				} else if (line.startsWith("scene ")) {
+					scene = parseScene(line.substring("scene ".length()));
+					scenes.add(scene);
+					routeLines.clear();
+				} else {
+					RouteSpec route = parseRoute(line, lineNumber);
+					Integer first = routeLines.putIfAbsent(route.toString(), lineNumber);
+					if (first != null) {
+						throw new IllegalArgumentException("Route " + route + " is already on line " + first);
+					}
+					if (scene != null) {
+						scene.addRoute(route);
+					} else {
+						routes.add(route);
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+		return new RoutingConfig(routes, buffers, sysexRates, clockBpm, peers, recorded, player, scenes);
+	}
+
+	private static SceneSpec parseScene(String line) {
+		String options = "";
+		int bar = line.indexOf('|');
+		if (bar >= 0) {
+			options = line.substring(bar + 1).trim();
+			line = line.substring(0, bar);
+		}
+		String name = line.trim();
+		if (name.isEmpty()) {
+			throw new IllegalArgumentException("Missing scene name");
+		}
+
+		int channel = SceneTrigger.ANY_CHANNEL;
+		int program = -1;
+		int controller = -1;
+		for (String option : options.split("\\s+")) {
+			if (option.isEmpty()) {
+				continue;
+			}
+			int eq = option.indexOf('=');
+			String key = eq < 0 ? option : option.substring(0, eq);
+			String value = eq < 0 ? "" : option.substring(eq + 1);
+			try {
+				if (key.equals("pc")) {
+					program = Integer.parseInt(value);
+				} else if (key.equals("cc")) {
+					controller = Integer.parseInt(value);
+				} else if (key.equals("channel")) {
+					channel = Integer.parseInt(value) - 1;
+				} else {
+					throw new IllegalArgumentException("Unknown scene option '" + key + "'");
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad value in '" + option + "'");
+			}
+		}
+		if (program >= 0 && controller >= 0) {
+			throw new IllegalArgumentException("A scene takes pc= or cc=, not both");
+		}
+		SceneTrigger trigger = null;
+		if (program >= 0) {
+			trigger = SceneTrigger.programChange(channel, program);
+		} else if (controller >= 0) {
+			trigger = SceneTrigger.controlChange(channel, controller);
+		}
+		return new SceneSpec(name, trigger);
+	}
+
+	private static PlayerSpec parseLoad(String line) {
+		int bar = line.indexOf('|');
+		String rate = (bar < 0 ? line : line.substring(0, bar)).trim();
+		String options = bar < 0 ? "" : line.substring(bar + 1).trim();
+		int channels = 1;
+		int seconds = 0;
+		try {
+			for (String option : options.split("\\s+")) {
+				if (option.startsWith("channels=")) {
+					channels = Integer.parseInt(option.substring("channels=".length()));
+				} else if (option.startsWith("seconds=")) {
+					seconds = Integer.parseInt(option.substring("seconds=".length()));
+				} else if (!option.isEmpty()) {
+					throw new IllegalArgumentException("Unknown option '" + option + "'");
+				}
+			}
+			return PlayerSpec.load(Integer.parseInt(rate), channels, seconds);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected 'load <messages per second> | channels=N seconds=N'");
+		}
+	}
+
+	private static PeerSpec parsePeer(String line) {
+		int bar = line.indexOf('|');
+		String name = (bar < 0 ? line : line.substring(0, bar)).trim();
+		String options = bar < 0 ? "" : line.substring(bar + 1).trim();
+		if (name.isEmpty()) {
+			throw new IllegalArgumentException("Missing peer name");
+		}
+		int listen = NetworkPeer.DEFAULT_PORT;
+		String remote = null;
+		for (String option : options.split("\\s+")) {
+			if (option.startsWith("listen=")) {
+				try {
+					listen = Integer.parseInt(option.substring("listen=".length()));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Bad value in '" + option + "'");
+				}
+			} else if (option.startsWith("remote=")) {
+				remote = option.substring("remote=".length());
+				NetworkPeer.parseAddress(remote);
+			} else if (!option.isEmpty()) {
+				throw new IllegalArgumentException("Unknown option '" + option + "'");
+			}
+		}
+		return new PeerSpec(name, listen, remote);
+	}
+
+	private static double parseBpm(String value) {
+		double bpm;
+		try {
+			bpm = Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad tempo '" + value + "'");
+		}
+		if (bpm < ClockGenerator.MIN_BPM || bpm > ClockGenerator.MAX_BPM) {
+			throw new IllegalArgumentException("Tempo " + value + " is outside " + (int) ClockGenerator.MIN_BPM + "-"
+					+ (int) ClockGenerator.MAX_BPM + " BPM");
+		}
+		return bpm;
+	}
+
+	private static void parseSysex(String line, Map<String, Integer> sysexRates) {
+		int bar = line.indexOf('|');
+		String output = (bar < 0 ? line : line.substring(0, bar)).trim();
+		String option = bar < 0 ? "" : line.substring(bar + 1).trim();
+		if (output.isEmpty()) {
+			throw new IllegalArgumentException("Missing device name");
+		}
+		if (!option.startsWith("rate=")) {
+			throw new IllegalArgumentException("Expected 'sysex <output> | rate=<bytes per second>|din|unlimited'");
+		}
+		String value = option.substring("rate=".length());
+		if (value.equals("din")) {
+			sysexRates.put(output, OutputPort.DIN_BYTES_PER_SECOND);
+		} else if (value.equals("unlimited")) {
+			sysexRates.put(output, 0);
+		} else {
+			try {
+				sysexRates.put(output, Integer.parseInt(value));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad value in '" + option + "'");
+			}
+		}
+	}
+
+	private static void parseBuffer(String line, Map<String, BufferSettings> buffers) {
+		String options = "";
+		int bar = line.indexOf('|');
+		if (bar >= 0) {
+			options = line.substring(bar + 1).trim();
+			line = line.substring(0, bar);
+		}
+		String output = line.trim();
+		if (output.isEmpty()) {
+			throw new IllegalArgumentException("Missing device name");
+		}
+
+		OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+		int capacity = BufferSettings.DEFAULT_CAPACITY;
+		for (String option : options.split("\\s+")) {
+			if (option.isEmpty()) {
+				continue;
+			}
+			int eq = option.indexOf('=');
+			String key = eq < 0 ? option : option.substring(0, eq);
+			String value = eq < 0 ? "" : option.substring(eq + 1);
+			if (key.equals("overflow")) {
+				try {
+					policy = OverflowPolicy.valueOf(value.toUpperCase().replace('-', '_'));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown overflow policy '" + value + "'");
+				}
+			} else if (key.equals("capacity")) {
+				try {
+					capacity = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Bad value in '" + option + "'");
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown option '" + key + "'");
+			}
+		}
+		buffers.put(output, new BufferSettings(policy, capacity));
+	}
+
+	private static RouteSpec parseRoute(String line, int lineNumber) {
+		String options = "";
+		int bar = line.indexOf('|');
+		if (bar >= 0) {
+			options = line.substring(bar + 1).trim();
+			line = line.substring(0, bar);
+		}
+
+		int arrow = line.indexOf("->");
+		if (arrow < 0) {
+			throw new IllegalArgumentException("Expected '<input> -> <output>'");
+		}
+		String input = line.substring(0, arrow).trim();
+		String output = line.substring(arrow + 2).trim();
+		if (input.isEmpty() || output.isEmpty()) {
+			throw new IllegalArgumentException("Missing device name");
+		}
+
+		TransformChain transforms = TransformChain.EMPTY;
+		CoalesceSettings coalescing = null;
+		List<Rule> rules = new ArrayList<>();
+		for (String option : options.split("\\s+")) {
+			if (option.startsWith("rule=")) {
+				rules.add(Rule.parse(option.substring("rule=".length())));
+				continue;
+			}
+			if (!rules.isEmpty()) {
+				transforms = transforms.with(new RuleTable(rules));
+				rules.clear();
+			}
+			if (option.startsWith("coalesce=")) {
+				coalescing = parseCoalesce(option);
+			} else if (!option.isEmpty()) {
+				transforms = transforms.with(parseStage(option));
+			}
+		}
+		if (!rules.isEmpty()) {
+			transforms = transforms.with(new RuleTable(rules));
+		}
+		return new RouteSpec(input, output, transforms, coalescing, lineNumber);
+	}
+
+	private static CoalesceSettings parseCoalesce(String option) {
+		String[] parts = option.substring("coalesce=".length()).split(":");
+		try {
+			int window = Integer.parseInt(parts[0]);
+			int max = parts.length > 1 ? Integer.parseInt(parts[1]) : CoalesceSettings.DEFAULT_MAX_PER_FLUSH;
+			return new CoalesceSettings(window, max);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad value in '" + option + "'");
+		}
+	}
+
+	private static TransformStage parseStage(String option) {
+		int eq = option.indexOf('=');
+		if (eq < 0) {
+			throw new IllegalArgumentException("Expected key=value, got '" + option + "'");
+		}
+		String key = option.substring(0, eq);
+		String value = option.substring(eq + 1);
+		try {
+			switch (key) {
+			case "transpose":
+				return new Transpose(Integer.parseInt(value));
+			case "channel": {
+				String[] parts = value.split(":");
+				if (parts.length == 1) {
+					return ChannelRemap.all(parseChannel(parts[0]));
+				}
+				return ChannelRemap.single(parseChannel(parts[0]), parseChannel(parts[1]));
+			}
+			case "velocity": {
+				String[] parts = value.split(":");
+				if (parts[0].equals("fixed")) {
+					return VelocityCurve.fixed(Integer.parseInt(parts[1]));
+				}
+				if (parts[0].equals("gamma")) {
+					return VelocityCurve.gamma(Double.parseDouble(parts[1]));
+				}
+				throw new IllegalArgumentException("Unknown velocity curve '" + parts[0] + "'");
+			}
+			case "block":
+				return parseBlock(value);
+			default:
+				throw new IllegalArgumentException("Unknown option '" + key + "'");
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Bad value in '" + option + "'");
+		}
+	}
+
+	private static int parseChannel(String text) {
+		int channel = Integer.parseInt(text);
+		if (channel < 1 || channel > 16) {
+			throw new IllegalArgumentException("Channel must be 1-16, got " + channel);
+		}
+		return channel - 1;
+	}
+
+	private static MessageFilter parseBlock(String value) {
+		List<Integer> commands = new ArrayList<>();
+		List<Integer> statuses = new ArrayList<>();
+		for (String name : value.split(",")) {
+			switch (name) {
+			case "note":
+				commands.add(ShortMessage.NOTE_ON);
+				commands.add(ShortMessage.NOTE_OFF);
+				break;
+			case "poly-pressure":
+				commands.add(ShortMessage.POLY_PRESSURE);
+				break;
+			case "cc":
+				commands.add(ShortMessage.CONTROL_CHANGE);
+				break;
+			case "program":
+				commands.add(ShortMessage.PROGRAM_CHANGE);
+				break;
+			case "pressure":
+				commands.add(ShortMessage.CHANNEL_PRESSURE);
+				break;
+			case "pitch-bend":
+				commands.add(ShortMessage.PITCH_BEND);
+				break;
+			case "clock":
+				statuses.add(ShortMessage.TIMING_CLOCK);
+				break;
+			case "transport":
+				statuses.add(ShortMessage.START);
+				statuses.add(ShortMessage.CONTINUE);
+				statuses.add(ShortMessage.STOP);
+				break;
+			case "active-sensing":
+				statuses.add(ShortMessage.ACTIVE_SENSING);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown message type '" + name + "'");
+			}
+		}
+		int[] blocked = new int[commands.size() * 16 + statuses.size()];
+		int i = 0;
+		for (int command : commands) {
+			for (int channel = 0; channel < 16; channel++) {
+				blocked[i++] = command | channel;
+			}
+		}
+		for (int status : statuses) {
+			blocked[i++] = status;
+		}
+		return MessageFilter.blockingStatuses(blocked);
+	}
+}
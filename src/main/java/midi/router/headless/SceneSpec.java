@@ -0,0 +1,41 @@
+package midi.router.headless;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import midi.router.engine.SceneTrigger;
+
+/**
+ * A {@code scene} block of a routing config: its name, trigger and the route
+ * lines that follow it.
+ */
+public class SceneSpec {
+	private final String name;
+	private final SceneTrigger trigger;
+	private final List<RouteSpec> routes = new ArrayList<>();
+
+	public SceneSpec(String name, SceneTrigger trigger) {
+		this.name = name;
+		this.trigger = trigger;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the Program Change or CC that switches to this scene, or null
+	 */
+	public SceneTrigger getTrigger() {
+		return trigger;
+	}
+
+	public List<RouteSpec> getRoutes() {
+		return Collections.unmodifiableList(routes);
+	}
+
+	void addRoute(RouteSpec route) {
+		routes.add(route);
+	}
+}
@@ -0,0 +1,535 @@
+package midi.router.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import midi.router.engine.ActiveNotes;
+import midi.router.engine.VirtualMidiDevice;
+import midi.router.stats.PeerStats;
+import midi.router.transform.PackedShortMessage;
+import midi.router.transform.ShortMessages;
+
+/**
+ * MIDI to and from another router over UDP, shown as one IN and one OUT node.
+ * A non-blocking {@link DatagramChannel} is read and flushed by a single
+ * thread; messages routed to the OUT node are batched for up to a millisecond
+ * into one packet, realtime messages flush at once.
+ *
+ * Every data packet carries a sequence number, so the far end counts lost and
+ * late packets, and a journal of the note offs sent in recent packets. When a
+ * gap shows up the receiver plays the journalled note offs of the lost packets
+ * for notes it still holds, so a dropped packet never leaves a note stuck. An
+ * empty packet goes out when the link is idle so a loss at the end of a phrase
+ * is noticed too, and pings measure the round trip.
+ *
+ * Packets are taken only from the remote address, the first to send when no
+ * remote was given, and each is checked whole before any of it is played; a
+ * malformed one is counted and dropped. A late packet only plays its note
+ * offs, for notes still held here.
+ *
+ * Packets start with the magic "MR", a type byte and an event count, then:
+ * <ul>
+ * <li>data: sequence number, events as a length and the raw bytes, journal
+ * entries as sequence number, status and note</li>
+ * <li>ping, pong: the sender's nanoTime, echoed back in the pong</li>
+ * </ul>
+ */
+public class NetworkPeer {
+	public static final int DEFAULT_PORT = 5004;
+
+	private static final short MAGIC = 0x4D52; // "MR"
+	private static final int DATA = 1;
+	private static final int PING = 2;
+	private static final int PONG = 3;
+
+	private static final int MAX_PACKET = 1200;
+	private static final int HEADER = 8;
+	private static final int JOURNAL_SIZE = 32;
+	private static final int JOURNAL_ENTRY = 6;
+	// Room left for events once the header and a full journal are in
+	private static final int MAX_EVENTS_BYTES = MAX_PACKET - HEADER - 1 - JOURNAL_SIZE * JOURNAL_ENTRY;
+	// Journal entries older than this many packets are left out
+	private static final int JOURNAL_PACKETS = 64;
+	private static final int MAX_LATE = 64;
+	// The event count is one byte
+	private static final int MAX_EVENTS = 255;
+
+	private static final long BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long HEARTBEAT_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+	private static final long PING_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final String name;
+	private final int localPort;
+	private final PeerStats stats = new PeerStats();
+	private final Input input;
+	private final Output output;
+	private volatile SocketAddress remote;
+	private volatile boolean running;
+	private DatagramChannel channel;
+	private Selector selector;
+	private Thread thread;
+
+	// Outgoing side, guarded by lock
+	private final Object lock = new Object();
+	private final ByteBuffer batch = ByteBuffer.allocate(MAX_EVENTS_BYTES);
+	private final ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET);
+	private final int[] journalSeq = new int[JOURNAL_SIZE];
+	private final byte[] journalStatus = new byte[JOURNAL_SIZE];
+	private final byte[] journalNote = new byte[JOURNAL_SIZE];
+	private int journalHead;
+	private int journalCount;
+	private int batchCount;
+	private long batchStartNanos;
+	private long lastSentNanos;
+	private int sequence;
+
+	// Network thread only
+	private final ByteBuffer incoming = ByteBuffer.allocateDirect(MAX_PACKET);
+	private final ByteBuffer control = ByteBuffer.allocateDirect(HEADER + 8);
+	private final PackedShortMessage scratch = new PackedShortMessage();
+	private final ActiveNotes heard = new ActiveNotes();
+	private final byte[] eventBytes = new byte[MAX_EVENTS_BYTES];
+	private boolean synced;
+	private int expected;
+	private long lastPingNanos;
+
+	/**
+	 * @param remote where to send, or null to answer whoever sends to us first
+	 */
+	public NetworkPeer(String name, int localPort, SocketAddress remote) {
+		this.name = name;
+		this.localPort = localPort;
+		this.remote = remote;
+		this.input = new Input(name, "Network MIDI in, port " + localPort);
+		this.output = new Output(name, "Network MIDI out, port " + localPort);
+	}
+
+	/**
+	 * Parses {@code host:port}; a bare port means this machine.
+	 */
+	public static InetSocketAddress parseAddress(String text) {
+		int colon = text.lastIndexOf(':');
+		try {
+			if (colon < 0) {
+				return new InetSocketAddress("127.0.0.1", Integer.parseInt(text));
+			}
+			return new InetSocketAddress(text.substring(0, colon), Integer.parseInt(text.substring(colon + 1)));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Expected host:port, got '" + text + "'");
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	public SocketAddress getRemote() {
+		return remote;
+	}
+
+	/**
+	 * @return the IN node, playing what arrives from the peer
+	 */
+	public VirtualMidiDevice getInput() {
+		return input;
+	}
+
+	/**
+	 * @return the OUT node, sending what is routed to it to the peer
+	 */
+	public VirtualMidiDevice getOutput() {
+		return output;
+	}
+
+	public PeerStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Binds the local port and starts the network thread.
+	 */
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		selector = Selector.open();
+		try {
+			channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			channel.bind(new InetSocketAddress(localPort));
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			if (channel != null) {
+				channel.close();
+			}
+			selector.close();
+			throw e;
+		}
+		running = true;
+		thread = new Thread(this::run, "midi-net-" + name);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	public synchronized void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			channel.close();
+			selector.close();
+		} catch (IOException e) {
+			System.err.println("Closing network peer " + name + ": " + e.getMessage());
+		}
+	}
+
+	// Called on the routing thread of whatever feeds the OUT node
+	void send(MidiMessage message) {
+		int length = message.getLength();
+		int status = message.getStatus();
+		synchronized (lock) {
+			if (!running) {
+				return;
+			}
+			if (batch.remaining() < length + 2 || batchCount == MAX_EVENTS) {
+				flush();
+				if (batch.remaining() < length + 2) {
+					// Only a SysEx chunk could be this long
+					stats.recordDropped();
+					return;
+				}
+			}
+			batch.putShort((short) length);
+			if (message instanceof ShortMessage) {
+				ShortMessage shortMessage = (ShortMessage) message;
+				batch.put((byte) status);
+				if (length > 1) {
+					batch.put((byte) shortMessage.getData1());
+				}
+				if (length > 2) {
+					batch.put((byte) shortMessage.getData2());
+				}
+				int command = status & 0xF0;
+				if (command == ShortMessage.NOTE_OFF
+						|| (command == ShortMessage.NOTE_ON && shortMessage.getData2() == 0)) {
+					journal(status, shortMessage.getData1());
+				}
+			} else {
+				batch.put(message.getMessage(), 0, length);
+			}
+			if (batchCount++ == 0) {
+				batchStartNanos = System.nanoTime();
+			}
+
+			// Realtime never waits for the batch, the rest waits a millisecond at most
+			if (status >= 0xF8) {
+				flush();
+			} else if (batchCount == 1) {
+				selector.wakeup();
+			}
+		}
+	}
+
+	private void journal(int status, int note) {
+		int index = (journalHead + journalCount) % JOURNAL_SIZE;
+		if (journalCount == JOURNAL_SIZE) {
+			journalHead = (journalHead + 1) % JOURNAL_SIZE;
+		} else {
+			journalCount++;
+		}
+		journalSeq[index] = sequence;
+		journalStatus[index] = (byte) status;
+		journalNote[index] = (byte) note;
+	}
+
+	// Called with the lock held
+	private void flush() {
+		SocketAddress target = remote;
+		int events = batchCount;
+		batch.flip();
+		batchCount = 0;
+		lastSentNanos = System.nanoTime();
+		if (target == null) {
+			batch.clear();
+			return;
+		}
+
+		packet.clear();
+		packet.putShort(MAGIC);
+		packet.put((byte) DATA);
+		packet.put((byte) events);
+		packet.putInt(sequence);
+		packet.put(batch);
+		batch.clear();
+		int journalled = 0;
+		int countAt = packet.position();
+		packet.put((byte) 0);
+		for (int i = 0; i < journalCount; i++) {
+			int index = (journalHead + i) % JOURNAL_SIZE;
+			if (sequence - journalSeq[index] < JOURNAL_PACKETS) {
+				packet.putInt(journalSeq[index]);
+				packet.put(journalStatus[index]);
+				packet.put(journalNote[index]);
+				journalled++;
+			}
+		}
+		packet.put(countAt, (byte) journalled);
+		packet.flip();
+		sequence++;
+		try {
+			channel.send(packet, target);
+			stats.recordSent(events);
+		} catch (IOException e) {
+			// Unreachable peer, the packet counts as lost on the far side
+			System.err.println("Network peer " + name + ": " + e.getMessage());
+		}
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextDeadline() - System.nanoTime())));
+				selector.selectedKeys().clear();
+				SocketAddress from;
+				incoming.clear();
+				while ((from = channel.receive(incoming)) != null) {
+					incoming.flip();
+					handle(incoming, from);
+					incoming.clear();
+				}
+
+				long now = System.nanoTime();
+				synchronized (lock) {
+					boolean due = batchCount > 0 ? now - batchStartNanos >= BATCH_NANOS
+							: now - lastSentNanos >= HEARTBEAT_NANOS;
+					if (due) {
+						flush();
+					}
+				}
+				if (now - lastPingNanos >= PING_NANOS) {
+					lastPingNanos = now;
+					sendControl(PING, now, remote);
+				}
+			} catch (IOException e) {
+				if (running) {
+					System.err.println("Network peer " + name + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private long nextDeadline() {
+		synchronized (lock) {
+			long deadline = batchCount > 0 ? batchStartNanos + BATCH_NANOS : lastSentNanos + HEARTBEAT_NANOS;
+			return Math.min(deadline, lastPingNanos + PING_NANOS);
+		}
+	}
+
+	private void sendControl(int type, long nanos, SocketAddress target) throws IOException {
+		if (target == null) {
+			return;
+		}
+		control.clear();
+		control.putShort(MAGIC);
+		control.put((byte) type);
+		control.put((byte) 0);
+		control.putInt(0);
+		control.putLong(nanos);
+		control.flip();
+		channel.send(control, target);
+	}
+
+	private void handle(ByteBuffer in, SocketAddress from) throws IOException {
+		if (in.remaining() < HEADER || in.getShort() != MAGIC) {
+			return;
+		}
+		SocketAddress peer = remote;
+		if (peer != null && !peer.equals(from)) {
+			stats.recordRejected();
+			return;
+		}
+		int type = in.get();
+		int events = in.get() & 0xFF;
+		int seq = in.getInt();
+		boolean wellFormed = type == DATA ? isWellFormed(in, events)
+				: (type == PING || type == PONG) && in.remaining() >= 8;
+		if (!wellFormed) {
+			stats.recordRejected();
+			return;
+		}
+		if (peer == null) {
+			remote = from;
+		}
+		switch (type) {
+		case PING:
+			sendControl(PONG, in.getLong(), from);
+			return;
+		case PONG:
+			stats.recordRoundTrip(System.nanoTime() - in.getLong());
+			return;
+		default:
+			break;
+		}
+
+		if (synced && seq - expected < 0 && expected - seq <= MAX_LATE) {
+			// Its notes were given up on, playing them now could start a note no one
+			// ends, but its note offs still end notes held here
+			stats.recordLate();
+			playNoteOffs(in, events);
+			return;
+		}
+		int lostFrom = expected;
+		boolean gap = synced && seq - expected > 0;
+		synced = true;
+		expected = seq + 1;
+		stats.recordReceived(events);
+
+		int eventsStart = in.position();
+		for (int i = 0; i < events; i++) {
+			int length = in.getShort() & 0xFFFF;
+			in.position(in.position() + length);
+		}
+		if (gap) {
+			stats.recordLost(seq - lostFrom);
+			recover(in, lostFrom, seq);
+		}
+		in.position(eventsStart);
+		for (int i = 0; i < events; i++) {
+			int length = in.getShort() & 0xFFFF;
+			in.get(eventBytes, 0, length);
+			play(eventBytes, length);
+		}
+	}
+
+	// Every length fits what is left of the packet, and the journal is all there
+	private boolean isWellFormed(ByteBuffer in, int events) {
+		int start = in.position();
+		try {
+			for (int i = 0; i < events; i++) {
+				if (in.remaining() < 2) {
+					return false;
+				}
+				int length = in.getShort() & 0xFFFF;
+				if (length > in.remaining() || length > eventBytes.length) {
+					return false;
+				}
+				in.position(in.position() + length);
+			}
+			return in.remaining() >= 1 && in.remaining() - 1 >= (in.get() & 0xFF) * JOURNAL_ENTRY;
+		} finally {
+			in.position(start);
+		}
+	}
+
+	private void playNoteOffs(ByteBuffer in, int events) {
+		for (int i = 0; i < events; i++) {
+			int length = in.getShort() & 0xFFFF;
+			in.get(eventBytes, 0, length);
+			if (length == 3) {
+				int status = eventBytes[0] & 0xFF;
+				int command = status & 0xF0;
+				boolean off = command == ShortMessage.NOTE_OFF || command == ShortMessage.NOTE_ON && eventBytes[2] == 0;
+				if (off && heard.isOn(status & 0x0F, eventBytes[1])) {
+					play(eventBytes, length);
+				}
+			}
+		}
+	}
+
+	// Note offs journalled in the lost packets, for notes still held here
+	private void recover(ByteBuffer in, int lostFrom, int lostTo) {
+		int entries = in.get() & 0xFF;
+		for (int i = 0; i < entries; i++) {
+			int seq = in.getInt();
+			int status = in.get() & 0xFF;
+			int note = in.get() & 0x7F;
+			if (seq - lostFrom >= 0 && seq - lostTo < 0 && heard.isOn(status & 0x0F, note)) {
+				heard.track(ShortMessage.NOTE_OFF | (status & 0x0F), note, 0);
+				scratch.set(ShortMessages.pack(ShortMessage.NOTE_OFF | (status & 0x0F), note, 0));
+				input.play(scratch);
+				stats.recordRecovered();
+			}
+		}
+	}
+
+	private void play(byte[] bytes, int length) {
+		if (length == 0) {
+			return;
+		}
+		int status = bytes[0] & 0xFF;
+		if (status == SysexMessage.SYSTEM_EXCLUSIVE || status == SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE) {
+			try {
+				input.play(new SysexMessage(bytes.clone(), length));
+			} catch (InvalidMidiDataException e) {
+				System.err.println("Network peer " + name + ": bad SysEx, " + e.getMessage());
+			}
+			return;
+		}
+		if (status < 0x80 || length != ShortMessages.dataLength(status) + 1) {
+			return;
+		}
+		int packed = ShortMessages.pack(status, length > 1 ? bytes[1] : 0, length > 2 ? bytes[2] : 0);
+		heard.track(status, length > 1 ? bytes[1] : 0, length > 2 ? bytes[2] : 0);
+		scratch.set(packed);
+		input.play(scratch);
+	}
+
+	@Override
+	public String toString() {
+		return name + " (port " + localPort + (remote == null ? "" : " -> " + remote) + ")";
+	}
+
+	private static final class Input extends VirtualMidiDevice {
+		Input(String name, String description) {
+			super(name, description);
+		}
+
+		void play(MidiMessage message) {
+			transmit(message, -1);
+		}
+	}
+
+	private final class Output extends VirtualMidiDevice {
+		Output(String name, String description) {
+			super(name, description);
+		}
+
+		@Override
+		public int getMaxReceivers() {
+			return -1;
+		}
+
+		@Override
+		public int getMaxTransmitters() {
+			return 0;
+		}
+
+		@Override
+		protected void receive(MidiMessage message, long timeStamp) {
+			send(message);
+		}
+	}
+}
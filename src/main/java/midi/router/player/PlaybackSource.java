@@ -0,0 +1,29 @@
+package midi.router.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Messages for a {@link Player} to send, read one at a time so a source can be
+ * much larger than the heap.
+ */
+public interface PlaybackSource extends Closeable {
+	/**
+	 * Moves to the next message.
+	 *
+	 * @return false at the end
+	 */
+	boolean advance() throws IOException;
+
+	/**
+	 * @return when the current message is due, in nanoseconds from the start
+	 */
+	long getDueNanos();
+
+	/**
+	 * @return the current message, which the next {@link #advance} may reuse
+	 */
+	MidiMessage getMessage();
+}
@@ -0,0 +1,140 @@
+package midi.router.player;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import midi.router.engine.ActiveNotes;
+import midi.router.engine.VirtualMidiDevice;
+import midi.router.stats.PlayerStats;
+
+/**
+ * A virtual input that plays a {@link PlaybackSource} into its routes: a MIDI
+ * file, a capture, or synthetic load. Messages go out from the player's own
+ * thread, which parks until shortly before each one is due and spins the rest
+ * of the way, like the clock. How late each message went out is recorded in
+ * {@link #getStats}. A player that falls behind sends everything still, late,
+ * rather than skipping; the stats show by how much.
+ *
+ * Stopping, or a source that ends, sends a NOTE_OFF for every note the player
+ * left sounding.
+ */
+public class Player extends VirtualMidiDevice {
+	public static final String NAME = "Player";
+	private static final long SPIN_NANOS = 500_000;
+
+	private final PlayerStats stats = new PlayerStats();
+	private volatile Thread thread;
+	private volatile PlaybackSource source;
+
+	public Player() {
+		super(NAME, "MIDI file playback and load generator");
+	}
+
+	public PlayerStats getStats() {
+		return stats;
+	}
+
+	public boolean isPlaying() {
+		return thread != null;
+	}
+
+	/**
+	 * @return what is playing, or null
+	 */
+	public PlaybackSource getSource() {
+		return thread == null ? null : source;
+	}
+
+	/**
+	 * Stops whatever is playing and starts on {@code next} from its beginning.
+	 * The player takes ownership of the source and closes it when done.
+	 */
+	public synchronized void play(PlaybackSource next) {
+		stop();
+		source = next;
+		Thread player = new Thread(() -> run(next), "midi-player");
+		player.setDaemon(true);
+		player.setPriority(Thread.MAX_PRIORITY);
+		thread = player;
+		player.start();
+	}
+
+	public synchronized void stop() {
+		Thread current = thread;
+		thread = null;
+		if (current != null) {
+			LockSupport.unpark(current);
+			try {
+				current.join(TimeUnit.SECONDS.toMillis(1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	protected void onClose() {
+		stop();
+	}
+
+	private void run(PlaybackSource playing) {
+		Thread self = Thread.currentThread();
+		ActiveNotes held = new ActiveNotes();
+		long start = System.nanoTime();
+		try {
+			while (thread == self && playing.advance()) {
+				long deadline = start + playing.getDueNanos();
+				waitUntil(deadline, self);
+				if (thread != self) {
+					break;
+				}
+				MidiMessage message = playing.getMessage();
+				if (message instanceof ShortMessage) {
+					ShortMessage note = (ShortMessage) message;
+					held.track(note.getStatus(), note.getData1(), note.getData2());
+				}
+				long error = System.nanoTime() - deadline;
+				transmit(message, -1);
+				stats.recordSent(error);
+			}
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Playback of " + playing + " stopped: " + e);
+		} finally {
+			held.release(new Receiver() {
+				@Override
+				public void send(MidiMessage message, long timeStamp) {
+					transmit(message, timeStamp);
+				}
+
+				@Override
+				public void close() {
+				}
+			});
+			try {
+				playing.close();
+			} catch (IOException e) {
+				System.err.println("Closing " + playing + ": " + e.getMessage());
+			}
+			// Not under the lock, stop() holds it while it waits for this thread
+			if (thread == self) {
+				thread = null;
+			}
+		}
+	}
+
+	private void waitUntil(long deadline, Thread self) {
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0 && thread == self) {
+			if (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package midi.router.player;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.SysexMessage;
+
+import midi.router.transform.PackedShortMessage;
+import midi.router.transform.ShortMessages;
+
+/**
+ * Streams a Standard MIDI File (format 0 or 1) in time order without loading
+ * it. Each track is read through its own small buffer at its own file offset
+ * and the tracks are merged by tick as they go, so an hour long file costs a
+ * few kilobytes of heap. Tempo changes on any track apply from their tick on.
+ */
+public final class SmfReader implements PlaybackSource {
+	private static final int BUFFER_SIZE = 8192;
+	private static final int META = 0xFF;
+	private static final int META_TEMPO = 0x51;
+	private static final int META_END_OF_TRACK = 0x2F;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final List<TrackCursor> tracks;
+	private final int ticksPerBeat;
+	private final double smpteNanosPerTick;
+	private final PackedShortMessage shortMessage = new PackedShortMessage();
+	private MidiMessage message;
+	private long microsPerBeat = 500_000;
+	private long tick;
+	private long dueNanos;
+
+	private SmfReader(Path path, FileChannel channel, List<TrackCursor> tracks, int division) {
+		this.path = path;
+		this.channel = channel;
+		this.tracks = tracks;
+		if ((division & 0x8000) == 0) {
+			ticksPerBeat = division;
+			smpteNanosPerTick = 0;
+		} else {
+			int frames = -(byte) (division >> 8);
+			double framesPerSecond = frames == 29 ? 29.97 : frames;
+			ticksPerBeat = 0;
+			smpteNanosPerTick = 1e9 / (framesPerSecond * (division & 0xFF));
+		}
+	}
+
+	public static SmfReader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(14);
+			readFully(channel, header, 0);
+			if (header.getInt(0) != 0x4D546864) { // "MThd"
+				throw new IOException("Not a Standard MIDI File");
+			}
+			int format = header.getShort(8);
+			int division = header.getShort(12) & 0xFFFF;
+			if (format > 1) {
+				throw new IOException("MIDI file format " + format + " is not supported");
+			}
+			if (division == 0) {
+				throw new IOException("MIDI file has no time division");
+			}
+
+			// Only the chunk headers are read here, track data is read as it plays
+			List<TrackCursor> tracks = new ArrayList<>();
+			ByteBuffer chunk = ByteBuffer.allocate(8);
+			long position = 8 + (header.getInt(4) & 0xFFFFFFFFL);
+			while (position + 8 <= channel.size()) {
+				chunk.clear();
+				readFully(channel, chunk, position);
+				long length = chunk.getInt(4) & 0xFFFFFFFFL;
+				if (chunk.getInt(0) == 0x4D54726B) { // "MTrk"
+					TrackCursor track = new TrackCursor(channel, position + 8,
+							Math.min(position + 8 + length, channel.size()));
+					if (track.advanceTick()) {
+						tracks.add(track);
+					}
+				}
+				position += 8 + length;
+			}
+			return new SmfReader(path, channel, tracks, division);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("MIDI file is cut short");
+			}
+		}
+	}
+
+	@Override
+	public boolean advance() throws IOException {
+		while (true) {
+			TrackCursor track = null;
+			for (TrackCursor candidate : tracks) {
+				if (!candidate.done && (track == null || candidate.tick < track.tick)) {
+					track = candidate;
+				}
+			}
+			if (track == null) {
+				return false;
+			}
+			dueNanos += ticksToNanos(track.tick - tick);
+			tick = track.tick;
+			message = readEvent(track);
+			if (!track.advanceTick()) {
+				track.done = true;
+			}
+			if (message != null) {
+				return true;
+			}
+		}
+	}
+
+	private long ticksToNanos(long ticks) {
+		if (ticksPerBeat > 0) {
+			return ticks * microsPerBeat * 1000 / ticksPerBeat;
+		}
+		return (long) (ticks * smpteNanosPerTick);
+	}
+
+	// Null for events that are not sent: meta events and anything unreadable
+	private MidiMessage readEvent(TrackCursor track) throws IOException {
+		int status = track.read();
+		if (status == META) {
+			int type = track.read();
+			int length = track.readVarLength();
+			if (type == META_TEMPO && length == 3) {
+				microsPerBeat = track.read() << 16 | track.read() << 8 | track.read();
+			} else {
+				track.skip(length);
+				if (type == META_END_OF_TRACK) {
+					track.done = true;
+				}
+			}
+			return null;
+		}
+		if (status == SysexMessage.SYSTEM_EXCLUSIVE || status == SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE) {
+			byte[] data = new byte[track.readVarLength()];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte) track.read();
+			}
+			try {
+				if (status == SysexMessage.SYSTEM_EXCLUSIVE) {
+					return new SysexMessage(SysexMessage.SYSTEM_EXCLUSIVE, data, data.length);
+				}
+				// An escape: a SysEx continuation, or raw bytes such as realtime messages
+				if (data.length > 0 && (data[0] & 0xFF) >= 0x80 && data.length <= 3) {
+					shortMessage.set(ShortMessages.pack(data[0] & 0xFF, data.length > 1 ? data[1] : 0,
+							data.length > 2 ? data[2] : 0));
+					return shortMessage;
+				}
+				return new SysexMessage(SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE, data, data.length);
+			} catch (InvalidMidiDataException e) {
+				return null;
+			}
+		}
+
+		int data1;
+		if (status < 0x80) {
+			// Running status
+			data1 = status;
+			status = track.runningStatus;
+			if (status == 0) {
+				return null;
+			}
+		} else {
+			track.runningStatus = status < 0xF0 ? status : 0;
+			data1 = ShortMessages.dataLength(status) > 0 ? track.read() : 0;
+		}
+		int data2 = ShortMessages.dataLength(status) > 1 ? track.read() : 0;
+		shortMessage.set(ShortMessages.pack(status, data1, data2));
+		return shortMessage;
+	}
+
+	@Override
+	public long getDueNanos() {
+		return dueNanos;
+	}
+
+	@Override
+	public MidiMessage getMessage() {
+		return message;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(path.getFileName());
+	}
+
+	private static final class TrackCursor {
+		private final FileChannel channel;
+		private final long end;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private long position;
+		long tick;
+		int runningStatus;
+		boolean done;
+
+		TrackCursor(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+			buffer.limit(0);
+		}
+
+		// Reads the delta time in front of the next event
+		boolean advanceTick() throws IOException {
+			if (done || remaining() == 0) {
+				return false;
+			}
+			tick += readVarLength();
+			return true;
+		}
+
+		private long remaining() {
+			return buffer.remaining() + (end - position);
+		}
+
+		int read() throws IOException {
+			if (!buffer.hasRemaining()) {
+				if (position >= end) {
+					throw new EOFException("MIDI track is cut short");
+				}
+				// Positional reads, so the tracks never move each other's place in the file
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer, position + buffer.position()) < 0) {
+						throw new EOFException("MIDI file is cut short");
+					}
+				}
+				position += buffer.limit();
+				buffer.flip();
+			}
+			return buffer.get() & 0xFF;
+		}
+
+		int readVarLength() throws IOException {
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int b = read();
+				value = value << 7 | (b & 0x7F);
+				if ((b & 0x80) == 0) {
+					break;
+				}
+			}
+			return value;
+		}
+
+		void skip(int length) throws IOException {
+			for (int i = 0; i < length; i++) {
+				read();
+			}
+		}
+	}
+}
@@ -0,0 +1,351 @@
+package midi.router.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.midi.ShortMessage;
+
+import midi.router.engine.BufferSettings;
+import midi.router.engine.CoalesceSettings;
+import midi.router.engine.DeviceId;
+import midi.router.engine.OverflowPolicy;
+import midi.router.engine.Scene;
+import midi.router.engine.SceneTrigger;
+import midi.router.engine.Session;
+import midi.router.transform.ChannelRemap;
+import midi.router.transform.MessageFilter;
+import midi.router.transform.Rule;
+import midi.router.transform.RuleTable;
+import midi.router.transform.TransformChain;
+import midi.router.transform.TransformStage;
+import midi.router.transform.Transpose;
+import midi.router.transform.VelocityCurve;
+
+/**
+ * Reads and writes {@link Session}s in a small binary format. Stages are
+ * stored as the tables they run on rather than the options that built them,
+ * so a restored route behaves exactly like the saved one; rule tables keep
+ * their rules so they can still be edited, and are compiled again on load.
+ * Writes go to a temporary file first and are moved into place, so a crash
+ * mid-save never leaves a half written session. Scene lists are stored the
+ * same way, each scene a name, an optional trigger and a session. Files from
+ * version 1, which had no SysEx rates, still load.
+ */
+public final class SessionStore {
+	private static final int MAGIC = 0x4D52534E; // "MRSN"
+	private static final int SCENES_MAGIC = 0x4D525343; // "MRSC"
+	private static final int VERSION = 2;
+
+	private static final int TRANSPOSE = 1;
+	private static final int CHANNEL_REMAP = 2;
+	private static final int VELOCITY_CURVE = 3;
+	private static final int MESSAGE_FILTER = 4;
+	private static final int RULE_TABLE = 5;
+
+	private SessionStore() {
+	}
+
+	/**
+	 * @return where the GUI keeps the session it restores on startup
+	 */
+	public static Path defaultPath() {
+		return Paths.get(System.getProperty("user.home"), ".midi-router", "session.mrs");
+	}
+
+	/**
+	 * @return where the GUI keeps its scenes
+	 */
+	public static Path defaultScenesPath() {
+		return defaultPath().resolveSibling("scenes.mrs");
+	}
+
+	public static void save(Session session, Path path) throws IOException {
+		try (DataOutputStream out = openTemp(path)) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			write(session, out);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tempFor(path));
+			throw e;
+		}
+		commit(path);
+	}
+
+	public static Session load(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			int version = checkHeader(in, MAGIC, "session");
+			return read(in, version);
+		}
+	}
+
+	public static void saveScenes(List<Scene> scenes, Path path) throws IOException {
+		try (DataOutputStream out = openTemp(path)) {
+			out.writeInt(SCENES_MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(scenes.size());
+			for (Scene scene : scenes) {
+				out.writeUTF(scene.getName());
+				SceneTrigger trigger = scene.getTrigger();
+				out.writeByte(trigger == null ? 0 : trigger.getCommand());
+				if (trigger != null) {
+					out.writeByte(trigger.getChannel());
+					out.writeByte(trigger.getNumber());
+				}
+				write(scene.getSession(), out);
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tempFor(path));
+			throw e;
+		}
+		commit(path);
+	}
+
+	public static List<Scene> loadScenes(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			int version = checkHeader(in, SCENES_MAGIC, "scene");
+			int count = in.readInt();
+			List<Scene> scenes = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				int command = in.readUnsignedByte();
+				SceneTrigger trigger = null;
+				if (command != 0) {
+					int channel = in.readByte();
+					int number = in.readUnsignedByte();
+					trigger = command == ShortMessage.PROGRAM_CHANGE ? SceneTrigger.programChange(channel, number)
+							: SceneTrigger.controlChange(channel, number);
+				}
+				scenes.add(new Scene(name, trigger, read(in, version)));
+			}
+			return scenes;
+		}
+	}
+
+	private static DataOutputStream openTemp(Path path) throws IOException {
+		Path temp = tempFor(path);
+		Files.createDirectories(temp.getParent());
+		return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+	}
+
+	private static void commit(Path path) throws IOException {
+		Path temp = tempFor(path);
+		try {
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static Path tempFor(Path path) {
+		Path absolute = path.toAbsolutePath();
+		return absolute.resolveSibling(absolute.getFileName() + ".tmp");
+	}
+
+	// Returns the file's version
+	private static int checkHeader(DataInputStream in, int magic, String kind) throws IOException {
+		if (in.readInt() != magic) {
+			throw new IOException("Not a " + kind + " file");
+		}
+		int version = in.readUnsignedShort();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported " + kind + " file version " + version);
+		}
+		return version;
+	}
+
+	private static void write(Session session, DataOutputStream out) throws IOException {
+		out.writeInt(session.getRoutes().size());
+		for (Session.RouteEntry route : session.getRoutes()) {
+			writeId(route.getInput(), out);
+			writeId(route.getOutput(), out);
+			writeChain(route.getTransforms(), out);
+			CoalesceSettings coalescing = route.getCoalescing();
+			out.writeBoolean(coalescing != null);
+			if (coalescing != null) {
+				out.writeInt(coalescing.getWindowMillis());
+				out.writeInt(coalescing.getMaxPerFlush());
+			}
+		}
+
+		out.writeInt(session.getBuffers().size());
+		for (Map.Entry<DeviceId, BufferSettings> buffer : session.getBuffers().entrySet()) {
+			writeId(buffer.getKey(), out);
+			out.writeUTF(buffer.getValue().getPolicy().name());
+			out.writeInt(buffer.getValue().getCapacity());
+		}
+
+		out.writeInt(session.getSysexRates().size());
+		for (Map.Entry<DeviceId, Integer> rate : session.getSysexRates().entrySet()) {
+			writeId(rate.getKey(), out);
+			out.writeInt(rate.getValue());
+		}
+	}
+
+	private static Session read(DataInputStream in, int version) throws IOException {
+		int routeCount = in.readInt();
+		List<Session.RouteEntry> routes = new ArrayList<>(routeCount);
+		for (int i = 0; i < routeCount; i++) {
+			DeviceId input = readId(in);
+			DeviceId output = readId(in);
+			TransformChain transforms = readChain(in);
+			CoalesceSettings coalescing = null;
+			if (in.readBoolean()) {
+				// Version 1 had 16 bit fields
+				coalescing = version == 1 ? new CoalesceSettings(in.readUnsignedShort(), in.readUnsignedShort())
+						: new CoalesceSettings(in.readInt(), in.readInt());
+			}
+			routes.add(new Session.RouteEntry(input, output, transforms, coalescing));
+		}
+
+		int bufferCount = in.readInt();
+		Map<DeviceId, BufferSettings> buffers = new LinkedHashMap<>();
+		for (int i = 0; i < bufferCount; i++) {
+			DeviceId id = readId(in);
+			OverflowPolicy policy;
+			try {
+				policy = OverflowPolicy.valueOf(in.readUTF());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Unknown overflow policy in session", e);
+			}
+			buffers.put(id, new BufferSettings(policy, in.readInt()));
+		}
+
+		Map<DeviceId, Integer> sysexRates = new LinkedHashMap<>();
+		if (version >= 2) {
+			int rateCount = in.readInt();
+			for (int i = 0; i < rateCount; i++) {
+				sysexRates.put(readId(in), in.readInt());
+			}
+		}
+		return new Session(routes, buffers, sysexRates);
+	}
+
+	private static void writeId(DeviceId id, DataOutputStream out) throws IOException {
+		out.writeUTF(id.getName());
+		out.writeUTF(id.getVendor());
+		out.writeUTF(id.getDescription());
+		out.writeUTF(id.getVersion());
+		out.writeShort(id.getOrdinal());
+	}
+
+	private static DeviceId readId(DataInputStream in) throws IOException {
+		return new DeviceId(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUnsignedShort());
+	}
+
+	private static void writeChain(TransformChain chain, DataOutputStream out) throws IOException {
+		List<TransformStage> stages = chain.getStages();
+		// Leaving a stage out would restore a route that behaves differently
+		for (TransformStage stage : stages) {
+			if (!(stage instanceof Transpose || stage instanceof ChannelRemap || stage instanceof VelocityCurve
+					|| stage instanceof MessageFilter || stage instanceof RuleTable)) {
+				throw new IOException("Transform cannot be saved in a session: " + stage.getClass().getSimpleName());
+			}
+		}
+
+		out.writeByte(stages.size());
+		for (TransformStage stage : stages) {
+			if (stage instanceof Transpose) {
+				out.writeByte(TRANSPOSE);
+				out.writeShort(((Transpose) stage).getSemitones());
+			} else if (stage instanceof ChannelRemap) {
+				out.writeByte(CHANNEL_REMAP);
+				for (int channel = 0; channel < 16; channel++) {
+					out.writeByte(((ChannelRemap) stage).getTarget(channel));
+				}
+			} else if (stage instanceof VelocityCurve) {
+				out.writeByte(VELOCITY_CURVE);
+				for (int velocity = 1; velocity < 128; velocity++) {
+					out.writeByte(((VelocityCurve) stage).map(velocity));
+				}
+			} else if (stage instanceof RuleTable) {
+				List<Rule> rules = ((RuleTable) stage).getRules();
+				out.writeByte(RULE_TABLE);
+				out.writeShort(rules.size());
+				for (Rule rule : rules) {
+					out.writeUTF(rule.toString());
+				}
+			} else {
+				// One bit per status byte
+				out.writeByte(MESSAGE_FILTER);
+				for (int base = 0; base < 256; base += 8) {
+					int bits = 0;
+					for (int bit = 0; bit < 8; bit++) {
+						if (((MessageFilter) stage).isBlocked(base + bit)) {
+							bits |= 1 << bit;
+						}
+					}
+					out.writeByte(bits);
+				}
+			}
+		}
+	}
+
+	private static TransformChain readChain(DataInputStream in) throws IOException {
+		int count = in.readUnsignedByte();
+		TransformStage[] stages = new TransformStage[count];
+		for (int i = 0; i < count; i++) {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+			case TRANSPOSE:
+				stages[i] = new Transpose(in.readShort());
+				break;
+			case CHANNEL_REMAP:
+				int[] map = new int[16];
+				for (int channel = 0; channel < 16; channel++) {
+					map[channel] = in.readUnsignedByte();
+				}
+				stages[i] = new ChannelRemap(map);
+				break;
+			case VELOCITY_CURVE:
+				int[] curve = new int[128];
+				for (int velocity = 1; velocity < 128; velocity++) {
+					curve[velocity] = in.readUnsignedByte();
+				}
+				stages[i] = new VelocityCurve(curve);
+				break;
+			case MESSAGE_FILTER:
+				List<Integer> blocked = new ArrayList<>();
+				for (int base = 0; base < 256; base += 8) {
+					int bits = in.readUnsignedByte();
+					for (int bit = 0; bit < 8; bit++) {
+						if ((bits & (1 << bit)) != 0) {
+							blocked.add(base + bit);
+						}
+					}
+				}
+				int[] statuses = new int[blocked.size()];
+				for (int j = 0; j < statuses.length; j++) {
+					statuses[j] = blocked.get(j);
+				}
+				stages[i] = MessageFilter.blockingStatuses(statuses);
+				break;
+			case RULE_TABLE:
+				int ruleCount = in.readUnsignedShort();
+				List<Rule> rules = new ArrayList<>(ruleCount);
+				try {
+					for (int j = 0; j < ruleCount; j++) {
+						rules.add(Rule.parse(in.readUTF()));
+					}
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Bad rule in session", e);
+				}
+				stages[i] = new RuleTable(rules);
+				break;
+			default:
+				throw new IOException("Unknown transform type " + tag + " in session");
+			}
+		}
+		return TransformChain.of(stages);
+	}
+}
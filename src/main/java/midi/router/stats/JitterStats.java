@@ -0,0 +1,53 @@
+package midi.router.stats;
+
+/**
+ * Running mean and standard deviation of the interval between timing clock
+ * ticks (Welford's method, so no sample history is kept). A gap longer than
+ * {@link #MAX_INTERVAL_NANOS} means the clock was stopped and starts a fresh
+ * interval instead of skewing the figures.
+ */
+public class JitterStats {
+	// 24 ppqn at 10 BPM is 250ms, nothing slower is a running clock
+	static final long MAX_INTERVAL_NANOS = 250_000_000L;
+
+	// Written by the one thread feeding the route, locked so a snapshot sees a consistent triple
+	private long lastTick;
+	private long count;
+	private double mean;
+	private double m2;
+
+	public synchronized void recordTick(long nanos) {
+		long previous = lastTick;
+		lastTick = nanos;
+		if (previous == 0) {
+			return;
+		}
+		long interval = nanos - previous;
+		if (interval <= 0 || interval > MAX_INTERVAL_NANOS) {
+			return;
+		}
+		count++;
+		double delta = interval - mean;
+		mean += delta / count;
+		m2 += delta * (interval - mean);
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized double getMeanNanos() {
+		return mean;
+	}
+
+	public synchronized double getStdDevNanos() {
+		return count < 2 ? 0 : Math.sqrt(m2 / (count - 1));
+	}
+
+	public synchronized void reset() {
+		lastTick = 0;
+		count = 0;
+		mean = 0;
+		m2 = 0;
+	}
+}
@@ -0,0 +1,90 @@
+package midi.router.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of nanosecond durations, laid out like
+ * HdrHistogram with 5 bits of sub-bucket precision (about 3% error). Recording
+ * is a couple of shifts and one atomic increment and never allocates.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int LINEAR_LIMIT = SUB_COUNT * 2;
+	private static final int LINEAR_MAGNITUDE = 63 - Long.numberOfLeadingZeros(LINEAR_LIMIT);
+	private static final int BUCKETS = LINEAR_LIMIT + (63 - LINEAR_MAGNITUDE) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(indexOf(nanos));
+		total.incrementAndGet();
+		long currentMax = max.get();
+		while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+			currentMax = max.get();
+		}
+	}
+
+	public long getCount() {
+		return total.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile 0-100
+	 * @return upper bound of the bucket holding the percentile, in nanoseconds
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = total.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100.0 * count);
+		rank = Math.max(1, Math.min(count, rank));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+
+	static int indexOf(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_COUNT - 1);
+		return LINEAR_LIMIT + (magnitude - LINEAR_MAGNITUDE) * SUB_COUNT + sub;
+	}
+
+	static long upperBoundOf(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int offset = index - LINEAR_LIMIT;
+		int magnitude = offset / SUB_COUNT + LINEAR_MAGNITUDE;
+		long sub = offset % SUB_COUNT;
+		long step = 1L << (magnitude - SUB_BITS);
+		return (1L << magnitude) + (sub + 1) * step - 1;
+	}
+}
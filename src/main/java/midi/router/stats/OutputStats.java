@@ -0,0 +1,62 @@
+package midi.router.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters for one output port: what reached the driver, what a full queue
+ * dropped or folded into a newer controller value, and how long events waited
+ * in the queue when the port is buffered.
+ */
+public class OutputStats {
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LatencyHistogram queueLatency = new LatencyHistogram();
+	private volatile IntSupplier queueDepth = () -> 0;
+
+	public void recordSent() {
+		sent.increment();
+	}
+
+	public void recordSent(long receivedNanos) {
+		sent.increment();
+		queueLatency.record(System.nanoTime() - receivedNanos);
+	}
+
+	public void recordDropped() {
+		dropped.increment();
+	}
+
+	public void recordCoalesced() {
+		coalesced.increment();
+	}
+
+	public long getSent() {
+		return sent.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public void setQueueDepth(IntSupplier queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	public LatencyHistogram getQueueLatency() {
+		return queueLatency;
+	}
+
+	public void reset() {
+		sent.reset();
+		dropped.reset();
+		coalesced.reset();
+		queueLatency.reset();
+	}
+
+	public OutputStatsSnapshot snapshot(String name) {
+		return new OutputStatsSnapshot(name, sent.sum(), dropped.sum(), coalesced.sum(), queueDepth.getAsInt(),
+				queueLatency.getValueAtPercentile(99));
+	}
+}
@@ -0,0 +1,56 @@
+package midi.router.stats;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time copy of an {@link OutputStats}.
+ */
+public class OutputStatsSnapshot {
+	private final String name;
+	private final long sent;
+	private final long dropped;
+	private final long coalesced;
+	private final int queueDepth;
+	private final long queueP99Nanos;
+
+	@ConstructorProperties({ "name", "sent", "dropped", "coalesced", "queueDepth", "queueP99Nanos" })
+	public OutputStatsSnapshot(String name, long sent, long dropped, long coalesced, int queueDepth,
+			long queueP99Nanos) {
+		this.name = name;
+		this.sent = sent;
+		this.dropped = dropped;
+		this.coalesced = coalesced;
+		this.queueDepth = queueDepth;
+		this.queueP99Nanos = queueP99Nanos;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getSent() {
+		return sent;
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+
+	public long getCoalesced() {
+		return coalesced;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public long getQueueP99Nanos() {
+		return queueP99Nanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d sent  %d dropped  %d coalesced  queue %d  p99 wait %.3f ms", name, sent, dropped,
+				coalesced, queueDepth, queueP99Nanos / 1e6);
+	}
+}
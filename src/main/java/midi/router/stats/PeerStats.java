@@ -0,0 +1,79 @@
+package midi.router.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one network MIDI peer: packets and events each way, packets
+ * lost or arriving out of order, note offs recovered from the journal after a
+ * loss, packets refused as malformed or from another address, events too big
+ * to send, and the round trip time of the peer's pings.
+ */
+public class PeerStats {
+	private final LongAdder packetsSent = new LongAdder();
+	private final LongAdder packetsReceived = new LongAdder();
+	private final LongAdder eventsSent = new LongAdder();
+	private final LongAdder eventsReceived = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+	private final LongAdder late = new LongAdder();
+	private final LongAdder recovered = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LatencyHistogram roundTrip = new LatencyHistogram();
+
+	public void recordSent(int events) {
+		packetsSent.increment();
+		eventsSent.add(events);
+	}
+
+	public void recordReceived(int events) {
+		packetsReceived.increment();
+		eventsReceived.add(events);
+	}
+
+	public void recordLost(long packets) {
+		lost.add(packets);
+	}
+
+	public void recordLate() {
+		late.increment();
+	}
+
+	public void recordRecovered() {
+		recovered.increment();
+	}
+
+	public void recordRejected() {
+		rejected.increment();
+	}
+
+	public void recordDropped() {
+		dropped.increment();
+	}
+
+	public void recordRoundTrip(long nanos) {
+		roundTrip.record(nanos);
+	}
+
+	public LatencyHistogram getRoundTrip() {
+		return roundTrip;
+	}
+
+	public void reset() {
+		packetsSent.reset();
+		packetsReceived.reset();
+		eventsSent.reset();
+		eventsReceived.reset();
+		lost.reset();
+		late.reset();
+		recovered.reset();
+		rejected.reset();
+		dropped.reset();
+		roundTrip.reset();
+	}
+
+	public PeerStatsSnapshot snapshot(String name) {
+		return new PeerStatsSnapshot(name, packetsSent.sum(), packetsReceived.sum(), eventsSent.sum(),
+				eventsReceived.sum(), lost.sum(), late.sum(), recovered.sum(), rejected.sum(), dropped.sum(),
+				roundTrip.getValueAtPercentile(50), roundTrip.getValueAtPercentile(99));
+	}
+}
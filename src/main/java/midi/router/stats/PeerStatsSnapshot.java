@@ -0,0 +1,111 @@
+package midi.router.stats;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time copy of a {@link PeerStats}. Latency is half the ping round
+ * trip, the two machines' clocks are never compared.
+ */
+public class PeerStatsSnapshot {
+	private final String name;
+	private final long packetsSent;
+	private final long packetsReceived;
+	private final long eventsSent;
+	private final long eventsReceived;
+	private final long lost;
+	private final long late;
+	private final long recovered;
+	private final long rejected;
+	private final long dropped;
+	private final long roundTripP50Nanos;
+	private final long roundTripP99Nanos;
+
+	@ConstructorProperties({ "name", "packetsSent", "packetsReceived", "eventsSent", "eventsReceived", "lost", "late",
+			"recovered", "rejected", "dropped", "roundTripP50Nanos", "roundTripP99Nanos" })
+	public PeerStatsSnapshot(String name, long packetsSent, long packetsReceived, long eventsSent,
+			long eventsReceived, long lost, long late, long recovered, long rejected, long dropped,
+			long roundTripP50Nanos, long roundTripP99Nanos) {
+		this.name = name;
+		this.packetsSent = packetsSent;
+		this.packetsReceived = packetsReceived;
+		this.eventsSent = eventsSent;
+		this.eventsReceived = eventsReceived;
+		this.lost = lost;
+		this.late = late;
+		this.recovered = recovered;
+		this.rejected = rejected;
+		this.dropped = dropped;
+		this.roundTripP50Nanos = roundTripP50Nanos;
+		this.roundTripP99Nanos = roundTripP99Nanos;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getPacketsSent() {
+		return packetsSent;
+	}
+
+	public long getPacketsReceived() {
+		return packetsReceived;
+	}
+
+	public long getEventsSent() {
+		return eventsSent;
+	}
+
+	public long getEventsReceived() {
+		return eventsReceived;
+	}
+
+	public long getLost() {
+		return lost;
+	}
+
+	public long getLate() {
+		return late;
+	}
+
+	public long getRecovered() {
+		return recovered;
+	}
+
+	/**
+	 * @return packets refused as malformed or sent from another address
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return events that could not be sent, too big for a packet
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	public long getRoundTripP50Nanos() {
+		return roundTripP50Nanos;
+	}
+
+	public long getRoundTripP99Nanos() {
+		return roundTripP99Nanos;
+	}
+
+	/**
+	 * @return percentage of the peer's packets that never arrived
+	 */
+	public double getLossPercent() {
+		long expected = packetsReceived + lost;
+		return expected == 0 ? 0 : 100.0 * lost / expected;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%s: %d/%d packets out/in  %d/%d events  %d lost (%.2f%%)  %d late  %d note offs recovered  %d rejected  %d dropped  latency %.3f ms  p99 %.3f ms",
+				name, packetsSent, packetsReceived, eventsSent, eventsReceived, lost, getLossPercent(), late,
+				recovered, rejected, dropped, roundTripP50Nanos / 2e6, roundTripP99Nanos / 2e6);
+	}
+}
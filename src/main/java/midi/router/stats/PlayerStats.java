@@ -0,0 +1,39 @@
+package midi.router.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one player: messages sent and how far after its due time each
+ * one went out. A message more than a millisecond behind counts as late.
+ */
+public class PlayerStats {
+	private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final LongAdder messages = new LongAdder();
+	private final LongAdder late = new LongAdder();
+	private final LatencyHistogram error = new LatencyHistogram();
+
+	public void recordSent(long errorNanos) {
+		messages.increment();
+		error.record(errorNanos);
+		if (errorNanos > LATE_NANOS) {
+			late.increment();
+		}
+	}
+
+	public LatencyHistogram getError() {
+		return error;
+	}
+
+	public void reset() {
+		messages.reset();
+		late.reset();
+		error.reset();
+	}
+
+	public PlayerStatsSnapshot snapshot(String name) {
+		return new PlayerStatsSnapshot(name, messages.sum(), late.sum(), error.getValueAtPercentile(50),
+				error.getValueAtPercentile(99), error.getMax());
+	}
+}
@@ -0,0 +1,56 @@
+package midi.router.stats;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time copy of a {@link PlayerStats}.
+ */
+public class PlayerStatsSnapshot {
+	private final String name;
+	private final long messages;
+	private final long late;
+	private final long errorP50Nanos;
+	private final long errorP99Nanos;
+	private final long errorMaxNanos;
+
+	@ConstructorProperties({ "name", "messages", "late", "errorP50Nanos", "errorP99Nanos", "errorMaxNanos" })
+	public PlayerStatsSnapshot(String name, long messages, long late, long errorP50Nanos, long errorP99Nanos,
+			long errorMaxNanos) {
+		this.name = name;
+		this.messages = messages;
+		this.late = late;
+		this.errorP50Nanos = errorP50Nanos;
+		this.errorP99Nanos = errorP99Nanos;
+		this.errorMaxNanos = errorMaxNanos;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getMessages() {
+		return messages;
+	}
+
+	public long getLate() {
+		return late;
+	}
+
+	public long getErrorP50Nanos() {
+		return errorP50Nanos;
+	}
+
+	public long getErrorP99Nanos() {
+		return errorP99Nanos;
+	}
+
+	public long getErrorMaxNanos() {
+		return errorMaxNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d messages  %d late  timing error p50 %.3f ms  p99 %.3f ms  max %.3f ms", name,
+				messages, late, errorP50Nanos / 1e6, errorP99Nanos / 1e6, errorMaxNanos / 1e6);
+	}
+}
@@ -0,0 +1,78 @@
+package midi.router.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and in-to-out latency for one route. Everything here is written from
+ * MIDI threads, so it only uses striped adders and the lock-free histogram.
+ */
+public class RouteStats {
+	private final LongAdder messages = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder filtered = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final JitterStats clockJitter = new JitterStats();
+
+	public void recordDelivered(int length, long receivedNanos) {
+		recordDelivered(length, receivedNanos, System.nanoTime());
+	}
+
+	public void recordDelivered(int length, long receivedNanos, long sentNanos) {
+		messages.increment();
+		bytes.add(length);
+		latency.record(sentNanos - receivedNanos);
+	}
+
+	public void recordFiltered() {
+		filtered.increment();
+	}
+
+	public void recordDropped() {
+		dropped.increment();
+	}
+
+	public void recordCoalesced() {
+		coalesced.increment();
+	}
+
+	/**
+	 * Called once per timing clock tick as it leaves the route.
+	 */
+	public void recordClockTick(long nanos) {
+		clockJitter.recordTick(nanos);
+	}
+
+	/**
+	 * @return messages delivered, cheap enough to poll for activity meters
+	 */
+	public long getMessages() {
+		return messages.sum();
+	}
+
+	public JitterStats getClockJitter() {
+		return clockJitter;
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public void reset() {
+		messages.reset();
+		bytes.reset();
+		filtered.reset();
+		dropped.reset();
+		coalesced.reset();
+		latency.reset();
+		clockJitter.reset();
+	}
+
+	public RouteStatsSnapshot snapshot(String name) {
+		return new RouteStatsSnapshot(name, messages.sum(), bytes.sum(), filtered.sum(), dropped.sum(),
+				coalesced.sum(), latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+				latency.getValueAtPercentile(99.9), latency.getMax(), clockJitter.getCount(),
+				clockJitter.getMeanNanos(), clockJitter.getStdDevNanos());
+	}
+}
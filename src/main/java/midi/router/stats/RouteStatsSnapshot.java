@@ -0,0 +1,116 @@
+package midi.router.stats;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time copy of a route's {@link RouteStats}, latencies in nanoseconds.
+ * Shaped as a plain bean so JMX can expose it as composite data.
+ */
+public class RouteStatsSnapshot {
+	private final String name;
+	private final long messages;
+	private final long bytes;
+	private final long filtered;
+	private final long dropped;
+	private final long coalesced;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long p999Nanos;
+	private final long maxNanos;
+	private final long clockTicks;
+	private final double clockMeanNanos;
+	private final double clockStdDevNanos;
+
+	@ConstructorProperties({ "name", "messages", "bytes", "filtered", "dropped", "coalesced", "p50Nanos",
+			"p99Nanos", "p999Nanos", "maxNanos", "clockTicks", "clockMeanNanos", "clockStdDevNanos" })
+	public RouteStatsSnapshot(String name, long messages, long bytes, long filtered, long dropped, long coalesced,
+			long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos, long clockTicks, double clockMeanNanos,
+			double clockStdDevNanos) {
+		this.name = name;
+		this.messages = messages;
+		this.bytes = bytes;
+		this.filtered = filtered;
+		this.dropped = dropped;
+		this.coalesced = coalesced;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.p999Nanos = p999Nanos;
+		this.maxNanos = maxNanos;
+		this.clockTicks = clockTicks;
+		this.clockMeanNanos = clockMeanNanos;
+		this.clockStdDevNanos = clockStdDevNanos;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getMessages() {
+		return messages;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getFiltered() {
+		return filtered;
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+
+	public long getCoalesced() {
+		return coalesced;
+	}
+
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	public long getP999Nanos() {
+		return p999Nanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	/**
+	 * @return timing clock intervals measured, zero if the route carries no clock
+	 */
+	public long getClockTicks() {
+		return clockTicks;
+	}
+
+	public double getClockMeanNanos() {
+		return clockMeanNanos;
+	}
+
+	/**
+	 * @return standard deviation of the clock interval, the route's clock jitter
+	 */
+	public double getClockStdDevNanos() {
+		return clockStdDevNanos;
+	}
+
+	public String toOverlayString() {
+		String text = String.format("%d msg  p50 %.3f  p99 %.3f  p99.9 %.3f ms", messages, p50Nanos / 1e6,
+				p99Nanos / 1e6, p999Nanos / 1e6);
+		if (clockTicks > 0) {
+			text += String.format("  clock %.3f ms  jitter %.3f", clockMeanNanos / 1e6, clockStdDevNanos / 1e6);
+		}
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + toOverlayString() + "  " + bytes + " B  " + dropped + " dropped  " + coalesced
+				+ " coalesced";
+	}
+}
@@ -0,0 +1,27 @@
+package midi.router.stats;
+
+/**
+ * JMX view of every registered route, output port, network peer, player and
+ * output shard, published as {@value StatsRegistry#OBJECT_NAME}.
+ */
+public interface RouterStatsMXBean {
+	RouteStatsSnapshot[] getRoutes();
+
+	OutputStatsSnapshot[] getOutputs();
+
+	PeerStatsSnapshot[] getPeers();
+
+	PlayerStatsSnapshot[] getPlayers();
+
+	ShardStatsSnapshot[] getShards();
+
+	int getRouteCount();
+
+	long getTotalMessages();
+
+	long getTotalDropped();
+
+	double getWorstP99Millis();
+
+	void reset();
+}
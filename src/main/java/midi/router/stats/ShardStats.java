@@ -0,0 +1,61 @@
+package midi.router.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load on one output shard: the share of its thread's time spent sending over
+ * the last second, the highest share seen, and what it sent. A shard that sits
+ * near 100% is what holds its outputs back.
+ */
+public class ShardStats {
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final LongAdder events = new LongAdder();
+	private volatile double utilisation;
+	private volatile double peakUtilisation;
+	private volatile String[] outputs = new String[0];
+
+	// Shard thread only
+	private long windowStart = System.nanoTime();
+	private long busyNanos;
+
+	/**
+	 * Called by the shard after a pass over its outputs that sent something.
+	 */
+	public void recordBusy(long nanos, int sent) {
+		busyNanos += nanos;
+		events.add(sent);
+	}
+
+	/**
+	 * Called by the shard after every pass, busy or not.
+	 */
+	public void tick(long now) {
+		long elapsed = now - windowStart;
+		if (elapsed >= WINDOW_NANOS) {
+			double share = Math.min(1, (double) busyNanos / elapsed);
+			utilisation = share;
+			peakUtilisation = Math.max(peakUtilisation, share);
+			windowStart = now;
+			busyNanos = 0;
+		}
+	}
+
+	public double getUtilisation() {
+		return utilisation;
+	}
+
+	public void setOutputs(String[] outputs) {
+		this.outputs = outputs.clone();
+	}
+
+	public void reset() {
+		events.reset();
+		peakUtilisation = 0;
+	}
+
+	public ShardStatsSnapshot snapshot(String name) {
+		return new ShardStatsSnapshot(name, outputs.clone(), events.sum(), utilisation, peakUtilisation);
+	}
+}
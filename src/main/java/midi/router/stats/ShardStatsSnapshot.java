@@ -0,0 +1,56 @@
+package midi.router.stats;
+
+import java.beans.ConstructorProperties;
+import java.util.Arrays;
+
+/**
+ * Point in time copy of a {@link ShardStats}.
+ */
+public class ShardStatsSnapshot {
+	private final String name;
+	private final String[] outputs;
+	private final long events;
+	private final double utilisation;
+	private final double peakUtilisation;
+
+	@ConstructorProperties({ "name", "outputs", "events", "utilisation", "peakUtilisation" })
+	public ShardStatsSnapshot(String name, String[] outputs, long events, double utilisation, double peakUtilisation) {
+		this.name = name;
+		this.outputs = outputs;
+		this.events = events;
+		this.utilisation = utilisation;
+		this.peakUtilisation = peakUtilisation;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the outputs pinned to the shard
+	 */
+	public String[] getOutputs() {
+		return outputs.clone();
+	}
+
+	public long getEvents() {
+		return events;
+	}
+
+	/**
+	 * @return share of the last second spent sending, 0 to 1
+	 */
+	public double getUtilisation() {
+		return utilisation;
+	}
+
+	public double getPeakUtilisation() {
+		return peakUtilisation;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %.1f%% busy  peak %.1f%%  %d events  %d outputs %s", name, utilisation * 100,
+				peakUtilisation * 100, events, outputs.length, Arrays.toString(outputs));
+	}
+}
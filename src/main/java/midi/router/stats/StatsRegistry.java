@@ -0,0 +1,207 @@
+package midi.router.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named set of route stats, readable headless through {@link #snapshot()} or
+ * over JMX once {@link #registerMBean()} has been called. Routes and outputs
+ * are keyed by what identifies their devices, not by name, so two units with
+ * the same name keep an entry each; the name is only what snapshots show.
+ */
+public class StatsRegistry implements RouterStatsMXBean {
+	public static final String OBJECT_NAME = "midi.router:type=RouterStats";
+
+	private final Map<Object, Named<RouteStats>> routes = new ConcurrentHashMap<>();
+	private final Map<Object, Named<OutputStats>> outputs = new ConcurrentHashMap<>();
+	private final Map<String, PeerStats> peers = new ConcurrentHashMap<>();
+	private final Map<String, PlayerStats> players = new ConcurrentHashMap<>();
+	private final Map<String, ShardStats> shards = new ConcurrentHashMap<>();
+
+	private static final class Named<T> {
+		final String name;
+		final T stats;
+
+		Named(String name, T stats) {
+			this.name = name;
+			this.stats = stats;
+		}
+	}
+
+	public void register(Object key, String name, RouteStats stats) {
+		routes.put(key, new Named<>(name, stats));
+	}
+
+	public void unregister(Object key) {
+		routes.remove(key);
+	}
+
+	public void registerOutput(Object key, String name, OutputStats stats) {
+		outputs.put(key, new Named<>(name, stats));
+	}
+
+	public void unregisterOutput(Object key) {
+		outputs.remove(key);
+	}
+
+	public void registerPeer(String name, PeerStats stats) {
+		peers.put(name, stats);
+	}
+
+	public void unregisterPeer(String name) {
+		peers.remove(name);
+	}
+
+	public void registerPlayer(String name, PlayerStats stats) {
+		players.put(name, stats);
+	}
+
+	public void unregisterPlayer(String name) {
+		players.remove(name);
+	}
+
+	public void registerShard(String name, ShardStats stats) {
+		shards.put(name, stats);
+	}
+
+	public void unregisterShard(String name) {
+		shards.remove(name);
+	}
+
+	public List<ShardStatsSnapshot> shardSnapshot() {
+		List<ShardStatsSnapshot> snapshots = new ArrayList<>(shards.size());
+		for (Map.Entry<String, ShardStats> entry : shards.entrySet()) {
+			snapshots.add(entry.getValue().snapshot(entry.getKey()));
+		}
+		return snapshots;
+	}
+
+	public List<PlayerStatsSnapshot> playerSnapshot() {
+		List<PlayerStatsSnapshot> snapshots = new ArrayList<>(players.size());
+		for (Map.Entry<String, PlayerStats> entry : players.entrySet()) {
+			snapshots.add(entry.getValue().snapshot(entry.getKey()));
+		}
+		return snapshots;
+	}
+
+	public List<PeerStatsSnapshot> peerSnapshot() {
+		List<PeerStatsSnapshot> snapshots = new ArrayList<>(peers.size());
+		for (Map.Entry<String, PeerStats> entry : peers.entrySet()) {
+			snapshots.add(entry.getValue().snapshot(entry.getKey()));
+		}
+		return snapshots;
+	}
+
+	public List<OutputStatsSnapshot> outputSnapshot() {
+		List<OutputStatsSnapshot> snapshots = new ArrayList<>(outputs.size());
+		for (Named<OutputStats> entry : outputs.values()) {
+			snapshots.add(entry.stats.snapshot(entry.name));
+		}
+		return snapshots;
+	}
+
+	public List<RouteStatsSnapshot> snapshot() {
+		List<RouteStatsSnapshot> snapshots = new ArrayList<>(routes.size());
+		for (Named<RouteStats> entry : routes.values()) {
+			snapshots.add(entry.stats.snapshot(entry.name));
+		}
+		return snapshots;
+	}
+
+	public boolean registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+			return true;
+		} catch (JMException e) {
+			System.err.println("Could not register router stats MBean: " + e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	public RouteStatsSnapshot[] getRoutes() {
+		return snapshot().toArray(new RouteStatsSnapshot[0]);
+	}
+
+	@Override
+	public OutputStatsSnapshot[] getOutputs() {
+		return outputSnapshot().toArray(new OutputStatsSnapshot[0]);
+	}
+
+	@Override
+	public PeerStatsSnapshot[] getPeers() {
+		return peerSnapshot().toArray(new PeerStatsSnapshot[0]);
+	}
+
+	@Override
+	public PlayerStatsSnapshot[] getPlayers() {
+		return playerSnapshot().toArray(new PlayerStatsSnapshot[0]);
+	}
+
+	@Override
+	public ShardStatsSnapshot[] getShards() {
+		return shardSnapshot().toArray(new ShardStatsSnapshot[0]);
+	}
+
+	@Override
+	public int getRouteCount() {
+		return routes.size();
+	}
+
+	@Override
+	public long getTotalMessages() {
+		long total = 0;
+		for (RouteStatsSnapshot snapshot : snapshot()) {
+			total += snapshot.getMessages();
+		}
+		return total;
+	}
+
+	@Override
+	public long getTotalDropped() {
+		long total = 0;
+		for (RouteStatsSnapshot snapshot : snapshot()) {
+			total += snapshot.getDropped();
+		}
+		return total;
+	}
+
+	@Override
+	public double getWorstP99Millis() {
+		long worst = 0;
+		for (RouteStatsSnapshot snapshot : snapshot()) {
+			worst = Math.max(worst, snapshot.getP99Nanos());
+		}
+		return worst / 1e6;
+	}
+
+	@Override
+	public void reset() {
+		for (Named<RouteStats> entry : routes.values()) {
+			entry.stats.reset();
+		}
+		for (Named<OutputStats> entry : outputs.values()) {
+			entry.stats.reset();
+		}
+		for (PeerStats stats : peers.values()) {
+			stats.reset();
+		}
+		for (PlayerStats stats : players.values()) {
+			stats.reset();
+		}
+		for (ShardStats stats : shards.values()) {
+			stats.reset();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package midi.router.transform;
+
+import java.util.Arrays;
+
+/**
+ * Moves channel voice messages from one channel to another through a 16 entry
+ * table. System messages have no channel and are left alone.
+ */
+public final class ChannelRemap implements TransformStage {
+	private final int[] map = new int[16];
+
+	public ChannelRemap(int[] map) {
+		if (map.length != 16) {
+			throw new IllegalArgumentException("Channel map needs 16 entries");
+		}
+		for (int i = 0; i < 16; i++) {
+			this.map[i] = map[i] & 0x0F;
+		}
+	}
+
+	public static ChannelRemap single(int from, int to) {
+		int[] map = identity();
+		map[from & 0x0F] = to & 0x0F;
+		return new ChannelRemap(map);
+	}
+
+	public static ChannelRemap all(int to) {
+		int[] map = new int[16];
+		for (int i = 0; i < 16; i++) {
+			map[i] = to;
+		}
+		return new ChannelRemap(map);
+	}
+
+	private static int[] identity() {
+		int[] map = new int[16];
+		for (int i = 0; i < 16; i++) {
+			map[i] = i;
+		}
+		return map;
+	}
+
+	public int getTarget(int channel) {
+		return map[channel & 0x0F];
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof ChannelRemap && Arrays.equals(((ChannelRemap) o).map, map);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(map);
+	}
+
+	@Override
+	public int apply(int packed) {
+		if (!ShortMessages.isChannelMessage(packed)) {
+			return packed;
+		}
+		return (packed & ~0x0F) | map[packed & 0x0F];
+	}
+}
@@ -0,0 +1,61 @@
+package midi.router.transform;
+
+import java.util.Arrays;
+
+/**
+ * Drops messages by status byte. The table covers every status so channel
+ * messages can be blocked per channel and system messages one by one.
+ */
+public final class MessageFilter implements TransformStage {
+	private final boolean[] blocked = new boolean[256];
+
+	private MessageFilter() {
+	}
+
+	public static MessageFilter blockingCommands(int... commands) {
+		MessageFilter filter = new MessageFilter();
+		for (int command : commands) {
+			for (int channel = 0; channel < 16; channel++) {
+				filter.blocked[(command & 0xF0) | channel] = true;
+			}
+		}
+		return filter;
+	}
+
+	public static MessageFilter blockingStatuses(int... statuses) {
+		MessageFilter filter = new MessageFilter();
+		for (int status : statuses) {
+			filter.blocked[status & 0xFF] = true;
+		}
+		return filter;
+	}
+
+	public static MessageFilter blockingChannels(int... channels) {
+		MessageFilter filter = new MessageFilter();
+		for (int channel : channels) {
+			for (int command = 0x80; command < 0xF0; command += 0x10) {
+				filter.blocked[command | (channel & 0x0F)] = true;
+			}
+		}
+		return filter;
+	}
+
+	public boolean isBlocked(int status) {
+		return blocked[status & 0xFF];
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof MessageFilter && Arrays.equals(((MessageFilter) o).blocked, blocked);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(blocked);
+	}
+
+	@Override
+	public int apply(int packed) {
+		return blocked[packed & 0xFF] ? DROP : packed;
+	}
+}
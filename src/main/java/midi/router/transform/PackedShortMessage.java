@@ -0,0 +1,29 @@
+package midi.router.transform;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * A ShortMessage that can be rewritten from a packed int without allocating or
+ * throwing. Instances are scratch buffers and must stay confined to the thread
+ * that sends them.
+ */
+public class PackedShortMessage extends ShortMessage {
+
+	public PackedShortMessage() {
+		super();
+	}
+
+	public void set(int packed) {
+		data[0] = (byte) packed;
+		data[1] = (byte) (packed >> 8);
+		data[2] = (byte) (packed >> 16);
+		length = ShortMessages.dataLength(packed & 0xFF) + 1;
+	}
+
+	@Override
+	public Object clone() {
+		PackedShortMessage copy = new PackedShortMessage();
+		copy.set(ShortMessages.pack(this));
+		return copy;
+	}
+}
@@ -0,0 +1,215 @@
+package midi.router.transform;
+
+import java.util.Locale;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * One line of a route's rule set: which messages it matches and what happens
+ * to them. Written as text, for example
+ *
+ * <pre>
+ * notes ch1 0-59 pass
+ * notes ch1 drop
+ * active-sensing drop
+ * any ch10 channel=3
+ * </pre>
+ *
+ * The message type comes first, then an optional channel (1-16, channel
+ * messages only) and an optional data1 range (note or controller number), then
+ * the action: {@code pass}, {@code drop} or {@code channel=n}.
+ */
+public final class Rule {
+	public static final int PASS = 0;
+	public static final int DROP = 1;
+	public static final int REMAP = 2;
+
+	public static final int ANY_CHANNEL = -1;
+
+	private enum Kind {
+		ALL("all"),
+		ANY("any", 0x80, 0x90, 0xA0, 0xB0, 0xC0, 0xD0, 0xE0),
+		NOTES("notes", ShortMessage.NOTE_OFF, ShortMessage.NOTE_ON, ShortMessage.POLY_PRESSURE),
+		NOTE_ON("note-on", ShortMessage.NOTE_ON),
+		NOTE_OFF("note-off", ShortMessage.NOTE_OFF),
+		POLY_PRESSURE("poly-pressure", ShortMessage.POLY_PRESSURE),
+		CC("cc", ShortMessage.CONTROL_CHANGE),
+		PROGRAM("program", ShortMessage.PROGRAM_CHANGE),
+		PRESSURE("pressure", ShortMessage.CHANNEL_PRESSURE),
+		PITCH_BEND("pitch-bend", ShortMessage.PITCH_BEND),
+		CLOCK("clock", ShortMessage.TIMING_CLOCK),
+		TRANSPORT("transport", ShortMessage.START, ShortMessage.CONTINUE, ShortMessage.STOP),
+		ACTIVE_SENSING("active-sensing", ShortMessage.ACTIVE_SENSING),
+		SYSTEM("system", 0xF1, 0xF2, 0xF3, 0xF6, 0xF8, 0xFA, 0xFB, 0xFC, 0xFE, 0xFF);
+
+		final String text;
+		// Commands for channel kinds, whole status bytes for system kinds
+		final int[] statuses;
+
+		Kind(String text, int... statuses) {
+			this.text = text;
+			this.statuses = statuses;
+		}
+
+		boolean isChannel() {
+			return statuses.length > 0 && statuses[0] < 0xF0;
+		}
+
+		static Kind parse(String text) {
+			for (Kind kind : values()) {
+				if (kind.text.equals(text)) {
+					return kind;
+				}
+			}
+			throw new IllegalArgumentException("Unknown message type '" + text + "'");
+		}
+	}
+
+	private final Kind kind;
+	private final int channel;
+	private final int low;
+	private final int high;
+	private final int action;
+	private final int target;
+
+	private Rule(Kind kind, int channel, int low, int high, int action, int target) {
+		if (channel != ANY_CHANNEL && kind != Kind.ALL && !kind.isChannel()) {
+			throw new IllegalArgumentException("'" + kind.text + "' messages have no channel");
+		}
+		if (low < 0 || high > 127 || low > high) {
+			throw new IllegalArgumentException("Range must be within 0-127, got " + low + "-" + high);
+		}
+		this.kind = kind;
+		this.channel = channel;
+		this.low = low;
+		this.high = high;
+		this.action = action;
+		this.target = target;
+	}
+
+	/**
+	 * Parses the text form; tokens may be separated by spaces or commas.
+	 */
+	public static Rule parse(String text) {
+		String[] tokens = text.trim().toLowerCase(Locale.ROOT).split("[\\s,]+");
+		if (tokens.length < 2) {
+			throw new IllegalArgumentException("Expected '<type> [chN] [lo-hi] <action>', got '" + text + "'");
+		}
+		Kind kind = Kind.parse(tokens[0]);
+		int channel = ANY_CHANNEL;
+		int low = 0;
+		int high = 127;
+		try {
+			for (int i = 1; i < tokens.length - 1; i++) {
+				String token = tokens[i];
+				if (token.startsWith("ch")) {
+					channel = parseChannel(token.substring(2));
+				} else {
+					int dash = token.indexOf('-');
+					low = Integer.parseInt(dash < 0 ? token : token.substring(0, dash));
+					high = dash < 0 ? low : Integer.parseInt(token.substring(dash + 1));
+				}
+			}
+
+			String action = tokens[tokens.length - 1];
+			if (action.equals("pass")) {
+				return new Rule(kind, channel, low, high, PASS, 0);
+			}
+			if (action.equals("drop")) {
+				return new Rule(kind, channel, low, high, DROP, 0);
+			}
+			if (action.startsWith("channel=")) {
+				if (kind != Kind.ALL && !kind.isChannel()) {
+					throw new IllegalArgumentException("'" + kind.text + "' messages have no channel");
+				}
+				return new Rule(kind, channel, low, high, REMAP, parseChannel(action.substring(8)));
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad number in rule '" + text + "'");
+		}
+		throw new IllegalArgumentException("Unknown action '" + tokens[tokens.length - 1] + "'");
+	}
+
+	private static int parseChannel(String text) {
+		int channel = Integer.parseInt(text);
+		if (channel < 1 || channel > 16) {
+			throw new IllegalArgumentException("Channel must be 1-16, got " + channel);
+		}
+		return channel - 1;
+	}
+
+	public boolean matches(int status, int data1) {
+		if (data1 < low || data1 > high) {
+			return false;
+		}
+		if (kind == Kind.ALL) {
+			return channel == ANY_CHANNEL || (status < 0xF0 && (status & 0x0F) == channel);
+		}
+		if (kind.isChannel()) {
+			if (status >= 0xF0 || (channel != ANY_CHANNEL && (status & 0x0F) != channel)) {
+				return false;
+			}
+			status &= 0xF0;
+		}
+		for (int candidate : kind.statuses) {
+			if (candidate == status) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@link #PASS}, {@link #DROP} or {@link #REMAP}
+	 */
+	public int getAction() {
+		return action;
+	}
+
+	/**
+	 * @return the channel, 0-15, that {@link #REMAP} moves messages to
+	 */
+	public int getTarget() {
+		return target;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Rule)) {
+			return false;
+		}
+		Rule other = (Rule) o;
+		return other.kind == kind && other.channel == channel && other.low == low && other.high == high
+				&& other.action == action && other.target == target;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((((kind.hashCode() * 31 + channel) * 31 + low) * 31 + high) * 31 + action) * 31 + target;
+	}
+
+	/**
+	 * @return the text form, which {@link #parse} reads back
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder(kind.text);
+		if (channel != ANY_CHANNEL) {
+			text.append(" ch").append(channel + 1);
+		}
+		if (low != 0 || high != 127) {
+			text.append(' ').append(low);
+			if (high != low) {
+				text.append('-').append(high);
+			}
+		}
+		switch (action) {
+		case PASS:
+			return text.append(" pass").toString();
+		case DROP:
+			return text.append(" drop").toString();
+		default:
+			return text.append(" channel=").append(target + 1).toString();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package midi.router.transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A route's rule set compiled to one table indexed by status byte and data1.
+ * Rules are checked in order when the table is built and the first one that
+ * matches decides; a message no rule matches passes unchanged. On the hot
+ * path a message costs a single array lookup however many rules there are.
+ */
+public final class RuleTable implements TransformStage {
+	private final List<Rule> rules;
+	// Status byte to send for (status << 7 | data1), or -1 to drop
+	private final short[] table = new short[256 << 7];
+
+	public RuleTable(List<Rule> rules) {
+		this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+		for (int status = 0; status < 256; status++) {
+			for (int data1 = 0; data1 < 128; data1++) {
+				table[status << 7 | data1] = (short) compile(status, data1);
+			}
+		}
+	}
+
+	public static RuleTable of(Rule... rules) {
+		return new RuleTable(Arrays.asList(rules));
+	}
+
+	/**
+	 * Parses one rule per line, skipping blank lines and {@code #} comments.
+	 */
+	public static RuleTable parse(String text) {
+		List<Rule> rules = new ArrayList<>();
+		for (String line : text.split("\\R")) {
+			int hash = line.indexOf('#');
+			if (hash >= 0) {
+				line = line.substring(0, hash);
+			}
+			if (!line.trim().isEmpty()) {
+				rules.add(Rule.parse(line));
+			}
+		}
+		return new RuleTable(rules);
+	}
+
+	private int compile(int status, int data1) {
+		for (Rule rule : rules) {
+			if (!rule.matches(status, data1)) {
+				continue;
+			}
+			switch (rule.getAction()) {
+			case Rule.DROP:
+				return -1;
+			case Rule.REMAP:
+				return status < 0xF0 ? (status & 0xF0) | rule.getTarget() : status;
+			default:
+				return status;
+			}
+		}
+		return status;
+	}
+
+	public List<Rule> getRules() {
+		return rules;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof RuleTable && ((RuleTable) o).rules.equals(rules);
+	}
+
+	@Override
+	public int hashCode() {
+		return rules.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (Rule rule : rules) {
+			text.append(rule).append('\n');
+		}
+		return text.toString();
+	}
+
+	@Override
+	public int apply(int packed) {
+		int status = table[(packed & 0xFF) << 7 | (packed >> 8) & 0x7F];
+		return status < 0 ? DROP : (packed & ~0xFF) | status;
+	}
+}
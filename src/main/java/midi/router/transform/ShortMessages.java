@@ -0,0 +1,95 @@
+package midi.router.transform;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Helpers for the packed form of a short message used on the routing hot path:
+ * status in bits 0-7, data1 in bits 8-15 and data2 in bits 16-23.
+ */
+public final class ShortMessages {
+	private ShortMessages() {
+	}
+
+	public static int pack(ShortMessage message) {
+		return message.getStatus() | message.getData1() << 8 | message.getData2() << 16;
+	}
+
+	public static int pack(int status, int data1, int data2) {
+		return (status & 0xFF) | (data1 & 0x7F) << 8 | (data2 & 0x7F) << 16;
+	}
+
+	public static int status(int packed) {
+		return packed & 0xFF;
+	}
+
+	public static int command(int packed) {
+		return packed & 0xF0;
+	}
+
+	public static int channel(int packed) {
+		return packed & 0x0F;
+	}
+
+	public static int data1(int packed) {
+		return (packed >> 8) & 0xFF;
+	}
+
+	public static int data2(int packed) {
+		return (packed >> 16) & 0xFF;
+	}
+
+	public static int withStatus(int packed, int status) {
+		return (packed & ~0xFF) | (status & 0xFF);
+	}
+
+	public static int withData1(int packed, int data1) {
+		return (packed & ~0xFF00) | (data1 & 0x7F) << 8;
+	}
+
+	public static int withData2(int packed, int data2) {
+		return (packed & ~0xFF0000) | (data2 & 0x7F) << 16;
+	}
+
+	public static boolean isChannelMessage(int packed) {
+		int status = packed & 0xFF;
+		return status >= 0x80 && status < 0xF0;
+	}
+
+	public static boolean isNoteMessage(int packed) {
+		int command = packed & 0xF0;
+		return command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF
+				|| command == ShortMessage.POLY_PRESSURE;
+	}
+
+	public static boolean isRealtime(int status) {
+		return status >= 0xF8;
+	}
+
+	/**
+	 * Number of data bytes that follow the given status byte, 0 for unknown ones.
+	 */
+	public static int dataLength(int status) {
+		switch (status & 0xF0) {
+		case ShortMessage.NOTE_OFF:
+		case ShortMessage.NOTE_ON:
+		case ShortMessage.POLY_PRESSURE:
+		case ShortMessage.CONTROL_CHANGE:
+		case ShortMessage.PITCH_BEND:
+			return 2;
+		case ShortMessage.PROGRAM_CHANGE:
+		case ShortMessage.CHANNEL_PRESSURE:
+			return 1;
+		default:
+			break;
+		}
+		switch (status) {
+		case ShortMessage.MIDI_TIME_CODE:
+		case ShortMessage.SONG_SELECT:
+			return 1;
+		case ShortMessage.SONG_POSITION_POINTER:
+			return 2;
+		default:
+			return 0;
+		}
+	}
+}
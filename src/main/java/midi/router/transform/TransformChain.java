@@ -0,0 +1,76 @@
+package midi.router.transform;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable list of stages applied in order. Routes swap whole chains, so the
+ * hot path never sees one half edited. Two chains are equal when their stages
+ * are, which is how a scene switch tells a route it can keep from one it must
+ * rebuild.
+ */
+public final class TransformChain {
+	public static final TransformChain EMPTY = new TransformChain(new TransformStage[0]);
+
+	private final TransformStage[] stages;
+	// Bit n set when system realtime status 0xF8 + n survives the chain
+	private final int realtimePass;
+
+	private TransformChain(TransformStage[] stages) {
+		this.stages = stages;
+		int pass = 0;
+		for (int status = 0xF8; status <= 0xFF; status++) {
+			if (apply(status) != TransformStage.DROP) {
+				pass |= 1 << (status - 0xF8);
+			}
+		}
+		this.realtimePass = pass;
+	}
+
+	public static TransformChain of(TransformStage... stages) {
+		return stages.length == 0 ? EMPTY : new TransformChain(stages.clone());
+	}
+
+	public TransformChain with(TransformStage stage) {
+		TransformStage[] next = Arrays.copyOf(stages, stages.length + 1);
+		next[stages.length] = stage;
+		return new TransformChain(next);
+	}
+
+	public boolean isEmpty() {
+		return stages.length == 0;
+	}
+
+	public List<TransformStage> getStages() {
+		return Collections.unmodifiableList(Arrays.asList(stages));
+	}
+
+	/**
+	 * Realtime messages carry no data, so what the chain does to each of them is
+	 * worked out once up front and the fast lane only tests a bit.
+	 */
+	public boolean passesRealtime(int status) {
+		return (realtimePass & (1 << (status - 0xF8))) != 0;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof TransformChain && Arrays.equals(((TransformChain) o).stages, stages);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(stages);
+	}
+
+	public int apply(int packed) {
+		for (int i = 0; i < stages.length; i++) {
+			packed = stages[i].apply(packed);
+			if (packed == TransformStage.DROP) {
+				return TransformStage.DROP;
+			}
+		}
+		return packed;
+	}
+}
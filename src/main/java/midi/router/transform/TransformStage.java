@@ -0,0 +1,15 @@
+package midi.router.transform;
+
+/**
+ * One step of a route's transform chain. Stages work on the packed form from
+ * {@link ShortMessages} and must not allocate; anything a stage does not
+ * understand is returned unchanged.
+ */
+public interface TransformStage {
+	int DROP = -1;
+
+	/**
+	 * @return the rewritten packed message, or {@link #DROP} to swallow it
+	 */
+	int apply(int packed);
+}
@@ -0,0 +1,43 @@
+package midi.router.transform;
+
+/**
+ * Shifts note numbers of note on/off and poly pressure. Notes pushed outside
+ * 0-127 are dropped rather than wrapped so note offs always match their note on.
+ */
+public final class Transpose implements TransformStage {
+	private final int semitones;
+
+	public Transpose(int semitones) {
+		this.semitones = semitones;
+	}
+
+	public static Transpose octaves(int octaves, int semitones) {
+		return new Transpose(octaves * 12 + semitones);
+	}
+
+	public int getSemitones() {
+		return semitones;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Transpose && ((Transpose) o).semitones == semitones;
+	}
+
+	@Override
+	public int hashCode() {
+		return semitones;
+	}
+
+	@Override
+	public int apply(int packed) {
+		if (!ShortMessages.isNoteMessage(packed)) {
+			return packed;
+		}
+		int note = ShortMessages.data1(packed) + semitones;
+		if (note < 0 || note > 127) {
+			return DROP;
+		}
+		return ShortMessages.withData1(packed, note);
+	}
+}
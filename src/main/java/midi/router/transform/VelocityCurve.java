@@ -0,0 +1,68 @@
+package midi.router.transform;
+
+import java.util.Arrays;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Maps note on velocities through a precomputed 128 entry table. Velocity 0 is
+ * a note off in disguise and is never remapped, and no other velocity is ever
+ * mapped down to 0.
+ */
+public final class VelocityCurve implements TransformStage {
+	private final byte[] table = new byte[128];
+
+	public VelocityCurve(int[] curve) {
+		if (curve.length != 128) {
+			throw new IllegalArgumentException("Velocity curve needs 128 entries");
+		}
+		for (int i = 1; i < 128; i++) {
+			table[i] = (byte) Math.max(1, Math.min(127, curve[i]));
+		}
+	}
+
+	public static VelocityCurve fixed(int velocity) {
+		int[] curve = new int[128];
+		for (int i = 0; i < 128; i++) {
+			curve[i] = velocity;
+		}
+		return new VelocityCurve(curve);
+	}
+
+	/**
+	 * Power curve, gamma below 1 makes soft playing louder, above 1 softer.
+	 */
+	public static VelocityCurve gamma(double gamma) {
+		int[] curve = new int[128];
+		for (int i = 0; i < 128; i++) {
+			curve[i] = (int) Math.round(127.0 * Math.pow(i / 127.0, gamma));
+		}
+		return new VelocityCurve(curve);
+	}
+
+	public int map(int velocity) {
+		return velocity == 0 ? 0 : table[velocity & 0x7F];
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof VelocityCurve && Arrays.equals(((VelocityCurve) o).table, table);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(table);
+	}
+
+	@Override
+	public int apply(int packed) {
+		if (ShortMessages.command(packed) != ShortMessage.NOTE_ON) {
+			return packed;
+		}
+		int velocity = ShortMessages.data2(packed);
+		if (velocity == 0) {
+			return packed;
+		}
+		return ShortMessages.withData2(packed, table[velocity]);
+	}
+}
@@ -0,0 +1,85 @@
+package midi.router.capture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import midi.router.engine.InputTap;
+
+public class CaptureReaderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Every data length, so the end byte lands at each place in a record, alone in one included
+	@Test
+	public void sysexOfEveryLengthRoundTrips() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("capture.mrc");
+		CaptureLog log = CaptureLog.open(path, 4096);
+		InputTap tap = log.tap("keys");
+		ShortMessage marker = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+		for (int data = 1; data <= 64; data++) {
+			tap.tap(new SysexMessage(dump(data), data + 2), System.nanoTime());
+			tap.tap(marker, System.nanoTime());
+		}
+		log.close();
+
+		CaptureReader reader = CaptureReader.open(path, 0, true);
+		for (int data = 1; data <= 64; data++) {
+			assertTrue("length " + data, reader.advance());
+			assertArrayEquals("length " + data, dump(data), reader.getMessage().getMessage());
+			assertTrue(reader.advance());
+			assertArrayEquals(marker.getMessage(), reader.getMessage().getMessage());
+		}
+		assertFalse(reader.advance());
+	}
+
+	// A message sent in parts: the first without an end byte, the rest marked with 0xF7
+	@Test
+	public void continuationMessagesJoinTheirStart() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("capture.mrc");
+		CaptureLog log = CaptureLog.open(path, 4096);
+		InputTap tap = log.tap("keys");
+		byte[] whole = dump(40);
+		byte[] start = new byte[21];
+		System.arraycopy(whole, 0, start, 0, start.length);
+		byte[] rest = new byte[whole.length - start.length + 1];
+		rest[0] = (byte) SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE;
+		System.arraycopy(whole, start.length, rest, 1, rest.length - 1);
+		tap.tap(new SysexMessage(start, start.length), System.nanoTime());
+		tap.tap(new SysexMessage(rest, rest.length), System.nanoTime());
+		// The end byte sent on its own
+		tap.tap(new SysexMessage(start, start.length), System.nanoTime());
+		tap.tap(new SysexMessage(new byte[] { (byte) SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE }, 1), System.nanoTime());
+		log.close();
+
+		CaptureReader reader = CaptureReader.open(path, 0, true);
+		assertTrue(reader.advance());
+		assertArrayEquals(whole, reader.getMessage().getMessage());
+		assertTrue(reader.advance());
+		MidiMessage joined = reader.getMessage();
+		assertEquals(start.length + 1, joined.getLength());
+		assertEquals((byte) ShortMessage.END_OF_EXCLUSIVE, joined.getMessage()[start.length]);
+		assertFalse(reader.advance());
+	}
+
+	private static byte[] dump(int data) {
+		byte[] bytes = new byte[data + 2];
+		bytes[0] = (byte) SysexMessage.SYSTEM_EXCLUSIVE;
+		for (int i = 1; i <= data; i++) {
+			bytes[i] = (byte) (i & 0x7F);
+		}
+		bytes[bytes.length - 1] = (byte) ShortMessage.END_OF_EXCLUSIVE;
+		return bytes;
+	}
+}
@@ -0,0 +1,86 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+public class ActiveNotesTest {
+
+	@Test
+	public void tracksNoteOnAndOff() {
+		ActiveNotes notes = new ActiveNotes();
+		notes.track(ShortMessage.NOTE_ON | 3, 100, 90);
+		notes.track(ShortMessage.NOTE_ON | 3, 20, 90);
+		notes.track(ShortMessage.NOTE_ON | 3, 20, 0);
+		notes.track(ShortMessage.CONTROL_CHANGE | 3, 64, 127);
+		assertTrue(notes.isOn(3, 100));
+		assertFalse(notes.isOn(3, 20));
+		assertEquals(1, notes.count());
+
+		OffCounter offs = new OffCounter();
+		assertEquals(1, notes.release(offs));
+		assertEquals(1, offs.counts[3][100]);
+		assertEquals(0, notes.count());
+	}
+
+	// The MIDI thread tracks while the engine thread releases: every note gets exactly one note off
+	@Test
+	public void concurrentReleaseSwitchesEachNoteOffOnce() throws Exception {
+		ActiveNotes notes = new ActiveNotes();
+		OffCounter offs = new OffCounter();
+		for (int round = 1; round <= 200; round++) {
+			CountDownLatch start = new CountDownLatch(1);
+			Thread tracker = new Thread(() -> {
+				await(start);
+				for (int channel = 0; channel < 16; channel++) {
+					for (int note = 0; note < 128; note++) {
+						notes.track(ShortMessage.NOTE_ON | channel, note, 100);
+					}
+				}
+			});
+			tracker.start();
+			start.countDown();
+			while (tracker.isAlive()) {
+				notes.release(offs);
+			}
+			tracker.join();
+			notes.release(offs);
+			for (int channel = 0; channel < 16; channel++) {
+				for (int note = 0; note < 128; note++) {
+					assertEquals("channel " + channel + " note " + note, round, offs.counts[channel][note]);
+				}
+			}
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Only the releasing thread sends
+	private static class OffCounter implements Receiver {
+		final int[][] counts = new int[16][128];
+
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			ShortMessage off = (ShortMessage) message;
+			counts[off.getChannel()][off.getData1()]++;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CoalescerTest {
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+	private final Recorder sink = new Recorder();
+	private final OutputPort port = new OutputPort(new VirtualMidiDevice("out", "test") {
+	}, sink);
+
+	@After
+	public void tearDown() {
+		sink.open.countDown();
+		port.release();
+		timer.shutdownNow();
+	}
+
+	// The merge stage sorts by ingress time; flushed values must not sort behind the note that flushed them
+	@Test
+	public void controllerBurstThenNoteKeepsItsOrderOnAMergedOutput() throws Exception {
+		port.setMerging(true);
+		Route route = new InputFanOut(new VirtualMidiDevice("in", "test") {
+		}, new RoutingGraph()).prepare(null, port);
+		// Long enough that only the note flushes
+		route.setCoalescer(new Coalescer(route, new CoalesceSettings(60_000), timer));
+
+		// Hold the driver so the burst and the note end up in one batch
+		port.send(new ShortMessage(ShortMessage.NOTE_ON, 1, 60, 100), -1, System.nanoTime());
+		assertTrue(sink.stalled.await(5, TimeUnit.SECONDS));
+
+		for (int controller = 0; controller < 16; controller++) {
+			route.deliver(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, controller, 64), -1, System.nanoTime());
+		}
+		route.deliver(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), -1, System.nanoTime());
+		sink.open.countDown();
+		sink.await(18);
+
+		List<Integer> received = sink.statuses();
+		for (int i = 1; i < 17; i++) {
+			assertEquals("message " + i, ShortMessage.CONTROL_CHANGE, received.get(i).intValue());
+		}
+		assertEquals(ShortMessage.NOTE_ON, received.get(17).intValue());
+	}
+
+	private static class Recorder implements Receiver {
+		final CountDownLatch stalled = new CountDownLatch(1);
+		final CountDownLatch open = new CountDownLatch(1);
+		private final List<Integer> statuses = new ArrayList<>();
+
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			stalled.countDown();
+			try {
+				open.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				statuses.add(message.getStatus() & 0xF0);
+				notifyAll();
+			}
+		}
+
+		synchronized List<Integer> statuses() {
+			return new ArrayList<>(statuses);
+		}
+
+		synchronized void await(int expected) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (statuses.size() < expected) {
+				long remaining = deadline - System.nanoTime();
+				assertTrue("only " + statuses.size() + " of " + expected + " sent", remaining > 0);
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
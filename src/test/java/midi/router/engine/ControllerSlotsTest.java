@@ -0,0 +1,93 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+import midi.router.transform.ShortMessages;
+
+public class ControllerSlotsTest {
+
+	@Test
+	public void keepsOnlyTheLatestValuePerStream() {
+		ControllerSlots slots = new ControllerSlots();
+		assertEquals(ControllerSlots.STORED, slots.store(cc(0, 1, 10), 0));
+		assertEquals(ControllerSlots.REPLACED, slots.store(cc(0, 1, 20), 0));
+		assertEquals(ControllerSlots.STORED, slots.store(cc(1, 1, 30), 0));
+		assertEquals(ControllerSlots.STORED, slots.store(ShortMessages.pack(ShortMessage.PITCH_BEND, 0, 64), 0));
+
+		List<Integer> drained = drain(slots, Integer.MAX_VALUE);
+		assertEquals(3, drained.size());
+		assertTrue(drained.contains(cc(0, 1, 20)));
+		assertTrue(drained.contains(cc(1, 1, 30)));
+		assertFalse(slots.hasPending());
+	}
+
+	@Test
+	public void drainsEachValueWithTheTimeItCameIn() {
+		ControllerSlots slots = new ControllerSlots();
+		slots.store(cc(0, 1, 10), 100);
+		slots.store(cc(0, 1, 20), 200);
+		long[] time = new long[1];
+		slots.drain((packed, receivedNanos) -> time[0] = receivedNanos);
+		assertEquals(200, time[0]);
+	}
+
+	@Test
+	public void leavesNotesAlone() {
+		ControllerSlots slots = new ControllerSlots();
+		assertEquals(ControllerSlots.NOT_STORED, slots.store(ShortMessages.pack(ShortMessage.NOTE_ON, 60, 100), 0));
+		assertFalse(slots.hasPending());
+	}
+
+	@Test
+	public void limitedDrainKeepsTheRestPending() {
+		ControllerSlots slots = new ControllerSlots();
+		for (int controller = 0; controller < 10; controller++) {
+			slots.store(cc(0, controller, 1), 0);
+		}
+		assertEquals(4, drain(slots, 4).size());
+		assertTrue(slots.hasPending());
+		assertEquals(6, drain(slots, Integer.MAX_VALUE).size());
+		assertFalse(slots.hasPending());
+	}
+
+	// A store racing a drain is either drained now or left pending, never lost
+	@Test
+	public void concurrentStoresAreNeverLost() throws Exception {
+		final ControllerSlots slots = new ControllerSlots();
+		final int rounds = 100_000;
+		final int[] lastSeen = new int[128];
+		Thread writer = new Thread(() -> {
+			for (int i = 1; i <= rounds; i++) {
+				slots.store(cc(0, i % 128, i % 128 == 0 ? 0 : 1), 0);
+			}
+		});
+		writer.start();
+		while (writer.isAlive()) {
+			slots.drain((packed, receivedNanos) -> lastSeen[ShortMessages.data1(packed)]++);
+		}
+		slots.drain((packed, receivedNanos) -> lastSeen[ShortMessages.data1(packed)]++);
+		for (int controller = 0; controller < 128; controller++) {
+			assertTrue("controller " + controller, lastSeen[controller] > 0);
+		}
+		assertFalse(slots.hasPending());
+	}
+
+	private static List<Integer> drain(ControllerSlots slots, int limit) {
+		List<Integer> drained = new ArrayList<>();
+		slots.drain((packed, receivedNanos) -> drained.add(packed), limit);
+		return drained;
+	}
+
+	private static int cc(int channel, int controller, int value) {
+		return ShortMessages.pack(ShortMessage.CONTROL_CHANGE | channel, controller, value);
+	}
+}
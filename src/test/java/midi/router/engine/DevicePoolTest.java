@@ -0,0 +1,124 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.sound.midi.MidiUnavailableException;
+
+import org.junit.Test;
+
+public class DevicePoolTest {
+	private final DevicePool pool = new DevicePool();
+
+	@Test
+	public void outputStaysOpenUntilTheLastLeaseGoes() throws Exception {
+		Port device = new Port(true);
+		OutputPort first = pool.acquireOutput(device);
+		assertSame(first, pool.acquireOutput(device));
+		assertEquals(1, device.opens);
+
+		pool.releaseOutput(device);
+		assertTrue(device.isOpen());
+		assertEquals(1, pool.getLeaseCount(device));
+
+		pool.releaseOutput(device);
+		assertFalse(device.isOpen());
+		assertEquals(0, pool.getLeaseCount(device));
+		assertNull(pool.getOutputPort(device));
+	}
+
+	@Test
+	public void inputStaysOpenUntilTheLastLeaseGoes() throws Exception {
+		Port device = new Port(false);
+		InputFanOut first = pool.acquireInput(device);
+		assertSame(first, pool.acquireInput(device));
+
+		pool.releaseInput(device);
+		assertTrue(device.isOpen());
+
+		pool.releaseInput(device);
+		assertFalse(device.isOpen());
+		assertNull(pool.getInputFanOut(device));
+	}
+
+	// A device used both ways is only closed once neither side is leased
+	@Test
+	public void inputLeaseKeepsASharedDeviceOpen() throws Exception {
+		Port device = new Port(true);
+		pool.acquireInput(device);
+		pool.acquireOutput(device);
+
+		pool.releaseOutput(device);
+		assertTrue(device.isOpen());
+		pool.releaseInput(device);
+		assertFalse(device.isOpen());
+	}
+
+	@Test
+	public void failedOpenLeavesNoLease() throws Exception {
+		Port device = new Port(true);
+		device.failOpen = true;
+		assertAcquireFails(device);
+		assertEquals(0, pool.getLeaseCount(device));
+		assertNull(pool.getOutputPort(device));
+
+		// Nothing half open is left behind, the next try starts from scratch
+		device.failOpen = false;
+		pool.acquireOutput(device);
+		assertEquals(1, pool.getLeaseCount(device));
+		pool.releaseOutput(device);
+		assertFalse(device.isOpen());
+	}
+
+	@Test
+	public void failedReceiverClosesTheDeviceAgain() throws Exception {
+		// No receivers, so the open succeeds and getting the receiver fails
+		Port device = new Port(false);
+		assertAcquireFails(device);
+		assertEquals(0, pool.getLeaseCount(device));
+		assertFalse(device.isOpen());
+		assertTrue(pool.getOutputPorts().isEmpty());
+	}
+
+	private void assertAcquireFails(Port device) {
+		try {
+			pool.acquireOutput(device);
+			fail("acquired " + device.getDeviceInfo().getName());
+		} catch (MidiUnavailableException e) {
+			// expected
+		}
+	}
+
+	private static class Port extends VirtualMidiDevice {
+		private final boolean takesMessages;
+		volatile boolean failOpen;
+		int opens;
+
+		Port(boolean takesMessages) {
+			super("port", "test");
+			this.takesMessages = takesMessages;
+		}
+
+		@Override
+		public synchronized void open() throws MidiUnavailableException {
+			if (failOpen) {
+				throw new MidiUnavailableException("busy");
+			}
+			super.open();
+		}
+
+		@Override
+		protected void onOpen() {
+			opens++;
+		}
+
+		@Override
+		public int getMaxReceivers() {
+			return takesMessages ? -1 : 0;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class EventRingTest {
+
+	@Test
+	public void roundsCapacityUpToAPowerOfTwo() {
+		assertEquals(8, new EventRing(5).capacity());
+		assertEquals(8, new EventRing(8).capacity());
+		assertEquals(4, new EventRing(3).capacity());
+	}
+
+	@Test
+	public void refusesWhenFullAndKeepsOrder() {
+		EventRing ring = new EventRing(4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ring.offer(i, null, i, i));
+		}
+		assertFalse(ring.offer(99, null, 0, 0));
+		assertEquals(4, ring.size());
+
+		QueuedEvent event = new QueuedEvent();
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ring.poll(event));
+			assertEquals(i, event.packed);
+			assertEquals(i, event.timeStamp);
+		}
+		assertFalse(ring.poll(event));
+		assertTrue(ring.isEmpty());
+	}
+
+	@Test
+	public void dropOldestFreesTheHead() {
+		EventRing ring = new EventRing(2);
+		ring.offer(1, null, 0, 0);
+		ring.offer(2, null, 0, 0);
+		assertTrue(ring.dropOldest());
+		assertTrue(ring.offer(3, null, 0, 0));
+
+		QueuedEvent event = new QueuedEvent();
+		ring.poll(event);
+		assertEquals(2, event.packed);
+		assertNull(event.message);
+		ring.poll(event);
+		assertEquals(3, event.packed);
+	}
+
+	// Every event arrives exactly once, and each producer's events arrive in the order it sent them
+	@Test
+	public void manyProducersOneConsumer() throws Exception {
+		final int producers = 8;
+		final int perProducer = 200_000;
+		final EventRing ring = new EventRing(256);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int id = p;
+			threads[p] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < perProducer; i++) {
+					while (!ring.offer(id, null, i, 0)) {
+						Thread.yield();
+					}
+				}
+			});
+			threads[p].start();
+		}
+		start.countDown();
+
+		long[] next = new long[producers];
+		QueuedEvent event = new QueuedEvent();
+		long received = 0;
+		while (received < (long) producers * perProducer) {
+			if (ring.poll(event)) {
+				assertEquals("producer " + event.packed, next[event.packed], event.timeStamp);
+				next[event.packed]++;
+				received++;
+			} else {
+				Thread.yield();
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(ring.isEmpty());
+	}
+}
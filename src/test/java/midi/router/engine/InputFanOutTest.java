@@ -0,0 +1,174 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import org.junit.Test;
+
+import midi.router.transform.ChannelRemap;
+import midi.router.transform.TransformChain;
+import midi.router.transform.Transpose;
+import midi.router.transform.VelocityCurve;
+
+public class InputFanOutTest {
+	private static final int MESSAGES = 200_000;
+
+	private final RoutingGraph graph = new RoutingGraph();
+	private final InputFanOut input = new InputFanOut(new VirtualMidiDevice("in", "test") {
+	}, graph);
+
+	@Test
+	public void everyRouteGetsEveryMessageInOrder() throws Exception {
+		Numbered[] outputs = new Numbered[8];
+		for (int i = 0; i < outputs.length; i++) {
+			outputs[i] = new Numbered();
+			input.connect(outputs[i]);
+		}
+		ShortMessage note = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+		for (int i = 0; i < 1000; i++) {
+			input.send(note, i);
+		}
+		for (Numbered output : outputs) {
+			assertEquals(1000, output.count);
+			assertEquals(0, output.breaks);
+		}
+	}
+
+	// A route added or removed mid-stream gets a run of the stream, the others miss nothing
+	@Test
+	public void connectAndDisconnectWhileSending() throws Exception {
+		Numbered steady = new Numbered();
+		input.connect(steady);
+		Numbered flapping = new Numbered();
+		Thread sender = sender();
+		sender.start();
+		while (sender.isAlive()) {
+			Route route = input.connect(flapping);
+			Thread.yield();
+			assertTrue(input.disconnect(route));
+		}
+		sender.join();
+
+		assertEquals(MESSAGES, steady.count);
+		assertEquals(0, steady.breaks);
+		// Never a message twice or out of order, however often it came and went
+		assertEquals(0, flapping.decreases);
+	}
+
+	// Swapping whole tables hands every message to exactly one of the two routes
+	@Test
+	public void tableSwapNeitherDropsNorDuplicates() throws Exception {
+		Numbered steady = new Numbered();
+		Marking before = new Marking();
+		Marking after = new Marking();
+		RoutingTable first = RoutingTable.of(Arrays.asList(input.prepare(null, steady), input.prepare(null, before)));
+		RoutingTable second = RoutingTable.of(Arrays.asList(first.getRoutes().get(0), input.prepare(null, after)));
+		graph.swap(first);
+		Thread sender = sender();
+		sender.start();
+		boolean flip = true;
+		while (sender.isAlive()) {
+			graph.swap(flip ? second : first);
+			flip = !flip;
+			Thread.yield();
+		}
+		sender.join();
+
+		assertEquals(MESSAGES, steady.count);
+		assertEquals(0, steady.breaks);
+		assertFalse(before.seen.intersects(after.seen));
+		BitSet all = (BitSet) before.seen.clone();
+		all.or(after.seen);
+		assertEquals(MESSAGES, all.cardinality());
+	}
+
+	// The chain only ever sees short messages; SysEx and realtime come out as they went in
+	@Test
+	public void chainPassesSysexAndRealtimeUntouched() throws Exception {
+		Recording output = new Recording();
+		Route route = input.connect(output);
+		route.setTransforms(TransformChain.of(new Transpose(12), ChannelRemap.all(3), VelocityCurve.fixed(90)));
+		byte[] dump = { (byte) SysexMessage.SYSTEM_EXCLUSIVE, 0x41, 0x10, 0x42, 0x12, (byte) ShortMessage.END_OF_EXCLUSIVE };
+		input.send(new SysexMessage(dump, dump.length), -1);
+		input.send(new ShortMessage(ShortMessage.TIMING_CLOCK), -1);
+		input.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), -1);
+
+		assertEquals(3, output.received.size());
+		assertArrayEquals(dump, output.received.get(0));
+		assertArrayEquals(new byte[] { (byte) ShortMessage.TIMING_CLOCK }, output.received.get(1));
+		assertArrayEquals(new byte[] { (byte) (ShortMessage.NOTE_ON | 3), 72, 90 }, output.received.get(2));
+	}
+
+	private Thread sender() throws Exception {
+		ShortMessage note = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+		return new Thread(() -> {
+			for (int i = 0; i < MESSAGES; i++) {
+				input.send(note, i);
+			}
+		});
+	}
+
+	// Only the sending thread writes, the test reads after joining it
+	private static class Numbered implements Receiver {
+		long count;
+		long breaks;
+		long decreases;
+		private long next;
+		private long last = -1;
+
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			if (timeStamp != next) {
+				breaks++;
+			}
+			if (timeStamp <= last) {
+				decreases++;
+			}
+			next = timeStamp + 1;
+			last = timeStamp;
+			count++;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static class Recording implements Receiver {
+		final List<byte[]> received = new ArrayList<>();
+
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			received.add(Arrays.copyOf(message.getMessage(), message.getLength()));
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static class Marking implements Receiver {
+		final BitSet seen = new BitSet();
+
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			seen.set((int) timeStamp);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import midi.router.stats.StatsRegistry;
+
+public class OutputPortTest {
+	private final Sink sink = new Sink();
+	private final OutputPort port = new OutputPort(new VirtualMidiDevice("out", "test") {
+	}, sink);
+
+	@After
+	public void tearDown() {
+		sink.open.countDown();
+		port.release();
+	}
+
+	// The input thread never waits on a driver call the sender is stuck in
+	@Test
+	public void realtimeOnAStalledBufferedOutputDoesNotBlockTheInput() throws Exception {
+		port.enableBuffering(64, OverflowPolicy.DROP_NEWEST);
+		sink.stallOnNotes();
+		port.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), -1);
+		sink.stalled.await(5, TimeUnit.SECONDS);
+
+		ShortMessage clock = new ShortMessage(ShortMessage.TIMING_CLOCK);
+		Thread input = new Thread(() -> {
+			for (int i = 0; i < 100; i++) {
+				port.sendRealtime(clock, -1);
+			}
+		});
+		input.start();
+		input.join(TimeUnit.SECONDS.toMillis(1));
+		assertTrue("input blocked behind the stalled driver", !input.isAlive());
+
+		sink.open.countDown();
+		sink.await(101);
+		assertEquals(0, port.getStats().getDropped());
+	}
+
+	// Patching a second input in and out of a playing route turns the merge stage on and off
+	@Test
+	public void mergeToggleNeitherLosesNorReorders() throws Exception {
+		Streamer first = new Streamer(port, 0);
+		Streamer second = new Streamer(port, 1);
+		first.start();
+		second.start();
+		for (int i = 0; i < 150; i++) {
+			port.setMerging(i % 2 == 0);
+			Thread.sleep(1);
+		}
+		first.finish();
+		second.finish();
+		port.setMerging(false);
+
+		sink.await(first.sent + second.sent);
+		sink.assertInOrder(0, first.sent);
+		sink.assertInOrder(1, second.sent);
+		assertEquals(0, port.getStats().getDropped());
+	}
+
+	@Test
+	public void shardToggleNeitherLosesNorReorders() throws Exception {
+		ShardPool pool = new ShardPool(2, new StatsRegistry());
+		try {
+			Streamer first = new Streamer(port, 0);
+			Streamer second = new Streamer(port, 1);
+			first.start();
+			second.start();
+			for (int i = 0; i < 100; i++) {
+				port.setShards(i % 2 == 0 ? pool : null);
+				Thread.sleep(1);
+			}
+			first.finish();
+			second.finish();
+			port.setShards(null);
+
+			sink.await(first.sent + second.sent);
+			sink.assertInOrder(0, first.sent);
+			sink.assertInOrder(1, second.sent);
+			assertEquals(0, port.getStats().getDropped());
+		} finally {
+			pool.close();
+		}
+	}
+
+	// Taking a port off its shard sends everything it held, however long the driver takes
+	@Test
+	public void leavingAShardDrainsASlowOutputCompletely() throws Exception {
+		ShardPool pool = new ShardPool(1, new StatsRegistry());
+		try {
+			port.setShards(pool);
+			sink.delayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+			ShortMessage note = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+			for (int i = 0; i < 150; i++) {
+				port.send(note, i);
+			}
+			port.setShards(null);
+			sink.assertInOrder(0, 150);
+			assertEquals(0, port.getStats().getDropped());
+		} finally {
+			pool.close();
+		}
+	}
+
+	// Swapping the sender of a hung output gives up on the driver instead of hanging the engine
+	@Test
+	public void swapGivesUpOnAStalledDriver() throws Exception {
+		port.enableBuffering(64, OverflowPolicy.DROP_NEWEST);
+		sink.stallOnNotes();
+		ShortMessage note = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+		port.send(note, 0);
+		assertTrue(sink.stalled.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i <= 50; i++) {
+			port.send(note, i);
+		}
+
+		Thread engine = new Thread(port::disableBuffering);
+		engine.start();
+		engine.join(TimeUnit.SECONDS.toMillis(5));
+		assertTrue("swap hung on the stalled driver", !engine.isAlive());
+		assertEquals(50, port.getStats().getDropped());
+
+		// The note the driver was stuck on still goes out once it returns
+		sink.open.countDown();
+		sink.await(1);
+	}
+
+	// One input's notes on its own channel, numbered in the time stamp
+	private static class Streamer extends Thread {
+		private final OutputPort port;
+		private final int channel;
+		private volatile boolean stop;
+		long sent;
+
+		Streamer(OutputPort port, int channel) {
+			this.port = port;
+			this.channel = channel;
+		}
+
+		@Override
+		public void run() {
+			try {
+				ShortMessage note = new ShortMessage(ShortMessage.NOTE_ON, channel, 60, 100);
+				while (!stop) {
+					port.send(note, sent++);
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void finish() throws InterruptedException {
+			stop = true;
+			join();
+		}
+	}
+
+	private static class Sink implements Receiver {
+		final CountDownLatch stalled = new CountDownLatch(1);
+		final CountDownLatch open = new CountDownLatch(1);
+		private long count;
+		// Per channel, the number the next note should carry and how many broke the sequence
+		private final long[] next = new long[2];
+		private final long[] breaks = new long[2];
+		private volatile boolean stallOnNotes;
+		volatile long delayNanos;
+
+		void stallOnNotes() {
+			stallOnNotes = true;
+		}
+
+		@Override
+		public void send(MidiMessage message, long timeStamp) {
+			if (stallOnNotes && message.getStatus() < 0xF0) {
+				stalled.countDown();
+				try {
+					open.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (delayNanos > 0) {
+				LockSupport.parkNanos(delayNanos);
+			}
+			synchronized (this) {
+				int status = message.getStatus();
+				if ((status & 0xF0) == ShortMessage.NOTE_ON) {
+					int channel = status & 0x0F;
+					if (timeStamp != next[channel]) {
+						breaks[channel]++;
+					}
+					next[channel] = timeStamp + 1;
+				}
+				count++;
+				notifyAll();
+			}
+		}
+
+		synchronized void assertInOrder(int channel, long sent) {
+			assertEquals("channel " + channel + " out of order or lost", 0, breaks[channel]);
+			assertEquals("channel " + channel + " cut short", sent, next[channel]);
+		}
+
+		synchronized void await(long expected) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (count < expected) {
+				long remaining = deadline - System.nanoTime();
+				assertTrue("only " + count + " of " + expected + " sent", remaining > 0);
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import midi.router.transform.TransformChain;
+
+public class SceneSwitchTest {
+	private static final int MESSAGES = 100_000;
+
+	private final RoutingEngine engine = new RoutingEngine();
+	private final Keys keys = new Keys();
+	private final Synth first = new Synth("first");
+	private final Synth second = new Synth("second");
+	private final Synth shared = new Synth("shared");
+
+	@Before
+	public void setUp() throws Exception {
+		for (VirtualMidiDevice device : Arrays.asList(keys, first, second, shared)) {
+			engine.addVirtualDevice(device).get();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		engine.close();
+	}
+
+	// Every message goes out through exactly one of the two scenes, however often they swap
+	@Test
+	public void switchNeitherDropsNorDuplicates() throws Exception {
+		engine.putScene(scene("A", null, first)).get();
+		engine.putScene(scene("B", null, second)).get();
+		engine.switchScene("A").get();
+
+		Thread player = new Thread(() -> {
+			try {
+				ShortMessage cc = new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, 64);
+				for (int i = 0; i < MESSAGES; i++) {
+					keys.play(cc, i);
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		player.start();
+		int switches = 0;
+		while (player.isAlive()) {
+			engine.switchScene(switches++ % 2 == 0 ? "B" : "A").get();
+		}
+		player.join();
+
+		BitSet seen = first.seen();
+		BitSet other = second.seen();
+		assertTrue("only " + switches + " switches", switches > 2);
+		assertFalse("sent twice", seen.intersects(other));
+		seen.or(other);
+		assertEquals(MESSAGES, seen.cardinality());
+	}
+
+	@Test
+	public void notesOnRemovedRoutesAreReleased() throws Exception {
+		engine.putScene(scene("A", null, first, shared)).get();
+		engine.putScene(scene("B", null, second, shared)).get();
+		engine.switchScene("A").get();
+		keys.play(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), -1);
+
+		engine.switchScene("B").get();
+		assertEquals(Arrays.asList(ShortMessage.NOTE_ON, ShortMessage.NOTE_OFF), first.commands());
+		// Kept by both scenes, the note carries on
+		assertEquals(Collections.singletonList(ShortMessage.NOTE_ON), shared.commands());
+		assertTrue(second.commands().isEmpty());
+	}
+
+	@Test
+	public void triggerSwitchesToItsScene() throws Exception {
+		engine.putScene(scene("Verse", SceneTrigger.programChange(SceneTrigger.ANY_CHANNEL, 1), first)).get();
+		engine.putScene(scene("Chorus", SceneTrigger.controlChange(15, 80), second)).get();
+
+		keys.play(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 3, 1, 0), -1);
+		awaitScene("Verse");
+		// Below 64 is the footswitch let go, and on another channel it is not the trigger
+		keys.play(new ShortMessage(ShortMessage.CONTROL_CHANGE, 15, 80, 10), -1);
+		keys.play(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 80, 127), -1);
+		engine.switchScene("Verse").get();
+		assertEquals("Verse", engine.getActiveScene());
+
+		keys.play(new ShortMessage(ShortMessage.CONTROL_CHANGE, 15, 80, 127), -1);
+		awaitScene("Chorus");
+		assertEquals(1, engine.listRoutes().size());
+		assertSame(second, engine.listRoutes().get(0).getOutput());
+	}
+
+	private Scene scene(String name, SceneTrigger trigger, Synth... outputs) {
+		List<Session.RouteEntry> routes = new ArrayList<>();
+		for (Synth output : outputs) {
+			routes.add(new Session.RouteEntry(engine.getDeviceId(keys), engine.getDeviceId(output),
+					TransformChain.EMPTY, null));
+		}
+		return new Scene(name, trigger, new Session(routes, Collections.emptyMap()));
+	}
+
+	private void awaitScene(String name) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!name.equals(engine.getActiveScene())) {
+			assertTrue("still in " + engine.getActiveScene(), System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	private static class Keys extends VirtualMidiDevice {
+		Keys() {
+			super("keys", "test");
+		}
+
+		void play(MidiMessage message, long timeStamp) {
+			transmit(message, timeStamp);
+		}
+	}
+
+	private static class Synth extends VirtualMidiDevice {
+		private final BitSet seen = new BitSet();
+		private final List<Integer> commands = new ArrayList<>();
+
+		Synth(String name) {
+			super(name, "test");
+		}
+
+		@Override
+		public int getMaxReceivers() {
+			return -1;
+		}
+
+		@Override
+		protected synchronized void receive(MidiMessage message, long timeStamp) {
+			if (timeStamp >= 0) {
+				seen.set((int) timeStamp);
+			}
+			int command = message.getStatus() & 0xF0;
+			if (command == ShortMessage.NOTE_ON && message.getMessage()[2] == 0) {
+				command = ShortMessage.NOTE_OFF;
+			}
+			commands.add(command);
+		}
+
+		synchronized BitSet seen() {
+			return (BitSet) seen.clone();
+		}
+
+		synchronized List<Integer> commands() {
+			return new ArrayList<>(commands);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package midi.router.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import org.junit.Test;
+
+import midi.router.stats.OutputStats;
+import midi.router.transform.ShortMessages;
+
+public class SysexStreamerTest {
+
+	@Test
+	public void heldNoteOffWaitsForRoomInsteadOfBeingDropped() throws Exception {
+		Recorder driver = new Recorder();
+		OutputStats stats = new OutputStats();
+		// A 64 byte chunk every 100 ms, four of them
+		SysexStreamer streamer = new SysexStreamer("test", driver, stats, 640);
+		try {
+			byte[] dump = new byte[256];
+			dump[0] = (byte) SysexMessage.SYSTEM_EXCLUSIVE;
+			dump[dump.length - 1] = (byte) ShortMessage.END_OF_EXCLUSIVE;
+			streamer.offer(new SysexMessage(dump, dump.length), System.nanoTime());
+			driver.awaitCount(1);
+
+			ShortMessage cc = new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 1, 64);
+			for (int i = 0; i < 1024; i++) {
+				assertTrue(streamer.send(cc, ShortMessages.pack(cc), -1));
+			}
+			// Held messages are full: a controller is dropped, a note off waits
+			assertFalse(streamer.send(cc, ShortMessages.pack(cc), -1));
+			assertEquals(1, stats.getDropped());
+			ShortMessage off = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 0);
+			assertTrue(streamer.send(off, ShortMessages.pack(off), -1));
+
+			driver.awaitCount(4 + 1024 + 1);
+			List<Integer> statuses = driver.statuses();
+			assertEquals(SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE, (int) statuses.get(3));
+			assertEquals(ShortMessage.NOTE_ON, (int) statuses.get(statuses.size() - 1));
+			assertEquals(1, stats.getDropped());
+		} finally {
+			streamer.shutdown();
+		}
+	}
+
+	// The note must not slip past on the input thread before the streamer has picked the SysEx up
+	@Test
+	public void noteRightAfterSysexWaitsForItOnADirectOutput() throws Exception {
+		sysexThenNote(false);
+	}
+
+	@Test
+	public void noteRightAfterSysexWaitsForItOnAQueuedOutput() throws Exception {
+		sysexThenNote(true);
+	}
+
+	private static void sysexThenNote(boolean queued) throws Exception {
+		Recorder driver = new Recorder();
+		OutputPort port = new OutputPort(new VirtualMidiDevice("out", "test") {
+		}, driver);
+		try {
+			if (queued) {
+				port.setMerging(true);
+			}
+			byte[] dump = new byte[1024];
+			dump[0] = (byte) SysexMessage.SYSTEM_EXCLUSIVE;
+			dump[dump.length - 1] = (byte) ShortMessage.END_OF_EXCLUSIVE;
+			SysexMessage sysex = new SysexMessage(dump, dump.length);
+			ShortMessage note = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+			for (int i = 0; i < 100; i++) {
+				port.send(sysex, -1);
+				port.send(note, -1);
+			}
+
+			int chunks = dump.length / SysexStreamer.CHUNK_SIZE;
+			driver.awaitCount(100 * (chunks + 1));
+			List<Integer> statuses = driver.statuses();
+			for (int i = 0; i < statuses.size(); i++) {
+				int expected = i % (chunks + 1) == 0 ? SysexMessage.SYSTEM_EXCLUSIVE
+						: i % (chunks + 1) == chunks ? ShortMessage.NOTE_ON : SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE;
+				assertEquals("message " + i, expected, (int) statuses.get(i));
+			}
+			assertEquals(0, port.getStats().getDropped());
+		} finally {
+			port.release();
+		}
+	}
+
+	private static class Recorder implements Receiver {
+		private final List<Integer> statuses = new ArrayList<>();
+
+		@Override
+		public synchronized void send(MidiMessage message, long timeStamp) {
+			statuses.add(message.getStatus());
+			notifyAll();
+		}
+
+		synchronized void awaitCount(int count) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (statuses.size() < count) {
+				long remaining = deadline - System.nanoTime();
+				assertTrue("only " + statuses.size() + " of " + count + " sent", remaining > 0);
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		}
+
+		synchronized List<Integer> statuses() {
+			return new ArrayList<>(statuses);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
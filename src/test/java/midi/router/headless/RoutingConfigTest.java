@@ -0,0 +1,101 @@
+package midi.router.headless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import midi.router.engine.OutputPort;
+import midi.router.engine.OverflowPolicy;
+import midi.router.transform.ChannelRemap;
+import midi.router.transform.TransformChain;
+import midi.router.transform.Transpose;
+
+public class RoutingConfigTest {
+
+	@Test
+	public void readsAValidFile() throws IOException {
+		RoutingConfig config = parse("# rig\n"
+				+ "KeyStep -> Synth | transpose=-12 channel=1:3\n"
+				+ "Seaboard -> DIN Out | coalesce=5:32\n"
+				+ "buffer Synth | overflow=coalesce capacity=512\n"
+				+ "sysex DIN Out | rate=din\n"
+				+ "clock 122.5\n"
+				+ "\n"
+				+ "scene Chorus | cc=80 channel=16\n"
+				+ "KeyStep -> Synth | transpose=12\n");
+
+		assertEquals(2, config.getRoutes().size());
+		RouteSpec first = config.getRoutes().get(0);
+		assertEquals("KeyStep", first.getInput());
+		assertEquals("Synth", first.getOutput());
+		assertEquals(TransformChain.of(new Transpose(-12), ChannelRemap.single(0, 2)), first.getTransforms());
+		assertNull(first.getCoalescing());
+		assertEquals(2, first.getLine());
+		assertEquals(5, config.getRoutes().get(1).getCoalescing().getWindowMillis());
+		assertEquals(32, config.getRoutes().get(1).getCoalescing().getMaxPerFlush());
+
+		assertEquals(OverflowPolicy.COALESCE, config.getBuffers().get("Synth").getPolicy());
+		assertEquals(512, config.getBuffers().get("Synth").getCapacity());
+		assertEquals(OutputPort.DIN_BYTES_PER_SECOND, (int) config.getSysexRates().get("DIN Out"));
+		assertEquals(122.5, config.getClockBpm(), 0);
+
+		// The same route as the startup rig is fine in a scene
+		assertEquals(1, config.getScenes().size());
+		assertEquals("Chorus", config.getScenes().get(0).getName());
+		assertEquals(9, config.getScenes().get(0).getRoutes().get(0).getLine());
+	}
+
+	@Test
+	public void reportsTheLineOfABadTransformArgument() {
+		assertFails("KeyStep -> Synth\nKeyStep -> Pad | transpose=up\n", "Line 2: ");
+		assertFails("\n\nKeyStep -> Synth | channel=17\n", "Line 3: ");
+		assertFails("KeyStep -> Synth | velocity=steep:2\n", "Line 1: ");
+	}
+
+	@Test
+	public void reportsTheLineOfADuplicateRoute() {
+		assertFails("KeyStep -> Synth\nKeyStep -> Pad\nKeyStep -> Synth | transpose=12\n",
+				"Line 3: Route KeyStep -> Synth is already on line 1");
+		assertFails("scene Verse\nKeyStep -> Synth\nKeyStep -> Synth\n", "Line 3: ");
+	}
+
+	// Devices are only looked up once the router starts; the route is skipped with its line
+	@Test
+	public void reportsTheLineOfARouteToAnUnknownDevice() throws IOException {
+		RoutingConfig config = parse("clock 120\n\nRouter Clock -> No Such Synth 42\n");
+		HeadlessRouter router = new HeadlessRouter();
+		PrintStream err = System.err;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(captured, true));
+		try {
+			assertEquals(0, router.start(config));
+		} finally {
+			System.setErr(err);
+			router.stop();
+		}
+		String log = new String(captured.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(log, log.contains("Line 3: route Router Clock -> No Such Synth 42 failed: No output matching"));
+	}
+
+	private static RoutingConfig parse(String text) throws IOException {
+		return RoutingConfig.parse(new StringReader(text));
+	}
+
+	private static void assertFails(String text, String messageStart) {
+		try {
+			parse(text);
+			fail("parsed " + text);
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(messageStart));
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package midi.router.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import midi.router.stats.PeerStatsSnapshot;
+
+public class NetworkPeerTest {
+	private static final int DATA = 1;
+
+	private DatagramChannel far;
+	private NetworkPeer peer;
+	private InetSocketAddress peerAddress;
+	private final Recorder played = new Recorder();
+
+	@Before
+	public void setUp() throws Exception {
+		far = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+		int port;
+		try (DatagramSocket probe = new DatagramSocket(0)) {
+			port = probe.getLocalPort();
+		}
+		peerAddress = new InetSocketAddress("127.0.0.1", port);
+		peer = new NetworkPeer("test", port, far.getLocalAddress());
+		peer.start();
+		peer.getInput().open();
+		peer.getInput().getTransmitter().setReceiver(played);
+		peer.getOutput().open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		peer.close();
+		far.close();
+	}
+
+	@Test
+	public void malformedPacketsAreRejectedAndThePeerKeepsPlaying() throws Exception {
+		// Length longer than the packet
+		ByteBuffer truncated = header(DATA, 1, 0);
+		truncated.putShort((short) 50).put(new byte[] { (byte) 0x90, 60, 100 });
+		send(far, truncated);
+		// Journal count with no entries behind it
+		ByteBuffer journal = header(DATA, 0, 0);
+		journal.put((byte) 5);
+		send(far, journal);
+		// Event count with no events
+		send(far, header(DATA, 3, 0));
+		// A ping with no time in it
+		send(far, header(2, 0, 0));
+
+		send(far, data(0, note(0x90, 60, 100)));
+		played.await(1);
+		assertArrayEquals(note(0x90, 60, 100), played.get(0));
+		PeerStatsSnapshot stats = peer.getStats().snapshot("test");
+		assertEquals(4, stats.getRejected());
+		assertEquals(1, stats.getPacketsReceived());
+	}
+
+	@Test
+	public void packetsFromAnotherAddressAreRejected() throws Exception {
+		try (DatagramChannel stranger = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+			send(stranger, data(0, note(0x90, 1, 1)));
+			send(far, data(0, note(0x90, 60, 100)));
+			played.await(1);
+			assertArrayEquals(note(0x90, 60, 100), played.get(0));
+			assertEquals(1, peer.getStats().snapshot("test").getRejected());
+		}
+	}
+
+	@Test
+	public void latePacketOnlyPlaysNoteOffsForHeldNotes() throws Exception {
+		send(far, data(0, note(0x90, 60, 100), note(0x90, 61, 100)));
+		// Packet 1 goes missing, and this one carries no journal
+		send(far, data(2));
+		send(far, data(1, note(0x80, 60, 0), note(0x90, 62, 100), note(0x80, 70, 0)));
+		send(far, data(3, note(0x90, 63, 100)));
+
+		played.await(4);
+		assertArrayEquals(note(0x80, 60, 0), played.get(2));
+		assertArrayEquals(note(0x90, 63, 100), played.get(3));
+		PeerStatsSnapshot stats = peer.getStats().snapshot("test");
+		assertEquals(1, stats.getLost());
+		assertEquals(1, stats.getLate());
+	}
+
+	@Test
+	public void batchesNeverCarryMoreEventsThanTheCountHolds() throws Exception {
+		Receiver out = peer.getOutput().getReceiver();
+		ShortMessage tuneRequest = new ShortMessage(ShortMessage.TUNE_REQUEST);
+		for (int i = 0; i < 300; i++) {
+			out.send(tuneRequest, -1);
+		}
+		byte[] dump = new byte[1100];
+		dump[0] = (byte) SysexMessage.SYSTEM_EXCLUSIVE;
+		dump[dump.length - 1] = (byte) ShortMessage.END_OF_EXCLUSIVE;
+		out.send(new SysexMessage(dump, dump.length), -1);
+
+		far.configureBlocking(false);
+		ByteBuffer in = ByteBuffer.allocate(2048);
+		int events = 0;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (events < 300 && System.nanoTime() < deadline) {
+			in.clear();
+			if (far.receive(in) == null) {
+				Thread.sleep(1);
+				continue;
+			}
+			in.flip();
+			in.getShort();
+			int type = in.get();
+			int count = in.get() & 0xFF;
+			in.getInt();
+			if (type != DATA) {
+				continue;
+			}
+			for (int i = 0; i < count; i++) {
+				int length = in.getShort() & 0xFFFF;
+				assertEquals(1, length);
+				assertEquals((byte) ShortMessage.TUNE_REQUEST, in.get());
+			}
+			events += count;
+		}
+		assertEquals(300, events);
+		assertEquals(1, peer.getStats().snapshot("test").getDropped());
+	}
+
+	private static byte[] note(int status, int note, int velocity) {
+		return new byte[] { (byte) status, (byte) note, (byte) velocity };
+	}
+
+	private static ByteBuffer header(int type, int events, int seq) {
+		ByteBuffer packet = ByteBuffer.allocate(1200);
+		packet.putShort((short) 0x4D52);
+		packet.put((byte) type);
+		packet.put((byte) events);
+		packet.putInt(seq);
+		return packet;
+	}
+
+	private static ByteBuffer data(int seq, byte[]... events) {
+		ByteBuffer packet = header(DATA, events.length, seq);
+		for (byte[] event : events) {
+			packet.putShort((short) event.length).put(event);
+		}
+		// No journal entries
+		packet.put((byte) 0);
+		return packet;
+	}
+
+	private void send(DatagramChannel from, ByteBuffer packet) throws IOException {
+		packet.flip();
+		from.send(packet, peerAddress);
+	}
+
+	private static class Recorder implements Receiver {
+		private final List<byte[]> messages = new ArrayList<>();
+
+		@Override
+		public synchronized void send(MidiMessage message, long timeStamp) {
+			// The peer reuses its message, keep a copy
+			messages.add(message.getMessage());
+			notifyAll();
+		}
+
+		synchronized void await(int count) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (messages.size() < count) {
+				long remaining = deadline - System.nanoTime();
+				assertTrue("only " + messages.size() + " of " + count + " played", remaining > 0);
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		}
+
+		synchronized byte[] get(int index) {
+			return messages.get(index);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
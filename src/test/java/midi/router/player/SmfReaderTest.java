@@ -0,0 +1,107 @@
+package midi.router.player;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SmfReaderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void mergesTracksAndFollowsTempoChanges() throws Exception {
+		Sequence sequence = new Sequence(Sequence.PPQ, 480);
+		Track conductor = sequence.createTrack();
+		conductor.add(new MidiEvent(tempo(500_000), 0));
+		// 240 BPM from the second beat on
+		conductor.add(new MidiEvent(tempo(250_000), 480));
+		Track notes = sequence.createTrack();
+		notes.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 0));
+		notes.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 0), 480));
+		notes.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 1, 64, 90), 960));
+		Track sysex = sequence.createTrack();
+		byte[] dump = { (byte) 0xF0, 0x43, 0x10, 0x4C, 0x00, (byte) 0xF7 };
+		sysex.add(new MidiEvent(new SysexMessage(dump, dump.length), 720));
+
+		try (SmfReader reader = SmfReader.open(write(sequence))) {
+			assertNote(reader, 0, 60, 100, 0);
+			assertNote(reader, 0, 60, 0, 500);
+			assertTrue(reader.advance());
+			assertEquals(625, reader.getDueNanos() / 1_000_000);
+			assertArrayEquals(dump, reader.getMessage().getMessage());
+			assertNote(reader, 1, 64, 90, 750);
+			assertFalse(reader.advance());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws Exception {
+		Path path = folder.newFile("not.mid").toPath();
+		Files.write(path, "RIFF0000WAVEfmt ".getBytes("US-ASCII"));
+		SmfReader.open(path);
+	}
+
+	// A track whose header claims more than the file holds plays up to the cut
+	@Test
+	public void playsWhatATruncatedFileHolds() throws Exception {
+		Sequence sequence = new Sequence(Sequence.PPQ, 96);
+		Track track = sequence.createTrack();
+		for (int i = 0; i < 100; i++) {
+			track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), i * 10));
+		}
+		Path path = write(sequence);
+		byte[] bytes = Files.readAllBytes(path);
+		// Keep the header's track length but cut the data short
+		byte[] cut = new byte[bytes.length - 40];
+		System.arraycopy(bytes, 0, cut, 0, cut.length);
+		Files.write(path, cut);
+		int count = 0;
+		try (SmfReader reader = SmfReader.open(path)) {
+			while (reader.advance()) {
+				count++;
+			}
+		}
+		assertTrue(count > 80 && count < 100);
+	}
+
+	private static void assertNote(SmfReader reader, int channel, int note, int velocity, long dueMillis)
+			throws IOException {
+		assertTrue(reader.advance());
+		MidiMessage message = reader.getMessage();
+		ShortMessage shortMessage = (ShortMessage) message;
+		assertEquals(channel, shortMessage.getChannel());
+		assertEquals(note, shortMessage.getData1());
+		assertEquals(velocity, shortMessage.getData2());
+		assertEquals(dueMillis, reader.getDueNanos() / 1_000_000);
+	}
+
+	private static MetaMessage tempo(int microsPerBeat) throws Exception {
+		byte[] data = { (byte) (microsPerBeat >> 16), (byte) (microsPerBeat >> 8), (byte) microsPerBeat };
+		return new MetaMessage(0x51, data, 3);
+	}
+
+	private Path write(Sequence sequence) throws IOException {
+		File file = folder.newFile();
+		MidiSystem.write(sequence, 1, file);
+		return file.toPath();
+	}
+}
@@ -0,0 +1,136 @@
+package midi.router.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import midi.router.engine.CoalesceSettings;
+import midi.router.engine.DeviceId;
+import midi.router.engine.OutputPort;
+import midi.router.engine.Session;
+import midi.router.engine.Session.RouteEntry;
+import midi.router.transform.TransformChain;
+import midi.router.transform.TransformStage;
+import midi.router.transform.Transpose;
+import midi.router.transform.VelocityCurve;
+
+public class SessionStoreTest {
+	private static final DeviceId IN = new DeviceId("in", "v", "d", "1", 0);
+	private static final DeviceId OUT = new DeviceId("out", "v", "d", "1", 0);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void restoredChainBehavesLikeTheSavedOne() throws Exception {
+		TransformChain chain = TransformChain.of(new Transpose(12), VelocityCurve.gamma(0.5));
+		Path path = folder.getRoot().toPath().resolve("session.mrs");
+		SessionStore.save(session(chain), path);
+
+		TransformChain restored = SessionStore.load(path).getRoutes().get(0).getTransforms();
+		assertEquals(chain.getStages().size(), restored.getStages().size());
+		assertArrayEquals(outputs(chain), outputs(restored));
+	}
+
+	@Test
+	public void stageTheFormatCannotStoreFailsTheSave() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("session.mrs");
+		SessionStore.save(session(TransformChain.of(new Transpose(1))), path);
+		byte[] before = Files.readAllBytes(path);
+
+		TransformStage custom = packed -> packed;
+		try {
+			SessionStore.save(session(TransformChain.of(new Transpose(2), custom)), path);
+			fail("saved a route that would restore without its custom stage");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().contains("cannot be saved"));
+		}
+		// The earlier session is untouched and no temporary file is left behind
+		assertArrayEquals(before, Files.readAllBytes(path));
+		assertFalse(Files.exists(path.resolveSibling("session.mrs.tmp")));
+	}
+
+	@Test
+	public void coalesceWindowAbove16BitsSurvives() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("session.mrs");
+		CoalesceSettings coalescing = new CoalesceSettings(100_000, 70_000);
+		SessionStore.save(new Session(Collections.singletonList(new RouteEntry(IN, OUT, TransformChain.EMPTY,
+				coalescing)), Collections.emptyMap()), path);
+		assertEquals(coalescing, SessionStore.load(path).getRoutes().get(0).getCoalescing());
+	}
+
+	@Test
+	public void sysexRatesSurvive() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("session.mrs");
+		Map<DeviceId, Integer> rates = new LinkedHashMap<>();
+		rates.put(OUT, OutputPort.DIN_BYTES_PER_SECOND);
+		rates.put(IN, 0);
+		SessionStore.save(new Session(Collections.<RouteEntry>emptyList(), Collections.emptyMap(), rates), path);
+		assertEquals(rates, SessionStore.load(path).getSysexRates());
+	}
+
+	// Written the way the first version of the format was
+	@Test
+	public void readsVersion1Files() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("session.mrs");
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+			out.writeInt(0x4D52534E);
+			out.writeShort(1);
+			out.writeInt(1);
+			writeId(IN, out);
+			writeId(OUT, out);
+			out.writeByte(0);
+			out.writeBoolean(true);
+			out.writeShort(50_000);
+			out.writeShort(32);
+			out.writeInt(0);
+		}
+		Session session = SessionStore.load(path);
+		assertEquals(new CoalesceSettings(50_000, 32), session.getRoutes().get(0).getCoalescing());
+		assertEquals(OUT, session.getRoutes().get(0).getOutput());
+		assertTrue(session.getSysexRates().isEmpty());
+	}
+
+	private static void writeId(DeviceId id, DataOutputStream out) throws IOException {
+		out.writeUTF(id.getName());
+		out.writeUTF(id.getVendor());
+		out.writeUTF(id.getDescription());
+		out.writeUTF(id.getVersion());
+		out.writeShort(id.getOrdinal());
+	}
+
+	private static Session session(TransformChain chain) {
+		return new Session(Collections.singletonList(new RouteEntry(IN, OUT, chain, null)),
+				Collections.emptyMap());
+	}
+
+	private static int[] outputs(TransformChain chain) {
+		int[] out = new int[128];
+		for (int velocity = 0; velocity < 128; velocity++) {
+			int packed = ShortMessage.NOTE_ON | 60 << 8 | velocity << 16;
+			for (TransformStage stage : chain.getStages()) {
+				if (packed != TransformStage.DROP) {
+					packed = stage.apply(packed);
+				}
+			}
+			out[velocity] = packed;
+		}
+		return out;
+	}
+}
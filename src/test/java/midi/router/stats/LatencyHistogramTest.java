@@ -0,0 +1,62 @@
+package midi.router.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void reportsPercentilesOfKnownValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 1 to 1000 microseconds, one each
+		for (int micros = 1; micros <= 1000; micros++) {
+			histogram.record(micros * 1000L);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1_000_000, histogram.getMax());
+		assertWithinPrecision(500_000, histogram.getValueAtPercentile(50));
+		assertWithinPrecision(990_000, histogram.getValueAtPercentile(99));
+		assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int nanos = 0; nanos < 50; nanos++) {
+			histogram.record(nanos);
+		}
+		assertEquals(24, histogram.getValueAtPercentile(50));
+		assertEquals(49, histogram.getValueAtPercentile(99));
+		assertEquals(49, histogram.getMax());
+	}
+
+	@Test
+	public void oneOutlierOnlyMovesTheTail() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 999; i++) {
+			histogram.record(100_000);
+		}
+		histogram.record(50_000_000);
+		assertWithinPrecision(100_000, histogram.getValueAtPercentile(50));
+		assertWithinPrecision(100_000, histogram.getValueAtPercentile(99));
+		assertEquals(50_000_000, histogram.getMax());
+	}
+
+	@Test
+	public void resetForgetsEverything() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1234);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+
+	// Reported as the upper bound of the value's bucket, 5 bits of precision
+	private static void assertWithinPrecision(long expected, long actual) {
+		assertTrue("expected about " + expected + " but was " + actual,
+				actual >= expected && actual <= expected + expected / 32);
+	}
+}
@@ -0,0 +1,36 @@
+package midi.router.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class StatsRegistryTest {
+
+	// Two units with the same name, told apart by their key
+	@Test
+	public void sameNamedOutputsKeepAnEntryEach() {
+		StatsRegistry registry = new StatsRegistry();
+		OutputStats first = new OutputStats();
+		OutputStats second = new OutputStats();
+		first.recordSent();
+		registry.registerOutput("first", "Synth", first);
+		registry.registerOutput("second", "Synth", second);
+		assertEquals(2, registry.outputSnapshot().size());
+
+		registry.unregisterOutput("first");
+		List<OutputStatsSnapshot> left = registry.outputSnapshot();
+		assertEquals(1, left.size());
+		assertEquals("Synth", left.get(0).getName());
+		assertEquals(0, left.get(0).getSent());
+	}
+
+	@Test
+	public void sameNamedRoutesKeepAnEntryEach() {
+		StatsRegistry registry = new StatsRegistry();
+		registry.register(1, "Keys -> Synth", new RouteStats());
+		registry.register(2, "Keys -> Synth", new RouteStats());
+		assertEquals(2, registry.getRouteCount());
+	}
+}
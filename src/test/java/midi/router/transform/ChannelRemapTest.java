@@ -0,0 +1,40 @@
+package midi.router.transform;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+public class ChannelRemapTest {
+
+	@Test
+	public void movesAMappedChannel() {
+		ChannelRemap remap = ChannelRemap.single(0, 9);
+		assertEquals(ShortMessages.pack(ShortMessage.NOTE_ON | 9, 60, 100),
+				remap.apply(ShortMessages.pack(ShortMessage.NOTE_ON, 60, 100)));
+		assertEquals(ShortMessages.pack(ShortMessage.PITCH_BEND | 9, 0, 64),
+				remap.apply(ShortMessages.pack(ShortMessage.PITCH_BEND, 0, 64)));
+	}
+
+	@Test
+	public void leavesAChannelWithoutAMappingWhereItIs() {
+		ChannelRemap remap = ChannelRemap.single(0, 9);
+		int other = ShortMessages.pack(ShortMessage.NOTE_ON | 4, 60, 100);
+		assertEquals(other, remap.apply(other));
+		assertEquals(4, remap.getTarget(4));
+	}
+
+	@Test
+	public void leavesSystemMessagesAlone() {
+		ChannelRemap remap = ChannelRemap.all(3);
+		assertEquals(ShortMessage.TIMING_CLOCK, remap.apply(ShortMessage.TIMING_CLOCK));
+		int songSelect = ShortMessages.pack(ShortMessage.SONG_SELECT, 2, 0);
+		assertEquals(songSelect, remap.apply(songSelect));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAShortTable() {
+		new ChannelRemap(new int[15]);
+	}
+}
@@ -0,0 +1,36 @@
+package midi.router.transform;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+public class MessageFilterTest {
+
+	@Test
+	public void blocksACommandOnEveryChannel() {
+		MessageFilter filter = MessageFilter.blockingCommands(ShortMessage.PROGRAM_CHANGE);
+		assertEquals(TransformStage.DROP, filter.apply(ShortMessages.pack(ShortMessage.PROGRAM_CHANGE, 5, 0)));
+		assertEquals(TransformStage.DROP, filter.apply(ShortMessages.pack(ShortMessage.PROGRAM_CHANGE | 15, 5, 0)));
+		int note = ShortMessages.pack(ShortMessage.NOTE_ON, 60, 100);
+		assertEquals(note, filter.apply(note));
+	}
+
+	@Test
+	public void blocksEveryChannelMessageOnAChannel() {
+		MessageFilter filter = MessageFilter.blockingChannels(9);
+		assertEquals(TransformStage.DROP, filter.apply(ShortMessages.pack(ShortMessage.NOTE_ON | 9, 36, 100)));
+		assertEquals(TransformStage.DROP, filter.apply(ShortMessages.pack(ShortMessage.PITCH_BEND | 9, 0, 64)));
+		int other = ShortMessages.pack(ShortMessage.NOTE_ON | 8, 36, 100);
+		assertEquals(other, filter.apply(other));
+		assertEquals(ShortMessage.TIMING_CLOCK, filter.apply(ShortMessage.TIMING_CLOCK));
+	}
+
+	@Test
+	public void blocksSingleSystemStatuses() {
+		MessageFilter filter = MessageFilter.blockingStatuses(ShortMessage.ACTIVE_SENSING);
+		assertEquals(TransformStage.DROP, filter.apply(ShortMessage.ACTIVE_SENSING));
+		assertEquals(ShortMessage.TIMING_CLOCK, filter.apply(ShortMessage.TIMING_CLOCK));
+	}
+}
@@ -0,0 +1,55 @@
+package midi.router.transform;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+public class RuleTableTest {
+
+	@Test
+	public void firstMatchingRuleDecides() {
+		RuleTable table = RuleTable.parse("notes ch1 0-59 pass\nnotes drop\n");
+		int low = ShortMessages.pack(ShortMessage.NOTE_ON, 40, 100);
+		int high = ShortMessages.pack(ShortMessage.NOTE_ON, 72, 100);
+		assertEquals(low, table.apply(low));
+		assertEquals(TransformStage.DROP, table.apply(high));
+	}
+
+	@Test
+	public void unmatchedMessagesPass() {
+		RuleTable table = RuleTable.parse("# comment only\nnote-on ch2 drop");
+		int cc = ShortMessages.pack(ShortMessage.CONTROL_CHANGE, 7, 100);
+		int otherChannel = ShortMessages.pack(ShortMessage.NOTE_ON | 0, 60, 100);
+		assertEquals(cc, table.apply(cc));
+		assertEquals(otherChannel, table.apply(otherChannel));
+		assertEquals(TransformStage.DROP, table.apply(ShortMessages.pack(ShortMessage.NOTE_ON | 1, 60, 100)));
+	}
+
+	@Test
+	public void remapsChannelAndKeepsData() {
+		RuleTable table = RuleTable.parse("cc 1 channel=10");
+		int modWheel = ShortMessages.pack(ShortMessage.CONTROL_CHANGE | 2, 1, 99);
+		assertEquals(ShortMessages.pack(ShortMessage.CONTROL_CHANGE | 9, 1, 99), table.apply(modWheel));
+		int volume = ShortMessages.pack(ShortMessage.CONTROL_CHANGE | 2, 7, 99);
+		assertEquals(volume, table.apply(volume));
+	}
+
+	@Test
+	public void systemMessagesKeepTheirStatus() {
+		RuleTable table = RuleTable.parse("clock drop\nall channel=3");
+		assertEquals(TransformStage.DROP, table.apply(ShortMessage.TIMING_CLOCK));
+		assertEquals(ShortMessage.START, table.apply(ShortMessage.START));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsChannelOnSystemKinds() {
+		RuleTable.parse("clock ch1 drop");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBadRanges() {
+		RuleTable.parse("notes 90-20 drop");
+	}
+}
@@ -0,0 +1,48 @@
+package midi.router.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+public class TransformChainTest {
+	private final TransformChain chain = TransformChain.of(new Transpose(12), ChannelRemap.all(3),
+			VelocityCurve.fixed(90));
+
+	@Test
+	public void appliesStagesInOrder() {
+		assertEquals(ShortMessages.pack(ShortMessage.NOTE_ON | 3, 72, 90),
+				chain.apply(ShortMessages.pack(ShortMessage.NOTE_ON, 60, 100)));
+	}
+
+	@Test
+	public void stopsAtTheFirstDrop() {
+		TransformChain dropping = chain.with(MessageFilter.blockingChannels(3));
+		assertEquals(TransformStage.DROP, dropping.apply(ShortMessages.pack(ShortMessage.NOTE_ON, 60, 100)));
+		assertEquals(TransformStage.DROP, chain.apply(ShortMessages.pack(ShortMessage.NOTE_ON, 120, 100)));
+	}
+
+	@Test
+	public void passesRealtimeUntouched() {
+		for (int status = 0xF8; status <= 0xFF; status++) {
+			assertEquals(status, chain.apply(status));
+			assertTrue(chain.passesRealtime(status));
+		}
+	}
+
+	@Test
+	public void realtimeOnlyStopsWhereAStageBlocksIt() {
+		TransformChain blocking = chain.with(MessageFilter.blockingStatuses(ShortMessage.ACTIVE_SENSING));
+		assertFalse(blocking.passesRealtime(ShortMessage.ACTIVE_SENSING));
+		assertTrue(blocking.passesRealtime(ShortMessage.TIMING_CLOCK));
+	}
+
+	@Test
+	public void chainsWithEqualStagesAreEqual() {
+		assertEquals(chain, TransformChain.of(new Transpose(12), ChannelRemap.all(3), VelocityCurve.fixed(90)));
+		assertEquals(TransformChain.EMPTY, TransformChain.of());
+	}
+}
@@ -0,0 +1,44 @@
+package midi.router.transform;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+public class TransposeTest {
+
+	@Test
+	public void shiftsNotesAndPolyPressure() {
+		Transpose up = new Transpose(12);
+		assertEquals(ShortMessages.pack(ShortMessage.NOTE_ON, 72, 100),
+				up.apply(ShortMessages.pack(ShortMessage.NOTE_ON, 60, 100)));
+		assertEquals(ShortMessages.pack(ShortMessage.NOTE_OFF, 72, 0),
+				up.apply(ShortMessages.pack(ShortMessage.NOTE_OFF, 60, 0)));
+		assertEquals(ShortMessages.pack(ShortMessage.POLY_PRESSURE | 3, 72, 40),
+				up.apply(ShortMessages.pack(ShortMessage.POLY_PRESSURE | 3, 60, 40)));
+	}
+
+	// Dropped, not wrapped or clamped, so a note off never lands on another note than its note on
+	@Test
+	public void dropsNotesPushedOutOfRange() {
+		assertEquals(TransformStage.DROP, new Transpose(12).apply(ShortMessages.pack(ShortMessage.NOTE_ON, 120, 100)));
+		assertEquals(TransformStage.DROP, new Transpose(-12).apply(ShortMessages.pack(ShortMessage.NOTE_OFF, 5, 0)));
+		assertEquals(ShortMessages.pack(ShortMessage.NOTE_ON, 127, 100),
+				new Transpose(7).apply(ShortMessages.pack(ShortMessage.NOTE_ON, 120, 100)));
+		assertEquals(ShortMessages.pack(ShortMessage.NOTE_ON, 0, 100),
+				new Transpose(-5).apply(ShortMessages.pack(ShortMessage.NOTE_ON, 5, 100)));
+	}
+
+	@Test
+	public void leavesOtherMessagesAlone() {
+		int cc = ShortMessages.pack(ShortMessage.CONTROL_CHANGE, 120, 0);
+		assertEquals(cc, new Transpose(24).apply(cc));
+		assertEquals(ShortMessage.TIMING_CLOCK, new Transpose(24).apply(ShortMessage.TIMING_CLOCK));
+	}
+
+	@Test
+	public void octavesAddUp() {
+		assertEquals(new Transpose(-22), Transpose.octaves(-2, 2));
+	}
+}
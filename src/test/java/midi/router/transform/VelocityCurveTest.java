@@ -0,0 +1,41 @@
+package midi.router.transform;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+public class VelocityCurveTest {
+
+	@Test
+	public void mapsNoteOnVelocity() {
+		VelocityCurve curve = VelocityCurve.fixed(90);
+		assertEquals(ShortMessages.pack(ShortMessage.NOTE_ON | 2, 60, 90),
+				curve.apply(ShortMessages.pack(ShortMessage.NOTE_ON | 2, 60, 17)));
+	}
+
+	// Velocity 0 is a note off, remapping it would leave the note hanging
+	@Test
+	public void leavesVelocityZeroNoteOnAlone() {
+		int off = ShortMessages.pack(ShortMessage.NOTE_ON, 60, 0);
+		assertEquals(off, VelocityCurve.fixed(90).apply(off));
+		assertEquals(0, VelocityCurve.fixed(90).map(0));
+	}
+
+	@Test
+	public void neverMapsANoteOnDownToZero() {
+		VelocityCurve curve = VelocityCurve.fixed(0);
+		assertEquals(1, ShortMessages.data2(curve.apply(ShortMessages.pack(ShortMessage.NOTE_ON, 60, 64))));
+		assertEquals(1, VelocityCurve.gamma(4.0).map(1));
+	}
+
+	@Test
+	public void leavesNoteOffsAndOtherMessagesAlone() {
+		VelocityCurve curve = VelocityCurve.fixed(90);
+		int off = ShortMessages.pack(ShortMessage.NOTE_OFF, 60, 40);
+		int cc = ShortMessages.pack(ShortMessage.CONTROL_CHANGE, 7, 40);
+		assertEquals(off, curve.apply(off));
+		assertEquals(cc, curve.apply(cc));
+	}
+}